@@ -0,0 +1,44 @@
+#!/usr/bin/env bash
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+# reproduces results/baseline.{json,txt,env}: builds the framework and the benchmarks then runs them
+# with the pinned JMH and JVM options, CPUS=<list> (taskset syntax) pins the benchmark on some cores
+set -euo pipefail
+cd "$(dirname "$0")"
+
+JVM_OPTS="-Xms1g -Xmx1g -XX:+UseParallelGC -XX:+AlwaysPreTouch -Duser.language=en"
+JMH_OPTS="-f 3 -wi 5 -i 5 -w 1s -r 1s"
+PIN=""
+if [ -n "${CPUS:-}" ]; then
+  PIN="taskset -c $CPUS"
+fi
+
+(cd .. && mvn -B -q install -DskipTests -Djacoco.skip=true)
+mvn -B -q package
+
+{
+  echo "commit: $(git rev-parse --short HEAD)"
+  echo "java: $(java -version 2>&1 | tr '\n' ' ')"
+  echo "cpus: ${CPUS:-all} of $(nproc)"
+  echo "cpu model: $(grep -m1 'model name' /proc/cpuinfo 2>/dev/null | cut -d: -f2 | sed 's/^ *//' || echo unknown)"
+  echo "memory: $(grep -m1 MemTotal /proc/meminfo 2>/dev/null | awk '{print $2 " kB"}' || echo unknown)"
+  echo "jvm options: $JVM_OPTS"
+  echo "jmh options: $JMH_OPTS"
+} > results/baseline.env
+
+$PIN java -Duser.language=en -jar target/benchmarks.jar $JMH_OPTS -jvmArgs "$JVM_OPTS" \
+    -rf json -rff results/baseline.json | tee target/baseline.log
+# the summary table only, the console can't always print the ± sign
+sed -n '/^Benchmark /,/^$/p' target/baseline.log | sed -e '/^$/d' -e '/^Benchmark result/d' -e 's/ ? / ± /' > results/baseline.txt
@@ -0,0 +1,83 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.benchmark;
+
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.winegrower.ContextualFramework;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.osgi.framework.Bundle;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BundleEntriesBenchmark {
+    @Param({ "100", "1000" })
+    private int classes;
+
+    private SyntheticClasspath classpath;
+    private ContextualFramework framework;
+    private Bundle bundle;
+    private ClassLoader previous;
+
+    @Setup
+    public void setup() {
+        classpath = SyntheticClasspath.create(1, 0, classes);
+        final Thread thread = Thread.currentThread();
+        previous = thread.getContextClassLoader();
+        thread.setContextClassLoader(classpath.getLoader());
+        framework = new ContextualFramework.Impl(classpath.newConfiguration()).start();
+        bundle = framework.getRegistry().getBundles().values().stream()
+                .filter(it -> it.getBundle().getBundleId() != 0)
+                .findFirst()
+                .orElseThrow(IllegalStateException::new)
+                .getBundle();
+    }
+
+    @TearDown
+    public void tearDown() {
+        framework.stop();
+        Thread.currentThread().setContextClassLoader(previous);
+        classpath.close();
+    }
+
+    @Benchmark
+    public int findEntriesRecursive() {
+        return count(bundle.findEntries("/", "*.class", true));
+    }
+
+    @Benchmark
+    public int findEntriesPattern() {
+        return count(bundle.findEntries("synthetic/bundle0", "Generated1*.class", false));
+    }
+
+    private static int count(final Enumeration<URL> entries) {
+        int count = 0;
+        while (entries != null && entries.hasMoreElements()) {
+            entries.nextElement();
+            count++;
+        }
+        return count;
+    }
+}
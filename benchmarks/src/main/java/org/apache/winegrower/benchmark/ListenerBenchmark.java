@@ -0,0 +1,86 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.winegrower.ContextualFramework;
+import org.apache.winegrower.service.BundleRegistry;
+import org.apache.winegrower.service.OSGiServices;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceRegistration;
+
+// service event dispatch: a registration and its unregistration fan out to all the listeners,
+// half of them match the event (objectClass filter) and the other half filter it out
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ListenerBenchmark {
+    private static final String[] API = { Runnable.class.getName() };
+
+    @Param({ "1", "100", "1000" })
+    private int listeners;
+
+    private OSGiServices registry;
+    private Bundle bundle;
+    private final LongAdder events = new LongAdder();
+    private final Runnable service = () -> {
+    };
+
+    @Setup
+    public void setup() throws InvalidSyntaxException {
+        registry = new OSGiServices();
+        bundle = new BundleRegistry(registry, new ContextualFramework.Configuration()).getBundle(0L).getBundle();
+        final BundleContext context = bundle.getBundleContext();
+        final ServiceListener listener = event -> events.increment();
+        for (int i = 0; i < listeners; i++) {
+            context.addServiceListener(new Delegate(listener),
+                    "(objectClass=" + (i % 2 == 0 ? Runnable.class.getName() : "org.example.Missing") + ")");
+        }
+    }
+
+    @Benchmark
+    public long dispatch() {
+        final ServiceRegistration<?> registration = registry.registerService(API, service, null, bundle);
+        registration.unregister();
+        return events.sum();
+    }
+
+    // distinct instances, the registry deduplicates the same listener
+    private static class Delegate implements ServiceListener {
+        private final ServiceListener delegate;
+
+        private Delegate(final ServiceListener delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void serviceChanged(final ServiceEvent event) {
+            delegate.serviceChanged(event);
+        }
+    }
+}
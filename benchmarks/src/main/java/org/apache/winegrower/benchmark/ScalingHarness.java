@@ -0,0 +1,217 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.benchmark;
+
+import static java.util.stream.Collectors.toList;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+import org.apache.winegrower.ContextualFramework;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceRegistration;
+
+// boots a framework over growing synthetic classpaths and reports how startup, heap and registry latencies scale,
+// it is a one shot measurement (not JMH) to spot the non linear paths, use the JMH benchmarks for precise numbers:
+// java -cp target/benchmarks.jar org.apache.winegrower.benchmark.ScalingHarness [options] [sizes...]
+public final class ScalingHarness {
+    private static final int LOOKUPS = 1000;
+
+    private ScalingHarness() {
+        // no-op
+    }
+
+    public static void main(final String[] args) throws Exception {
+        int classes = 10;
+        int services = 2;
+        int listeners = 2;
+        double plainRatio = 0.1;
+        File csv = null;
+        final List<Integer> sizes = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--classes":
+                    classes = Integer.parseInt(args[++i]);
+                    break;
+                case "--services":
+                    services = Integer.parseInt(args[++i]);
+                    break;
+                case "--listeners":
+                    listeners = Integer.parseInt(args[++i]);
+                    break;
+                case "--plain-ratio":
+                    plainRatio = Double.parseDouble(args[++i]);
+                    break;
+                case "--csv":
+                    csv = new File(args[++i]);
+                    break;
+                default:
+                    sizes.addAll(Stream.of(args[i].split(",")).map(Integer::parseInt).collect(toList()));
+            }
+        }
+        if (sizes.isEmpty()) {
+            sizes.addAll(Stream.of(10, 100, 1000, 10000).collect(toList()));
+        }
+
+        final List<Result> results = new ArrayList<>();
+        System.out.println(Result.HEADER);
+        for (final int size : sizes) {
+            final int plain = (int) Math.round(size * plainRatio);
+            final Result result = run(SyntheticClasspath.builder()
+                    .bundles(size - plain)
+                    .plainJars(plain)
+                    .classesPerJar(classes)
+                    .activators(true)
+                    .servicesPerBundle(services)
+                    .listenersPerBundle(listeners), size);
+            System.out.println(result.toLine());
+            results.add(result);
+        }
+        if (csv != null) {
+            write(csv, results);
+        }
+    }
+
+    private static Result run(final SyntheticClasspath.Builder builder, final int size) throws InvalidSyntaxException {
+        final long generationStart = System.nanoTime();
+        try (final SyntheticClasspath classpath = builder.build()) {
+            final long generation = System.nanoTime() - generationStart;
+            final ContextualFramework.Configuration configuration = classpath.newConfiguration();
+            configuration.setUseScanCache(false);
+
+            final Thread thread = Thread.currentThread();
+            final ClassLoader previous = thread.getContextClassLoader();
+            thread.setContextClassLoader(classpath.getLoader());
+            try {
+                final long heapBefore = usedHeap();
+                final long start = System.nanoTime();
+                final ContextualFramework framework = new ContextualFramework.Impl(configuration).start();
+                final long startup = System.nanoTime() - start;
+                final long heapAfter = usedHeap();
+
+                final BundleContext context = framework.getRegistry().getBundle(0L).getBundle().getBundleContext();
+                final int bundles = framework.getRegistry().getBundles().size() - 1;
+                final int registered = framework.getServices().getServices().size();
+
+                final long lookup = averageNanos(() -> context.getServiceReferences(SyntheticService.class.getName(), null));
+                final long filteredLookup = averageNanos(() -> context.getServiceReferences(
+                        SyntheticService.class.getName(), "(synthetic.index=0)"));
+                final long registration = averageNanos(() -> {
+                    final Hashtable<String, Object> properties = new Hashtable<>();
+                    properties.put("synthetic.index", 0); // matches one listener per bundle
+                    final ServiceRegistration<?> serviceRegistration = context.registerService(
+                            SyntheticService.class.getName(), (SyntheticService) () -> 0, properties);
+                    serviceRegistration.unregister();
+                    return serviceRegistration;
+                });
+
+                final long stopStart = System.nanoTime();
+                framework.stop();
+                final long stop = System.nanoTime() - stopStart;
+                return new Result(size, bundles, registered, generation, startup, stop,
+                        heapAfter - heapBefore, lookup, filteredLookup, registration);
+            } finally {
+                thread.setContextClassLoader(previous);
+            }
+        }
+    }
+
+    private static long averageNanos(final Task task) throws InvalidSyntaxException {
+        for (int i = 0; i < LOOKUPS / 10; i++) { // warmup
+            task.run();
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            task.run();
+        }
+        return (System.nanoTime() - start) / LOOKUPS;
+    }
+
+    private static long usedHeap() {
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static void write(final File csv, final List<Result> results) throws IOException {
+        if (csv.getParentFile() != null) {
+            csv.getParentFile().mkdirs();
+        }
+        try (final PrintStream out = new PrintStream(Files.newOutputStream(csv.toPath()))) {
+            out.println(Result.CSV_HEADER);
+            results.forEach(it -> out.println(it.toCsv()));
+        }
+    }
+
+    private interface Task {
+        Object run() throws InvalidSyntaxException;
+    }
+
+    private static class Result {
+        private static final String HEADER = String.format(Locale.ROOT, "%8s %8s %9s %10s %10s %10s %10s %12s %12s %12s",
+                "jars", "bundles", "services", "gen (ms)", "start (ms)", "stop (ms)", "heap (MB)",
+                "lookup (ns)", "filter (ns)", "register (ns)");
+        private static final String CSV_HEADER =
+                "jars,bundles,services,generation_ms,startup_ms,stop_ms,heap_bytes,lookup_ns,filtered_lookup_ns,registration_ns";
+
+        private final int jars;
+        private final int bundles;
+        private final int services;
+        private final long generation;
+        private final long startup;
+        private final long stop;
+        private final long heap;
+        private final long lookup;
+        private final long filteredLookup;
+        private final long registration;
+
+        private Result(final int jars, final int bundles, final int services, final long generation, final long startup,
+                       final long stop, final long heap, final long lookup, final long filteredLookup,
+                       final long registration) {
+            this.jars = jars;
+            this.bundles = bundles;
+            this.services = services;
+            this.generation = generation;
+            this.startup = startup;
+            this.stop = stop;
+            this.heap = heap;
+            this.lookup = lookup;
+            this.filteredLookup = filteredLookup;
+            this.registration = registration;
+        }
+
+        private String toLine() {
+            return String.format(Locale.ROOT, "%8d %8d %9d %10d %10d %10d %10.1f %12d %12d %12d",
+                    jars, bundles, services, generation / 1_000_000, startup / 1_000_000, stop / 1_000_000,
+                    heap / (1024. * 1024), lookup, filteredLookup, registration);
+        }
+
+        private String toCsv() {
+            return jars + "," + bundles + "," + services + "," + generation / 1_000_000 + "," + startup / 1_000_000 + "," +
+                    stop / 1_000_000 + "," + heap + "," + lookup + "," + filteredLookup + "," + registration;
+        }
+    }
+}
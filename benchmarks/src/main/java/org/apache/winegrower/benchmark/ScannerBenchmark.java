@@ -0,0 +1,70 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.winegrower.ContextualFramework;
+import org.apache.winegrower.scanner.ScanCache;
+import org.apache.winegrower.scanner.StandaloneScanner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// half of the jars are bundles (manifest read) and half are plain jars (bytecode scanned by the contributors)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ScannerBenchmark {
+    @Param({ "10", "100" })
+    private int jars;
+
+    @Param({ "false", "true" })
+    private boolean scanCache;
+
+    private SyntheticClasspath classpath;
+    private ContextualFramework.Configuration configuration;
+
+    @Setup
+    public void setup() {
+        classpath = SyntheticClasspath.create(jars / 2, jars / 2, 50);
+        configuration = classpath.newConfiguration();
+        configuration.setUseScanCache(scanCache);
+        ScanCache.get().clear();
+    }
+
+    @TearDown
+    public void tearDown() {
+        classpath.close();
+    }
+
+    @Benchmark
+    public int scan() {
+        final Thread thread = Thread.currentThread();
+        final ClassLoader previous = thread.getContextClassLoader();
+        thread.setContextClassLoader(classpath.getLoader());
+        try {
+            final StandaloneScanner scanner = new StandaloneScanner(configuration, null);
+            return scanner.findOSGiBundles().size() + scanner.findPotentialOSGiBundles().size();
+        } finally {
+            thread.setContextClassLoader(previous);
+        }
+    }
+}
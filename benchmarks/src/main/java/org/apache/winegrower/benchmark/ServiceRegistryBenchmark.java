@@ -0,0 +1,100 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.benchmark;
+
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.winegrower.ContextualFramework;
+import org.apache.winegrower.api.InjectedService;
+import org.apache.winegrower.service.BundleRegistry;
+import org.apache.winegrower.service.OSGiServices;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+
+// registry operations against a registry already containing services of the looked up type
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ServiceRegistryBenchmark {
+    private static final String[] API = { Api.class.getName() };
+
+    @Param({ "10", "1000" })
+    private int services;
+
+    private OSGiServices registry;
+    private Bundle bundle;
+    private BundleContext context;
+    private final Api service = () -> "benchmark";
+
+    @Setup
+    public void setup() {
+        registry = new OSGiServices();
+        bundle = new BundleRegistry(registry, new ContextualFramework.Configuration()).getBundle(0L).getBundle();
+        context = bundle.getBundleContext();
+        for (int i = 0; i < services; i++) {
+            final Hashtable<String, Object> properties = new Hashtable<>();
+            properties.put("rank", i);
+            properties.put("name", "service-" + i);
+            registry.registerService(API, service, properties, bundle);
+        }
+    }
+
+    @Benchmark
+    public Object registerUnregister() {
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put("rank", -1);
+        final ServiceRegistration<?> registration = registry.registerService(API, service, properties, bundle);
+        registration.unregister();
+        return registration;
+    }
+
+    @Benchmark
+    public ServiceReference<?>[] getServiceReferences() throws InvalidSyntaxException {
+        return context.getServiceReferences(Api.class.getName(), null);
+    }
+
+    @Benchmark
+    public ServiceReference<?>[] getServiceReferencesFiltered() throws InvalidSyntaxException {
+        return context.getServiceReferences(Api.class.getName(), "(&(rank>=5)(name=service-5))");
+    }
+
+    @Benchmark
+    public Injected inject() {
+        return registry.inject(new Injected());
+    }
+
+    public interface Api {
+        String get();
+    }
+
+    public static class Injected {
+        @InjectedService
+        private Api api;
+
+        @InjectedService(dynamic = true)
+        private Api dynamicApi;
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.winegrower.ContextualFramework;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// full lifecycle of a framework over bundles, the scan cache is disabled to measure a cold instance
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StartupBenchmark {
+    @Param({ "10", "100" })
+    private int bundles;
+
+    private SyntheticClasspath classpath;
+
+    @Setup
+    public void setup() {
+        classpath = SyntheticClasspath.create(bundles, 0, 10);
+    }
+
+    @TearDown
+    public void tearDown() {
+        classpath.close();
+    }
+
+    @Benchmark
+    public int startStop() {
+        final ContextualFramework.Configuration configuration = classpath.newConfiguration();
+        configuration.setUseScanCache(false);
+        final Thread thread = Thread.currentThread();
+        final ClassLoader previous = thread.getContextClassLoader();
+        thread.setContextClassLoader(classpath.getLoader());
+        try (final ContextualFramework framework = new ContextualFramework.Impl(configuration).start()) {
+            return framework.getRegistry().getBundles().size();
+        } finally {
+            thread.setContextClassLoader(previous);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Hashtable;
+
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceListener;
+
+// parent of the generated activators which only pass the counts to the constructor, each listener
+// only matches the services of one index to keep the fan-out realistic (most listeners filter the event out)
+public class SyntheticActivator implements BundleActivator {
+    private final int services;
+    private final int listeners;
+    private final Collection<ServiceListener> registeredListeners = new ArrayList<>();
+
+    public SyntheticActivator(final int services, final int listeners) {
+        this.services = services;
+        this.listeners = listeners;
+    }
+
+    @Override
+    public void start(final BundleContext context) throws InvalidSyntaxException {
+        for (int i = 0; i < listeners; i++) {
+            final ServiceListener listener = event -> {
+                // no-op
+            };
+            context.addServiceListener(listener,
+                    "(&(objectClass=" + SyntheticService.class.getName() + ")(synthetic.index=" + i + "))");
+            registeredListeners.add(listener);
+        }
+        for (int i = 0; i < services; i++) {
+            final int index = i;
+            final Hashtable<String, Object> properties = new Hashtable<>();
+            properties.put("synthetic.bundle", context.getBundle().getSymbolicName());
+            properties.put("synthetic.index", index);
+            context.registerService(SyntheticService.class, () -> index, properties);
+        }
+    }
+
+    @Override
+    public void stop(final BundleContext context) {
+        registeredListeners.forEach(context::removeServiceListener);
+        registeredListeners.clear();
+    }
+}
@@ -0,0 +1,255 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.benchmark;
+
+import static java.util.stream.Collectors.toSet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+import org.apache.winegrower.ContextualFramework;
+import org.apache.winegrower.api.ImplicitActivator;
+import org.apache.winegrower.scanner.ScanCache;
+import org.apache.xbean.asm7.ClassWriter;
+import org.apache.xbean.asm7.MethodVisitor;
+import org.apache.xbean.asm7.Opcodes;
+import org.apache.xbean.asm7.Type;
+
+// generated jars (OSGi bundles or plain jars) with empty classes so the scanning has real bytecode to visit and
+// optionally an activator registering services and listeners, the configuration only scans these jars
+public class SyntheticClasspath implements AutoCloseable {
+    private final File root;
+    private final List<File> jars;
+    private final URLClassLoader loader;
+
+    private SyntheticClasspath(final File root, final List<File> jars) {
+        this.root = root;
+        this.jars = jars;
+        this.loader = new URLClassLoader(jars.stream().map(SyntheticClasspath::toUrl).toArray(URL[]::new),
+                Thread.currentThread().getContextClassLoader());
+    }
+
+    public static SyntheticClasspath create(final int bundles, final int plainJars, final int classesPerJar) {
+        return builder().bundles(bundles).plainJars(plainJars).classesPerJar(classesPerJar).build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public ClassLoader getLoader() {
+        return loader;
+    }
+
+    public List<File> getJars() {
+        return jars;
+    }
+
+    // everything already visible from the benchmark loader (its own classpath) is excluded from the scanning
+    public ContextualFramework.Configuration newConfiguration() {
+        final Set<String> excluded = Stream.of(System.getProperty("java.class.path", "").split(File.pathSeparator))
+                .map(File::new)
+                .map(File::getName)
+                .filter(it -> !it.isEmpty())
+                .collect(toSet());
+        final ContextualFramework.Configuration configuration = new ContextualFramework.Configuration();
+        configuration.setEnableJmx(false);
+        configuration.setJarFilter(excluded::contains);
+        configuration.setScanningExcludes(excluded);
+        configuration.setWorkDir(new File(root, "work"));
+        return configuration;
+    }
+
+    @Override
+    public void close() {
+        try {
+            loader.close();
+        } catch (final IOException e) {
+            // no-op
+        }
+        jars.forEach(ScanCache.get()::invalidate);
+        try {
+            Files.walkFileTree(root.toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    return super.visitFile(file, attrs);
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(final Path dir, final IOException exc) throws IOException {
+                    Files.delete(dir);
+                    return super.postVisitDirectory(dir, exc);
+                }
+            });
+        } catch (final IOException e) {
+            // no-op
+        }
+    }
+
+    private static URL toUrl(final File file) {
+        try {
+            return file.toURI().toURL();
+        } catch (final MalformedURLException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    public static class Builder {
+        private int bundles;
+        private int plainJars;
+        private int classesPerJar = 10;
+        private boolean activators;
+        private int servicesPerBundle;
+        private int listenersPerBundle;
+
+        private Builder() {
+            // no-op
+        }
+
+        // jars with an OSGi manifest
+        public Builder bundles(final int bundles) {
+            this.bundles = bundles;
+            return this;
+        }
+
+        // jars without manifest, visited by the manifest contributors and only deployed if they have an activator
+        public Builder plainJars(final int plainJars) {
+            this.plainJars = plainJars;
+            return this;
+        }
+
+        public Builder classesPerJar(final int classesPerJar) {
+            this.classesPerJar = classesPerJar;
+            return this;
+        }
+
+        // bundles get a Bundle-Activator header and plain jars an @ImplicitActivator class
+        public Builder activators(final boolean activators) {
+            this.activators = activators;
+            return this;
+        }
+
+        public Builder servicesPerBundle(final int servicesPerBundle) {
+            this.servicesPerBundle = servicesPerBundle;
+            return this;
+        }
+
+        public Builder listenersPerBundle(final int listenersPerBundle) {
+            this.listenersPerBundle = listenersPerBundle;
+            return this;
+        }
+
+        public SyntheticClasspath build() {
+            try {
+                final File root = Files.createTempDirectory("winegrower-synthetic-").toFile();
+                final List<File> jars = new ArrayList<>(bundles + plainJars);
+                for (int i = 0; i < bundles; i++) {
+                    jars.add(writeJar(new File(root, "synthetic-bundle-" + i + ".jar"), "synthetic.bundle" + i, true));
+                }
+                for (int i = 0; i < plainJars; i++) {
+                    jars.add(writeJar(new File(root, "synthetic-plain-" + i + ".jar"), "synthetic.plain" + i, false));
+                }
+                return new SyntheticClasspath(root, jars);
+            } catch (final IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private File writeJar(final File jar, final String pkg, final boolean osgi) throws IOException {
+            final String folder = pkg.replace('.', '/') + '/';
+            final String activator = folder + "GeneratedActivator";
+            final Manifest manifest = new Manifest();
+            manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+            if (osgi) {
+                manifest.getMainAttributes().putValue("Bundle-SymbolicName", pkg);
+                manifest.getMainAttributes().putValue("Bundle-Version", "1.0.0");
+                manifest.getMainAttributes().putValue("Export-Package", pkg);
+                if (activators) {
+                    manifest.getMainAttributes().putValue("Bundle-Activator", activator.replace('/', '.'));
+                }
+            }
+            try (final JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest)) {
+                final StringBuilder parent = new StringBuilder();
+                for (final String segment : folder.split("/")) {
+                    out.putNextEntry(new JarEntry(parent.append(segment).append('/').toString()));
+                    out.closeEntry();
+                }
+                for (int i = 0; i < classesPerJar; i++) {
+                    out.putNextEntry(new JarEntry(folder + "Generated" + i + ".class"));
+                    out.write(emptyClass(folder + "Generated" + i));
+                    out.closeEntry();
+                }
+                if (activators) {
+                    out.putNextEntry(new JarEntry(activator + ".class"));
+                    out.write(activatorClass(activator, !osgi));
+                    out.closeEntry();
+                }
+            }
+            return jar;
+        }
+
+        private static byte[] emptyClass(final String internalName) {
+            final ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+            writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, internalName, null, "java/lang/Object", null);
+            final MethodVisitor constructor = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+            constructor.visitCode();
+            constructor.visitVarInsn(Opcodes.ALOAD, 0);
+            constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+            constructor.visitInsn(Opcodes.RETURN);
+            constructor.visitMaxs(0, 0);
+            constructor.visitEnd();
+            writer.visitEnd();
+            return writer.toByteArray();
+        }
+
+        // public class GeneratedActivator extends SyntheticActivator { public GeneratedActivator() { super(s, l); } }
+        private byte[] activatorClass(final String internalName, final boolean implicit) {
+            final String parent = Type.getInternalName(SyntheticActivator.class);
+            final ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+            writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, internalName, null, parent, null);
+            if (implicit) {
+                writer.visitAnnotation(Type.getDescriptor(ImplicitActivator.class), true).visitEnd();
+            }
+            final MethodVisitor constructor = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+            constructor.visitCode();
+            constructor.visitVarInsn(Opcodes.ALOAD, 0);
+            constructor.visitLdcInsn(servicesPerBundle);
+            constructor.visitLdcInsn(listenersPerBundle);
+            constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, parent, "<init>", "(II)V", false);
+            constructor.visitInsn(Opcodes.RETURN);
+            constructor.visitMaxs(0, 0);
+            constructor.visitEnd();
+            writer.visitEnd();
+            return writer.toByteArray();
+        }
+    }
+}
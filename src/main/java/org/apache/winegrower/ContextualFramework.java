@@ -19,6 +19,7 @@ import static java.util.stream.Collectors.toList;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -28,6 +29,8 @@ import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
 import java.util.UUID;
@@ -37,12 +40,27 @@ import java.util.function.Predicate;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.winegrower.api.BundleLookup;
+import org.apache.winegrower.api.KeyValueStore;
+import org.apache.winegrower.cm.ConfigurationAdminImpl;
+import org.apache.winegrower.deployer.BundleImpl;
 import org.apache.winegrower.deployer.OSGiBundleLifecycle;
+import org.apache.winegrower.deployer.ResourceIndex;
+import org.apache.winegrower.ds.ComponentRuntime;
+import org.apache.winegrower.event.EventAdminImpl;
+import org.apache.winegrower.metrics.ServiceRegistryMetrics;
+import org.apache.winegrower.metrics.ServiceRegistryMetricsMXBean;
 import org.apache.winegrower.scanner.StandaloneScanner;
 import org.apache.winegrower.scanner.manifest.ActivatorManifestContributor;
+import org.apache.winegrower.scanner.manifest.DeclarativeServicesManifestContributor;
 import org.apache.winegrower.scanner.manifest.KarafCommandManifestContributor;
 import org.apache.winegrower.scanner.manifest.ManifestContributor;
 import org.apache.winegrower.service.BundleRegistry;
+import org.apache.winegrower.service.ClassBundleIndex;
+import org.apache.winegrower.service.KeyValueStoreFactory;
 import org.apache.winegrower.service.OSGiServices;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -73,10 +91,33 @@ public interface ContextualFramework extends AutoCloseable {
 
         private File workDir = new File(System.getProperty("java.io.tmpdir"), "karaf-boot_" + UUID.randomUUID().toString());
         private Predicate<String> jarFilter = it -> DEFAULT_EXCLUSIONS.stream().anyMatch(it::startsWith);
+        private boolean enableJmx;
+        private boolean enableMetrics;
+        private boolean enableBundleLookup;
+        private boolean enableKeyValueStore;
+        private boolean enableConfigurationAdmin;
+        private boolean enableEventAdmin;
+        private boolean enableDeclarativeServices;
+        private long archiveIdleTimeout = 30000L;
+        private boolean useResourceIndex;
+        private boolean useScanCache = true;
+        private boolean batchStartupEvents;
+        private boolean isolatedClassLoaders;
+        private File dataDir;
+        private File configurationDirectory;
+        private long configurationPollInterval = 2000L;
+        private Map<String, Integer> startLevels = new HashMap<>();
+        private int initialBundleStartLevel = 1;
+        private Integer frameworkStartLevel;
+        private int startLevelThreads = 1;
+        private int eventAdminThreads = Runtime.getRuntime().availableProcessors();
+        private long eventHandlerTimeout = 5000L;
+        private int keyValueSegmentSize = 1024 * 1024;
         private Collection<String> scanningIncludes;
         private Collection<String> scanningExcludes;
         private Collection<ManifestContributor> manifestContributors = Stream.concat(
-                Stream.of(new KarafCommandManifestContributor(), new ActivatorManifestContributor()), // built-in
+                Stream.of(new KarafCommandManifestContributor(), new ActivatorManifestContributor(),
+                        new DeclarativeServicesManifestContributor()), // built-in
                 StreamSupport.stream(ServiceLoader.load(ManifestContributor.class).spliterator(), false) // extensions
         ).collect(toList());
 
@@ -112,6 +153,97 @@ public interface ContextualFramework extends AutoCloseable {
             this.workDir = workDir;
         }
 
+        public File getDataDir() {
+            return dataDir;
+        }
+
+        // persistent bundle data area (Bundle#getDataFile) keyed by symbolic name and version, not deleted on stop,
+        // when null the work directory is used
+        public void setDataDir(final File dataDir) {
+            this.dataDir = dataDir;
+        }
+
+        public File getConfigurationDirectory() {
+            return configurationDirectory;
+        }
+
+        // directory of <pid>.cfg and <factory pid>-<name>.cfg files loaded by the ConfigurationAdmin service
+        public void setConfigurationDirectory(final File configurationDirectory) {
+            this.configurationDirectory = configurationDirectory;
+        }
+
+        public long getConfigurationPollInterval() {
+            return configurationPollInterval;
+        }
+
+        // duration (ms) between two checks of the configuration directory, negative to only load it at startup
+        public void setConfigurationPollInterval(final long configurationPollInterval) {
+            this.configurationPollInterval = configurationPollInterval;
+        }
+
+        public Map<String, Integer> getStartLevels() {
+            return startLevels;
+        }
+
+        // start level per bundle symbolic name or jar name, it overrides the Bundle-StartLevel manifest header
+        public void setStartLevels(final Map<String, Integer> startLevels) {
+            this.startLevels = startLevels;
+        }
+
+        public int getInitialBundleStartLevel() {
+            return initialBundleStartLevel;
+        }
+
+        // start level of the bundles without explicit one
+        public void setInitialBundleStartLevel(final int initialBundleStartLevel) {
+            this.initialBundleStartLevel = initialBundleStartLevel;
+        }
+
+        public Integer getFrameworkStartLevel() {
+            return frameworkStartLevel;
+        }
+
+        // start level reached by start(), when null all the bundle levels are started
+        public void setFrameworkStartLevel(final Integer frameworkStartLevel) {
+            this.frameworkStartLevel = frameworkStartLevel;
+        }
+
+        public int getStartLevelThreads() {
+            return startLevelThreads;
+        }
+
+        // number of threads starting the bundles of a start level, 1 starts them sequentially in jar order
+        public void setStartLevelThreads(final int startLevelThreads) {
+            this.startLevelThreads = startLevelThreads;
+        }
+
+        public int getEventAdminThreads() {
+            return eventAdminThreads;
+        }
+
+        // number of threads delivering the events posted with EventAdmin#postEvent
+        public void setEventAdminThreads(final int eventAdminThreads) {
+            this.eventAdminThreads = eventAdminThreads;
+        }
+
+        public long getEventHandlerTimeout() {
+            return eventHandlerTimeout;
+        }
+
+        // duration (ms) after which a slow event handler is blacklisted, negative to never blacklist handlers
+        public void setEventHandlerTimeout(final long eventHandlerTimeout) {
+            this.eventHandlerTimeout = eventHandlerTimeout;
+        }
+
+        public int getKeyValueSegmentSize() {
+            return keyValueSegmentSize;
+        }
+
+        // size (bytes) of the memory mapped segments backing the KeyValueStore service
+        public void setKeyValueSegmentSize(final int keyValueSegmentSize) {
+            this.keyValueSegmentSize = keyValueSegmentSize;
+        }
+
         public void setJarFilter(final Predicate<String> jarFilter) {
             this.jarFilter = jarFilter;
         }
@@ -119,11 +251,121 @@ public interface ContextualFramework extends AutoCloseable {
         public Predicate<String> getJarFilter() {
             return jarFilter;
         }
+
+        public long getArchiveIdleTimeout() {
+            return archiveIdleTimeout;
+        }
+
+        // duration (ms) after which an unused opened archive is closed, negative to keep them opened until stop
+        public void setArchiveIdleTimeout(final long archiveIdleTimeout) {
+            this.archiveIdleTimeout = archiveIdleTimeout;
+        }
+
+        public boolean isUseResourceIndex() {
+            return useResourceIndex;
+        }
+
+        // index all the classpath resources at startup to avoid classloader lookups for Bundle#getResource(s)
+        public void setUseResourceIndex(final boolean useResourceIndex) {
+            this.useResourceIndex = useResourceIndex;
+        }
+
+        public boolean isUseScanCache() {
+            return useScanCache;
+        }
+
+        // share the scanning results of unchanged jars between the framework instances of the JVM, see ScanCache
+        public void setUseScanCache(final boolean useScanCache) {
+            this.useScanCache = useScanCache;
+        }
+
+        public boolean isBatchStartupEvents() {
+            return batchStartupEvents;
+        }
+
+        // deliver the bundle events of the startup once all bundles are started, late listeners get all of them
+        public void setBatchStartupEvents(final boolean batchStartupEvents) {
+            this.batchStartupEvents = batchStartupEvents;
+        }
+
+        public boolean isIsolatedClassLoaders() {
+            return isolatedClassLoaders;
+        }
+
+        // each bundle gets its own classloader delegating to the bundles owning the packages it does not contain
+        public void setIsolatedClassLoaders(final boolean isolatedClassLoaders) {
+            this.isolatedClassLoaders = isolatedClassLoaders;
+        }
+
+        public boolean isEnableMetrics() {
+            return enableMetrics;
+        }
+
+        // register the service registry metrics as a ServiceRegistryMetricsMXBean service
+        public void setEnableMetrics(final boolean enableMetrics) {
+            this.enableMetrics = enableMetrics;
+        }
+
+        public boolean isEnableBundleLookup() {
+            return enableBundleLookup;
+        }
+
+        // register the BundleLookup service (class to bundle resolution)
+        public void setEnableBundleLookup(final boolean enableBundleLookup) {
+            this.enableBundleLookup = enableBundleLookup;
+        }
+
+        public boolean isEnableKeyValueStore() {
+            return enableKeyValueStore;
+        }
+
+        // register the KeyValueStore service, stores live in the data area of the consuming bundles
+        public void setEnableKeyValueStore(final boolean enableKeyValueStore) {
+            this.enableKeyValueStore = enableKeyValueStore;
+        }
+
+        public boolean isEnableConfigurationAdmin() {
+            return enableConfigurationAdmin;
+        }
+
+        // register the ConfigurationAdmin service, configurations are saved in the framework bundle data area
+        // so they are only kept between two runs when a data directory is set
+        public void setEnableConfigurationAdmin(final boolean enableConfigurationAdmin) {
+            this.enableConfigurationAdmin = enableConfigurationAdmin;
+        }
+
+        public boolean isEnableEventAdmin() {
+            return enableEventAdmin;
+        }
+
+        // register the EventAdmin service
+        public void setEnableEventAdmin(final boolean enableEventAdmin) {
+            this.enableEventAdmin = enableEventAdmin;
+        }
+
+        public boolean isEnableDeclarativeServices() {
+            return enableDeclarativeServices;
+        }
+
+        // manage the declarative services components of the bundles (Service-Component)
+        public void setEnableDeclarativeServices(final boolean enableDeclarativeServices) {
+            this.enableDeclarativeServices = enableDeclarativeServices;
+        }
+
+        public boolean isEnableJmx() {
+            return enableJmx;
+        }
+
+        // expose the service registry metrics as a platform MBean
+        public void setEnableJmx(final boolean enableJmx) {
+            this.enableJmx = enableJmx;
+        }
     }
 
 
     class Impl implements ContextualFramework {
         private final static Logger LOGGER = LoggerFactory.getLogger(ContextualFramework.class);
+        private final static AtomicLong INSTANCES = new AtomicLong();
 
         private final OSGiServices services = new OSGiServices();
         private final BundleRegistry registry;
@@ -131,6 +373,11 @@ public interface ContextualFramework extends AutoCloseable {
         private final Configuration configuration;
 
         private long startTime = -1;
+        private ObjectName metricsName;
+        private KeyValueStoreFactory keyValueStores;
+        private ConfigurationAdminImpl configurationAdmin;
+        private EventAdminImpl eventAdmin;
+        private ComponentRuntime componentRuntime;
 
         public Impl(final Configuration configuration) {
             this.configuration = configuration;
@@ -152,23 +399,95 @@ public interface ContextualFramework extends AutoCloseable {
             startTime = System.currentTimeMillis();
             LOGGER.info("Starting Apache Karaf Contextual Framework on {}",
                     LocalDateTime.ofInstant(Instant.ofEpochMilli(startTime), ZoneId.systemDefault()));
-            final StandaloneScanner scanner = new StandaloneScanner(configuration, registry.getFramework());
-            final AtomicLong bundleIdGenerator = new AtomicLong(1);
-            Stream.concat(scanner.findOSGiBundles().stream(), scanner.findPotentialOSGiBundles().stream())
-                    .sorted(comparing(b -> b.getJar().getName()))
-                    .map(it -> new OSGiBundleLifecycle(it.getManifest(), it.getJar(), services, registry, configuration, bundleIdGenerator.getAndIncrement()))
-                    .peek(OSGiBundleLifecycle::start)
-                    .peek(it -> registry.getBundles().put(it.getBundle().getBundleId(), it))
-                    .forEach(bundle -> LOGGER.debug("Bundle {}", bundle));
+            try {
+                startServices();
+                deployBundles();
+            } catch (final RuntimeException | Error e) { // don't leak what was already started
+                try {
+                    stop();
+                } catch (final RuntimeException re) {
+                    e.addSuppressed(re);
+                }
+                throw e;
+            }
             return this;
         }
 
+        private void startServices() {
+            final BundleImpl frameworkBundle = registry.getBundle(0L).getBundle();
+            registerMetrics();
+            if (configuration.isEnableBundleLookup()) {
+                frameworkBundle.getBundleContext().registerService(
+                        new String[]{ BundleLookup.class.getName(), ClassBundleIndex.class.getName() }, registry.getClassIndex(), null);
+            }
+            if (configuration.isEnableKeyValueStore()) {
+                keyValueStores = new KeyValueStoreFactory(configuration.getKeyValueSegmentSize());
+                frameworkBundle.getBundleContext().registerService(KeyValueStore.class, keyValueStores, null);
+            }
+            if (configuration.isEnableConfigurationAdmin()) {
+                configurationAdmin = new ConfigurationAdminImpl(frameworkBundle.getBundleContext(),
+                        new File(frameworkBundle.getDataFileBase(), "configurations.dat"),
+                        configuration.getConfigurationDirectory(), configuration.getConfigurationPollInterval()).start();
+            }
+            if (configuration.isEnableEventAdmin()) {
+                eventAdmin = new EventAdminImpl(frameworkBundle.getBundleContext(),
+                        configuration.getEventAdminThreads(), configuration.getEventHandlerTimeout()).start();
+            }
+            if (configuration.isEnableDeclarativeServices()) {
+                componentRuntime = new ComponentRuntime(frameworkBundle.getBundleContext()).start();
+            }
+        }
+
+        private void deployBundles() {
+            if (configuration.isUseResourceIndex()) {
+                registry.setResourceIndex(ResourceIndex.build(Thread.currentThread().getContextClassLoader(), registry.getArchives()));
+            }
+            final StandaloneScanner scanner = new StandaloneScanner(configuration, registry.getFramework(), registry.getArchives());
+            final AtomicLong bundleIdGenerator = new AtomicLong(1);
+            if (configuration.isBatchStartupEvents()) {
+                registry.getBundleListeners().startBatch();
+            }
+            try {
+                final List<OSGiBundleLifecycle> bundles = Stream.concat(
+                        scanner.findOSGiBundles().stream(), scanner.findPotentialOSGiBundles().stream())
+                        .sorted(comparing(b -> b.getJar().getName()))
+                        .map(it -> new OSGiBundleLifecycle(it.getManifest(), it.getJar(), services, registry, configuration, bundleIdGenerator.getAndIncrement()))
+                        .peek(registry.getStartLevel()::install)
+                        .peek(bundle -> LOGGER.debug("Bundle {}", bundle))
+                        .collect(toList());
+                registry.registerAll(bundles);
+                registry.getStartLevel().launch();
+            } finally {
+                registry.getBundleListeners().endBatch();
+            }
+        }
+
         @Override
         public synchronized void stop() {
             LOGGER.info("Stopping Apache Karaf Contextual Framework on {}", LocalDateTime.now());
-            final Map<Long, OSGiBundleLifecycle> bundles = registry.getBundles();
-            bundles.forEach((k, v) -> v.stop());
-            bundles.clear();
+            registry.getStartLevel().shutdown();
+            if (componentRuntime != null) {
+                componentRuntime.close();
+                componentRuntime = null;
+            }
+            registry.getBundle(0L).stop();
+            if (eventAdmin != null) {
+                eventAdmin.close();
+                eventAdmin = null;
+            }
+            if (configurationAdmin != null) {
+                configurationAdmin.close();
+                configurationAdmin = null;
+            }
+            registry.unregisterAll(registry.getBundles().keySet().stream().filter(id -> id != 0L).collect(toList())) // keep the framework one
+                    .forEach(OSGiBundleLifecycle::close);
+            registry.getArchives().close();
+            registry.setResourceIndex(null);
+            unregisterMetrics();
+            if (keyValueStores != null) {
+                keyValueStores.close();
+                keyValueStores = null;
+            }
             if (configuration.getWorkDir().exists()) {
                 try {
                     Files.walkFileTree(configuration.getWorkDir().toPath(), new SimpleFileVisitor<Path>() {
@@ -190,6 +509,41 @@ public interface ContextualFramework extends AutoCloseable {
             }
         }
 
+        private void registerMetrics() {
+            final ServiceRegistryMetrics metrics = services.getMetrics();
+            if (configuration.isEnableMetrics()) {
+                registry.getBundle(0L).getBundle().getBundleContext().registerService(
+                        new String[]{ ServiceRegistryMetricsMXBean.class.getName(), ServiceRegistryMetrics.class.getName() },
+                        metrics, null);
+            }
+            if (!configuration.isEnableJmx()) {
+                return;
+            }
+            try {
+                metricsName = new ObjectName("org.apache.winegrower:type=ServiceRegistry,framework=" + INSTANCES.incrementAndGet());
+                ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, metricsName);
+            } catch (final JMException e) {
+                metricsName = null;
+                LOGGER.warn("Can't register service registry metrics MBean", e);
+            }
+        }
+
+        // the metrics service itself is unregistered with the framework bundle services
+        private void unregisterMetrics() {
+            if (metricsName != null) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+                } catch (final JMException e) {
+                    LOGGER.warn("Can't unregister service registry metrics MBean", e);
+                }
+                metricsName = null;
+            }
+        }
+
+        public ObjectName getMetricsName() {
+            return metricsName;
+        }
+
         @Override
         public OSGiServices getServices() {
             return services;
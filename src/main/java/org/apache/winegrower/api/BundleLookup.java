@@ -0,0 +1,29 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.api;
+
+import org.osgi.framework.Bundle;
+
+/**
+ * Framework service (registered by the framework bundle) finding the bundle a class comes from.
+ * All bundles share the same classloader by default so {@link org.osgi.framework.FrameworkUtil#getBundle(Class)}
+ * can't be used, this is the replacement.
+ */
+public interface BundleLookup {
+    /**
+     * @param type the class to find the bundle for.
+     * @return the bundle the class belongs to (code source first, then package) or null if it is not in any bundle.
+     */
+    Bundle getBundle(Class<?> type);
+}
@@ -21,4 +21,27 @@ import java.lang.annotation.Target;
 
 @Target(FIELD)
 @Retention(RUNTIME)
-public @interface InjectedService {}
+public @interface InjectedService {
+    /**
+     * @return true to inject a proxy always delegating to the current best ranked service
+     * instead of the service available at injection time, only interfaces are supported.
+     */
+    boolean dynamic() default false;
+
+    /**
+     * @return what a dynamic proxy does when it is invoked and no service is registered.
+     */
+    Missing missing() default Missing.FAIL;
+
+    enum Missing {
+        /**
+         * Throw an {@link IllegalStateException}.
+         */
+        FAIL,
+
+        /**
+         * Return the default value of the method return type (null, 0, false).
+         */
+        DEFAULT
+    }
+}
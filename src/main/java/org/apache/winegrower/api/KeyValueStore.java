@@ -0,0 +1,54 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.api;
+
+import java.util.Collection;
+
+/**
+ * Persistent key-value store registered by the framework bundle: each consuming bundle gets its own store,
+ * stored in its data area ({@link org.osgi.framework.BundleContext#getDataFile(String)}) so it survives restarts
+ * when the framework is configured with a data directory.
+ *
+ * Implementations are thread safe, values are copied in and out.
+ */
+public interface KeyValueStore {
+    /**
+     * @param key the entry key.
+     * @return the value or null if missing.
+     */
+    byte[] get(String key);
+
+    /**
+     * @param key a non empty key.
+     * @param value the value to store, can't be null.
+     */
+    void put(String key, byte[] value);
+
+    /**
+     * @param key the key to remove.
+     * @return true if the key existed.
+     */
+    boolean remove(String key);
+
+    /**
+     * @return a snapshot of the keys of the store.
+     */
+    Collection<String> keys();
+
+    /**
+     * Rewrites the live entries to reclaim the space of overwritten and removed ones,
+     * it is also done automatically when enough space is wasted.
+     */
+    void compact();
+}
@@ -0,0 +1,36 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.api;
+
+/**
+ * Prototype scoped services (registered with a {@link org.osgi.framework.PrototypeServiceFactory})
+ * can be pooled setting {@link #MAX_SIZE} in their registration properties:
+ * instances released through {@link org.osgi.framework.ServiceObjects#ungetService(Object)}
+ * are kept and reused instead of being destroyed by the factory.
+ *
+ * If the service instance implements this interface it is reset before being reused.
+ */
+public interface PooledPrototype {
+    /**
+     * Maximum number of idle instances kept (Integer or String), 0 or missing disables the pooling.
+     */
+    String MAX_SIZE = "winegrower.prototype.pool.maxSize";
+
+    /**
+     * Duration in milliseconds (Long, Integer or String) after which an idle instance is destroyed, default to 60000.
+     */
+    String IDLE_TIMEOUT = "winegrower.prototype.pool.idleTimeout";
+
+    void reset();
+}
@@ -0,0 +1,258 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.cm;
+
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Dictionary;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.winegrower.service.CompiledFilter;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.cm.Configuration;
+import org.osgi.service.cm.ConfigurationAdmin;
+import org.osgi.service.cm.ReadOnlyConfigurationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// framework wide configuration admin: the configurations are an in memory map of immutable states,
+// changes are persisted and delivered to managed services asynchronously by a single thread (see ConfigurationDispatcher)
+// locations are stored but not enforced, all bundles see all configurations
+public class ConfigurationAdminImpl implements ConfigurationAdmin, AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConfigurationAdminImpl.class);
+
+    private final BundleContext context;
+    private final ConfigurationStore store;
+    private final Map<String, ConfigurationState> states = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor;
+    private final ConfigurationDispatcher dispatcher;
+    private final ConfigurationDirectory directory;
+    private final long pollInterval;
+    private ServiceRegistration<ConfigurationAdmin> registration;
+
+    /**
+     * @param context the framework bundle context used to register the service and find managed services.
+     * @param storage the file the configurations are persisted to.
+     * @param directory a directory containing .cfg files or null.
+     * @param pollInterval the .cfg files change detection interval (ms), negative or zero to only load them at startup.
+     */
+    public ConfigurationAdminImpl(final BundleContext context, final File storage, final File directory, final long pollInterval) {
+        this.context = context;
+        this.store = new ConfigurationStore(storage);
+        this.pollInterval = pollInterval;
+        this.executor = new ScheduledThreadPoolExecutor(1, r -> {
+            final Thread thread = new Thread(r, "winegrower-configuration-admin");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.dispatcher = new ConfigurationDispatcher(this, context, executor);
+        this.directory = directory == null ? null : new ConfigurationDirectory(this, directory);
+    }
+
+    public synchronized ConfigurationAdminImpl start() {
+        try {
+            store.read().forEach(state -> states.put(state.getPid(), state));
+        } catch (final IOException e) {
+            LOGGER.warn("Can't read configurations from {}", store.getFile(), e);
+        }
+        if (directory != null) {
+            directory.scan();
+            if (pollInterval > 0) {
+                executor.scheduleWithFixedDelay(directory::scan, pollInterval, pollInterval, MILLISECONDS);
+            }
+        }
+        registration = context.registerService(ConfigurationAdmin.class, this, null);
+        dispatcher.start();
+        return this;
+    }
+
+    // waits for the pending deliveries
+    public void flush(final long timeout, final TimeUnit unit) {
+        try {
+            executor.submit(() -> {}).get(timeout, unit);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException | TimeoutException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (registration == null) {
+                return;
+            }
+            dispatcher.stop();
+            try {
+                registration.unregister();
+            } catch (final IllegalStateException ise) {
+                // already unregistered with the framework bundle services
+            }
+            registration = null;
+        }
+        executor.shutdown(); // pending deliveries are still done
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                LOGGER.warn("Configuration deliveries didn't complete in time");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (dispatcher.resetPendingPersistence()) { // changed after the shutdown
+            persist();
+        }
+    }
+
+    @Override
+    public Configuration createFactoryConfiguration(final String factoryPid) {
+        return createFactoryConfiguration(factoryPid, null);
+    }
+
+    @Override
+    public Configuration createFactoryConfiguration(final String factoryPid, final String location) {
+        final String pid = factoryPid + '.' + UUID.randomUUID().toString();
+        states.put(pid, new ConfigurationState(pid, factoryPid, location, null, 0, false));
+        return new ConfigurationImpl(this, pid, factoryPid);
+    }
+
+    @Override
+    public Configuration getConfiguration(final String pid, final String location) {
+        final ConfigurationState state = states.computeIfAbsent(pid, k -> new ConfigurationState(pid, null, location, null, 0, false));
+        return new ConfigurationImpl(this, pid, state.getFactoryPid());
+    }
+
+    @Override
+    public Configuration getConfiguration(final String pid) {
+        return getConfiguration(pid, null);
+    }
+
+    @Override
+    public Configuration getFactoryConfiguration(final String factoryPid, final String name, final String location) {
+        final String pid = factoryPid + '~' + name;
+        states.computeIfAbsent(pid, k -> new ConfigurationState(pid, factoryPid, location, null, 0, false));
+        return new ConfigurationImpl(this, pid, factoryPid);
+    }
+
+    @Override
+    public Configuration getFactoryConfiguration(final String factoryPid, final String name) {
+        return getFactoryConfiguration(factoryPid, name, null);
+    }
+
+    @Override
+    public Configuration[] listConfigurations(final String filter) throws InvalidSyntaxException {
+        final CompiledFilter compiled = filter == null ? null : CompiledFilter.compile(filter);
+        final Configuration[] configurations = states.values().stream()
+                .filter(it -> it.getRawProperties() != null)
+                .filter(it -> compiled == null || compiled.match(it.getProperties()))
+                .map(it -> new ConfigurationImpl(this, it.getPid(), it.getFactoryPid()))
+                .toArray(Configuration[]::new);
+        return configurations.length == 0 ? null : configurations;
+    }
+
+    ServiceReference<ConfigurationAdmin> getReference() {
+        final ServiceRegistration<ConfigurationAdmin> current = registration;
+        return current == null ? null : current.getReference();
+    }
+
+    ConfigurationState findState(final String pid) {
+        return states.get(pid);
+    }
+
+    Collection<ConfigurationState> getStates() {
+        return states.values();
+    }
+
+    ConfigurationState getState(final String pid) {
+        final ConfigurationState state = states.get(pid);
+        if (state == null) {
+            throw new IllegalStateException("Configuration " + pid + " was deleted");
+        }
+        return state;
+    }
+
+    boolean update(final String pid, final Dictionary<String, ?> dictionary, final boolean ifDifferent) throws IOException {
+        final ConfigurationProperties properties = new ConfigurationProperties(dictionary);
+        properties.remove(Constants.SERVICE_PID);
+        properties.remove(SERVICE_FACTORYPID);
+        properties.remove(SERVICE_BUNDLELOCATION);
+        properties.asMap().forEach(ConfigurationStore::validate);
+        properties.asMap().replaceAll((k, v) -> ConfigurationState.copy(v));
+        final ConfigurationState state;
+        synchronized (this) {
+            final ConfigurationState current = getState(pid);
+            if (current.isReadOnly()) {
+                throw new ReadOnlyConfigurationException("Configuration " + pid + " is read only");
+            }
+            if (ifDifferent && properties.equals(current.getRawProperties())) {
+                return false;
+            }
+            state = current.withProperties(properties);
+            states.put(pid, state);
+        }
+        dispatcher.onChange(pid, state.getFactoryPid());
+        return true;
+    }
+
+    void delete(final String pid) {
+        final ConfigurationState state;
+        synchronized (this) {
+            state = states.remove(pid);
+            if (state == null) {
+                throw new IllegalStateException("Configuration " + pid + " was deleted");
+            }
+        }
+        dispatcher.onChange(pid, state.getFactoryPid());
+    }
+
+    synchronized void setLocation(final String pid, final String location) {
+        states.put(pid, getState(pid).withLocation(location));
+        dispatcher.onStateChange();
+    }
+
+    synchronized void setReadOnly(final String pid, final Configuration.ConfigurationAttribute[] attributes,
+                                  final boolean readOnly) {
+        if (attributes == null || !asList(attributes).contains(Configuration.ConfigurationAttribute.READ_ONLY)) {
+            return;
+        }
+        states.put(pid, getState(pid).withReadOnly(readOnly));
+        dispatcher.onStateChange();
+    }
+
+    void persist() {
+        synchronized (store) {
+            try {
+                store.write(new ArrayList<>(states.values()));
+            } catch (final IOException e) {
+                LOGGER.warn("Can't persist configurations to {}", store.getFile(), e);
+            }
+        }
+    }
+}
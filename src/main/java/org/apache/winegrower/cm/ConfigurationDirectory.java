@@ -0,0 +1,129 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.cm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.osgi.service.cm.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// <pid>.cfg and <factory pid>-<name>.cfg properties files, a file is reloaded when its timestamp or size changes
+// and the configuration is only updated (and redelivered) when the content actually differs
+class ConfigurationDirectory {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConfigurationDirectory.class);
+    private static final String EXTENSION = ".cfg";
+
+    private final ConfigurationAdminImpl admin;
+    private final File directory;
+    private final Map<File, Stamp> files = new HashMap<>(); // guarded by this
+
+    ConfigurationDirectory(final ConfigurationAdminImpl admin, final File directory) {
+        this.admin = admin;
+        this.directory = directory;
+    }
+
+    synchronized void scan() {
+        final File[] found = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        final Set<File> seen = new HashSet<>();
+        if (found != null) {
+            for (final File file : found) {
+                seen.add(file);
+                final Stamp stamp = new Stamp(file.lastModified(), file.length());
+                if (!stamp.equals(files.get(file))) {
+                    files.put(file, stamp);
+                    load(file);
+                }
+            }
+        }
+        files.keySet().removeIf(file -> {
+            if (seen.contains(file)) {
+                return false;
+            }
+            remove(file);
+            return true;
+        });
+    }
+
+    private void load(final File file) {
+        final Properties properties = new Properties();
+        try (final InputStream stream = Files.newInputStream(file.toPath())) {
+            properties.load(stream);
+        } catch (final IOException e) {
+            LOGGER.warn("Can't read {}", file, e);
+            return;
+        }
+        final Hashtable<String, Object> values = new Hashtable<>();
+        properties.stringPropertyNames().forEach(key -> values.put(key, properties.getProperty(key)));
+        try {
+            configuration(file).updateIfDifferent(values);
+        } catch (final IOException | RuntimeException e) {
+            LOGGER.warn("Can't update configuration from {}", file, e);
+        }
+    }
+
+    private void remove(final File file) {
+        try {
+            configuration(file).delete();
+        } catch (final IllegalStateException ise) {
+            // already deleted
+        } catch (final IOException e) {
+            LOGGER.warn("Can't delete configuration of {}", file, e);
+        }
+    }
+
+    private Configuration configuration(final File file) {
+        final String name = file.getName().substring(0, file.getName().length() - EXTENSION.length());
+        final int separator = name.indexOf('-');
+        return separator > 0 ?
+                admin.getFactoryConfiguration(name.substring(0, separator), name.substring(separator + 1), null) :
+                admin.getConfiguration(name, null);
+    }
+
+    private static class Stamp {
+        private final long lastModified;
+        private final long length;
+
+        private Stamp(final long lastModified, final long length) {
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!Stamp.class.isInstance(o)) {
+                return false;
+            }
+            final Stamp stamp = Stamp.class.cast(o);
+            return lastModified == stamp.lastModified && length == stamp.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(lastModified) * 31 + Long.hashCode(length);
+        }
+    }
+}
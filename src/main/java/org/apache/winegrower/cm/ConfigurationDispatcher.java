@@ -0,0 +1,291 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.cm;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.cm.ConfigurationEvent;
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ConfigurationListener;
+import org.osgi.service.cm.ManagedService;
+import org.osgi.service.cm.ManagedServiceFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// coalesces the changes per pid until the delivery thread runs: a pid updated N times before the delivery
+// is delivered once with its latest state, and a batch resolves the managed services once for all its pids.
+// the managed services and listeners are got once and kept until they are unregistered or the dispatcher stops
+class ConfigurationDispatcher implements ServiceListener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConfigurationDispatcher.class);
+    private static final String FILTER = "(|(" + Constants.OBJECTCLASS + "=" + ManagedService.class.getName() + ")" +
+            "(" + Constants.OBJECTCLASS + "=" + ManagedServiceFactory.class.getName() + ")" +
+            "(" + Constants.OBJECTCLASS + "=" + ConfigurationListener.class.getName() + "))";
+
+    private final ConfigurationAdminImpl admin;
+    private final BundleContext context;
+    private final Executor executor;
+    private final Map<ServiceReference<?>, Object> services = new ConcurrentHashMap<>();
+
+    // guarded by this
+    private final Map<String, String> pendingConfigurations = new LinkedHashMap<>(); // pid -> factory pid
+    private final Set<ServiceReference<?>> pendingServices = new LinkedHashSet<>();
+    private boolean pendingPersistence;
+    private boolean scheduled;
+
+    ConfigurationDispatcher(final ConfigurationAdminImpl admin, final BundleContext context, final Executor executor) {
+        this.admin = admin;
+        this.context = context;
+        this.executor = executor;
+    }
+
+    void start() {
+        try {
+            context.addServiceListener(this, FILTER);
+            synchronized (this) {
+                pendingServices.addAll(references(ManagedService.class));
+                pendingServices.addAll(references(ManagedServiceFactory.class));
+                schedule();
+            }
+        } catch (final InvalidSyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void stop() {
+        context.removeServiceListener(this);
+        services.keySet().forEach(this::release);
+    }
+
+    @Override
+    public void serviceChanged(final ServiceEvent event) {
+        switch (event.getType()) {
+            case ServiceEvent.REGISTERED:
+            case ServiceEvent.MODIFIED:
+                synchronized (this) {
+                    pendingServices.add(event.getServiceReference());
+                    schedule();
+                }
+                break;
+            case ServiceEvent.UNREGISTERING:
+                release(event.getServiceReference());
+                break;
+            default:
+        }
+    }
+
+    private void release(final ServiceReference<?> reference) {
+        if (services.remove(reference) != null) {
+            try {
+                context.ungetService(reference);
+            } catch (final RuntimeException re) {
+                LOGGER.debug("Can't release {}", reference, re);
+            }
+        }
+    }
+
+    synchronized void onChange(final String pid, final String factoryPid) {
+        pendingConfigurations.put(pid, factoryPid);
+        pendingPersistence = true;
+        schedule();
+    }
+
+    synchronized void onStateChange() {
+        pendingPersistence = true;
+        schedule();
+    }
+
+    synchronized boolean resetPendingPersistence() {
+        final boolean pending = pendingPersistence;
+        pendingPersistence = false;
+        return pending;
+    }
+
+    // caller holds the lock
+    private void schedule() {
+        if (scheduled) {
+            return;
+        }
+        scheduled = true;
+        try {
+            executor.execute(this::drain);
+        } catch (final RejectedExecutionException ree) { // closing
+            scheduled = false;
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            final Map<String, String> configurations;
+            final Collection<ServiceReference<?>> services;
+            final boolean persist;
+            synchronized (this) {
+                if (pendingConfigurations.isEmpty() && pendingServices.isEmpty() && !pendingPersistence) {
+                    scheduled = false;
+                    return;
+                }
+                configurations = new LinkedHashMap<>(pendingConfigurations);
+                services = new ArrayList<>(pendingServices);
+                persist = pendingPersistence;
+                pendingConfigurations.clear();
+                pendingServices.clear();
+                pendingPersistence = false;
+            }
+            try {
+                if (persist) {
+                    admin.persist();
+                }
+                if (!configurations.isEmpty()) {
+                    deliver(configurations);
+                }
+                services.forEach(this::initialize);
+            } catch (final RuntimeException re) {
+                LOGGER.error("Configuration delivery failed", re);
+            }
+        }
+    }
+
+    private void deliver(final Map<String, String> configurations) {
+        final Map<String, List<ServiceReference<ManagedService>>> managedServices = index(ManagedService.class);
+        final Map<String, List<ServiceReference<ManagedServiceFactory>>> factories = index(ManagedServiceFactory.class);
+        final Collection<ConfigurationEvent> events = new ArrayList<>(configurations.size());
+        configurations.forEach((pid, factoryPid) -> {
+            final ConfigurationState state = admin.findState(pid);
+            final boolean deleted = state == null || state.getRawProperties() == null;
+            if (factoryPid == null) {
+                managedServices.getOrDefault(pid, emptyList()).forEach(reference -> withService(reference, service ->
+                        service.updated(deleted ? null : state.getProperties())));
+            } else {
+                factories.getOrDefault(factoryPid, emptyList()).forEach(reference -> withService(reference, service -> {
+                    if (deleted) {
+                        service.deleted(pid);
+                    } else {
+                        service.updated(pid, state.getProperties());
+                    }
+                }));
+            }
+            if (admin.getReference() != null) {
+                events.add(new ConfigurationEvent(admin.getReference(),
+                        deleted ? ConfigurationEvent.CM_DELETED : ConfigurationEvent.CM_UPDATED, factoryPid, pid));
+            }
+        });
+        if (!events.isEmpty()) {
+            references(ConfigurationListener.class).forEach(reference -> withService(reference, listener -> events.forEach(listener::configurationEvent)));
+        }
+    }
+
+    // first delivery for a new (or modified) managed service, it gets the current configurations
+    private void initialize(final ServiceReference<?> reference) {
+        if (reference.getBundle() == null) { // already unregistered
+            return;
+        }
+        final List<String> classes = Arrays.asList(String[].class.cast(reference.getProperty(Constants.OBJECTCLASS)));
+        final Collection<String> pids = pids(reference);
+        if (classes.contains(ManagedService.class.getName())) {
+            pids.forEach(pid -> {
+                final ConfigurationState state = admin.findState(pid);
+                withService(cast(reference, ManagedService.class), service -> service.updated(
+                        state == null || state.getFactoryPid() != null ? null : state.getProperties()));
+            });
+        }
+        if (classes.contains(ManagedServiceFactory.class.getName())) {
+            admin.getStates().stream()
+                 .filter(state -> state.getRawProperties() != null && pids.contains(state.getFactoryPid()))
+                 .forEach(state -> withService(cast(reference, ManagedServiceFactory.class),
+                         service -> service.updated(state.getPid(), state.getProperties())));
+        }
+    }
+
+    private <T> Map<String, List<ServiceReference<T>>> index(final Class<T> type) {
+        final Map<String, List<ServiceReference<T>>> index = new HashMap<>();
+        references(type).forEach(reference -> pids(reference).forEach(pid -> index.computeIfAbsent(pid, k -> new ArrayList<>()).add(reference)));
+        return index;
+    }
+
+    private <T> Collection<ServiceReference<T>> references(final Class<T> type) {
+        try {
+            return context.getServiceReferences(type, null);
+        } catch (final InvalidSyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void withService(final ServiceReference<T> reference, final Delivery<T> delivery) {
+        T service = (T) services.get(reference);
+        if (service == null) { // not in computeIfAbsent, the service can be a factory
+            service = context.getService(reference);
+            if (service == null) {
+                return;
+            }
+            final T existing = (T) services.putIfAbsent(reference, service);
+            if (existing != null) {
+                context.ungetService(reference);
+                service = existing;
+            }
+        }
+        try {
+            delivery.deliver(service);
+        } catch (final ConfigurationException ce) {
+            LOGGER.warn("Invalid configuration for {}: {}", reference, ce.getMessage(), ce);
+        } catch (final RuntimeException re) {
+            LOGGER.error("Configuration delivery to {} failed", reference, re);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> ServiceReference<T> cast(final ServiceReference<?> reference, final Class<T> type) {
+        return (ServiceReference<T>) reference;
+    }
+
+    private static Collection<String> pids(final ServiceReference<?> reference) {
+        final Object pid = reference.getProperty(Constants.SERVICE_PID);
+        if (pid == null) {
+            return emptyList();
+        }
+        if (String[].class.isInstance(pid)) {
+            return Arrays.asList(String[].class.cast(pid));
+        }
+        if (Collection.class.isInstance(pid)) {
+            final Collection<String> pids = new ArrayList<>();
+            Collection.class.cast(pid).forEach(it -> pids.add(String.valueOf(it)));
+            return pids;
+        }
+        return singletonList(String.valueOf(pid));
+    }
+
+    @FunctionalInterface
+    private interface Delivery<T> {
+        void deliver(T service) throws ConfigurationException;
+    }
+}
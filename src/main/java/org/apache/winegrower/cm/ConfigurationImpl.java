@@ -0,0 +1,126 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.cm;
+
+import java.io.IOException;
+import java.util.Dictionary;
+import java.util.Set;
+
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.cm.Configuration;
+
+// lightweight handle, the state is always read from the admin snapshot
+class ConfigurationImpl implements Configuration {
+    private final ConfigurationAdminImpl admin;
+    private final String pid;
+    private final String factoryPid;
+
+    ConfigurationImpl(final ConfigurationAdminImpl admin, final String pid, final String factoryPid) {
+        this.admin = admin;
+        this.pid = pid;
+        this.factoryPid = factoryPid;
+    }
+
+    @Override
+    public String getPid() {
+        return pid;
+    }
+
+    @Override
+    public String getFactoryPid() {
+        return factoryPid;
+    }
+
+    @Override
+    public Dictionary<String, Object> getProperties() {
+        return state().getProperties();
+    }
+
+    @Override
+    public Dictionary<String, Object> getProcessedProperties(final ServiceReference<?> reference) {
+        return getProperties(); // no ConfigurationPlugin support
+    }
+
+    @Override
+    public void update(final Dictionary<String, ?> properties) throws IOException {
+        admin.update(pid, properties, false);
+    }
+
+    @Override
+    public boolean updateIfDifferent(final Dictionary<String, ?> properties) throws IOException {
+        return admin.update(pid, properties, true);
+    }
+
+    @Override
+    public void update() throws IOException {
+        final ConfigurationState state = state();
+        if (state.getRawProperties() != null) {
+            admin.update(pid, state.getRawProperties(), false);
+        }
+    }
+
+    @Override
+    public void delete() throws IOException {
+        admin.delete(pid);
+    }
+
+    @Override
+    public void setBundleLocation(final String location) {
+        admin.setLocation(pid, location);
+    }
+
+    @Override
+    public String getBundleLocation() {
+        return state().getLocation();
+    }
+
+    @Override
+    public long getChangeCount() {
+        return state().getChangeCount();
+    }
+
+    @Override
+    public void addAttributes(final ConfigurationAttribute... attrs) throws IOException {
+        admin.setReadOnly(pid, attrs, true);
+    }
+
+    @Override
+    public Set<ConfigurationAttribute> getAttributes() {
+        return state().getAttributes();
+    }
+
+    @Override
+    public void removeAttributes(final ConfigurationAttribute... attrs) throws IOException {
+        admin.setReadOnly(pid, attrs, false);
+    }
+
+    private ConfigurationState state() {
+        return admin.getState(pid);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        return this == o || (ConfigurationImpl.class.isInstance(o) && pid.equals(ConfigurationImpl.class.cast(o).pid));
+    }
+
+    @Override
+    public int hashCode() {
+        return pid.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "Configuration{pid=" + pid + (factoryPid != null ? ", factoryPid=" + factoryPid : "") + '}';
+    }
+}
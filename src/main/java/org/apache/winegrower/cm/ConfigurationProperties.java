@@ -0,0 +1,101 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.cm;
+
+import static java.util.Collections.enumeration;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+// case insensitive but case preserving dictionary as required by the configuration admin spec
+class ConfigurationProperties extends Dictionary<String, Object> {
+    private final Map<String, Object> values = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    ConfigurationProperties() {
+        // no-op
+    }
+
+    ConfigurationProperties(final Dictionary<String, ?> source) {
+        final Enumeration<String> keys = source.keys();
+        while (keys.hasMoreElements()) {
+            final String key = keys.nextElement();
+            if (values.put(key, source.get(key)) != null) {
+                throw new IllegalArgumentException("Duplicated property (case insensitive): " + key);
+            }
+        }
+    }
+
+    Map<String, Object> asMap() {
+        return values;
+    }
+
+    @Override
+    public int size() {
+        return values.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    @Override
+    public Enumeration<String> keys() {
+        return enumeration(new ArrayList<>(values.keySet()));
+    }
+
+    @Override
+    public Enumeration<Object> elements() {
+        return enumeration(new ArrayList<>(values.values()));
+    }
+
+    @Override
+    public Object get(final Object key) {
+        return String.class.isInstance(key) ? values.get(key) : null;
+    }
+
+    @Override
+    public Object put(final String key, final Object value) {
+        return values.put(key, value);
+    }
+
+    @Override
+    public Object remove(final Object key) {
+        return String.class.isInstance(key) ? values.remove(key) : null;
+    }
+
+    @Override // arrays are compared by content to detect actual changes
+    public boolean equals(final Object obj) {
+        if (!ConfigurationProperties.class.isInstance(obj)) {
+            return false;
+        }
+        final Map<String, Object> other = ConfigurationProperties.class.cast(obj).values;
+        return values.size() == other.size() && values.entrySet().stream()
+                .allMatch(e -> other.containsKey(e.getKey()) && Objects.deepEquals(e.getValue(), other.get(e.getKey())));
+    }
+
+    @Override
+    public int hashCode() {
+        return values.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return values.toString();
+    }
+}
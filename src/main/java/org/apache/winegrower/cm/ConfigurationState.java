@@ -0,0 +1,113 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.cm;
+
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Set;
+
+import org.osgi.framework.Constants;
+import org.osgi.service.cm.Configuration;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+// immutable state of a configuration, updates replace the instance in the admin snapshot
+class ConfigurationState {
+    private final String pid;
+    private final String factoryPid;
+    private final String location;
+    private final ConfigurationProperties properties; // null until the first update
+    private final long changeCount;
+    private final boolean readOnly;
+
+    ConfigurationState(final String pid, final String factoryPid, final String location,
+                       final ConfigurationProperties properties, final long changeCount, final boolean readOnly) {
+        this.pid = pid;
+        this.factoryPid = factoryPid;
+        this.location = location;
+        this.properties = properties;
+        this.changeCount = changeCount;
+        this.readOnly = readOnly;
+    }
+
+    ConfigurationState withProperties(final ConfigurationProperties properties) {
+        return new ConfigurationState(pid, factoryPid, location, properties, changeCount + 1, readOnly);
+    }
+
+    ConfigurationState withLocation(final String location) {
+        return new ConfigurationState(pid, factoryPid, location, properties, changeCount, readOnly);
+    }
+
+    ConfigurationState withReadOnly(final boolean readOnly) {
+        return new ConfigurationState(pid, factoryPid, location, properties, changeCount, readOnly);
+    }
+
+    String getPid() {
+        return pid;
+    }
+
+    String getFactoryPid() {
+        return factoryPid;
+    }
+
+    String getLocation() {
+        return location;
+    }
+
+    ConfigurationProperties getRawProperties() {
+        return properties;
+    }
+
+    long getChangeCount() {
+        return changeCount;
+    }
+
+    boolean isReadOnly() {
+        return readOnly;
+    }
+
+    Set<Configuration.ConfigurationAttribute> getAttributes() {
+        return readOnly ? singleton(Configuration.ConfigurationAttribute.READ_ONLY) : emptySet();
+    }
+
+    // copy given to consumers, includes the framework owned properties
+    ConfigurationProperties getProperties() {
+        if (properties == null) {
+            return null;
+        }
+        final ConfigurationProperties copy = new ConfigurationProperties();
+        properties.asMap().forEach((k, v) -> copy.put(k, copy(v)));
+        copy.put(Constants.SERVICE_PID, pid);
+        if (factoryPid != null) {
+            copy.put(ConfigurationAdmin.SERVICE_FACTORYPID, factoryPid);
+        }
+        return copy;
+    }
+
+    static Object copy(final Object value) {
+        if (value != null && value.getClass().isArray()) {
+            final int length = Array.getLength(value);
+            final Object copy = Array.newInstance(value.getClass().getComponentType(), length);
+            System.arraycopy(value, 0, copy, 0, length);
+            return copy;
+        }
+        if (Collection.class.isInstance(value)) {
+            return new ArrayList<>(Collection.class.cast(value));
+        }
+        return value;
+    }
+}
@@ -0,0 +1,259 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.cm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+// compact binary snapshot of the configurations: typed values (spec types only), written to a temporary file
+// then moved over the previous one so a crash never leaves a partial snapshot
+class ConfigurationStore {
+    private static final int VERSION = 1;
+    private static final Class<?>[] TYPES = {
+            String.class, Integer.class, Long.class, Boolean.class, Double.class,
+            Float.class, Short.class, Byte.class, Character.class
+    };
+    private static final Class<?>[] PRIMITIVES = {
+            null, int.class, long.class, boolean.class, double.class,
+            float.class, short.class, byte.class, char.class
+    };
+    private static final int ARRAY = TYPES.length;
+    private static final int COLLECTION = ARRAY + 1;
+
+    private final File file;
+
+    ConfigurationStore(final File file) {
+        this.file = file;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    Collection<ConfigurationState> read() throws IOException {
+        if (!file.isFile()) {
+            return new ArrayList<>();
+        }
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            final int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported configuration snapshot version " + version + " in " + file);
+            }
+            final int count = in.readInt();
+            final Collection<ConfigurationState> states = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                final String pid = in.readUTF();
+                final String factoryPid = in.readBoolean() ? in.readUTF() : null;
+                final String location = in.readBoolean() ? in.readUTF() : null;
+                final long changeCount = in.readLong();
+                final boolean readOnly = in.readBoolean();
+                final int size = in.readInt();
+                final ConfigurationProperties properties = size < 0 ? null : new ConfigurationProperties();
+                for (int p = 0; p < size; p++) {
+                    properties.put(in.readUTF(), readValue(in));
+                }
+                states.add(new ConfigurationState(pid, factoryPid, location, properties, changeCount, readOnly));
+            }
+            return states;
+        }
+    }
+
+    void write(final Collection<ConfigurationState> states) throws IOException {
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Can't create " + parent);
+        }
+        final File tmp = new File(parent, file.getName() + ".tmp");
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+            out.writeInt(VERSION);
+            out.writeInt(states.size());
+            for (final ConfigurationState state : states) {
+                out.writeUTF(state.getPid());
+                writeOptional(out, state.getFactoryPid());
+                writeOptional(out, state.getLocation());
+                out.writeLong(state.getChangeCount());
+                out.writeBoolean(state.isReadOnly());
+                final ConfigurationProperties properties = state.getRawProperties();
+                out.writeInt(properties == null ? -1 : properties.size());
+                if (properties != null) {
+                    for (final Map.Entry<String, Object> entry : properties.asMap().entrySet()) {
+                        out.writeUTF(entry.getKey());
+                        writeValue(out, entry.getValue());
+                    }
+                }
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // fails early (on update) for values which can't be persisted
+    static void validate(final String key, final Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Null value for '" + key + "'");
+        }
+        if (value.getClass().isArray()) {
+            if (indexOf(value.getClass().getComponentType()) < 0) {
+                throw new IllegalArgumentException("Unsupported array type for '" + key + "': " + value.getClass().getName());
+            }
+            for (int i = 0; i < Array.getLength(value); i++) {
+                if (Array.get(value, i) == null) {
+                    throw new IllegalArgumentException("Null array item for '" + key + "'");
+                }
+            }
+        } else if (Collection.class.isInstance(value)) {
+            Collection.class.cast(value).forEach(it -> {
+                if (it == null || it.getClass().isArray() || Collection.class.isInstance(it)) {
+                    throw new IllegalArgumentException("Unsupported collection item for '" + key + "': " + it);
+                }
+                validate(key, it);
+            });
+        } else if (indexOf(value.getClass()) < 0) {
+            throw new IllegalArgumentException("Unsupported type for '" + key + "': " + value.getClass().getName());
+        }
+    }
+
+    private static void writeOptional(final DataOutputStream out, final String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static void writeValue(final DataOutputStream out, final Object value) throws IOException {
+        if (value.getClass().isArray()) {
+            final Class<?> component = value.getClass().getComponentType();
+            out.writeByte(ARRAY);
+            out.writeByte(indexOf(component));
+            out.writeBoolean(component.isPrimitive());
+            final int length = Array.getLength(value);
+            out.writeInt(length);
+            for (int i = 0; i < length; i++) {
+                writeScalar(out, Array.get(value, i));
+            }
+        } else if (Collection.class.isInstance(value)) {
+            final Collection<?> collection = Collection.class.cast(value);
+            out.writeByte(COLLECTION);
+            out.writeInt(collection.size());
+            for (final Object item : collection) {
+                out.writeByte(indexOf(item.getClass()));
+                writeScalar(out, item);
+            }
+        } else {
+            out.writeByte(indexOf(value.getClass()));
+            writeScalar(out, value);
+        }
+    }
+
+    private static Object readValue(final DataInputStream in) throws IOException {
+        final int type = in.readByte();
+        if (type == ARRAY) {
+            final int component = in.readByte();
+            final boolean primitive = in.readBoolean();
+            final int length = in.readInt();
+            final Object array = Array.newInstance(primitive ? PRIMITIVES[component] : TYPES[component], length);
+            for (int i = 0; i < length; i++) {
+                Array.set(array, i, readScalar(in, component));
+            }
+            return array;
+        }
+        if (type == COLLECTION) {
+            final int size = in.readInt();
+            final List<Object> list = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                list.add(readScalar(in, in.readByte()));
+            }
+            return list;
+        }
+        return readScalar(in, type);
+    }
+
+    private static void writeScalar(final DataOutputStream out, final Object value) throws IOException {
+        switch (indexOf(value.getClass())) {
+            case 0:
+                out.writeUTF(String.class.cast(value));
+                break;
+            case 1:
+                out.writeInt(Integer.class.cast(value));
+                break;
+            case 2:
+                out.writeLong(Long.class.cast(value));
+                break;
+            case 3:
+                out.writeBoolean(Boolean.class.cast(value));
+                break;
+            case 4:
+                out.writeDouble(Double.class.cast(value));
+                break;
+            case 5:
+                out.writeFloat(Float.class.cast(value));
+                break;
+            case 6:
+                out.writeShort(Short.class.cast(value));
+                break;
+            case 7:
+                out.writeByte(Byte.class.cast(value));
+                break;
+            case 8:
+                out.writeChar(Character.class.cast(value));
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported type: " + value.getClass().getName());
+        }
+    }
+
+    private static Object readScalar(final DataInputStream in, final int type) throws IOException {
+        switch (type) {
+            case 0:
+                return in.readUTF();
+            case 1:
+                return in.readInt();
+            case 2:
+                return in.readLong();
+            case 3:
+                return in.readBoolean();
+            case 4:
+                return in.readDouble();
+            case 5:
+                return in.readFloat();
+            case 6:
+                return in.readShort();
+            case 7:
+                return in.readByte();
+            case 8:
+                return in.readChar();
+            default:
+                throw new IOException("Unknown value type " + type);
+        }
+    }
+
+    private static int indexOf(final Class<?> type) {
+        for (int i = 0; i < TYPES.length; i++) {
+            if (TYPES[i] == type || PRIMITIVES[i] == type) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
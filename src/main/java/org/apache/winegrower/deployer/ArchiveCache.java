@@ -0,0 +1,310 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.deployer;
+
+import static java.util.Collections.list;
+import static java.util.Collections.unmodifiableList;
+import static java.util.stream.Collectors.toList;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// framework wide cache of the archives (jars) bundles are backed by:
+// - entry names are read once from the zip central directory, without opening a JarFile
+// - opened JarFiles are shared and reference counted, the ones idle for too long are closed by a sweeper thread
+//   started with the first opened archive
+// - a change of the file (last modified or length) invalidates the cached data
+public class ArchiveCache implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArchiveCache.class);
+
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int CENTRAL_DIRECTORY_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+    private static final int MAPPING_THRESHOLD = 64 * 1024; // smaller directories are just read, no need of a mapping
+    private static final long MIN_SWEEP_PERIOD = 50;
+
+    private final ConcurrentMap<File, Archive> archives = new ConcurrentHashMap<>();
+    private final long idleTimeout;
+    private ScheduledExecutorService sweeper; // guarded by this
+
+    public ArchiveCache(final long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public List<String> getEntries(final File file) {
+        return archive(file).getEntries();
+    }
+
+    // the lease must be closed, the underlying jar stays opened until it is idle or the file changes
+    public Lease open(final File file) throws IOException {
+        evictIdle();
+        startSweeper();
+        final Archive archive = archive(file);
+        return new Lease(archive, archive.acquire());
+    }
+
+    public void invalidate(final File file) {
+        final Archive archive = archives.remove(file.getAbsoluteFile());
+        if (archive != null) {
+            archive.invalidate();
+        }
+    }
+
+    public void evictIdle() {
+        if (idleTimeout < 0) {
+            return;
+        }
+        final long limit = System.currentTimeMillis() - idleTimeout;
+        archives.values().forEach(it -> it.closeIfIdle(limit));
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (sweeper != null) {
+                sweeper.shutdownNow();
+                sweeper = null;
+            }
+        }
+        archives.values().forEach(Archive::invalidate);
+        archives.clear();
+    }
+
+    private synchronized void startSweeper() {
+        if (sweeper != null || idleTimeout < 0) {
+            return;
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(task -> {
+            final Thread thread = new Thread(task, "winegrower-archive-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long period = Math.max(MIN_SWEEP_PERIOD, idleTimeout / 2);
+        sweeper.scheduleAtFixedRate(() -> {
+            try {
+                evictIdle();
+            } catch (final RuntimeException re) {
+                LOGGER.debug("Can't evict idle archives", re);
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private Archive archive(final File file) {
+        final File key = file.getAbsoluteFile();
+        final long lastModified = key.lastModified();
+        final long length = key.length();
+        final Archive existing = archives.get(key);
+        if (existing != null && existing.lastModified == lastModified && existing.length == length) {
+            return existing;
+        }
+        return archives.compute(key, (k, current) -> {
+            if (current != null && current.lastModified == lastModified && current.length == length) {
+                return current;
+            }
+            if (current != null) {
+                current.invalidate();
+            }
+            return new Archive(key, lastModified, length);
+        });
+    }
+
+    // only the names are read, a prefix before the archive (self extracting jars) or zip64 use the JarFile fallback
+    static List<String> readEntryNames(final File file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < END_OF_CENTRAL_DIRECTORY_SIZE) {
+                return null;
+            }
+            final int tailLength = (int) Math.min(size, END_OF_CENTRAL_DIRECTORY_SIZE + 0xFFFF /*max comment*/);
+            final ByteBuffer tail = read(channel, size - tailLength, tailLength);
+            int endOfCentralDirectory = -1;
+            for (int i = tailLength - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+                if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                    endOfCentralDirectory = i;
+                    break;
+                }
+            }
+            if (endOfCentralDirectory < 0) {
+                return null;
+            }
+            final int total = tail.getShort(endOfCentralDirectory + 10) & 0xFFFF;
+            final long directorySize = tail.getInt(endOfCentralDirectory + 12) & 0xFFFFFFFFL;
+            final long directoryOffset = tail.getInt(endOfCentralDirectory + 16) & 0xFFFFFFFFL;
+            if (total == 0xFFFF || directoryOffset == 0xFFFFFFFFL || directoryOffset + directorySize > size) {
+                return null;
+            }
+            final ByteBuffer directory = read(channel, directoryOffset, (int) directorySize);
+            final List<String> names = new ArrayList<>(total);
+            int position = 0;
+            final byte[] buffer = new byte[512];
+            for (int i = 0; i < total; i++) {
+                if (position + CENTRAL_DIRECTORY_HEADER_SIZE > directorySize || directory.getInt(position) != CENTRAL_DIRECTORY_HEADER) {
+                    return null;
+                }
+                final int nameLength = directory.getShort(position + 28) & 0xFFFF;
+                final int extraLength = directory.getShort(position + 30) & 0xFFFF;
+                final int commentLength = directory.getShort(position + 32) & 0xFFFF;
+                final byte[] name = nameLength <= buffer.length ? buffer : new byte[nameLength];
+                directory.position(position + CENTRAL_DIRECTORY_HEADER_SIZE);
+                directory.get(name, 0, nameLength);
+                names.add(new String(name, 0, nameLength, StandardCharsets.UTF_8));
+                position += CENTRAL_DIRECTORY_HEADER_SIZE + nameLength + extraLength + commentLength;
+            }
+            return names;
+        }
+    }
+
+    private static ByteBuffer read(final FileChannel channel, final long offset, final int length) throws IOException {
+        final ByteBuffer buffer;
+        if (length > MAPPING_THRESHOLD) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        } else {
+            buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of archive");
+                }
+            }
+            buffer.flip();
+        }
+        return buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public static class Lease implements AutoCloseable {
+        private final Archive archive;
+        private final JarFile jar;
+        private boolean closed;
+
+        private Lease(final Archive archive, final JarFile jar) {
+            this.archive = archive;
+            this.jar = jar;
+        }
+
+        public JarFile getJarFile() {
+            return jar;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                archive.release();
+            }
+        }
+    }
+
+    private static class Archive {
+        private final File file;
+        private final long lastModified;
+        private final long length;
+        private volatile List<String> entries;
+        private JarFile jar; // guarded by this
+        private int references;
+        private long lastRelease;
+        private boolean stale;
+
+        private Archive(final File file, final long lastModified, final long length) {
+            this.file = file;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        private List<String> getEntries() {
+            if (entries == null) {
+                synchronized (this) {
+                    if (entries == null) {
+                        entries = unmodifiableList(loadEntries());
+                    }
+                }
+            }
+            return entries;
+        }
+
+        private List<String> loadEntries() {
+            try {
+                final List<String> names = readEntryNames(file);
+                if (names != null) {
+                    return names;
+                }
+            } catch (final IOException e) {
+                LOGGER.debug("Can't read central directory of {}, will use a JarFile", file, e);
+            }
+            try (final JarFile jar = new JarFile(file)) {
+                return list(jar.entries()).stream().map(ZipEntry::getName).collect(toList());
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private synchronized JarFile acquire() throws IOException {
+            if (jar == null) {
+                jar = new JarFile(file);
+            }
+            references++;
+            return jar;
+        }
+
+        private synchronized void release() {
+            references--;
+            lastRelease = System.currentTimeMillis();
+            if (references == 0 && stale) {
+                doClose();
+            }
+        }
+
+        private synchronized void closeIfIdle(final long limit) {
+            if (references == 0 && jar != null && lastRelease < limit) {
+                doClose();
+            }
+        }
+
+        private synchronized void invalidate() {
+            stale = true;
+            if (references == 0) {
+                doClose();
+            }
+        }
+
+        private void doClose() {
+            if (jar == null) {
+                return;
+            }
+            try {
+                jar.close();
+            } catch (final IOException e) {
+                LOGGER.debug("Can't close {}", file, e);
+            }
+            jar = null;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.deployer;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collection;
+
+import org.apache.winegrower.service.ClassBundleIndex;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleReference;
+
+// isolated mode loader: the bundle own packages are defined from its archive only,
+// other packages go to the bundle owning them (package index) or to the shared parent loader,
+// no classpath wide linear search and loads of different classes run in parallel
+public class BundleClassLoader extends URLClassLoader implements BundleReference {
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    private final BundleImpl bundle;
+    private final ClassBundleIndex index;
+
+    BundleClassLoader(final URL archive, final ClassLoader parent, final BundleImpl bundle, final ClassBundleIndex index) {
+        super(new URL[]{ archive }, parent);
+        this.bundle = bundle;
+        this.index = index;
+    }
+
+    @Override
+    public Bundle getBundle() {
+        return bundle;
+    }
+
+    @Override
+    protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+        final String pkg = packageOf(name);
+        final Collection<String> packages = bundle.getPackages();
+        if (!packages.contains(pkg)) {
+            final Bundle owner = index.findBundleByPackage(pkg);
+            if (owner != null && owner != bundle && BundleImpl.class.isInstance(owner)) {
+                final ClassLoader ownerLoader = BundleImpl.class.cast(owner).getLoader();
+                if (BundleClassLoader.class.isInstance(ownerLoader)) {
+                    return BundleClassLoader.class.cast(ownerLoader).loadOwnClass(name, resolve);
+                }
+            }
+            return super.loadClass(name, resolve); // parent first for everything not owned by a bundle
+        }
+        return loadOwnClass(name, resolve);
+    }
+
+    private Class<?> loadOwnClass(final String name, final boolean resolve) throws ClassNotFoundException {
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> loaded = findLoadedClass(name);
+            if (loaded == null) {
+                try {
+                    loaded = findClass(name);
+                } catch (final ClassNotFoundException cnfe) {
+                    loaded = getParent().loadClass(name); // split package with the application classpath
+                }
+            }
+            if (resolve) {
+                resolveClass(loaded);
+            }
+            return loaded;
+        }
+    }
+
+    private static String packageOf(final String name) {
+        final int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(0, dot);
+    }
+
+    @Override
+    public String toString() {
+        return "BundleClassLoader{bundle=" + bundle + '}';
+    }
+}
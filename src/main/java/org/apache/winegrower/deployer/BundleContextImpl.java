@@ -13,30 +13,30 @@
  */
 package org.apache.winegrower.deployer;
 
-import static java.util.Arrays.asList;
 import static java.util.Optional.ofNullable;
 import static java.util.stream.Collectors.toList;
 
 import java.io.File;
 import java.io.InputStream;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Dictionary;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Supplier;
 import java.util.jar.Manifest;
 
 import org.apache.winegrower.service.BundleRegistry;
+import org.apache.winegrower.service.CompiledFilter;
 import org.apache.winegrower.service.OSGiServices;
 import org.apache.winegrower.service.ServiceReferenceImpl;
-import org.apache.winegrower.service.ServiceRegistrationImpl;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.BundleListener;
 import org.osgi.framework.Filter;
 import org.osgi.framework.FrameworkListener;
-import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceFactory;
 import org.osgi.framework.ServiceListener;
@@ -49,8 +49,8 @@ public class BundleContextImpl implements BundleContext {
     private final OSGiServices services;
     private final Supplier<Bundle> bundleSupplier;
     private final BundleRegistry registry;
-    private final Collection<BundleListener> bundleListeners = new ArrayList<>();
-    private final Collection<FrameworkListener> frameworkListeners = new ArrayList<>();
+    private final Collection<FrameworkListener> frameworkListeners = new CopyOnWriteArrayList<>();
+    private final Set<ServiceReferenceImpl<?>> servicesInUse = ConcurrentHashMap.newKeySet();
 
     BundleContextImpl(final Manifest manifest, final OSGiServices services, final Supplier<Bundle> bundleSupplier,
                       final BundleRegistry registry) {
@@ -65,7 +65,7 @@ public class BundleContextImpl implements BundleContext {
     }
 
     public Collection<BundleListener> getBundleListeners() {
-        return bundleListeners;
+        return registry.getBundleListeners().getListeners(getBundle());
     }
 
     public Collection<FrameworkListener> getFrameworkListeners() {
@@ -102,12 +102,12 @@ public class BundleContextImpl implements BundleContext {
 
     @Override
     public Bundle getBundle(final long id) {
-        return ofNullable(registry.getBundles().get(id)).map(OSGiBundleLifecycle::getBundle).orElse(null);
+        return ofNullable(registry.getBundle(id)).map(OSGiBundleLifecycle::getBundle).orElse(null);
     }
 
     @Override
     public Bundle[] getBundles() {
-        return registry.getBundles().values().stream().map(OSGiBundleLifecycle::getBundle).toArray(Bundle[]::new);
+        return registry.getBundleArray().clone();
     }
 
     @Override
@@ -127,12 +127,12 @@ public class BundleContextImpl implements BundleContext {
 
     @Override
     public void addBundleListener(final BundleListener listener) {
-        bundleListeners.add(listener);
+        registry.getBundleListeners().addListener(getBundle(), listener);
     }
 
     @Override
     public void removeBundleListener(final BundleListener listener) {
-        bundleListeners.remove(listener);
+        registry.getBundleListeners().removeListener(getBundle(), listener);
     }
 
     @Override
@@ -167,23 +167,19 @@ public class BundleContextImpl implements BundleContext {
 
     @Override
     public ServiceReference<?>[] getServiceReferences(final String clazz, final String filter) {
-        final Filter predicate = filter == null ? null : createFilter(filter);
-        return services.getServices().stream()
-                .filter(it -> asList(ServiceRegistrationImpl.class.cast(it).getClasses()).contains(clazz))
-                .filter(it -> predicate == null || predicate.match(it.getReference()))
-                .map(it -> ServiceRegistrationImpl.class.cast(it).getReference())
-                .toArray(ServiceReference[]::new);
+        return getAllServiceReferences(clazz, filter);
     }
 
     @Override
     public ServiceReference<?>[] getAllServiceReferences(final String clazz, final String filter) {
+        final long start = System.nanoTime();
         final Filter predicate = filter == null ? null : createFilter(filter);
-        return services.getServices().stream()
-                .map(ServiceRegistrationImpl.class::cast)
-                .filter(it -> it.getClasses() != null && asList(it.getClasses()).contains(clazz))
-                .filter(it -> predicate == null || predicate.match(it.getReference()))
+        final ServiceReference<?>[] references = services.findServices(clazz).stream()
                 .map(ServiceRegistration::getReference)
+                .filter(it -> services.matches(predicate, it))
                 .toArray(ServiceReference[]::new);
+        services.getMetrics().onLookup(clazz, System.nanoTime() - start);
+        return references;
     }
 
     @Override
@@ -199,37 +195,57 @@ public class BundleContextImpl implements BundleContext {
 
     @Override
     public <S> Collection<ServiceReference<S>> getServiceReferences(final Class<S> clazz, final String filter) {
-        final Filter predicate = filter == null ? null : createFilter(filter);
-        return Arrays.stream(getAllServiceReferences(clazz.getName(), filter))
+        return Arrays.stream(getAllServiceReferences(clazz.getName(), filter)) // already filtered
                 .map(it ->(ServiceReference<S>) it)
-                .filter(it -> predicate == null || predicate.match(it))
                 .collect(toList());
     }
 
     @Override
     public <S> S getService(final ServiceReference<S> reference) {
-        return (S) ServiceReferenceImpl.class.cast(reference).getReference();
+        final ServiceReferenceImpl<?> impl = ServiceReferenceImpl.class.cast(reference);
+        final Object service = impl.getService(getBundle());
+        if (service != null) {
+            servicesInUse.add(impl);
+        }
+        return (S) service;
     }
 
     @Override
     public boolean ungetService(final ServiceReference<?> reference) {
-        return ServiceReferenceImpl.class.cast(reference).unget();
+        final ServiceReferenceImpl<?> impl = ServiceReferenceImpl.class.cast(reference);
+        final boolean result = impl.ungetService(getBundle());
+        if (!impl.isUsedBy(getBundle())) {
+            servicesInUse.remove(impl);
+        }
+        return result;
+    }
+
+    // the set can contain references unregistered meanwhile, the usage tells if it is still in use
+    ServiceReference<?>[] getServicesInUse() {
+        final Bundle bundle = getBundle();
+        return servicesInUse.stream().filter(it -> it.isUsedBy(bundle)).toArray(ServiceReference[]::new);
+    }
+
+    void releaseServicesInUse() {
+        final Bundle bundle = getBundle();
+        servicesInUse.forEach(it -> it.releaseUsage(bundle));
+        servicesInUse.clear();
     }
 
     @Override
     public <S> ServiceObjects<S> getServiceObjects(final ServiceReference<S> reference) {
-        return new ServiceObjectsImpl<>(ServiceReferenceImpl.class.cast(reference));
+        return new ServiceObjectsImpl<>(ServiceReferenceImpl.class.cast(reference), this);
     }
 
     @Override
     public File getDataFile(final String filename) {
-        return null;
+        return getBundle().getDataFile(filename);
     }
 
     @Override
-    public Filter createFilter(final String filter) {
+    public CompiledFilter createFilter(final String filter) {
         try {
-            return FrameworkUtil.createFilter(filter);
+            return CompiledFilter.compile(filter);
         } catch (final InvalidSyntaxException e) {
             throw new IllegalArgumentException(e);
         }
@@ -237,6 +253,6 @@ public class BundleContextImpl implements BundleContext {
 
     @Override
     public Bundle getBundle(final String location) {
-        return bundleSupplier.get();
+        return ofNullable(registry.getBundleByLocation(location)).map(OSGiBundleLifecycle::getBundle).orElse(null);
     }
 }
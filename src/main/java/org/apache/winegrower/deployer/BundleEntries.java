@@ -0,0 +1,133 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.deployer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+// immutable and sorted view of the entries of a bundle (directories end with a slash),
+// since entries sharing a prefix are contiguous any path lookup is a binary search and a sequential read
+class BundleEntries {
+    private final String[] names;
+
+    private BundleEntries(final String[] names) {
+        this.names = names;
+        Arrays.sort(this.names);
+    }
+
+    // jars built without directory entries still expose their directories (getEntry("dir/"), non recursive listing)
+    static BundleEntries ofArchive(final Collection<String> entries) {
+        final Set<String> names = new HashSet<>(entries);
+        for (final String entry : entries) {
+            for (int slash = entry.indexOf('/'); slash > 0 && slash < entry.length() - 1; slash = entry.indexOf('/', slash + 1)) {
+                names.add(entry.substring(0, slash + 1));
+            }
+        }
+        return new BundleEntries(names.toArray(new String[0]));
+    }
+
+    static BundleEntries ofDirectory(final File directory) {
+        final Path base = directory.toPath();
+        final List<String> names = new ArrayList<>();
+        try {
+            Files.walkFileTree(base, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) throws IOException {
+                    if (!dir.equals(base)) {
+                        names.add(relative(dir) + '/');
+                    }
+                    return super.preVisitDirectory(dir, attrs);
+                }
+
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                    names.add(relative(file));
+                    return super.visitFile(file, attrs);
+                }
+
+                private String relative(final Path path) {
+                    return base.relativize(path).toString().replace(File.separatorChar, '/');
+                }
+            });
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new BundleEntries(names.toArray(new String[0]));
+    }
+
+    // "/foo/bar" -> "foo/bar/", "" and "/" -> ""
+    static String toDirectoryPrefix(final String path) {
+        if (path == null || path.isEmpty() || "/".equals(path)) {
+            return "";
+        }
+        final String relative = path.startsWith("/") ? path.substring(1) : path;
+        return relative.endsWith("/") ? relative : relative + '/';
+    }
+
+    // base is the file uri of the directory or jar
+    static URL toUrl(final boolean directory, final String base, final String name) {
+        try {
+            final String encoded = new URI(null, null, name, null).getRawPath();
+            return new URL(directory ? base + encoded : "jar:" + base + "!/" + encoded);
+        } catch (final MalformedURLException | URISyntaxException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    boolean contains(final String name) {
+        return Arrays.binarySearch(names, name) >= 0;
+    }
+
+    // recurse: all the files under the prefix, else direct children (files and directories)
+    void visit(final String prefix, final boolean recurse, final Consumer<String> visitor) {
+        for (int i = first(prefix); i < names.length && names[i].startsWith(prefix); i++) {
+            final String name = names[i];
+            if (recurse) {
+                if (!name.endsWith("/")) {
+                    visitor.accept(name);
+                }
+            } else {
+                final int slash = name.indexOf('/', prefix.length());
+                if (slash < 0 || slash == name.length() - 1) {
+                    visitor.accept(name);
+                }
+            }
+        }
+    }
+
+    private int first(final String prefix) {
+        if (prefix.isEmpty()) {
+            return 0;
+        }
+        final int index = Arrays.binarySearch(names, prefix);
+        return index < 0 ? -index - 1 : index + 1; // the directory itself is not part of its content
+    }
+}
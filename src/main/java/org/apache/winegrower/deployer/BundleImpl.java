@@ -14,44 +14,38 @@
 package org.apache.winegrower.deployer;
 
 import static java.util.Collections.enumeration;
-import static java.util.Collections.list;
+import static java.util.Collections.unmodifiableCollection;
 import static java.util.Optional.ofNullable;
-import static java.util.stream.Collectors.toList;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.file.FileVisitResult;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Dictionary;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 import java.util.jar.Attributes;
-import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import java.util.stream.Collector;
-import java.util.stream.Stream;
-import java.util.zip.ZipEntry;
 
 import org.apache.winegrower.ContextualFramework;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
-import org.osgi.framework.BundleListener;
 import org.osgi.framework.Constants;
-import org.osgi.framework.Filter;
 import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.framework.Version;
+import org.osgi.framework.startlevel.BundleStartLevel;
+import org.osgi.framework.startlevel.FrameworkStartLevel;
 import org.osgi.framework.wiring.BundleWiring;
 
 public class BundleImpl implements Bundle {
@@ -63,18 +57,30 @@ public class BundleImpl implements Bundle {
     private final String symbolicName;
     private final Dictionary<String, String> headers;
     private final File dataFileBase;
+    private volatile boolean dataFileBaseCreated;
+    private final boolean exploded;
+    private final String entryBase;
+    private volatile BundleEntries entries;
+    private volatile Collection<String> packages;
     private int state = Bundle.UNINSTALLED;
+    private volatile int startLevel;
 
     BundleImpl(final Manifest manifest, final File file, final BundleContextImpl context,
                final ContextualFramework.Configuration configuration, final long id) {
         this.file = file;
-        this.dataFileBase = new File(configuration.getWorkDir(), file.getName());
-        this.context = context;
-        this.id = id;
-        this.loader = Thread.currentThread().getContextClassLoader();
         this.version = ofNullable(manifest.getMainAttributes().getValue(Constants.BUNDLE_VERSION))
             .map(Version::new)
             .orElse(Version.emptyVersion);
+        this.dataFileBase = configuration.getDataDir() != null ? // persistent area keyed by a stable name
+                new File(configuration.getDataDir(), ofNullable(manifest.getMainAttributes().getValue(Constants.BUNDLE_SYMBOLICNAME))
+                        .map(name -> name.split(";")[0].trim() + '_' + version)
+                        .orElseGet(file::getName)) :
+                new File(configuration.getWorkDir(), id + "_" + file.getName());
+        this.exploded = file.isDirectory();
+        this.entryBase = file.getAbsoluteFile().toURI().toString();
+        this.context = context;
+        this.id = id;
+        this.loader = createLoader(configuration, file, id);
         this.symbolicName = manifest.getMainAttributes().getValue(Constants.BUNDLE_SYMBOLICNAME);
         this.headers = manifest.getMainAttributes().entrySet().stream()
             .collect(Collector.of(
@@ -86,26 +92,44 @@ public class BundleImpl implements Bundle {
                     }));
     }
 
-    ClassLoader getLoader() {
-        return loader;
+    private ArchiveCache getArchives() {
+        return context.getRegistry().getArchives();
     }
 
-    private Stream<BundleListener> allBundleListeners() {
-        return context.getRegistry().getBundles().values().stream()
-                      .flatMap(it -> BundleContextImpl.class.cast(it.getBundle().getBundleContext()).getBundleListeners().stream());
+    private ClassLoader createLoader(final ContextualFramework.Configuration configuration, final File file, final long id) {
+        final ClassLoader shared = Thread.currentThread().getContextClassLoader();
+        if (!configuration.isIsolatedClassLoaders() || id == 0) {
+            return shared;
+        }
+        try {
+            return new BundleClassLoader(file.toURI().toURL(), shared, this, context.getRegistry().getClassIndex());
+        } catch (final MalformedURLException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    int getStartLevel() {
+        return startLevel;
+    }
+
+    void setStartLevel(final int startLevel) {
+        this.startLevel = startLevel;
+    }
+
+    ClassLoader getLoader() {
+        return loader;
     }
 
     void onStart() {
         start();
-        final BundleEvent event = new BundleEvent(BundleEvent.STARTED, this);
-        allBundleListeners()
-               .forEach(listener -> listener.bundleChanged(event));
+        context.getRegistry().getBundleListeners().fire(new BundleEvent(BundleEvent.STARTED, this));
     }
 
     void onStop() {
         stop();
-        final BundleEvent event = new BundleEvent(BundleEvent.STOPPED, this);
-        allBundleListeners().forEach(listener -> listener.bundleChanged(event));
+        dataFileBaseCreated = false; // the work directory can be deleted with the framework
+        context.getRegistry().getBundleListeners().fire(new BundleEvent(BundleEvent.STOPPED, this));
+        context.getRegistry().getBundleListeners().removeListeners(this);
     }
 
     @Override
@@ -165,14 +189,14 @@ public class BundleImpl implements Bundle {
 
     @Override
     public ServiceReference<?>[] getRegisteredServices() {
-        return context.getServices().getServices().stream()
-                .filter(it -> it.getReference().getBundle() == this)
+        return context.getServices().findServices(this).stream()
+                .map(ServiceRegistration::getReference)
                 .toArray(ServiceReference[]::new);
     }
 
     @Override
     public ServiceReference<?>[] getServicesInUse() {
-        return new ServiceReference[0];
+        return context.getServicesInUse();
     }
 
     @Override
@@ -182,7 +206,8 @@ public class BundleImpl implements Bundle {
 
     @Override
     public URL getResource(final String name) {
-        return loader.getResource(name);
+        final ResourceIndex index = context.getRegistry().getResourceIndex();
+        return index == null ? loader.getResource(name) : index.getResource(name);
     }
 
     @Override
@@ -202,43 +227,31 @@ public class BundleImpl implements Bundle {
 
     @Override
     public Enumeration<URL> getResources(final String name) throws IOException {
-        return loader.getResources(name);
+        final ResourceIndex index = context.getRegistry().getResourceIndex();
+        return index == null ? loader.getResources(name) : index.getResources(name);
     }
 
     @Override
     public Enumeration<String> getEntryPaths(final String path) {
-        if (file.isDirectory()) {
-            final Path base = file.toPath().toAbsolutePath();
-            final Path subPath = new File(file, path == null ? "" : (path.startsWith("/") ? path.substring(1) : path)).toPath();
-            final Collection<String> paths = new ArrayList<>();
-            try {
-                Files.walkFileTree(subPath, new SimpleFileVisitor<Path>() {
-                    @Override
-                    public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
-                        if (file.toAbsolutePath().toString().startsWith(base.toString())) {
-                            paths.add(base.relativize(file).toString());
-                        }
-                        return super.visitFile(file, attrs);
-                    }
-                });
-            } catch (final IOException e) {
-                throw new IllegalStateException(e);
-            }
-            return enumeration(paths);
-        }
-        try (final JarFile jar = new JarFile(file)) {
-            return enumeration(list(jar.entries()).stream()
-                    .filter(it -> it.getName().startsWith(path))
-                    .map(ZipEntry::getName)
-                    .collect(toList()));
-        } catch (final IOException e) {
-            throw new IllegalArgumentException(e);
-        }
+        final Collection<String> paths = new ArrayList<>();
+        getEntries().visit(BundleEntries.toDirectoryPrefix(path), false, paths::add);
+        return paths.isEmpty() ? null : enumeration(paths);
     }
 
     @Override
     public URL getEntry(final String path) {
-        return loader.getResource(path);
+        if (path == null) {
+            return null;
+        }
+        final String name = path.startsWith("/") ? path.substring(1) : path;
+        final BundleEntries entries = getEntries();
+        if (entries.contains(name)) {
+            return toEntryUrl(name);
+        }
+        if (!name.isEmpty() && !name.endsWith("/") && entries.contains(name + '/')) { // directory
+            return toEntryUrl(name + '/');
+        }
+        return null;
     }
 
     @Override
@@ -248,71 +261,65 @@ public class BundleImpl implements Bundle {
 
     @Override
     public Enumeration<URL> findEntries(final String path, final String filePattern, final boolean recurse) {
-        final Filter filter = filePattern == null ?
-                null : context.createFilter("(filename=" + filePattern + ")");
-        final String prefix = path == null ? "" : (path.startsWith("/") ? path.substring(1) : path);
-        final File baseFile = new File(file, prefix);
-        final Path base = baseFile.toPath();
-        final Path filePath = this.file.toPath();
-        if (file.isDirectory()) {
-            if (!recurse) {
-                return enumeration(ofNullable(baseFile.listFiles())
-                        .map(Stream::of)
-                        .orElseGet(Stream::empty)
-                        .filter(file -> doFilterEntry(filter, prefix, filePath.relativize(file.toPath()).toString()))
-                        .map(f -> {
-                            try {
-                                return f.getAbsoluteFile().toURI().toURL();
-                            } catch (final MalformedURLException e) {
-                                throw new IllegalStateException(e);
-                            }
-                        })
-                        .collect(toList()));
-            } else {
-                final Collection<URL> files = new ArrayList<>();
-                try {
-                    Files.walkFileTree(base, new SimpleFileVisitor<Path>() {
-                        @Override
-                        public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
-                            if (doFilterEntry(filter, prefix, filePath.relativize(file).toString())) {
-                                files.add(file.toAbsolutePath().toUri().toURL());
-                            }
-                            return super.visitFile(file, attrs);
-                        }
-                    });
-                } catch (final IOException e) {
-                    throw new IllegalStateException(e);
-                }
-                return enumeration(files);
-            }
-        } else {
-            try (final JarFile jar = new JarFile(file)) {
-                return enumeration(list(jar.entries()).stream().filter(it -> it.getName().startsWith(prefix))
-                                                      .map(ZipEntry::getName).filter(name -> !name.endsWith("/")) // folders
-                                                      .filter(name -> doFilterEntry(filter, prefix, name)).map(name -> {
-                            try {
-                                return new URL("jar", null, file.toURI().toURL().toExternalForm() + "!/" + name);
-                            } catch (final MalformedURLException e) {
-                                throw new IllegalArgumentException(e);
-                            }
-                        }).collect(toList()));
-            } catch (final IOException e) {
-                throw new IllegalArgumentException(e);
+        final Collection<URL> urls = new ArrayList<>();
+        visitEntries(path, filePattern, recurse, name -> urls.add(toEntryUrl(name)));
+        return enumeration(urls);
+    }
+
+    void visitEntries(final String path, final String filePattern, final boolean recurse, final Consumer<String> visitor) {
+        final EntryPattern pattern = EntryPattern.compile(filePattern);
+        getEntries().visit(BundleEntries.toDirectoryPrefix(path), recurse, name -> {
+            if (pattern == null || pattern.matchesEntry(name)) {
+                visitor.accept(name);
             }
+        });
+    }
+
+    // packages containing classes in this bundle (whatever Export-Package is)
+    public Collection<String> getPackages() {
+        Collection<String> result = packages;
+        if (result == null) {
+            final Collection<String> found = new HashSet<>();
+            getEntries().visit("", true, name -> {
+                if (name.endsWith(".class")) {
+                    final int slash = name.lastIndexOf('/');
+                    found.add(slash < 0 ? "" : name.substring(0, slash).replace('/', '.'));
+                }
+            });
+            result = unmodifiableCollection(found);
+            packages = result;
         }
+        return result;
     }
 
-    private boolean doFilterEntry(final Filter filter, final String prefix, final String name) {
-        final String path = name.replace(File.separatorChar, '/');
-        if (prefix != null && !path.startsWith(prefix)) {
-            return false;
+    // exploded bundles are indexed once too, a development setup updating them calls it to see the new content
+    public void refreshEntries() {
+        synchronized (this) {
+            entries = null;
+            packages = null;
+        }
+        if (!exploded) {
+            getArchives().invalidate(file);
         }
-        if (filter == null) {
-            return true;
+    }
+
+    // built once, lookups never touch the filesystem
+    private BundleEntries getEntries() {
+        BundleEntries result = entries;
+        if (result == null) {
+            synchronized (this) {
+                result = entries;
+                if (result == null) {
+                    result = exploded ? BundleEntries.ofDirectory(file) : BundleEntries.ofArchive(getArchives().getEntries(file));
+                    entries = result;
+                }
+            }
         }
-        final Hashtable<String, Object> props = new Hashtable<>();
-        props.put("filename", path.substring(path.lastIndexOf('/') + 1));
-        return filter.matches(props);
+        return result;
+    }
+
+    private URL toEntryUrl(final String name) {
+        return BundleEntries.toUrl(exploded, entryBase, name);
     }
 
     @Override
@@ -335,13 +342,38 @@ public class BundleImpl implements Bundle {
         if (BundleWiring.class == type) {
             return type.cast(new BundleWiringImpl(this));
         }
+        if (BundleStartLevel.class == type && id != 0) {
+            return type.cast(new BundleStartLevelImpl(this, context.getRegistry().getStartLevel()));
+        }
+        if (FrameworkStartLevel.class == type && id == 0) {
+            return type.cast(context.getRegistry().getStartLevel());
+        }
         return null;
     }
 
+    // unlike getDataFile() it does not create the data area
+    public File getDataFileBase() {
+        return dataFileBase;
+    }
+
     @Override
     public File getDataFile(final String filename) {
+        if (!dataFileBaseCreated) {
+            synchronized (this) {
+                if (!dataFileBaseCreated) {
+                    dataFileBase.mkdirs();
+                    dataFileBaseCreated = true;
+                }
+            }
+        }
+        if (filename == null || filename.isEmpty()) {
+            return dataFileBase;
+        }
         final File file = new File(dataFileBase, filename);
-        file.getParentFile().mkdirs();
+        final File parent = file.getParentFile();
+        if (!parent.equals(dataFileBase)) { // nested path, the base is already there
+            parent.mkdirs();
+        }
         return file;
     }
 
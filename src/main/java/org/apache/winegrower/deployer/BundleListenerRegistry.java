@@ -0,0 +1,114 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.deployer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+
+// framework wide bundle listeners, firing reads a copy on write snapshot so it never locks nor allocates,
+// during a batch (framework startup) events are queued and delivered at the end to the listeners registered
+// at that time, so bundles registering a listener late still see the STARTED events of the previous ones
+public class BundleListenerRegistry {
+    private static final Registration[] EMPTY = new Registration[0];
+
+    private volatile Registration[] registrations = EMPTY;
+    private volatile List<BundleEvent> batch; // mutated under the lock, null when not batching
+
+    public synchronized void addListener(final Bundle owner, final BundleListener listener) {
+        for (final Registration registration : registrations) {
+            if (registration.owner == owner && registration.listener == listener) {
+                return;
+            }
+        }
+        final Registration[] updated = Arrays.copyOf(registrations, registrations.length + 1);
+        updated[registrations.length] = new Registration(owner, listener);
+        registrations = updated;
+    }
+
+    public synchronized void removeListener(final Bundle owner, final BundleListener listener) {
+        registrations = Stream.of(registrations)
+                .filter(it -> it.owner != owner || it.listener != listener)
+                .toArray(Registration[]::new);
+    }
+
+    public synchronized void removeListeners(final Bundle owner) {
+        registrations = Stream.of(registrations)
+                .filter(it -> it.owner != owner)
+                .toArray(Registration[]::new);
+    }
+
+    public Collection<BundleListener> getListeners(final Bundle owner) {
+        final Collection<BundleListener> listeners = new ArrayList<>();
+        for (final Registration registration : registrations) {
+            if (registration.owner == owner) {
+                listeners.add(registration.listener);
+            }
+        }
+        return listeners;
+    }
+
+    public void fire(final BundleEvent event) {
+        if (batch != null) {
+            synchronized (this) {
+                if (batch != null) {
+                    batch.add(event);
+                    return;
+                }
+            }
+        }
+        deliver(registrations, event);
+    }
+
+    public synchronized void startBatch() {
+        if (batch == null) {
+            batch = new ArrayList<>();
+        }
+    }
+
+    public void endBatch() {
+        final List<BundleEvent> events;
+        final Registration[] listeners;
+        synchronized (this) {
+            events = batch;
+            batch = null;
+            listeners = registrations;
+        }
+        if (events != null) {
+            events.forEach(event -> deliver(listeners, event));
+        }
+    }
+
+    private static void deliver(final Registration[] listeners, final BundleEvent event) {
+        for (final Registration registration : listeners) {
+            registration.listener.bundleChanged(event);
+        }
+    }
+
+    private static class Registration {
+        private final Bundle owner;
+        private final BundleListener listener;
+
+        private Registration(final Bundle owner, final BundleListener listener) {
+            this.owner = owner;
+            this.listener = listener;
+        }
+    }
+}
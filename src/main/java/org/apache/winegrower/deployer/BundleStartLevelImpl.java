@@ -0,0 +1,56 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.deployer;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.startlevel.BundleStartLevel;
+
+class BundleStartLevelImpl implements BundleStartLevel {
+    private final BundleImpl bundle;
+    private final FrameworkStartLevelImpl frameworkStartLevel;
+
+    BundleStartLevelImpl(final BundleImpl bundle, final FrameworkStartLevelImpl frameworkStartLevel) {
+        this.bundle = bundle;
+        this.frameworkStartLevel = frameworkStartLevel;
+    }
+
+    @Override
+    public int getStartLevel() {
+        return bundle.getStartLevel();
+    }
+
+    @Override
+    public void setStartLevel(final int startlevel) {
+        if (startlevel < 1) {
+            throw new IllegalArgumentException("Invalid start level: " + startlevel);
+        }
+        bundle.setStartLevel(startlevel);
+        frameworkStartLevel.onBundleStartLevelChange(bundle);
+    }
+
+    @Override
+    public boolean isPersistentlyStarted() {
+        return bundle.getState() == Bundle.ACTIVE;
+    }
+
+    @Override
+    public boolean isActivationPolicyUsed() {
+        return false;
+    }
+
+    @Override
+    public Bundle getBundle() {
+        return bundle;
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.deployer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// findEntries file pattern (filter substring syntax: '*' wildcards, '\' escapes) compiled to literal segments
+final class EntryPattern {
+    private final String exact; // no wildcard
+    private final String head;
+    private final String[] middle;
+    private final String tail;
+
+    private EntryPattern(final String exact, final String head, final String[] middle, final String tail) {
+        this.exact = exact;
+        this.head = head;
+        this.middle = middle;
+        this.tail = tail;
+    }
+
+    // null means everything matches
+    static EntryPattern compile(final String pattern) {
+        if (pattern == null) {
+            return null;
+        }
+        final List<String> parts = new ArrayList<>();
+        final StringBuilder current = new StringBuilder();
+        for (int i = 0; i < pattern.length(); i++) {
+            final char c = pattern.charAt(i);
+            if (c == '\\' && i + 1 < pattern.length()) {
+                current.append(pattern.charAt(++i));
+            } else if (c == '*') {
+                parts.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        parts.add(current.toString());
+        if (parts.size() == 1) {
+            return new EntryPattern(parts.get(0), null, null, null);
+        }
+        if (parts.size() == 2 && parts.get(0).isEmpty() && parts.get(1).isEmpty()) {
+            return null; // "*"
+        }
+        return new EntryPattern(null, parts.get(0),
+                parts.subList(1, parts.size() - 1).stream().filter(it -> !it.isEmpty()).toArray(String[]::new),
+                parts.get(parts.size() - 1));
+    }
+
+    // directories keep their trailing slash in the index but the pattern applies to their name
+    boolean matchesEntry(final String entry) {
+        final int end = entry.endsWith("/") ? entry.length() - 1 : entry.length();
+        final int start = entry.lastIndexOf('/', end - 1) + 1;
+        return matches(entry, start, end);
+    }
+
+    private boolean matches(final String value, final int start, final int end) {
+        final int length = end - start;
+        if (exact != null) {
+            return length == exact.length() && value.startsWith(exact, start);
+        }
+        if (length < head.length() + tail.length() || !value.startsWith(head, start)
+                || !value.startsWith(tail, end - tail.length())) {
+            return false;
+        }
+        int position = start + head.length();
+        final int limit = end - tail.length();
+        for (final String part : middle) {
+            final int found = value.indexOf(part, position);
+            if (found < 0 || found + part.length() > limit) {
+                return false;
+            }
+            position = found + part.length();
+        }
+        return true;
+    }
+}
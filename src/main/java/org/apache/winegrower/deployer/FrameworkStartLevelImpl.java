@@ -0,0 +1,296 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.deployer;
+
+import static java.util.stream.Collectors.toList;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.apache.winegrower.ContextualFramework;
+import org.apache.winegrower.service.BundleRegistry;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.startlevel.FrameworkStartLevel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// levels are activated one after the other (each level is a barrier), the bundles of a level are started
+// concurrently when startLevelThreads > 1 and in jar order otherwise (historical behavior)
+public class FrameworkStartLevelImpl implements FrameworkStartLevel {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FrameworkStartLevelImpl.class);
+    public static final String START_LEVEL_HEADER = "Bundle-StartLevel";
+
+    private final BundleRegistry registry;
+    private final ContextualFramework.Configuration configuration;
+    private volatile int startLevel;
+    private volatile int initialBundleStartLevel;
+    private final ReentrantLock transition = new ReentrantLock(); // level changes, not held by the threads they wait for
+    private final Set<BundleImpl> pendingChanges = ConcurrentHashMap.newKeySet();
+    private ExecutorService changes; // guarded by this
+
+    public FrameworkStartLevelImpl(final BundleRegistry registry, final ContextualFramework.Configuration configuration) {
+        this.registry = registry;
+        this.configuration = configuration;
+        this.initialBundleStartLevel = configuration.getInitialBundleStartLevel();
+    }
+
+    @Override
+    public Bundle getBundle() {
+        return registry.getBundle(0L).getBundle();
+    }
+
+    @Override
+    public int getStartLevel() {
+        return startLevel;
+    }
+
+    // requests are queued on a single thread so they are applied in order, the caller (often an activator) doesn't wait
+    @Override
+    public void setStartLevel(final int startLevel, final FrameworkListener... listeners) {
+        if (startLevel < 1) {
+            throw new IllegalArgumentException("Invalid start level: " + startLevel);
+        }
+        final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        changes().execute(() -> {
+            final Thread thread = Thread.currentThread();
+            thread.setContextClassLoader(loader);
+            FrameworkEvent event;
+            try {
+                moveTo(startLevel);
+                event = new FrameworkEvent(FrameworkEvent.STARTLEVEL_CHANGED, getBundle(), null);
+            } catch (final RuntimeException re) {
+                event = new FrameworkEvent(FrameworkEvent.ERROR, getBundle(), re);
+            }
+            fire(event, listeners);
+        });
+    }
+
+    private synchronized ExecutorService changes() {
+        if (changes == null) {
+            changes = Executors.newSingleThreadExecutor(r -> {
+                final Thread thread = new Thread(r, "winegrower-start-level");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return changes;
+    }
+
+    @Override
+    public int getInitialBundleStartLevel() {
+        return initialBundleStartLevel;
+    }
+
+    @Override
+    public void setInitialBundleStartLevel(final int startLevel) {
+        if (startLevel < 1) {
+            throw new IllegalArgumentException("Invalid start level: " + startLevel);
+        }
+        this.initialBundleStartLevel = startLevel;
+    }
+
+    // configuration (symbolic name then jar name), manifest header and finally the initial bundle start level
+    public void install(final OSGiBundleLifecycle lifecycle) {
+        final BundleImpl bundle = lifecycle.getBundle();
+        final Map<String, Integer> levels = configuration.getStartLevels();
+        bundle.setStartLevel(Stream.of(
+                    levels.get(bundle.getSymbolicName()),
+                    levels.get(new File(bundle.getLocation()).getName()),
+                    headerStartLevel(bundle))
+                .filter(Objects::nonNull)
+                .findFirst()
+                .orElse(initialBundleStartLevel));
+    }
+
+    private Integer headerStartLevel(final BundleImpl bundle) {
+        final String header = bundle.getHeaders().get(START_LEVEL_HEADER);
+        if (header == null) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(header.trim());
+        } catch (final NumberFormatException nfe) {
+            LOGGER.warn("Invalid {} '{}' for {}, using the initial bundle start level", START_LEVEL_HEADER, header, bundle);
+            return null;
+        }
+    }
+
+    // framework startup: activates all the levels up to the configured one (the highest bundle one by default)
+    public void launch() {
+        final Integer configured = configuration.getFrameworkStartLevel();
+        moveTo(configured != null ? configured : bundles().mapToInt(it -> it.getBundle().getStartLevel()).max().orElse(1));
+        fire(new FrameworkEvent(FrameworkEvent.STARTED, getBundle(), null));
+    }
+
+    // framework shutdown: stops the levels in reverse order
+    public void shutdown() {
+        final ExecutorService pending;
+        synchronized (this) {
+            pending = changes;
+            changes = null;
+        }
+        if (pending != null) {
+            pending.shutdownNow();
+        }
+        moveTo(0);
+    }
+
+    // a bundle start level changed at runtime, when a level transition is running (potentially waiting for the
+    // activator calling this method) the change is applied by the transition instead of waiting for it
+    void onBundleStartLevelChange(final BundleImpl bundle) {
+        pendingChanges.add(bundle);
+        applyPendingChanges();
+    }
+
+    private void applyPendingChanges() {
+        while (!pendingChanges.isEmpty() && transition.tryLock()) {
+            try {
+                final Iterator<BundleImpl> iterator = pendingChanges.iterator();
+                while (iterator.hasNext()) {
+                    final BundleImpl bundle = iterator.next();
+                    iterator.remove();
+                    applyStartLevel(bundle);
+                }
+            } finally {
+                transition.unlock();
+            }
+        }
+    }
+
+    // caller holds the transition lock
+    private void applyStartLevel(final BundleImpl bundle) {
+        final OSGiBundleLifecycle lifecycle = registry.getBundle(bundle.getBundleId());
+        if (lifecycle == null) {
+            return;
+        }
+        final boolean active = bundle.getState() == Bundle.ACTIVE;
+        if (active && bundle.getStartLevel() > startLevel) {
+            lifecycle.stop();
+        } else if (!active && bundle.getStartLevel() <= startLevel) {
+            lifecycle.start();
+        }
+    }
+
+    void moveTo(final int level) {
+        transition.lock();
+        try {
+            while (startLevel < level) {
+                final int next = startLevel + 1;
+                try {
+                    run(bundles().filter(it -> it.getBundle().getStartLevel() == next && it.getBundle().getState() != Bundle.ACTIVE)
+                                 .collect(toList()), OSGiBundleLifecycle::start);
+                } catch (final RuntimeException | Error e) {
+                    // the level is not reached so a shutdown would not visit it, stop what already started now
+                    try {
+                        stopLevel(next);
+                    } catch (final RuntimeException | Error stopError) {
+                        e.addSuppressed(stopError);
+                    }
+                    throw e;
+                }
+                startLevel = next;
+                applyPendingChanges();
+            }
+            while (startLevel > level) {
+                final int current = startLevel;
+                stopLevel(current);
+                startLevel = current - 1;
+                applyPendingChanges();
+            }
+        } finally {
+            transition.unlock();
+        }
+        applyPendingChanges(); // changes requested while the lock was released
+    }
+
+    private void stopLevel(final int level) {
+        final List<OSGiBundleLifecycle> stopping = bundles()
+                .filter(it -> it.getBundle().getStartLevel() == level && it.getBundle().getState() == Bundle.ACTIVE)
+                .collect(toList());
+        Collections.reverse(stopping);
+        run(stopping, OSGiBundleLifecycle::stop);
+    }
+
+    private void run(final List<OSGiBundleLifecycle> bundles, final Consumer<OSGiBundleLifecycle> action) {
+        final int threads = Math.min(configuration.getStartLevelThreads(), bundles.size());
+        if (threads <= 1) {
+            bundles.forEach(action);
+            return;
+        }
+        final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        final AtomicInteger counter = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            final Thread thread = new Thread(r, "winegrower-start-level-" + counter.incrementAndGet());
+            thread.setContextClassLoader(loader); // activators see the same loader as in the sequential mode
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            final Collection<CompletableFuture<Void>> tasks = new ArrayList<>(bundles.size());
+            for (final OSGiBundleLifecycle bundle : bundles) {
+                tasks.add(CompletableFuture.runAsync(() -> action.accept(bundle), executor));
+            }
+            CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).join(); // barrier
+        } catch (final CompletionException ce) {
+            if (RuntimeException.class.isInstance(ce.getCause())) {
+                throw RuntimeException.class.cast(ce.getCause());
+            }
+            throw ce;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Stream<OSGiBundleLifecycle> bundles() {
+        return registry.getBundles().values().stream()
+                .filter(it -> it.getBundle().getBundleId() != 0L)
+                .sorted(Comparator.comparingLong(it -> it.getBundle().getBundleId())); // ids follow the jar names
+    }
+
+    private void fire(final FrameworkEvent event, final FrameworkListener... listeners) {
+        final Collection<FrameworkListener> all = new ArrayList<>();
+        registry.getBundles().values().forEach(it -> all.addAll(
+                BundleContextImpl.class.cast(it.getBundle().getBundleContext()).getFrameworkListeners()));
+        if (listeners != null) {
+            all.addAll(Arrays.asList(listeners));
+        }
+        for (final FrameworkListener listener : all) {
+            try {
+                listener.frameworkEvent(event);
+            } catch (final RuntimeException re) {
+                LOGGER.warn("Framework listener {} failed", listener, re);
+            }
+        }
+    }
+}
@@ -14,6 +14,7 @@
 package org.apache.winegrower.deployer;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.util.jar.Manifest;
 
@@ -54,9 +55,12 @@ public class OSGiBundleLifecycle {
 
         final String activatorClass = context.getManifest().getMainAttributes().getValue("Bundle-Activator");
         if (activatorClass != null) {
+            final Thread thread = Thread.currentThread();
+            final ClassLoader previousLoader = thread.getContextClassLoader();
+            thread.setContextClassLoader(bundle.getLoader()); // same loader unless isolated
             try {
                 activator = new BundleActivatorHandler(BundleActivator.class.cast(
-                        Thread.currentThread().getContextClassLoader()
+                        bundle.getLoader()
                               .loadClass(activatorClass)
                               .getConstructor()
                               .newInstance()), context);
@@ -65,6 +69,8 @@ public class OSGiBundleLifecycle {
                 throw new IllegalArgumentException(e);
             } catch (InvocationTargetException e) {
                 throw new IllegalArgumentException(e.getTargetException());
+            } finally {
+                thread.setContextClassLoader(previousLoader);
             }
         }
 
@@ -78,8 +84,30 @@ public class OSGiBundleLifecycle {
             LOGGER.debug("Stopping {}", bundle);
         }
         if (activator != null) {
-            activator.stop();
+            final Thread thread = Thread.currentThread();
+            final ClassLoader previousLoader = thread.getContextClassLoader();
+            thread.setContextClassLoader(bundle.getLoader());
+            try {
+                activator.stop();
+            } catch (final RuntimeException re) { // the teardown must still release the bundle services
+                LOGGER.warn("Activator of {} failed to stop", bundle, re);
+            } finally {
+                thread.setContextClassLoader(previousLoader);
+            }
         }
+        context.getServices().unregisterServices(bundle);
+        context.releaseServicesInUse();
         bundle.onStop();
     }
+
+    // uninstallation, the classloader is kept between a stop and a start (start levels) so it is only closed there
+    public void close() {
+        if (BundleClassLoader.class.isInstance(bundle.getLoader())) {
+            try {
+                BundleClassLoader.class.cast(bundle.getLoader()).close();
+            } catch (final IOException e) {
+                LOGGER.warn("Can't close classloader of {}", bundle, e);
+            }
+        }
+    }
 }
@@ -0,0 +1,124 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.deployer;
+
+import static java.util.Collections.emptyEnumeration;
+import static java.util.Collections.enumeration;
+import static java.util.Collections.singletonList;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.xbean.finder.ClassLoaders;
+import org.apache.xbean.finder.UrlSet;
+import org.apache.xbean.finder.util.Files;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// resource name -> urls for the whole (flat) application classpath, built once at startup,
+// names outside of it (JVM resources) go to the classloader and misses are remembered
+public class ResourceIndex {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResourceIndex.class);
+    private static final int MAX_MISSES = 16384;
+
+    private final ClassLoader loader;
+    private final Map<String, Object> resources; // URL or List<URL> when the name is in multiple jars
+    private final Set<String> misses = ConcurrentHashMap.newKeySet();
+
+    private ResourceIndex(final ClassLoader loader, final Map<String, Object> resources) {
+        this.loader = loader;
+        this.resources = resources;
+    }
+
+    public static ResourceIndex build(final ClassLoader loader, final ArchiveCache archives) {
+        final long start = System.currentTimeMillis();
+        final List<URL> urls;
+        try {
+            urls = new UrlSet(ClassLoaders.findUrls(loader)).excludeJvm().getUrls();
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+        final Map<String, Object> resources = new HashMap<>();
+        for (final URL url : urls) {
+            final File file = Files.toFile(url);
+            if (!file.exists()) {
+                continue;
+            }
+            final boolean directory = file.isDirectory();
+            final String base = file.getAbsoluteFile().toURI().toString();
+            final BundleEntries entries = directory ?
+                    BundleEntries.ofDirectory(file) : BundleEntries.ofArchive(archives.getEntries(file));
+            entries.visit("", true, name -> resources.merge(name, BundleEntries.toUrl(directory, base, name), ResourceIndex::merge));
+        }
+        LOGGER.debug("Indexed {} resources of {} classpath entries in {}ms",
+                resources.size(), urls.size(), System.currentTimeMillis() - start);
+        return new ResourceIndex(loader, resources);
+    }
+
+    public URL getResource(final String name) {
+        final Object found = resources.get(name);
+        if (found != null) {
+            return URL.class.isInstance(found) ? URL.class.cast(found) : ((List<URL>) found).get(0);
+        }
+        if (misses.contains(name)) {
+            return null;
+        }
+        final URL url = loader.getResource(name);
+        if (url == null) {
+            miss(name);
+        }
+        return url;
+    }
+
+    public Enumeration<URL> getResources(final String name) throws IOException {
+        final Object found = resources.get(name);
+        if (found != null) {
+            return enumeration(URL.class.isInstance(found) ? singletonList(URL.class.cast(found)) : (List<URL>) found);
+        }
+        if (misses.contains(name)) {
+            return emptyEnumeration();
+        }
+        final Enumeration<URL> urls = loader.getResources(name);
+        if (!urls.hasMoreElements()) {
+            miss(name);
+        }
+        return urls;
+    }
+
+    private void miss(final String name) {
+        if (misses.size() >= MAX_MISSES) {
+            misses.clear();
+        }
+        misses.add(name);
+    }
+
+    private static Object merge(final Object existing, final Object added) {
+        if (URL.class.isInstance(existing)) {
+            final List<URL> urls = new ArrayList<>(2);
+            urls.add(URL.class.cast(existing));
+            urls.add(URL.class.cast(added));
+            return urls;
+        }
+        ((List<URL>) existing).add(URL.class.cast(added));
+        return existing;
+    }
+}
@@ -19,22 +19,30 @@ import org.apache.winegrower.service.ServiceReferenceImpl;
 import org.osgi.framework.ServiceObjects;
 import org.osgi.framework.ServiceReference;
 
+// singleton and bundle scopes go through the context so the usage is counted for the consumer
 public class ServiceObjectsImpl<S> implements ServiceObjects<S> {
     private final ServiceReferenceImpl<S> reference;
+    private final BundleContextImpl consumer;
 
-    ServiceObjectsImpl(final ServiceReferenceImpl<S> reference) {
+    ServiceObjectsImpl(final ServiceReferenceImpl<S> reference, final BundleContextImpl consumer) {
         this.reference = reference;
+        this.consumer = consumer;
     }
 
     @Override
     public S getService() {
-        return (S) reference.getReference();
+        if (reference.isPrototype()) {
+            return (S) reference.getPrototypeService(consumer.getBundle());
+        }
+        return consumer.getService(reference);
     }
 
     @Override
     public void ungetService(final S service) {
-        if (reference.getReference() == service) {
-            reference.unget();
+        if (reference.isPrototype()) {
+            reference.ungetPrototypeService(service);
+        } else if (!reference.isUsedBy(consumer.getBundle()) || !consumer.ungetService(reference)) {
+            throw new IllegalArgumentException(service + " was not provided by " + this);
         }
     }
 
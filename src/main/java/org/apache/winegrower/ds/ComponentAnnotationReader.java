@@ -0,0 +1,276 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.ds;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.apache.xbean.asm7.AnnotationVisitor;
+import org.apache.xbean.asm7.ClassReader;
+import org.apache.xbean.asm7.ClassVisitor;
+import org.apache.xbean.asm7.FieldVisitor;
+import org.apache.xbean.asm7.MethodVisitor;
+import org.apache.xbean.asm7.Opcodes;
+import org.apache.xbean.asm7.Type;
+
+// DS annotations have the CLASS retention so they are read from the bytecode, it also avoids to load the classes
+public final class ComponentAnnotationReader {
+    private static final String PACKAGE = "Lorg/osgi/service/component/annotations/";
+    private static final String COMPONENT = PACKAGE + "Component;";
+    private static final String REFERENCE = PACKAGE + "Reference;";
+    private static final String ACTIVATE = PACKAGE + "Activate;";
+    private static final String DEACTIVATE = PACKAGE + "Deactivate;";
+
+    private ComponentAnnotationReader() {
+        // no-op
+    }
+
+    public static boolean isComponentAnnotation(final String annotation) {
+        return ("L" + annotation.replace('.', '/') + ";").equals(COMPONENT);
+    }
+
+    /**
+     * @param bytecode the class bytecode.
+     * @return the component metadata or null if the class is not a component.
+     * @throws IOException if the bytecode can't be read.
+     */
+    public static ComponentMetadata read(final InputStream bytecode) throws IOException {
+        final Visitor visitor = new Visitor();
+        new ClassReader(bytecode).accept(visitor, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return visitor.toMetadata();
+    }
+
+    private static String cardinality(final String value, final boolean multiple) {
+        if (value == null) {
+            return multiple ? "0..n" : "1..1";
+        }
+        switch (value) {
+            case "OPTIONAL":
+                return "0..1";
+            case "MULTIPLE":
+                return "0..n";
+            case "AT_LEAST_ONE":
+                return "1..n";
+            default:
+                return "1..1";
+        }
+    }
+
+    private static String referenceName(final String method) {
+        for (final String prefix : new String[]{ "bind", "set", "add" }) {
+            if (method.startsWith(prefix) && method.length() > prefix.length()) {
+                return Character.toLowerCase(method.charAt(prefix.length())) + method.substring(prefix.length() + 1);
+            }
+        }
+        return method;
+    }
+
+    private static String unbindName(final String method) {
+        if (method.startsWith("bind") || method.startsWith("set")) {
+            return "un" + method;
+        }
+        if (method.startsWith("add")) {
+            return "remove" + method.substring("add".length());
+        }
+        return null;
+    }
+
+    // first generic parameter of a collection field signature: Ljava/util/List<Lcom/foo/Bar;>;
+    private static String elementType(final String signature) {
+        if (signature == null) {
+            return null;
+        }
+        final int start = signature.indexOf('<');
+        final int end = signature.indexOf(';', start);
+        if (start < 0 || end < 0 || signature.charAt(start + 1) != 'L') {
+            return null;
+        }
+        return signature.substring(start + 2, end).replace('/', '.');
+    }
+
+    private static class Visitor extends ClassVisitor {
+        private final Map<String, Object> component = new LinkedHashMap<>();
+        private final List<ReferenceMetadata> references = new ArrayList<>();
+        private final List<String> properties = new ArrayList<>();
+        private final List<String> services = new ArrayList<>();
+        private String className;
+        private String[] interfaces;
+        private boolean isComponent;
+        private boolean explicitServices;
+        private String activate;
+        private String deactivate;
+
+        private Visitor() {
+            super(Opcodes.ASM7);
+        }
+
+        @Override
+        public void visit(final int version, final int access, final String name, final String signature,
+                          final String superName, final String[] interfaces) {
+            this.className = name.replace('/', '.');
+            this.interfaces = interfaces;
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(final String descriptor, final boolean visible) {
+            if (!COMPONENT.equals(descriptor)) {
+                return null;
+            }
+            isComponent = true;
+            return new AnnotationVisitor(Opcodes.ASM7) {
+                @Override
+                public void visit(final String name, final Object value) {
+                    component.put(name, value);
+                }
+
+                @Override
+                public AnnotationVisitor visitArray(final String name) {
+                    if ("service".equals(name)) {
+                        explicitServices = true;
+                    }
+                    return new AnnotationVisitor(Opcodes.ASM7) {
+                        @Override
+                        public void visit(final String ignored, final Object value) {
+                            if ("service".equals(name)) {
+                                services.add(Type.class.cast(value).getClassName());
+                            } else if ("property".equals(name)) {
+                                properties.add(String.valueOf(value));
+                            }
+                        }
+                    };
+                }
+            };
+        }
+
+        @Override
+        public FieldVisitor visitField(final int access, final String name, final String descriptor,
+                                       final String signature, final Object value) {
+            return new FieldVisitor(Opcodes.ASM7) {
+                @Override
+                public AnnotationVisitor visitAnnotation(final String annotation, final boolean visible) {
+                    if (!REFERENCE.equals(annotation)) {
+                        return null;
+                    }
+                    final Type type = Type.getType(descriptor);
+                    final boolean multiple = type.getClassName().equals("java.util.List") ||
+                            type.getClassName().equals("java.util.Collection");
+                    return new ReferenceVisitor(attributes -> references.add(new ReferenceMetadata(
+                            String.valueOf(attributes.getOrDefault("name", name)),
+                            attributes.containsKey("service") ? String.valueOf(attributes.get("service")) :
+                                    (multiple ? elementType(signature) : type.getClassName()),
+                            cardinality(String.class.cast(attributes.get("cardinality")), multiple),
+                            attributes.containsKey("policy") ? String.valueOf(attributes.get("policy")).toLowerCase() :
+                                    ((access & Opcodes.ACC_VOLATILE) != 0 ? "dynamic" : "static"),
+                            String.class.cast(attributes.get("target")), null, null, name)));
+                }
+            };
+        }
+
+        @Override
+        public MethodVisitor visitMethod(final int access, final String name, final String descriptor,
+                                         final String signature, final String[] exceptions) {
+            return new MethodVisitor(Opcodes.ASM7) {
+                @Override
+                public AnnotationVisitor visitAnnotation(final String annotation, final boolean visible) {
+                    if (ACTIVATE.equals(annotation)) {
+                        activate = name;
+                    } else if (DEACTIVATE.equals(annotation)) {
+                        deactivate = name;
+                    } else if (REFERENCE.equals(annotation)) {
+                        final Type[] arguments = Type.getArgumentTypes(descriptor);
+                        return new ReferenceVisitor(attributes -> references.add(new ReferenceMetadata(
+                                String.valueOf(attributes.getOrDefault("name", referenceName(name))),
+                                attributes.containsKey("service") ? String.valueOf(attributes.get("service")) :
+                                        (arguments.length == 0 ? null : arguments[0].getClassName()),
+                                cardinality(String.class.cast(attributes.get("cardinality")), false),
+                                attributes.containsKey("policy") ? String.valueOf(attributes.get("policy")).toLowerCase() : "static",
+                                String.class.cast(attributes.get("target")), name,
+                                String.class.cast(attributes.getOrDefault("unbind", unbindName(name))), null)));
+                    }
+                    return null;
+                }
+            };
+        }
+
+        private ComponentMetadata toMetadata() {
+            if (!isComponent) {
+                return null;
+            }
+            if (!explicitServices && interfaces != null) {
+                for (final String api : interfaces) {
+                    services.add(api.replace('/', '.'));
+                }
+            }
+            final Map<String, Object> values = new LinkedHashMap<>();
+            properties.forEach(property -> {
+                final int equals = property.indexOf('=');
+                if (equals < 0) {
+                    return;
+                }
+                String key = property.substring(0, equals);
+                Object value = property.substring(equals + 1);
+                final int colon = key.indexOf(':');
+                if (colon > 0) { // name:Type=value
+                    final String type = key.substring(colon + 1);
+                    key = key.substring(0, colon);
+                    value = ComponentDescriptorParser.convert(type, String.valueOf(value));
+                }
+                final Object previous = values.get(key);
+                values.put(key, previous == null ? value : append(previous, value));
+            });
+            return new ComponentMetadata(String.class.cast(component.get("name")), className, services.toArray(new String[0]),
+                    Boolean.class.cast(component.get("immediate")), activate, deactivate, values, references);
+        }
+
+        // repeated property names define an array
+        private static Object append(final Object previous, final Object value) {
+            final Object[] items = previous.getClass().isArray() ? Object[].class.cast(previous) : new Object[]{ previous };
+            final Object[] result = (Object[]) Array.newInstance(value.getClass(), items.length + 1);
+            System.arraycopy(items, 0, result, 0, items.length);
+            result[items.length] = value;
+            return result;
+        }
+    }
+
+    private static class ReferenceVisitor extends AnnotationVisitor {
+        private final Map<String, Object> attributes = new LinkedHashMap<>();
+        private final Consumer<Map<String, Object>> onEnd;
+
+        private ReferenceVisitor(final Consumer<Map<String, Object>> onEnd) {
+            super(Opcodes.ASM7);
+            this.onEnd = onEnd;
+        }
+
+        @Override
+        public void visit(final String name, final Object value) {
+            attributes.put(name, Type.class.isInstance(value) ? Type.class.cast(value).getClassName() : value);
+        }
+
+        @Override
+        public void visitEnum(final String name, final String descriptor, final String value) {
+            attributes.put(name, value);
+        }
+
+        @Override
+        public void visitEnd() {
+            onEnd.accept(attributes);
+        }
+    }
+}
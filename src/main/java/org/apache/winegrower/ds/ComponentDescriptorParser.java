@@ -0,0 +1,162 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.ds;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+// subset of the DS 1.x descriptor format: implementation, service, property and reference elements
+public final class ComponentDescriptorParser {
+    private ComponentDescriptorParser() {
+        // no-op
+    }
+
+    public static Collection<ComponentMetadata> parse(final InputStream stream) throws IOException {
+        return parse(new InputSource(stream));
+    }
+
+    public static Collection<ComponentMetadata> parse(final String xml) throws IOException {
+        return parse(new InputSource(new StringReader(xml)));
+    }
+
+    private static Collection<ComponentMetadata> parse(final InputSource source) throws IOException {
+        final Document document;
+        try {
+            final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            final DocumentBuilder builder = factory.newDocumentBuilder();
+            document = builder.parse(source);
+        } catch (final ParserConfigurationException | SAXException e) {
+            throw new IOException(e);
+        }
+        final Collection<ComponentMetadata> components = new ArrayList<>();
+        final Element root = document.getDocumentElement();
+        if ("component".equals(localName(root))) {
+            components.add(toComponent(root));
+        } else {
+            for (final Element component : children(root, "component")) {
+                components.add(toComponent(component));
+            }
+        }
+        return components;
+    }
+
+    private static ComponentMetadata toComponent(final Element component) {
+        final String implementation = children(component, "implementation").stream()
+                .findFirst()
+                .map(it -> it.getAttribute("class"))
+                .orElseThrow(() -> new IllegalArgumentException("No implementation for component " + component.getAttribute("name")));
+        final String[] services = children(component, "service").stream()
+                .flatMap(it -> children(it, "provide").stream())
+                .map(it -> it.getAttribute("interface"))
+                .toArray(String[]::new);
+        final Map<String, Object> properties = new LinkedHashMap<>();
+        for (final Element property : children(component, "property")) {
+            final String type = attribute(property, "type");
+            final String value = attribute(property, "value");
+            properties.put(property.getAttribute("name"), value != null ?
+                    convert(type, value) :
+                    toArray(type, Arrays.stream(property.getTextContent().split("\n"))
+                            .map(String::trim)
+                            .filter(it -> !it.isEmpty())
+                            .toArray(String[]::new)));
+        }
+        final List<ReferenceMetadata> references = new ArrayList<>();
+        for (final Element reference : children(component, "reference")) {
+            references.add(new ReferenceMetadata(
+                    attribute(reference, "name"), attribute(reference, "interface"), attribute(reference, "cardinality"),
+                    attribute(reference, "policy"), attribute(reference, "target"), attribute(reference, "bind"),
+                    attribute(reference, "unbind"), attribute(reference, "field")));
+        }
+        final String immediate = attribute(component, "immediate");
+        return new ComponentMetadata(attribute(component, "name"), implementation, services,
+                immediate == null ? null : Boolean.valueOf(immediate),
+                attribute(component, "activate"), attribute(component, "deactivate"), properties, references);
+    }
+
+    private static Object toArray(final String type, final String[] values) {
+        final Object[] converted = Arrays.stream(values).map(it -> convert(type, it)).toArray();
+        final Object array = Array.newInstance(convert(type, "0").getClass(), converted.length);
+        System.arraycopy(converted, 0, array, 0, converted.length);
+        return array;
+    }
+
+    static Object convert(final String type, final String value) {
+        if (type == null) {
+            return value;
+        }
+        switch (type) {
+            case "Long":
+                return Long.valueOf(value);
+            case "Double":
+                return Double.valueOf(value);
+            case "Float":
+                return Float.valueOf(value);
+            case "Integer":
+                return Integer.valueOf(value);
+            case "Byte":
+                return Byte.valueOf(value);
+            case "Character":
+            case "Char":
+                return value.isEmpty() ? '\0' : value.charAt(0);
+            case "Boolean":
+                return Boolean.valueOf(value);
+            case "Short":
+                return Short.valueOf(value);
+            default:
+                return value;
+        }
+    }
+
+    private static String attribute(final Element element, final String name) {
+        return element.hasAttribute(name) ? element.getAttribute(name) : null;
+    }
+
+    private static List<Element> children(final Element parent, final String name) {
+        final List<Element> elements = new ArrayList<>();
+        final NodeList nodes = parent.getChildNodes();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            final Node node = nodes.item(i);
+            if (node.getNodeType() == Node.ELEMENT_NODE && name.equals(localName(node))) {
+                elements.add(Element.class.cast(node));
+            }
+        }
+        return elements;
+    }
+
+    private static String localName(final Node node) {
+        return node.getLocalName() != null ? node.getLocalName() : node.getNodeName();
+    }
+}
@@ -0,0 +1,609 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.ds;
+
+import static java.util.Collections.unmodifiableList;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.winegrower.service.CompiledFilter;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceFactory;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.util.tracker.ServiceTracker;
+import org.osgi.util.tracker.ServiceTrackerCustomizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+// one component configuration: references are tracked and the component is registered once they are satisfied,
+// delayed components are registered through this ServiceFactory and only instantiated on the first getService,
+// static references reactivate the instance when a bound service goes away, dynamic ones rebind it in place.
+// The lock only guards the state: user code (constructor, bind/activate methods) and service (un)registrations
+// are queued under it and run after it is released, one thread at a time, so components calling each other
+// can't deadlock.
+class ComponentManager implements ServiceFactory<Object> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ComponentManager.class);
+    private static final AtomicLong IDS = new AtomicLong();
+
+    private static final Comparator<ServiceReference<?>> RANKING = Comparator
+            .<ServiceReference<?>>comparingInt(it -> {
+                final Object ranking = it.getProperty(Constants.SERVICE_RANKING);
+                return Integer.class.isInstance(ranking) ? -Integer.class.cast(ranking) : 0;
+            })
+            .thenComparingLong(it -> Number.class.cast(it.getProperty(Constants.SERVICE_ID)).longValue());
+
+    private final ComponentMetadata metadata;
+    private final Bundle bundle;
+    private final BundleContext context;
+    private final long id = IDS.incrementAndGet();
+    private final List<Binding> bindings = new ArrayList<>();
+    private final Deque<Runnable> actions = new ArrayDeque<>();
+    private Class<?> type;
+    private ServiceRegistration<?> registration;
+    private Instance instance;
+    private int users;
+    private boolean satisfied;
+    private boolean closed;
+    private boolean running; // a thread is executing the actions
+    private long satisfaction; // bumped on each (un)satisfaction, stale registrations are dropped
+    private long generation; // bumped when the tracked services change, stale instances are dropped
+
+    ComponentManager(final ComponentMetadata metadata, final Bundle bundle) {
+        this.metadata = metadata;
+        this.bundle = bundle;
+        this.context = bundle.getBundleContext();
+    }
+
+    ComponentMetadata getMetadata() {
+        return metadata;
+    }
+
+    synchronized boolean isSatisfied() {
+        return satisfied;
+    }
+
+    synchronized boolean isActive() {
+        return instance != null;
+    }
+
+    void open() {
+        final Class<?> loaded;
+        try {
+            loaded = bundle.loadClass(metadata.getImplementation());
+        } catch (final ClassNotFoundException e) {
+            LOGGER.error("Can't load component {} of {}", metadata.getName(), bundle, e);
+            synchronized (this) {
+                closed = true;
+            }
+            return;
+        }
+        synchronized (this) {
+            type = loaded;
+            for (final ReferenceMetadata reference : metadata.getReferences()) {
+                bindings.add(new Binding(reference));
+            }
+        }
+        bindings.forEach(Binding::open);
+        synchronized (this) {
+            updateState();
+        }
+        runActions();
+    }
+
+    void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            unsatisfy();
+        }
+        runActions();
+        bindings.forEach(it -> it.tracker.close());
+    }
+
+    @Override
+    public Object getService(final Bundle consumer, final ServiceRegistration<Object> registration) {
+        return getOrCreateInstance(true);
+    }
+
+    @Override
+    public void ungetService(final Bundle consumer, final ServiceRegistration<Object> registration,
+                             final Object service) {
+        synchronized (this) {
+            if (users == 0 || --users > 0 || metadata.isImmediate() || instance == null) {
+                return;
+            }
+            final Instance released = instance;
+            instance = null;
+            generation++;
+            actions.add(() -> destroy(released));
+        }
+        runActions();
+    }
+
+    // the instance is created without holding the lock and only published if nothing changed meanwhile
+    private Object getOrCreateInstance(final boolean use) {
+        while (true) {
+            final long expected;
+            final Map<Binding, Map<ServiceReference<?>, Object>> services = new HashMap<>();
+            synchronized (this) {
+                if (closed || !satisfied) {
+                    return null;
+                }
+                if (instance != null) {
+                    if (use) {
+                        users++;
+                    }
+                    return instance.object;
+                }
+                expected = generation;
+                for (final Binding binding : bindings) {
+                    final Map<ServiceReference<?>, Object> copy = new TreeMap<>(RANKING);
+                    copy.putAll(binding.services);
+                    services.put(binding, copy);
+                }
+            }
+            final Instance created = create(services);
+            if (created == null) {
+                return null;
+            }
+            synchronized (this) {
+                if (!closed && satisfied && instance == null && expected == generation) {
+                    instance = created;
+                    if (use) {
+                        users++;
+                    }
+                    return created.object;
+                }
+            }
+            destroy(created); // never published, retry with the new state
+        }
+    }
+
+    // under the lock
+    private void updateState() {
+        if (closed) {
+            return;
+        }
+        final boolean canBeSatisfied = bindings.stream().allMatch(it -> it.reference.isOptional() || !it.services.isEmpty());
+        if (canBeSatisfied && !satisfied) {
+            satisfied = true;
+            satisfaction++;
+            generation++;
+            if (metadata.isImmediate()) {
+                actions.add(() -> getOrCreateInstance(false));
+            }
+            if (metadata.getServices().length > 0) {
+                final long expected = satisfaction;
+                actions.add(() -> register(expected));
+            }
+        } else if (!canBeSatisfied && satisfied) {
+            unsatisfy();
+        }
+    }
+
+    // under the lock
+    private void unsatisfy() {
+        satisfied = false;
+        satisfaction++;
+        generation++;
+        users = 0;
+        actions.add(this::unregister);
+        if (instance != null) {
+            final Instance current = instance;
+            instance = null;
+            actions.add(() -> destroy(current));
+        }
+    }
+
+    // static policy: rebind by recreating the instance, consumers get the new one through the factory
+    private void reactivate() {
+        unsatisfy();
+        updateState();
+    }
+
+    // a thread (re)entering while another one runs the actions just leaves them to it, this keeps them ordered
+    private void runActions() {
+        synchronized (this) {
+            if (running) {
+                return;
+            }
+            running = true;
+        }
+        while (true) {
+            final Runnable action;
+            synchronized (this) {
+                action = actions.poll();
+                if (action == null) {
+                    running = false;
+                    return;
+                }
+            }
+            try {
+                action.run();
+            } catch (final RuntimeException e) {
+                LOGGER.warn("Error updating component {}", metadata.getName(), e);
+            }
+        }
+    }
+
+    private void register(final long expected) {
+        final ServiceRegistration<?> created = context.registerService(metadata.getServices(), this, properties());
+        synchronized (this) {
+            if (!closed && satisfied && expected == satisfaction && registration == null) {
+                registration = created;
+                return;
+            }
+        }
+        unregister(created);
+    }
+
+    private void unregister() {
+        final ServiceRegistration<?> current;
+        synchronized (this) {
+            current = registration;
+            registration = null;
+        }
+        if (current != null) {
+            unregister(current);
+        }
+    }
+
+    private void unregister(final ServiceRegistration<?> current) {
+        try {
+            current.unregister();
+        } catch (final IllegalStateException ise) {
+            // already unregistered with the bundle
+        }
+    }
+
+    private Instance create(final Map<Binding, Map<ServiceReference<?>, Object>> services) {
+        Instance created = null;
+        try {
+            final Constructor<?> constructor = type.getDeclaredConstructor();
+            if (!constructor.isAccessible()) {
+                constructor.setAccessible(true);
+            }
+            created = new Instance(constructor.newInstance());
+            for (final Binding binding : bindings) {
+                binding.bindAll(created, services.get(binding));
+            }
+            if (metadata.getActivate() != null) {
+                invokeLifecycle(created.object, metadata.getActivate());
+            }
+            return created;
+        } catch (final InvocationTargetException e) {
+            LOGGER.error("Can't activate component {}", metadata.getName(), e.getTargetException());
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            LOGGER.error("Can't activate component {}", metadata.getName(), e);
+        }
+        if (created != null) {
+            created.bound.values().forEach(Map::clear);
+        }
+        return null;
+    }
+
+    private void destroy(final Instance current) {
+        try {
+            if (metadata.getDeactivate() != null) {
+                invokeLifecycle(current.object, metadata.getDeactivate());
+            }
+        } catch (final InvocationTargetException e) {
+            LOGGER.warn("Can't deactivate component {}", metadata.getName(), e.getTargetException());
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            LOGGER.warn("Can't deactivate component {}", metadata.getName(), e);
+        }
+        for (final Binding binding : bindings) {
+            binding.unbindAll(current);
+        }
+    }
+
+    // activate/deactivate can take the BundleContext and/or the component properties (as a Map)
+    private void invokeLifecycle(final Object target, final String name) throws ReflectiveOperationException {
+        final Method method = findMethod(target.getClass(), name);
+        if (method == null) {
+            throw new NoSuchMethodException(name + " in " + target.getClass().getName());
+        }
+        final Class<?>[] types = method.getParameterTypes();
+        final Object[] args = new Object[types.length];
+        for (int i = 0; i < types.length; i++) {
+            if (BundleContext.class == types[i]) {
+                args[i] = context;
+            } else if (Map.class == types[i]) {
+                args[i] = propertiesMap();
+            } else {
+                throw new IllegalArgumentException("Unsupported parameter " + types[i] + " for " + method);
+            }
+        }
+        method.invoke(target, args);
+    }
+
+    private Dictionary<String, Object> properties() {
+        return new Hashtable<>(propertiesMap());
+    }
+
+    private Map<String, Object> propertiesMap() {
+        final Map<String, Object> properties = new HashMap<>(metadata.getProperties());
+        properties.put("component.name", metadata.getName());
+        properties.put("component.id", id);
+        return properties;
+    }
+
+    private static Method findMethod(final Class<?> type, final String name) {
+        for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            Method found = null;
+            for (final Method method : current.getDeclaredMethods()) {
+                if (method.getName().equals(name) && !method.isBridge() &&
+                        (found == null || method.getParameterCount() > found.getParameterCount())) {
+                    found = method;
+                }
+            }
+            if (found != null) {
+                if (!found.isAccessible()) {
+                    found.setAccessible(true);
+                }
+                return found;
+            }
+        }
+        return null;
+    }
+
+    // bound services of a published instance are only touched by the thread running the actions
+    private class Instance {
+        private final Object object;
+        private final Map<Binding, Map<ServiceReference<?>, Object>> bound = new HashMap<>();
+
+        private Instance(final Object object) {
+            this.object = object;
+            bindings.forEach(it -> bound.put(it, new TreeMap<>(RANKING)));
+        }
+    }
+
+    private class Binding implements ServiceTrackerCustomizer<Object, Object> {
+        private final ReferenceMetadata reference;
+        private final Filter target;
+        private final ServiceTracker<Object, Object> tracker;
+        private final Map<ServiceReference<?>, Object> services = new TreeMap<>(RANKING); // guarded by the manager
+
+        private Binding(final ReferenceMetadata reference) {
+            this.reference = reference;
+            try {
+                this.target = reference.getTarget() == null ? null : CompiledFilter.compile(reference.getTarget());
+            } catch (final InvalidSyntaxException e) {
+                throw new IllegalArgumentException("Invalid target for " + reference.getName(), e);
+            }
+            this.tracker = new ServiceTracker<>(context, reference.getInterfaceName(), this);
+        }
+
+        private void open() {
+            tracker.open();
+        }
+
+        @Override
+        public Object addingService(final ServiceReference<Object> serviceReference) {
+            if (target != null && !target.match(serviceReference)) {
+                return null;
+            }
+            final Object service = context.getService(serviceReference);
+            if (service == null) {
+                return null;
+            }
+            synchronized (ComponentManager.this) {
+                services.put(serviceReference, service);
+                generation++;
+                if (!closed) {
+                    if (!satisfied) {
+                        updateState();
+                    } else if (instance != null && reference.isDynamic()) {
+                        final Instance current = instance;
+                        actions.add(() -> bindAdded(current, serviceReference, service));
+                    }
+                    // static references are reluctant, new services are ignored until the component is reactivated
+                }
+            }
+            runActions();
+            return service;
+        }
+
+        @Override
+        public void modifiedService(final ServiceReference<Object> serviceReference, final Object service) {
+            if (target != null && !target.match(serviceReference)) {
+                tracker.remove(serviceReference);
+            }
+        }
+
+        @Override
+        public void removedService(final ServiceReference<Object> serviceReference, final Object service) {
+            synchronized (ComponentManager.this) {
+                services.remove(serviceReference);
+                generation++;
+                if (!closed) {
+                    if (instance != null && reference.isDynamic()) {
+                        final Instance current = instance;
+                        actions.add(() -> unbindRemoved(current, serviceReference));
+                        updateState();
+                    } else if (instance != null && instance.bound.get(this).containsKey(serviceReference)) {
+                        reactivate(); // static bindings of a published instance never change
+                    } else {
+                        updateState();
+                    }
+                }
+            }
+            runActions();
+            try {
+                context.ungetService(serviceReference);
+            } catch (final IllegalStateException ise) {
+                // bundle already stopped
+            }
+        }
+
+        private void bindAdded(final Instance current, final ServiceReference<?> ref, final Object service) {
+            if (reference.isMultiple() || current.bound.get(this).isEmpty()) {
+                bind(current, ref, service);
+            }
+        }
+
+        private void unbindRemoved(final Instance current, final ServiceReference<?> ref) {
+            final Map<ServiceReference<?>, Object> bound = current.bound.get(this);
+            if (!bound.containsKey(ref)) {
+                return;
+            }
+            unbind(current, ref);
+            if (!reference.isMultiple() && bound.isEmpty()) {
+                final Map.Entry<ServiceReference<?>, Object> replacement;
+                synchronized (ComponentManager.this) {
+                    replacement = services.isEmpty() ?
+                            null : new AbstractMap.SimpleImmutableEntry<>(services.entrySet().iterator().next());
+                }
+                if (replacement != null) {
+                    bind(current, replacement.getKey(), replacement.getValue());
+                }
+            }
+        }
+
+        private void bindAll(final Instance target, final Map<ServiceReference<?>, Object> available)
+                throws ReflectiveOperationException {
+            if (reference.isMultiple()) {
+                for (final Map.Entry<ServiceReference<?>, Object> entry : available.entrySet()) {
+                    doBind(target, entry.getKey(), entry.getValue());
+                }
+            } else if (!available.isEmpty()) {
+                final Map.Entry<ServiceReference<?>, Object> best = available.entrySet().iterator().next();
+                doBind(target, best.getKey(), best.getValue());
+            }
+        }
+
+        private void unbindAll(final Instance target) {
+            for (final ServiceReference<?> ref : new ArrayList<>(target.bound.get(this).keySet())) {
+                unbind(target, ref);
+            }
+        }
+
+        private void bind(final Instance target, final ServiceReference<?> ref, final Object service) {
+            try {
+                doBind(target, ref, service);
+            } catch (final InvocationTargetException e) {
+                LOGGER.warn("Can't bind {} to {}", reference.getName(), metadata.getName(), e.getTargetException());
+            } catch (final ReflectiveOperationException | RuntimeException e) {
+                LOGGER.warn("Can't bind {} to {}", reference.getName(), metadata.getName(), e);
+            }
+        }
+
+        private void doBind(final Instance target, final ServiceReference<?> ref, final Object service)
+                throws ReflectiveOperationException {
+            target.bound.get(this).put(ref, service);
+            if (reference.getField() != null) {
+                updateField(target);
+            }
+            if (reference.getBind() != null) {
+                invokeReferenceMethod(target.object, reference.getBind(), ref, service);
+            }
+        }
+
+        private void unbind(final Instance target, final ServiceReference<?> ref) {
+            final Object service = target.bound.get(this).remove(ref);
+            if (service == null) {
+                return;
+            }
+            try {
+                if (reference.getUnbind() != null && findMethod(target.object.getClass(), reference.getUnbind()) != null) {
+                    invokeReferenceMethod(target.object, reference.getUnbind(), ref, service);
+                }
+                if (reference.getField() != null && reference.isDynamic()) {
+                    updateField(target);
+                }
+            } catch (final InvocationTargetException e) {
+                LOGGER.warn("Can't unbind {} from {}", reference.getName(), metadata.getName(), e.getTargetException());
+            } catch (final ReflectiveOperationException | RuntimeException e) {
+                LOGGER.warn("Can't unbind {} from {}", reference.getName(), metadata.getName(), e);
+            }
+        }
+
+        // multiple references get a new immutable list each time so readers never see a partial update
+        private void updateField(final Instance target) throws ReflectiveOperationException {
+            final Field field = findField(target.object.getClass(), reference.getField());
+            final Map<ServiceReference<?>, Object> bound = target.bound.get(this);
+            if (reference.isMultiple()) {
+                field.set(target.object, unmodifiableList(new ArrayList<>(bound.values())));
+            } else {
+                field.set(target.object, bound.isEmpty() ? null : bound.values().iterator().next());
+            }
+        }
+
+        private void invokeReferenceMethod(final Object target, final String name, final ServiceReference<?> ref,
+                                           final Object service) throws ReflectiveOperationException {
+            final Method method = findMethod(target.getClass(), name);
+            if (method == null) {
+                throw new NoSuchMethodException(name + " in " + target.getClass().getName());
+            }
+            final Class<?>[] types = method.getParameterTypes();
+            final Object[] args = new Object[types.length];
+            for (int i = 0; i < types.length; i++) {
+                if (ServiceReference.class == types[i]) {
+                    args[i] = ref;
+                } else if (Map.class == types[i]) {
+                    final Map<String, Object> properties = new HashMap<>();
+                    for (final String key : ref.getPropertyKeys()) {
+                        properties.put(key, ref.getProperty(key));
+                    }
+                    args[i] = properties;
+                } else {
+                    args[i] = service;
+                }
+            }
+            method.invoke(target, args);
+        }
+
+        private Field findField(final Class<?> type, final String name) throws NoSuchFieldException {
+            for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+                try {
+                    final Field field = current.getDeclaredField(name);
+                    if (!field.isAccessible()) {
+                        field.setAccessible(true);
+                    }
+                    if (Modifier.isFinal(field.getModifiers())) {
+                        throw new IllegalArgumentException("Reference field can't be final: " + field);
+                    }
+                    return field;
+                } catch (final NoSuchFieldException e) {
+                    // try parent
+                }
+            }
+            throw new NoSuchFieldException(name + " in " + type.getName());
+        }
+    }
+}
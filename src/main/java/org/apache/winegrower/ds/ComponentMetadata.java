@@ -0,0 +1,134 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.ds;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// component description, read from the DS xml descriptors or computed from the DS annotations at scan time
+// and then serialized with the same xml format in the Winegrower-Service-Component manifest header
+public class ComponentMetadata {
+    private final String name;
+    private final String implementation;
+    private final String[] services;
+    private final Boolean immediate;
+    private final String activate;
+    private final String deactivate;
+    private final Map<String, Object> properties;
+    private final List<ReferenceMetadata> references;
+
+    public ComponentMetadata(final String name, final String implementation, final String[] services, final Boolean immediate,
+                             final String activate, final String deactivate, final Map<String, Object> properties,
+                             final List<ReferenceMetadata> references) {
+        this.name = name == null ? implementation : name;
+        this.implementation = implementation;
+        this.services = services == null ? new String[0] : services;
+        this.immediate = immediate;
+        this.activate = activate;
+        this.deactivate = deactivate;
+        this.properties = properties == null ? new LinkedHashMap<>() : properties;
+        this.references = references == null ? new ArrayList<>() : references;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getImplementation() {
+        return implementation;
+    }
+
+    public String[] getServices() {
+        return services;
+    }
+
+    // components without service are always immediate, others are delayed unless requested
+    public boolean isImmediate() {
+        return services.length == 0 || Boolean.TRUE.equals(immediate);
+    }
+
+    public String getActivate() {
+        return activate;
+    }
+
+    public String getDeactivate() {
+        return deactivate;
+    }
+
+    public Map<String, Object> getProperties() {
+        return properties;
+    }
+
+    public List<ReferenceMetadata> getReferences() {
+        return references;
+    }
+
+    public static String toXml(final Collection<ComponentMetadata> components) {
+        final StringBuilder builder = new StringBuilder("<components>");
+        components.forEach(it -> it.appendXml(builder));
+        return builder.append("</components>").toString();
+    }
+
+    private void appendXml(final StringBuilder builder) {
+        builder.append("<component");
+        attribute(builder, "name", name);
+        attribute(builder, "immediate", immediate == null ? null : immediate.toString());
+        attribute(builder, "activate", activate);
+        attribute(builder, "deactivate", deactivate);
+        builder.append("><implementation");
+        attribute(builder, "class", implementation);
+        builder.append("/>");
+        properties.forEach((key, value) -> {
+            builder.append("<property");
+            attribute(builder, "name", key);
+            final Object first = value.getClass().isArray() ? (Array.getLength(value) == 0 ? "" : Array.get(value, 0)) : value;
+            attribute(builder, "type", first.getClass().getSimpleName());
+            if (value.getClass().isArray()) {
+                builder.append('>');
+                for (int i = 0; i < Array.getLength(value); i++) {
+                    builder.append(escape(String.valueOf(Array.get(value, i)))).append("&#10;");
+                }
+                builder.append("</property>");
+            } else {
+                attribute(builder, "value", String.valueOf(value));
+                builder.append("/>");
+            }
+        });
+        if (services.length > 0) {
+            builder.append("<service>");
+            for (final String service : services) {
+                builder.append("<provide");
+                attribute(builder, "interface", service);
+                builder.append("/>");
+            }
+            builder.append("</service>");
+        }
+        references.forEach(it -> it.appendXml(builder));
+        builder.append("</component>");
+    }
+
+    static void attribute(final StringBuilder builder, final String name, final String value) {
+        if (value != null) {
+            builder.append(' ').append(name).append("=\"").append(escape(value)).append('"');
+        }
+    }
+
+    private static String escape(final String value) {
+        return value.replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
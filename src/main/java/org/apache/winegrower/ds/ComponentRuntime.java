@@ -0,0 +1,157 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.ds;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.winegrower.scanner.manifest.DeclarativeServicesManifestContributor;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.SynchronousBundleListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// extender starting the components of the active bundles, the scanned bundles get their components precomputed
+// in the Winegrower-Service-Component header, real bundles use the standard Service-Component one
+public class ComponentRuntime implements SynchronousBundleListener, AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ComponentRuntime.class);
+    private static final String SERVICE_COMPONENT = "Service-Component";
+
+    private final BundleContext context;
+    private final Map<Long, List<ComponentManager>> managers = new HashMap<>(); // guarded by this
+    private boolean closed;
+
+    /**
+     * @param context the framework bundle context used to listen to the bundle lifecycle.
+     */
+    public ComponentRuntime(final BundleContext context) {
+        this.context = context;
+    }
+
+    public ComponentRuntime start() {
+        context.addBundleListener(this);
+        for (final Bundle bundle : context.getBundles()) {
+            if (bundle.getState() == Bundle.ACTIVE && bundle.getBundleId() != 0) {
+                startComponents(bundle);
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public void bundleChanged(final BundleEvent event) {
+        switch (event.getType()) {
+            case BundleEvent.STARTED:
+                startComponents(event.getBundle());
+                break;
+            case BundleEvent.STOPPING:
+            case BundleEvent.STOPPED:
+                stopComponents(event.getBundle());
+                break;
+            default:
+        }
+    }
+
+    public synchronized Collection<ComponentMetadata> getComponents(final Bundle bundle) {
+        final List<ComponentManager> bundleManagers = managers.get(bundle.getBundleId());
+        if (bundleManagers == null) {
+            return Collections.emptyList();
+        }
+        final Collection<ComponentMetadata> components = new ArrayList<>(bundleManagers.size());
+        bundleManagers.forEach(it -> components.add(it.getMetadata()));
+        return components;
+    }
+
+    @Override
+    public void close() {
+        context.removeBundleListener(this);
+        final Collection<List<ComponentManager>> all;
+        synchronized (this) {
+            closed = true;
+            all = new ArrayList<>(managers.values());
+            managers.clear();
+        }
+        all.forEach(list -> list.forEach(ComponentManager::close));
+    }
+
+    private void startComponents(final Bundle bundle) {
+        final Collection<ComponentMetadata> components = findComponents(bundle);
+        if (components.isEmpty()) {
+            return;
+        }
+        final List<ComponentManager> bundleManagers = new ArrayList<>(components.size());
+        synchronized (this) {
+            if (closed || managers.containsKey(bundle.getBundleId())) {
+                return;
+            }
+            components.forEach(it -> bundleManagers.add(new ComponentManager(it, bundle)));
+            managers.put(bundle.getBundleId(), bundleManagers);
+        }
+        LOGGER.debug("Starting {} components of {}", bundleManagers.size(), bundle);
+        bundleManagers.forEach(ComponentManager::open);
+    }
+
+    private void stopComponents(final Bundle bundle) {
+        final List<ComponentManager> bundleManagers;
+        synchronized (this) {
+            bundleManagers = managers.remove(bundle.getBundleId());
+        }
+        if (bundleManagers != null) {
+            bundleManagers.forEach(ComponentManager::close);
+        }
+    }
+
+    private Collection<ComponentMetadata> findComponents(final Bundle bundle) {
+        final Collection<ComponentMetadata> components = new ArrayList<>();
+        final String precomputed = bundle.getHeaders().get(DeclarativeServicesManifestContributor.HEADER);
+        if (precomputed != null) {
+            try {
+                components.addAll(ComponentDescriptorParser.parse(precomputed));
+            } catch (final IOException e) {
+                LOGGER.error("Invalid {} header in {}", DeclarativeServicesManifestContributor.HEADER, bundle, e);
+            }
+        }
+        final String descriptors = bundle.getHeaders().get(SERVICE_COMPONENT);
+        if (descriptors != null) {
+            for (final String entry : descriptors.split(",")) {
+                final String path = entry.trim();
+                if (path.isEmpty()) {
+                    continue;
+                }
+                final int slash = path.lastIndexOf('/');
+                final Enumeration<URL> urls = bundle.findEntries(
+                        slash < 0 ? "/" : path.substring(0, slash), path.substring(slash + 1), false);
+                while (urls != null && urls.hasMoreElements()) {
+                    final URL url = urls.nextElement();
+                    try (final InputStream stream = url.openStream()) {
+                        components.addAll(ComponentDescriptorParser.parse(stream));
+                    } catch (final IOException e) {
+                        LOGGER.error("Can't read {} in {}", url, bundle, e);
+                    }
+                }
+            }
+        }
+        return components;
+    }
+}
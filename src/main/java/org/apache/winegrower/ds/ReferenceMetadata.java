@@ -0,0 +1,94 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.ds;
+
+public class ReferenceMetadata {
+    private final String name;
+    private final String interfaceName;
+    private final String cardinality;
+    private final String policy;
+    private final String target;
+    private final String bind;
+    private final String unbind;
+    private final String field;
+
+    public ReferenceMetadata(final String name, final String interfaceName, final String cardinality, final String policy,
+                             final String target, final String bind, final String unbind, final String field) {
+        this.name = name;
+        this.interfaceName = interfaceName;
+        this.cardinality = cardinality == null ? "1..1" : cardinality;
+        this.policy = policy == null ? "static" : policy;
+        this.target = target;
+        this.bind = bind;
+        this.unbind = unbind;
+        this.field = field;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getInterfaceName() {
+        return interfaceName;
+    }
+
+    public String getCardinality() {
+        return cardinality;
+    }
+
+    public String getPolicy() {
+        return policy;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public String getBind() {
+        return bind;
+    }
+
+    public String getUnbind() {
+        return unbind;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public boolean isOptional() {
+        return cardinality.startsWith("0");
+    }
+
+    public boolean isMultiple() {
+        return cardinality.endsWith("n");
+    }
+
+    public boolean isDynamic() {
+        return "dynamic".equals(policy);
+    }
+
+    void appendXml(final StringBuilder builder) {
+        builder.append("<reference");
+        ComponentMetadata.attribute(builder, "name", name);
+        ComponentMetadata.attribute(builder, "interface", interfaceName);
+        ComponentMetadata.attribute(builder, "cardinality", cardinality);
+        ComponentMetadata.attribute(builder, "policy", policy);
+        ComponentMetadata.attribute(builder, "target", target);
+        ComponentMetadata.attribute(builder, "bind", bind);
+        ComponentMetadata.attribute(builder, "unbind", unbind);
+        ComponentMetadata.attribute(builder, "field", field);
+        builder.append("/>");
+    }
+}
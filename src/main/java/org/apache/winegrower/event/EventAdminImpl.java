@@ -0,0 +1,244 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.event;
+
+import static java.util.Collections.emptyList;
+import static java.util.stream.Collectors.toList;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.winegrower.service.CompiledFilter;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventAdmin;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// handlers are indexed by topic in an immutable trie swapped on handler changes so posting does not lock,
+// postEvent() queues the event per handler (ordered) and sendEvent() delivers it in the caller thread,
+// handlers exceeding the timeout are blacklisted until their service is modified or registered again
+public class EventAdminImpl implements EventAdmin, ServiceListener, AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventAdminImpl.class);
+    private static final String FILTER = "(" + Constants.OBJECTCLASS + "=" + EventHandler.class.getName() + ")";
+
+    private final BundleContext context;
+    private final ExecutorService executor;
+    private final long timeout;
+    private final Map<ServiceReference<EventHandler>, Subscription> subscriptions = new HashMap<>(); // guarded by this
+    private volatile TopicTrie trie = TopicTrie.build(emptyList());
+    private ServiceRegistration<EventAdmin> registration;
+
+    /**
+     * @param context the framework bundle context used to register the service and track the handlers.
+     * @param threads the number of threads delivering the posted events.
+     * @param timeout the duration (ms) after which a handler is blacklisted, negative or zero to disable it.
+     */
+    public EventAdminImpl(final BundleContext context, final int threads, final long timeout) {
+        this.context = context;
+        this.timeout = timeout;
+        final AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(), r -> {
+            final Thread thread = new Thread(r, "winegrower-event-admin-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public synchronized EventAdminImpl start() {
+        try {
+            context.addServiceListener(this, FILTER);
+            context.getServiceReferences(EventHandler.class, null).forEach(this::subscribe);
+        } catch (final InvalidSyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+        refresh();
+        registration = context.registerService(EventAdmin.class, this, null);
+        return this;
+    }
+
+    @Override
+    public void postEvent(final Event event) {
+        for (final Subscription subscription : trie.find(event.getTopic())) {
+            if (subscription.accepts(event)) {
+                subscription.post(event);
+            }
+        }
+    }
+
+    @Override
+    public void sendEvent(final Event event) {
+        for (final Subscription subscription : trie.find(event.getTopic())) {
+            if (subscription.accepts(event)) {
+                subscription.send(event);
+            }
+        }
+    }
+
+    @Override
+    public void serviceChanged(final ServiceEvent event) {
+        @SuppressWarnings("unchecked")
+        final ServiceReference<EventHandler> reference = (ServiceReference<EventHandler>) event.getServiceReference();
+        synchronized (this) {
+            switch (event.getType()) {
+                case ServiceEvent.REGISTERED:
+                    subscribe(reference);
+                    break;
+                case ServiceEvent.MODIFIED: // new topics/filter and reset of the blacklisting
+                    unsubscribe(reference);
+                    subscribe(reference);
+                    break;
+                case ServiceEvent.UNREGISTERING:
+                case ServiceEvent.MODIFIED_ENDMATCH:
+                    unsubscribe(reference);
+                    break;
+                default:
+            }
+            refresh();
+        }
+    }
+
+    public synchronized Collection<ServiceReference<EventHandler>> getBlacklistedHandlers() {
+        return subscriptions.values().stream()
+                .filter(Subscription::isBlacklisted)
+                .map(Subscription::getReference)
+                .collect(toList());
+    }
+
+    // waits for the queued events to be delivered
+    public void flush(final long timeout, final TimeUnit unit) {
+        final long end = System.nanoTime() + unit.toNanos(timeout);
+        final Collection<Subscription> current;
+        synchronized (this) {
+            current = new ArrayList<>(subscriptions.values());
+        }
+        while (!current.stream().allMatch(Subscription::isIdle)) {
+            if (System.nanoTime() > end) {
+                throw new IllegalStateException("Events not delivered in time");
+            }
+            Thread.yield();
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (registration == null) {
+                return;
+            }
+            context.removeServiceListener(this);
+            try {
+                registration.unregister();
+            } catch (final IllegalStateException ise) {
+                // already unregistered with the framework bundle services
+            }
+            registration = null;
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                LOGGER.warn("Events delivery didn't complete in time");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            subscriptions.values().forEach(Subscription::close);
+            subscriptions.clear();
+            refresh();
+        }
+    }
+
+    // caller holds the lock
+    private void subscribe(final ServiceReference<EventHandler> reference) {
+        final String[] topics = toStringArray(reference.getProperty(EventConstants.EVENT_TOPIC));
+        if (topics.length == 0) {
+            return;
+        }
+        final Object filter = reference.getProperty(EventConstants.EVENT_FILTER);
+        final Filter compiled;
+        try {
+            compiled = filter == null ? null : CompiledFilter.compile(String.valueOf(filter));
+        } catch (final InvalidSyntaxException e) {
+            LOGGER.warn("Invalid event filter for {}, ignoring it: {}", reference, e.getMessage());
+            return;
+        }
+        for (final String topic : topics) {
+            if (!isValidTopic(topic)) {
+                LOGGER.warn("Invalid topic '{}' for {}, ignoring it", topic, reference);
+                return;
+            }
+        }
+        subscriptions.put(reference, new Subscription(reference, context, topics, compiled, executor, timeout));
+    }
+
+    // caller holds the lock
+    private void unsubscribe(final ServiceReference<EventHandler> reference) {
+        final Subscription removed = subscriptions.remove(reference);
+        if (removed != null) {
+            removed.close();
+        }
+    }
+
+    private void refresh() {
+        trie = TopicTrie.build(subscriptions.values());
+    }
+
+    private static boolean isValidTopic(final String topic) {
+        if ("*".equals(topic)) {
+            return true;
+        }
+        final String[] segments = topic.split("/", -1);
+        for (int i = 0; i < segments.length; i++) {
+            final String segment = segments[i];
+            if (segment.isEmpty() || ("*".equals(segment) && i != segments.length - 1)) {
+                return false;
+            }
+            if (!"*".equals(segment) && !segment.chars().allMatch(c -> Character.isLetterOrDigit(c) || c == '_' || c == '-')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String[] toStringArray(final Object value) {
+        if (value == null) {
+            return new String[0];
+        }
+        if (String[].class.isInstance(value)) {
+            return String[].class.cast(value);
+        }
+        if (Collection.class.isInstance(value)) {
+            final Collection<?> values = Collection.class.cast(value);
+            return values.stream().map(String::valueOf).toArray(String[]::new);
+        }
+        return new String[]{ String.valueOf(value) };
+    }
+}
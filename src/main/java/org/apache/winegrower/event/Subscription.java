@@ -0,0 +1,167 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.event;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Filter;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// one per handler service: posted events go through its own queue so they are delivered in order,
+// a worker delivers a bounded batch then reschedules the queue to stay fair with the other handlers
+final class Subscription implements Runnable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Subscription.class);
+    private static final int BATCH_SIZE = 256;
+
+    private final ServiceReference<EventHandler> reference;
+    private final BundleContext context;
+    private final String[] topics;
+    private final Filter filter;
+    private final Executor executor;
+    private final long timeoutNanos;
+    private final Queue<Event> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile EventHandler handler;
+    private volatile boolean blacklisted;
+    private volatile boolean closed;
+
+    Subscription(final ServiceReference<EventHandler> reference, final BundleContext context, final String[] topics,
+                 final Filter filter, final Executor executor, final long timeout) {
+        this.reference = reference;
+        this.context = context;
+        this.topics = topics;
+        this.filter = filter;
+        this.executor = executor;
+        this.timeoutNanos = timeout > 0 ? TimeUnit.MILLISECONDS.toNanos(timeout) : Long.MAX_VALUE;
+    }
+
+    String[] getTopics() {
+        return topics;
+    }
+
+    ServiceReference<EventHandler> getReference() {
+        return reference;
+    }
+
+    boolean isBlacklisted() {
+        return blacklisted;
+    }
+
+    boolean isIdle() {
+        return !scheduled.get() && queue.isEmpty();
+    }
+
+    boolean accepts(final Event event) {
+        return !blacklisted && !closed && (filter == null || event.matches(filter));
+    }
+
+    void post(final Event event) {
+        queue.offer(event);
+        schedule();
+    }
+
+    // synchronous delivery in the caller thread
+    void send(final Event event) {
+        deliver(event);
+    }
+
+    @Override
+    public void run() {
+        Event event;
+        int delivered = 0;
+        while (delivered++ < BATCH_SIZE && (event = queue.poll()) != null) {
+            if (blacklisted || closed) {
+                queue.clear();
+                break;
+            }
+            deliver(event);
+        }
+        scheduled.set(false);
+        if (!queue.isEmpty()) {
+            schedule();
+        }
+    }
+
+    // closed is set under the lock handler() gets the service with, so no usage can be taken after the release
+    void close() {
+        final boolean release;
+        synchronized (this) {
+            closed = true;
+            release = handler != null;
+            handler = null;
+        }
+        queue.clear();
+        if (release) {
+            try {
+                context.ungetService(reference);
+            } catch (final RuntimeException re) {
+                // already unregistered
+            }
+        }
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this);
+            } catch (final RejectedExecutionException ree) { // shutting down
+                scheduled.set(false);
+                queue.clear();
+            }
+        }
+    }
+
+    private void deliver(final Event event) {
+        final EventHandler instance = handler();
+        if (instance == null) {
+            return;
+        }
+        final long start = System.nanoTime();
+        try {
+            instance.handleEvent(event);
+        } catch (final RuntimeException re) {
+            LOGGER.error("Event handler {} failed for {}", reference, event, re);
+        } finally {
+            if (System.nanoTime() - start > timeoutNanos) {
+                blacklisted = true;
+                LOGGER.warn("Event handler {} took more than {}ms to handle {}, it is blacklisted",
+                        reference, TimeUnit.NANOSECONDS.toMillis(timeoutNanos), event.getTopic());
+            }
+        }
+    }
+
+    private EventHandler handler() {
+        EventHandler instance = handler;
+        if (instance == null && !closed) {
+            synchronized (this) {
+                instance = handler;
+                if (instance == null && !closed) {
+                    instance = context.getService(reference);
+                    handler = instance;
+                }
+            }
+        }
+        return instance;
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.event;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// immutable index of the subscriptions per topic: "a/b/c" matches "*", "a/*", "a/b/*" and "a/b/c",
+// it is rebuilt when handlers change and the resolved topics are cached since applications use a few topics
+final class TopicTrie {
+    private static final Subscription[] EMPTY = new Subscription[0];
+    private static final int MAX_CACHED_TOPICS = 4096;
+
+    private final Node root;
+    private final Map<String, Subscription[]> cache = new ConcurrentHashMap<>();
+
+    private TopicTrie(final Node root) {
+        this.root = root;
+    }
+
+    static TopicTrie build(final Collection<Subscription> subscriptions) {
+        final Builder root = new Builder();
+        for (final Subscription subscription : subscriptions) {
+            for (final String topic : subscription.getTopics()) {
+                Builder current = root;
+                final String[] segments = topic.split("/");
+                final boolean wildcard = "*".equals(segments[segments.length - 1]);
+                for (int i = 0; i < segments.length - (wildcard ? 1 : 0); i++) {
+                    current = current.children.computeIfAbsent(segments[i], k -> new Builder());
+                }
+                (wildcard ? current.wildcard : current.exact).add(subscription);
+            }
+        }
+        return new TopicTrie(root.build());
+    }
+
+    Subscription[] find(final String topic) {
+        final Subscription[] cached = cache.get(topic);
+        if (cached != null) {
+            return cached;
+        }
+        final Subscription[] found = lookup(topic);
+        if (cache.size() < MAX_CACHED_TOPICS) {
+            cache.put(topic, found);
+        }
+        return found;
+    }
+
+    private Subscription[] lookup(final String topic) {
+        final List<Subscription> found = new ArrayList<>();
+        Node current = root;
+        int start = 0;
+        while (true) {
+            add(found, current.wildcard);
+            final int end = topic.indexOf('/', start);
+            final Node next = current.children.get(end < 0 ? topic.substring(start) : topic.substring(start, end));
+            if (next == null) {
+                break;
+            }
+            if (end < 0) {
+                add(found, next.exact);
+                break;
+            }
+            current = next;
+            start = end + 1;
+        }
+        return found.isEmpty() ? EMPTY : found.stream().distinct().toArray(Subscription[]::new);
+    }
+
+    private static void add(final List<Subscription> found, final Subscription[] subscriptions) {
+        for (final Subscription subscription : subscriptions) {
+            found.add(subscription);
+        }
+    }
+
+    private static final class Node {
+        private final Map<String, Node> children;
+        private final Subscription[] exact;
+        private final Subscription[] wildcard;
+
+        private Node(final Map<String, Node> children, final Subscription[] exact, final Subscription[] wildcard) {
+            this.children = children;
+            this.exact = exact;
+            this.wildcard = wildcard;
+        }
+    }
+
+    private static final class Builder {
+        private final Map<String, Builder> children = new HashMap<>();
+        private final List<Subscription> exact = new ArrayList<>();
+        private final List<Subscription> wildcard = new ArrayList<>();
+
+        private Node build() {
+            final Map<String, Node> nodes = new HashMap<>(children.size() * 2);
+            children.forEach((k, v) -> nodes.put(k, v.build()));
+            return new Node(nodes, exact.toArray(EMPTY), wildcard.toArray(EMPTY));
+        }
+    }
+}
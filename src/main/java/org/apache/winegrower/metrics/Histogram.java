@@ -0,0 +1,81 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// fixed buckets (upper bounds in microseconds) so recording is a scan of a small array and a striped increment
+public final class Histogram {
+    private static final long[] BOUNDS_MICROS = { 1, 5, 10, 50, 100, 500, 1_000, 5_000, 10_000, 50_000, 100_000, 1_000_000 };
+
+    private final LongAdder[] buckets = new LongAdder[BOUNDS_MICROS.length + 1]; // last one is the overflow
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public Histogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(final long durationNanos) {
+        final long micros = durationNanos / 1_000;
+        int bucket = 0;
+        while (bucket < BOUNDS_MICROS.length && micros > BOUNDS_MICROS[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        count.increment();
+        total.add(durationNanos);
+        max.accumulate(durationNanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return total.sum();
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    // not atomic but each value is consistent on its own which is enough for monitoring
+    public Map<String, Long> snapshot() {
+        final Map<String, Long> values = new LinkedHashMap<>();
+        values.put("count", count.sum());
+        values.put("totalNanos", total.sum());
+        values.put("maxNanos", max.get());
+        for (int i = 0; i < BOUNDS_MICROS.length; i++) {
+            values.put("le_" + BOUNDS_MICROS[i] + "us", buckets[i].sum());
+        }
+        values.put("gt_" + BOUNDS_MICROS[BOUNDS_MICROS.length - 1] + "us", buckets[BOUNDS_MICROS.length].sum());
+        return values;
+    }
+
+    public void reset() {
+        for (final LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        count.reset();
+        total.reset();
+        max.reset();
+    }
+}
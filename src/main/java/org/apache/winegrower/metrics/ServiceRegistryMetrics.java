@@ -0,0 +1,150 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.metrics;
+
+import static java.util.stream.Collectors.toMap;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// striped counters only, recording never blocks nor allocates once a class was looked up once
+public class ServiceRegistryMetrics implements ServiceRegistryMetricsMXBean {
+    private final LongAdder registrations = new LongAdder();
+    private final LongAdder unregistrations = new LongAdder();
+    private final LongAdder lookups = new LongAdder();
+    private final ConcurrentMap<String, LongAdder> lookupsPerClass = new ConcurrentHashMap<>();
+    private final LongAdder filterEvaluations = new LongAdder();
+    private final LongAdder listenerDispatches = new LongAdder();
+    private final Histogram registrationLatency = new Histogram();
+    private final Histogram lookupLatency = new Histogram();
+    private final Histogram lockHoldTime = new Histogram();
+
+    public void onRegistration(final long durationNanos) {
+        registrations.increment();
+        registrationLatency.record(durationNanos);
+    }
+
+    public void onUnregistration() {
+        unregistrations.increment();
+    }
+
+    public void onLookup(final String type) {
+        lookups.increment();
+        if (type != null) {
+            LongAdder counter = lookupsPerClass.get(type);
+            if (counter == null) {
+                counter = lookupsPerClass.computeIfAbsent(type, k -> new LongAdder());
+            }
+            counter.increment();
+        }
+    }
+
+    public void onLookup(final String type, final long durationNanos) {
+        onLookup(type);
+        lookupLatency.record(durationNanos);
+    }
+
+    public void onFilterEvaluation() {
+        filterEvaluations.increment();
+    }
+
+    public void onListenerDispatch() {
+        listenerDispatches.increment();
+    }
+
+    public void onLockHeld(final long durationNanos) {
+        lockHoldTime.record(durationNanos);
+    }
+
+    public Histogram getLockHoldTimeHistogram() {
+        return lockHoldTime;
+    }
+
+    public Histogram getLookupLatencyHistogram() {
+        return lookupLatency;
+    }
+
+    public Histogram getRegistrationLatencyHistogram() {
+        return registrationLatency;
+    }
+
+    @Override
+    public long getRegistrations() {
+        return registrations.sum();
+    }
+
+    @Override
+    public long getUnregistrations() {
+        return unregistrations.sum();
+    }
+
+    @Override
+    public long getLookups() {
+        return lookups.sum();
+    }
+
+    @Override
+    public Map<String, Long> getLookupsPerClass() {
+        return lookupsPerClass.entrySet().stream()
+                .collect(toMap(Map.Entry::getKey, e -> e.getValue().sum(), (a, b) -> a, TreeMap::new));
+    }
+
+    @Override
+    public long getFilterEvaluations() {
+        return filterEvaluations.sum();
+    }
+
+    @Override
+    public long getListenerDispatches() {
+        return listenerDispatches.sum();
+    }
+
+    @Override
+    public Map<String, Long> getRegistrationLatency() {
+        return registrationLatency.snapshot();
+    }
+
+    @Override
+    public Map<String, Long> getLookupLatency() {
+        return lookupLatency.snapshot();
+    }
+
+    @Override
+    public Map<String, Long> getLockHoldTime() {
+        return lockHoldTime.snapshot();
+    }
+
+    @Override
+    public void reset() {
+        registrations.reset();
+        unregistrations.reset();
+        lookups.reset();
+        lookupsPerClass.clear();
+        filterEvaluations.reset();
+        listenerDispatches.reset();
+        registrationLatency.reset();
+        lookupLatency.reset();
+        lockHoldTime.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "ServiceRegistryMetrics{registrations=" + getRegistrations() + ", unregistrations=" + getUnregistrations()
+                + ", lookups=" + getLookups() + ", filterEvaluations=" + getFilterEvaluations()
+                + ", listenerDispatches=" + getListenerDispatches() + '}';
+    }
+}
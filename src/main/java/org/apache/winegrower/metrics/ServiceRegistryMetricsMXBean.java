@@ -0,0 +1,39 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.metrics;
+
+import java.util.Map;
+
+// MXBean to get open types (maps are exposed as tabular data) without any JMX specific code in the registry
+public interface ServiceRegistryMetricsMXBean {
+    long getRegistrations();
+
+    long getUnregistrations();
+
+    long getLookups();
+
+    Map<String, Long> getLookupsPerClass();
+
+    long getFilterEvaluations();
+
+    long getListenerDispatches();
+
+    Map<String, Long> getRegistrationLatency();
+
+    Map<String, Long> getLookupLatency();
+
+    Map<String, Long> getLockHoldTime();
+
+    void reset();
+}
@@ -0,0 +1,128 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.scanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.Manifest;
+
+// JVM wide cache of the scanning results shared by the framework instances: entries are keyed by jar path and
+// kind of scan and are only reused while the jar size and last modification date did not change,
+// cached manifests are never exposed, callers always get a copy they can mutate.
+// Failures are not cached (they can depend on the caller classloader) and the size is bounded, entries of deleted
+// jars are evicted by evictDeleted()
+public final class ScanCache {
+    private static final ScanCache INSTANCE = new ScanCache();
+    private static final int MAX_ENTRIES = Integer.getInteger("winegrower.scan.cache.max", 8192);
+
+    private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<>();
+
+    private ScanCache() {
+        // no-op
+    }
+
+    public static ScanCache get() {
+        return INSTANCE;
+    }
+
+    // directories are not cached since their timestamp does not reflect nested changes
+    Manifest computeIfAbsent(final File file, final String kind, final Loader loader) throws IOException {
+        if (!file.isFile()) {
+            return loader.load(file);
+        }
+        final Key key = new Key(file.getAbsolutePath(), kind);
+        final long lastModified = file.lastModified();
+        final long size = file.length();
+        final Entry existing = entries.get(key);
+        if (existing != null && existing.lastModified == lastModified && existing.size == size) {
+            return copy(existing.manifest);
+        }
+        // concurrent misses can scan twice, the last one wins, it is cheaper than locking during a scan
+        final Manifest manifest = loader.load(file); // an IOException is propagated so never cached
+        if (existing != null || entries.size() < MAX_ENTRIES) { // past the limit new jars are just not cached
+            entries.put(key, new Entry(lastModified, size, copy(manifest)));
+        }
+        return manifest;
+    }
+
+    public void evictDeleted() {
+        entries.keySet().removeIf(it -> !new File(it.path).isFile());
+    }
+
+    public void invalidate(final File file) {
+        final String path = file.getAbsolutePath();
+        entries.keySet().removeIf(it -> it.path.equals(path));
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private static Manifest copy(final Manifest manifest) {
+        return manifest == null ? null : new Manifest(manifest);
+    }
+
+    interface Loader {
+        // failures must be reported as an IOException, a null manifest ("not a bundle") is cached
+        Manifest load(File file) throws IOException;
+    }
+
+    private static final class Key {
+        private final String path;
+        private final String kind;
+        private final int hash;
+
+        private Key(final String path, final String kind) {
+            this.path = path;
+            this.kind = kind;
+            this.hash = Objects.hash(path, kind);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Key key = Key.class.cast(o);
+            return path.equals(key.path) && kind.equals(key.kind);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+        private final long lastModified;
+        private final long size;
+        private final Manifest manifest; // null when the jar is not a bundle
+
+        private Entry(final long lastModified, final long size, final Manifest manifest) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.manifest = manifest;
+        }
+    }
+}
@@ -13,6 +13,7 @@
  */
 package org.apache.winegrower.scanner;
 
+import static java.util.stream.Collectors.joining;
 import static java.util.stream.Collectors.toList;
 import static org.apache.xbean.finder.archive.ClasspathArchive.archive;
 
@@ -23,12 +24,20 @@ import java.io.InputStream;
 import java.net.URL;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 
 import org.apache.winegrower.ContextualFramework;
+import org.apache.winegrower.deployer.ArchiveCache;
+import org.apache.winegrower.scanner.manifest.ActivatorManifestContributor;
+import org.apache.winegrower.scanner.manifest.DeclarativeServicesManifestContributor;
+import org.apache.winegrower.scanner.manifest.KarafCommandManifestContributor;
+import org.apache.winegrower.scanner.manifest.ManifestContributor;
 import org.apache.winegrower.scanner.manifest.ManifestCreator;
 import org.apache.xbean.finder.AnnotationFinder;
 import org.apache.xbean.finder.ClassLoaders;
@@ -40,16 +49,25 @@ import org.slf4j.LoggerFactory;
 
 public class StandaloneScanner {
     private final static Logger LOGGER = LoggerFactory.getLogger(StandaloneScanner.class);
+    private static final Map<ManifestContributor, Long> CONTRIBUTOR_IDS = new WeakHashMap<>(); // guarded by itself
+    private static final AtomicLong CONTRIBUTOR_ID = new AtomicLong();
     private static final Attributes.Name OSGI_MANIFEST_MARKER = new Attributes.Name("Bundle-Version");
 
     private final List<URL> urls;
     private final ContextualFramework.Configuration configuration;
     private final ClassLoader loader;
     private final File frameworkJar;
+    private final ArchiveCache archives;
 
     public StandaloneScanner(final ContextualFramework.Configuration configuration, final File frameworkJar) {
+        this(configuration, frameworkJar, null);
+    }
+
+    public StandaloneScanner(final ContextualFramework.Configuration configuration, final File frameworkJar,
+                             final ArchiveCache archives) {
         this.configuration = configuration;
         this.frameworkJar = frameworkJar;
+        this.archives = archives;
         this.loader = Thread.currentThread().getContextClassLoader();
         try {
             this.urls = new UrlSet(ClassLoaders.findUrls(loader))
@@ -62,30 +80,20 @@ public class StandaloneScanner {
 
     public Collection<BundleDefinition> findPotentialOSGiBundles() {
         final KnownJarsFilter filter = new KnownJarsFilter(configuration);
+        final String scanKind = configuration.getManifestContributors().stream() // contributors define the result
+                .map(StandaloneScanner::contributorKey)
+                .collect(joining(",", "scan:", ""));
+        if (configuration.isUseScanCache()) {
+            ScanCache.get().evictDeleted();
+        }
         return urls.stream()
               .map(it -> new FileAndUrl(Files.toFile(it), it))
               .filter(it -> !it.file.getAbsoluteFile().equals(frameworkJar))
               .filter(it -> filter.test(it.file.getName()))
               .filter(it -> toDefinition(it.file) == null)
               .map(it -> {
-                  final Archive jarArchive = archive(loader, it.url);
-                  // we scan per archive to be able to create bundle after
-                  try {
-                      final AnnotationFinder archiveFinder = new AnnotationFinder(jarArchive);
-                      final ManifestCreator manifestCreator = new ManifestCreator(it.file.getName());
-                      configuration.getManifestContributors()
-                                   .forEach(c -> c.contribute(archiveFinder, manifestCreator));
-                      final Manifest manifest = manifestCreator.getManifest();
-                      if (manifest == null) {
-                          LOGGER.debug("{} was scanned for nothing, maybe adjust scanning exclusions", it.file);
-                          return null;
-                      }
-                      LOGGER.debug("{} was scanned and is converted to a bundle", it.file);
-                      return new BundleDefinition(manifest, it.file);
-                  } catch (final LinkageError e) {
-                      LOGGER.debug("{} is not scannable, maybe exclude it in framework configuration", it.file);
-                      return null;
-                  }
+                  final Manifest manifest = cached(it.file, scanKind, file -> scan(it));
+                  return manifest == null ? null : new BundleDefinition(manifest, it.file);
               })
               .filter(Objects::nonNull)
               .collect(toList());
@@ -101,6 +109,48 @@ public class StandaloneScanner {
                 .collect(toList());
     }
 
+    // built-in contributors are stateless so their class identifies them, the others can be configured per instance
+    private static String contributorKey(final ManifestContributor contributor) {
+        final Class<?> type = contributor.getClass();
+        if (type == ActivatorManifestContributor.class || type == KarafCommandManifestContributor.class ||
+                type == DeclarativeServicesManifestContributor.class) {
+            return type.getName();
+        }
+        synchronized (CONTRIBUTOR_IDS) {
+            return type.getName() + '#' + CONTRIBUTOR_IDS.computeIfAbsent(contributor, k -> CONTRIBUTOR_ID.incrementAndGet());
+        }
+    }
+
+    private Manifest scan(final FileAndUrl it) throws IOException {
+        final Archive jarArchive = archive(loader, it.url);
+        // we scan per archive to be able to create bundle after
+        try {
+            final AnnotationFinder archiveFinder = new AnnotationFinder(jarArchive);
+            final ManifestCreator manifestCreator = new ManifestCreator(it.file.getName());
+            configuration.getManifestContributors()
+                         .forEach(c -> c.contribute(archiveFinder, manifestCreator, archives));
+            final Manifest manifest = manifestCreator.getManifest();
+            if (manifest == null) {
+                LOGGER.debug("{} was scanned for nothing, maybe adjust scanning exclusions", it.file);
+                return null;
+            }
+            LOGGER.debug("{} was scanned and is converted to a bundle", it.file);
+            return manifest;
+        } catch (final LinkageError e) { // depends on the context classloader, it must not be cached
+            LOGGER.debug("{} is not scannable, maybe exclude it in framework configuration", it.file);
+            throw new IOException("Can't scan " + it.file, e);
+        }
+    }
+
+    private Manifest cached(final File file, final String kind, final ScanCache.Loader loader) {
+        try {
+            return configuration.isUseScanCache() ? ScanCache.get().computeIfAbsent(file, kind, loader) : loader.load(file);
+        } catch (final IOException e) {
+            LOGGER.debug("{} is ignored: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
     private boolean isIncluded(final File file) {
         return !configuration.getJarFilter().test(file.getName());
     }
@@ -121,17 +171,27 @@ public class StandaloneScanner {
             }
             return null;
         }
-        try (final JarFile jar = new JarFile(file)) {
-            final Manifest manifest = jar.getManifest();
-            if (manifest == null) {
-                return null;
+        final Manifest manifest = cached(file, "bundle", jar -> {
+            try {
+                final Manifest mf = readManifest(jar);
+                return mf != null && isOSGi(mf) ? mf : null;
+            } catch (final RuntimeException e) { // not cached
+                throw new IOException("Can't read the manifest of " + jar, e);
             }
-            if (isOSGi(manifest)) {
-                return new BundleDefinition(manifest, file);
+        });
+        return manifest == null ? null : new BundleDefinition(manifest, file);
+    }
+
+    // jars are visited twice (potential and real bundles), the shared cache avoids to reopen them
+    private Manifest readManifest(final File file) throws IOException {
+        if (archives == null) {
+            try (final JarFile jar = new JarFile(file)) {
+                return jar.getManifest();
             }
-            return null;
-        } catch (final Exception e) {
-            return null;
+        }
+        try (final ArchiveCache.Lease lease = archives.open(file)) {
+            final Manifest manifest = lease.getJarFile().getManifest();
+            return manifest == null ? null : new Manifest(manifest); // the jar one is shared and mutable
         }
     }
 
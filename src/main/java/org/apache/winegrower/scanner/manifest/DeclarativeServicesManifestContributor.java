@@ -0,0 +1,186 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.scanner.manifest;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.apache.winegrower.deployer.ArchiveCache;
+import org.apache.winegrower.ds.ComponentAnnotationReader;
+import org.apache.winegrower.ds.ComponentDescriptorParser;
+import org.apache.winegrower.ds.ComponentMetadata;
+import org.apache.xbean.finder.AnnotationFinder;
+import org.apache.xbean.finder.archive.Archive;
+import org.apache.xbean.finder.archive.FileArchive;
+import org.apache.xbean.finder.archive.JarArchive;
+import org.apache.xbean.finder.util.Files;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// precomputes the DS components at scan time (annotations and OSGI-INF descriptors) so the runtime
+// does not need to parse anything else than the Winegrower-Service-Component header
+public class DeclarativeServicesManifestContributor implements ManifestContributor {
+    public static final String HEADER = "Winegrower-Service-Component";
+
+    private static final String SERVICE_COMPONENT = "Service-Component";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeclarativeServicesManifestContributor.class);
+
+    @Override
+    public void contribute(final AnnotationFinder finder, final Supplier<Manifest> manifest) {
+        contribute(finder, manifest, null);
+    }
+
+    @Override
+    public void contribute(final AnnotationFinder finder, final Supplier<Manifest> manifest,
+                           final ArchiveCache archives) {
+        final Collection<ComponentMetadata> components = new ArrayList<>();
+        final Archive archive = finder.getArchive();
+        for (final String className : finder.getAnnotatedClassNames()) {
+            try (final InputStream bytecode = archive.getBytecode(className)) {
+                final ComponentMetadata component = ComponentAnnotationReader.read(bytecode);
+                if (component != null) {
+                    components.add(component);
+                }
+            } catch (final IOException | ClassNotFoundException e) {
+                LOGGER.debug("Can't read {}: {}", className, e.getMessage());
+            }
+        }
+        components.addAll(descriptors(archive, archives));
+        if (!components.isEmpty()) {
+            manifest.get().getMainAttributes().putValue(HEADER, ComponentMetadata.toXml(components));
+        }
+    }
+
+    // only the descriptors listed in the Service-Component header of the jar are read, like a real bundle
+    private Collection<ComponentMetadata> descriptors(final Archive archive, final ArchiveCache archives) {
+        try {
+            if (FileArchive.class.isInstance(archive)) {
+                return descriptors(FileArchive.class.cast(archive).getDir());
+            }
+            if (JarArchive.class.isInstance(archive)) {
+                final File file = Files.toFile(JarArchive.class.cast(archive).getUrl());
+                if (archives != null) {
+                    try (final ArchiveCache.Lease lease = archives.open(file)) {
+                        return descriptors(lease.getJarFile(), () -> archives.getEntries(file));
+                    }
+                }
+                try (final JarFile jar = new JarFile(file)) { // no shared archives (standalone scanner)
+                    return descriptors(jar, () -> jar.stream().map(JarEntry::getName).collect(toList()));
+                }
+            }
+        } catch (final IOException | IllegalArgumentException e) {
+            LOGGER.debug("Can't read DS descriptors of {}: {}", archive, e.getMessage());
+        }
+        return emptyList();
+    }
+
+    private Collection<ComponentMetadata> descriptors(final JarFile jar,
+                                                      final Supplier<Collection<String>> entries) throws IOException {
+        final Collection<String> paths = paths(jar.getManifest());
+        if (paths.isEmpty()) {
+            return emptyList();
+        }
+        final Collection<ComponentMetadata> components = new ArrayList<>();
+        for (final String path : paths) {
+            final Collection<String> names = path.indexOf('*') < 0 ?
+                    singletonList(path) : entries.get().stream().filter(matcher(path)).collect(toList());
+            for (final String name : names) {
+                final JarEntry entry = jar.getJarEntry(name);
+                if (entry == null) {
+                    LOGGER.debug("Missing DS descriptor {} in {}", name, jar.getName());
+                    continue;
+                }
+                try (final InputStream stream = jar.getInputStream(entry)) {
+                    components.addAll(ComponentDescriptorParser.parse(stream));
+                }
+            }
+        }
+        return components;
+    }
+
+    private Collection<ComponentMetadata> descriptors(final File dir) throws IOException {
+        final File manifestFile = new File(dir, "META-INF/MANIFEST.MF");
+        if (!manifestFile.isFile()) {
+            return emptyList();
+        }
+        final Collection<String> paths;
+        try (final InputStream stream = new FileInputStream(manifestFile)) {
+            paths = paths(new Manifest(stream));
+        }
+        final Collection<ComponentMetadata> components = new ArrayList<>();
+        for (final String path : paths) {
+            final Collection<File> files;
+            if (path.indexOf('*') < 0) {
+                files = singletonList(new File(dir, path));
+            } else {
+                final int slash = path.lastIndexOf('/');
+                final File[] children = new File(dir, slash < 0 ? "" : path.substring(0, slash)).listFiles();
+                final Predicate<String> matcher = matcher(path);
+                files = children == null ? emptyList() : Stream.of(children)
+                        .filter(it -> matcher.test(path.substring(0, slash + 1) + it.getName()))
+                        .collect(toList());
+            }
+            for (final File file : files) {
+                if (!file.isFile()) {
+                    LOGGER.debug("Missing DS descriptor {}", file);
+                    continue;
+                }
+                try (final InputStream stream = new FileInputStream(file)) {
+                    components.addAll(ComponentDescriptorParser.parse(stream));
+                }
+            }
+        }
+        return components;
+    }
+
+    private Collection<String> paths(final Manifest manifest) {
+        final String header = manifest == null ? null : manifest.getMainAttributes().getValue(SERVICE_COMPONENT);
+        if (header == null) {
+            return emptyList();
+        }
+        return Stream.of(header.split(","))
+                .map(String::trim)
+                .map(it -> it.startsWith("/") ? it.substring(1) : it)
+                .filter(it -> !it.isEmpty())
+                .collect(toList());
+    }
+
+    // wildcards are only supported in the last path segment (OSGI-INF/*.xml)
+    private Predicate<String> matcher(final String path) {
+        final int slash = path.lastIndexOf('/');
+        final String parent = path.substring(0, slash + 1);
+        final Pattern name = Pattern.compile(Stream.of(path.substring(slash + 1).split("\\*", -1))
+                .map(Pattern::quote)
+                .collect(joining(".*")));
+        return it -> it.startsWith(parent) && it.indexOf('/', parent.length()) < 0 &&
+                name.matcher(it.substring(parent.length())).matches();
+    }
+}
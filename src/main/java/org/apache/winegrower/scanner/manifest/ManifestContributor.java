@@ -16,8 +16,15 @@ package org.apache.winegrower.scanner.manifest;
 import java.util.function.Supplier;
 import java.util.jar.Manifest;
 
+import org.apache.winegrower.deployer.ArchiveCache;
 import org.apache.xbean.finder.AnnotationFinder;
 
 public interface ManifestContributor {
     void contribute(final AnnotationFinder finder, final Supplier<Manifest> manifest);
+
+    // contributors reading resources (not classes) of the scanned jar go through the shared archives (can be null)
+    default void contribute(final AnnotationFinder finder, final Supplier<Manifest> manifest,
+                            final ArchiveCache archives) {
+        contribute(finder, manifest);
+    }
 }
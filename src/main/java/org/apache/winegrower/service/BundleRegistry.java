@@ -13,21 +13,45 @@
  */
 package org.apache.winegrower.service;
 
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.unmodifiableCollection;
+import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableMap;
 import static org.apache.xbean.finder.util.Files.toFile;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.jar.Manifest;
 
 import org.apache.winegrower.ContextualFramework;
+import org.apache.winegrower.deployer.ArchiveCache;
+import org.apache.winegrower.deployer.BundleListenerRegistry;
+import org.apache.winegrower.deployer.FrameworkStartLevelImpl;
 import org.apache.winegrower.deployer.OSGiBundleLifecycle;
+import org.apache.winegrower.deployer.ResourceIndex;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Version;
 
+// writes (deployment) are rare and serialized, reads (BundleContext#getBundle*) only dereference an immutable snapshot
 public class BundleRegistry {
-    private final Map<Long, OSGiBundleLifecycle> bundles = new HashMap<>();
     private final File framework;
+    private final ArchiveCache archives;
+    private final BundleListenerRegistry bundleListeners = new BundleListenerRegistry();
+    private final ClassBundleIndex classIndex = new ClassBundleIndex(this);
+    private final FrameworkStartLevelImpl startLevel;
+    private volatile ResourceIndex resourceIndex;
+    private volatile Snapshot snapshot = new Snapshot(new OSGiBundleLifecycle[0]);
 
     public BundleRegistry(final OSGiServices services, final ContextualFramework.Configuration configuration) {
+        this.archives = new ArchiveCache(configuration.getArchiveIdleTimeout());
+        this.startLevel = new FrameworkStartLevelImpl(this, configuration);
         final String resource = getClass().getName().replace('.', '/') + ".class";
         final File file = toFile(Thread.currentThread().getContextClassLoader().getResource(resource));
         this.framework = file.getName().endsWith(".class") ?
@@ -39,14 +63,156 @@ public class BundleRegistry {
         frameworkManifest.getMainAttributes().putValue("Manifest-Version", "1.0");
         frameworkManifest.getMainAttributes().putValue("Bundle-Version", "1.0");
         frameworkManifest.getMainAttributes().putValue("Bundle-SymbolicName", "Contextual Framework");
-        bundles.put(0L, new OSGiBundleLifecycle(frameworkManifest, framework, services, this, configuration, 0L));
+        register(new OSGiBundleLifecycle(frameworkManifest, framework, services, this, configuration, 0L));
+    }
+
+    // null when not enabled, resources are then looked up with the classloader
+    public ResourceIndex getResourceIndex() {
+        return resourceIndex;
+    }
+
+    public void setResourceIndex(final ResourceIndex resourceIndex) {
+        this.resourceIndex = resourceIndex;
+    }
+
+    public FrameworkStartLevelImpl getStartLevel() {
+        return startLevel;
+    }
+
+    public ClassBundleIndex getClassIndex() {
+        return classIndex;
+    }
+
+    public BundleListenerRegistry getBundleListeners() {
+        return bundleListeners;
+    }
+
+    public ArchiveCache getArchives() {
+        return archives;
     }
 
     public File getFramework() {
         return framework;
     }
 
+    public void register(final OSGiBundleLifecycle bundle) {
+        registerAll(singletonList(bundle));
+    }
+
+    // deployment of a set of bundles publishing a single snapshot
+    public synchronized void registerAll(final Collection<OSGiBundleLifecycle> bundles) {
+        if (bundles.isEmpty()) {
+            return;
+        }
+        final OSGiBundleLifecycle[] current = snapshot.byId;
+        int length = current.length;
+        for (final OSGiBundleLifecycle bundle : bundles) {
+            length = Math.max(length, toIndex(bundle.getBundle().getBundleId()) + 1);
+        }
+        final OSGiBundleLifecycle[] updated = Arrays.copyOf(current, length);
+        for (final OSGiBundleLifecycle bundle : bundles) {
+            updated[toIndex(bundle.getBundle().getBundleId())] = bundle;
+        }
+        snapshot = new Snapshot(updated);
+    }
+
+    public OSGiBundleLifecycle unregister(final long id) {
+        final Collection<OSGiBundleLifecycle> removed = unregisterAll(singletonList(id));
+        return removed.isEmpty() ? null : removed.iterator().next();
+    }
+
+    // undeployment of a set of bundles publishing a single snapshot, returns the removed bundles
+    public synchronized Collection<OSGiBundleLifecycle> unregisterAll(final Collection<Long> ids) {
+        final OSGiBundleLifecycle[] current = snapshot.byId;
+        final OSGiBundleLifecycle[] updated = current.clone();
+        final Collection<OSGiBundleLifecycle> removed = new ArrayList<>(ids.size());
+        for (final long id : ids) {
+            final int index = toIndex(id);
+            if (index < updated.length && updated[index] != null) {
+                removed.add(updated[index]);
+                updated[index] = null;
+            }
+        }
+        if (removed.isEmpty()) {
+            return emptyList();
+        }
+        int length = updated.length;
+        while (length > 0 && updated[length - 1] == null) {
+            length--;
+        }
+        snapshot = new Snapshot(length == updated.length ? updated : Arrays.copyOf(updated, length));
+        return removed;
+    }
+
+    public OSGiBundleLifecycle getBundle(final long id) {
+        final OSGiBundleLifecycle[] byId = snapshot.byId;
+        return id < 0 || id >= byId.length ? null : byId[(int) id];
+    }
+
+    public OSGiBundleLifecycle getBundleByLocation(final String location) {
+        return location == null ? null : snapshot.byLocation.get(location);
+    }
+
+    // all versions when version is null
+    public Collection<OSGiBundleLifecycle> getBundles(final String symbolicName, final Version version) {
+        final List<OSGiBundleLifecycle> bundles = snapshot.bySymbolicName.get(symbolicName);
+        if (bundles == null) {
+            return emptyList();
+        }
+        if (version == null) {
+            return unmodifiableList(bundles);
+        }
+        final Collection<OSGiBundleLifecycle> matching = new ArrayList<>(1);
+        for (final OSGiBundleLifecycle bundle : bundles) {
+            if (version.equals(bundle.getBundle().getVersion())) {
+                matching.add(bundle);
+            }
+        }
+        return unmodifiableCollection(matching);
+    }
+
+    // the array is shared, callers exposing it must copy it
+    public Bundle[] getBundleArray() {
+        return snapshot.bundles;
+    }
+
+    // immutable, ordered by id
     public Map<Long, OSGiBundleLifecycle> getBundles() {
-        return bundles;
+        return snapshot.view;
+    }
+
+    private static int toIndex(final long id) {
+        if (id < 0 || id > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Unsupported bundle id: " + id);
+        }
+        return (int) id;
+    }
+
+    private static class Snapshot {
+        private final OSGiBundleLifecycle[] byId; // ids are dense (generated from a counter) so an array is enough
+        private final Bundle[] bundles;
+        private final Map<Long, OSGiBundleLifecycle> view;
+        private final Map<String, OSGiBundleLifecycle> byLocation = new HashMap<>();
+        private final Map<String, List<OSGiBundleLifecycle>> bySymbolicName = new HashMap<>();
+
+        private Snapshot(final OSGiBundleLifecycle[] byId) {
+            this.byId = byId;
+            final Map<Long, OSGiBundleLifecycle> view = new LinkedHashMap<>();
+            final List<Bundle> bundles = new ArrayList<>(byId.length);
+            for (final OSGiBundleLifecycle lifecycle : byId) {
+                if (lifecycle == null) {
+                    continue;
+                }
+                final Bundle bundle = lifecycle.getBundle();
+                view.put(bundle.getBundleId(), lifecycle);
+                bundles.add(bundle);
+                byLocation.put(bundle.getLocation(), lifecycle);
+                if (bundle.getSymbolicName() != null) {
+                    bySymbolicName.computeIfAbsent(bundle.getSymbolicName(), k -> new ArrayList<>(1)).add(lifecycle);
+                }
+            }
+            this.view = unmodifiableMap(view);
+            this.bundles = bundles.toArray(new Bundle[0]);
+        }
     }
 }
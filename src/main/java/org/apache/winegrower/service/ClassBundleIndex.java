@@ -0,0 +1,174 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.service;
+
+import static java.util.Collections.emptyList;
+import static org.apache.xbean.finder.util.Files.toFile;
+
+import java.net.URL;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.winegrower.api.BundleLookup;
+import org.apache.winegrower.deployer.BundleImpl;
+import org.apache.winegrower.deployer.OSGiBundleLifecycle;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleReference;
+import org.osgi.framework.Constants;
+
+// class -> bundle resolution cached per class, the cache is validated against the registry snapshot
+// so (un)deploying a bundle is taken into account without having to clear anything
+public class ClassBundleIndex implements BundleLookup {
+    private final BundleRegistry registry;
+    private final ClassValue<Resolution> resolutions = new ClassValue<Resolution>() {
+        @Override
+        protected Resolution computeValue(final Class<?> type) {
+            return new Resolution();
+        }
+    };
+    private volatile Packages packages;
+
+    ClassBundleIndex(final BundleRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public Bundle getBundle(final Class<?> type) {
+        final ClassLoader loader = type.getClassLoader();
+        if (BundleReference.class.isInstance(loader)) { // isolated mode
+            return BundleReference.class.cast(loader).getBundle();
+        }
+        final Map<Long, OSGiBundleLifecycle> generation = registry.getBundles();
+        final Resolution resolution = resolutions.get(type);
+        final Resolved resolved = resolution.resolved;
+        if (resolved != null && resolved.generation == generation) {
+            return resolved.bundle;
+        }
+        final Bundle bundle = resolve(type, generation);
+        resolution.resolved = new Resolved(generation, bundle);
+        return bundle;
+    }
+
+    private Bundle resolve(final Class<?> type, final Map<Long, OSGiBundleLifecycle> generation) {
+        final String location = findLocation(type);
+        if (location != null) {
+            final OSGiBundleLifecycle bundle = registry.getBundleByLocation(location);
+            if (bundle != null) {
+                return bundle.getBundle();
+            }
+        }
+        final Package pkg = type.getPackage();
+        final String name = pkg != null ? pkg.getName() : packageOf(type.getName());
+        return getPackages(generation).byName.get(name);
+    }
+
+    public Bundle findBundleByPackage(final String name) {
+        return getPackages(registry.getBundles()).byName.get(name);
+    }
+
+    private Packages getPackages(final Map<Long, OSGiBundleLifecycle> generation) {
+        final Packages current = packages;
+        if (current != null && current.generation == generation) {
+            return current;
+        }
+        final Map<String, Bundle> byName = new HashMap<>();
+        generation.values().forEach(lifecycle -> { // exporters first
+            final BundleImpl bundle = lifecycle.getBundle();
+            parseExportedPackages(bundle.getHeaders().get(Constants.EXPORT_PACKAGE)).forEach(it -> byName.putIfAbsent(it, bundle));
+        });
+        generation.values().forEach(lifecycle -> { // then observed content, lowest id wins for split packages
+            final BundleImpl bundle = lifecycle.getBundle();
+            bundle.getPackages().forEach(it -> byName.putIfAbsent(it, bundle));
+        });
+        final Packages updated = new Packages(generation, byName);
+        packages = updated;
+        return updated;
+    }
+
+    // "a.b;version=1,c.d;uses:=\"a.b,e.f\"" -> [a.b, c.d]
+    static Collection<String> parseExportedPackages(final String header) {
+        if (header == null || header.trim().isEmpty()) {
+            return emptyList();
+        }
+        final Collection<String> packages = new ArrayList<>();
+        boolean quoted = false;
+        boolean attributes = false;
+        final StringBuilder current = new StringBuilder();
+        for (int i = 0; i < header.length(); i++) {
+            final char c = header.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                addPackage(packages, current);
+                attributes = false;
+            } else if (c == ';' && !quoted) {
+                attributes = true;
+            } else if (!attributes) {
+                current.append(c);
+            }
+        }
+        addPackage(packages, current);
+        return packages;
+    }
+
+    private static void addPackage(final Collection<String> packages, final StringBuilder current) {
+        final String name = current.toString().trim();
+        if (!name.isEmpty()) {
+            packages.add(name);
+        }
+        current.setLength(0);
+    }
+
+    private static String findLocation(final Class<?> type) {
+        try {
+            final CodeSource codeSource = type.getProtectionDomain().getCodeSource();
+            final URL url = codeSource == null ? null : codeSource.getLocation();
+            return url == null ? null : toFile(url).getAbsolutePath();
+        } catch (final SecurityException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String packageOf(final String className) {
+        final int dot = className.lastIndexOf('.');
+        return dot < 0 ? "" : className.substring(0, dot);
+    }
+
+    private static class Resolution {
+        private volatile Resolved resolved;
+    }
+
+    private static class Resolved {
+        private final Map<Long, OSGiBundleLifecycle> generation;
+        private final Bundle bundle;
+
+        private Resolved(final Map<Long, OSGiBundleLifecycle> generation, final Bundle bundle) {
+            this.generation = generation;
+            this.bundle = bundle;
+        }
+    }
+
+    private static class Packages {
+        private final Map<Long, OSGiBundleLifecycle> generation;
+        private final Map<String, Bundle> byName;
+
+        private Packages(final Map<Long, OSGiBundleLifecycle> generation, final Map<String, Bundle> byName) {
+            this.generation = generation;
+            this.byName = byName;
+        }
+    }
+}
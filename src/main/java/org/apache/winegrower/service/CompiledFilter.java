@@ -0,0 +1,653 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.service;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.osgi.framework.Filter;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+
+// LDAP filter parsed once into a tree of specialized nodes, evaluating it against ServiceProperties
+// does not allocate: property slots are cached per shape and operands are coerced once per value type
+public final class CompiledFilter implements Filter {
+    private static final int MAX_CACHED_FILTERS = 1024;
+    private static final Map<String, CompiledFilter> CACHE = new ConcurrentHashMap<>();
+
+    private final String filter;
+    private final Node root;
+
+    private CompiledFilter(final String filter, final Node root) {
+        this.filter = filter;
+        this.root = root;
+    }
+
+    public static CompiledFilter compile(final String filter) throws InvalidSyntaxException {
+        if (filter == null) {
+            throw new NullPointerException("filter can't be null");
+        }
+        final CompiledFilter existing = CACHE.get(filter);
+        if (existing != null) {
+            return existing;
+        }
+        final CompiledFilter compiled = new CompiledFilter(filter, new Parser(filter).parse());
+        if (CACHE.size() >= MAX_CACHED_FILTERS) { // filters are usually constants so this is a safety net
+            CACHE.clear();
+        }
+        CACHE.putIfAbsent(filter, compiled);
+        return compiled;
+    }
+
+    @Override
+    public boolean match(final ServiceReference<?> reference) {
+        if (ServiceReferenceImpl.class.isInstance(reference)) {
+            return root.matches(ServiceReferenceImpl.class.cast(reference).getProperties());
+        }
+        return reference != null && root.matches(reference::getProperty);
+    }
+
+    @Override
+    public boolean match(final Dictionary<String, ?> dictionary) {
+        if (ServiceProperties.class.isInstance(dictionary)) {
+            return root.matches(ServiceProperties.class.cast(dictionary));
+        }
+        return dictionary != null && root.matches(key -> {
+            final Object value = dictionary.get(key);
+            if (value != null) {
+                return value;
+            }
+            final Enumeration<String> keys = dictionary.keys();
+            while (keys.hasMoreElements()) {
+                final String candidate = keys.nextElement();
+                if (candidate.equalsIgnoreCase(key)) {
+                    return dictionary.get(candidate);
+                }
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public boolean matchCase(final Dictionary<String, ?> dictionary) {
+        return dictionary != null && root.matches(dictionary::get);
+    }
+
+    @Override
+    public boolean matches(final Map<String, ?> map) {
+        return map != null && root.matches(map::get);
+    }
+
+    public boolean matches(final Function<String, ?> lookup) {
+        return root.matches(lookup);
+    }
+
+    @Override
+    public String toString() {
+        return filter;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        return obj == this || (Filter.class.isInstance(obj) && filter.equals(obj.toString()));
+    }
+
+    @Override
+    public int hashCode() {
+        return filter.hashCode();
+    }
+
+    private static abstract class Node {
+        abstract boolean matches(ServiceProperties properties);
+
+        abstract boolean matches(Function<String, ?> lookup);
+    }
+
+    private static final class And extends Node {
+        private final Node[] children;
+
+        private And(final Node[] children) {
+            this.children = children;
+        }
+
+        @Override
+        boolean matches(final ServiceProperties properties) {
+            for (final Node child : children) {
+                if (!child.matches(properties)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        boolean matches(final Function<String, ?> lookup) {
+            for (final Node child : children) {
+                if (!child.matches(lookup)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Or extends Node {
+        private final Node[] children;
+
+        private Or(final Node[] children) {
+            this.children = children;
+        }
+
+        @Override
+        boolean matches(final ServiceProperties properties) {
+            for (final Node child : children) {
+                if (child.matches(properties)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        boolean matches(final Function<String, ?> lookup) {
+            for (final Node child : children) {
+                if (child.matches(lookup)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Not extends Node {
+        private final Node child;
+
+        private Not(final Node child) {
+            this.child = child;
+        }
+
+        @Override
+        boolean matches(final ServiceProperties properties) {
+            return !child.matches(properties);
+        }
+
+        @Override
+        boolean matches(final Function<String, ?> lookup) {
+            return !child.matches(lookup);
+        }
+    }
+
+    // a comparison against a single attribute
+    private static abstract class Leaf extends Node {
+        private final String attribute;
+        private volatile SlotCache slot; // last shape seen, services mostly share a few shapes
+
+        private Leaf(final String attribute) {
+            this.attribute = attribute.intern(); // enables the identity lookup of ServiceProperties
+        }
+
+        @Override
+        boolean matches(final ServiceProperties properties) {
+            final ServiceProperties.Shape shape = properties.getShape();
+            SlotCache cache = slot;
+            if (cache == null || cache.shape != shape) {
+                cache = new SlotCache(shape, properties.indexOf(attribute));
+                slot = cache;
+            }
+            return cache.index >= 0 && matchesValue(properties.valueAt(cache.index));
+        }
+
+        @Override
+        boolean matches(final Function<String, ?> lookup) {
+            final Object value = lookup.apply(attribute);
+            return value != null && matchesValue(value);
+        }
+
+        private boolean matchesValue(final Object value) {
+            if (value == null) {
+                return false;
+            }
+            if (Object[].class.isInstance(value)) {
+                for (final Object item : Object[].class.cast(value)) {
+                    if (item != null && matchesScalar(item)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if (Collection.class.isInstance(value)) {
+                for (final Object item : Collection.class.cast(value)) {
+                    if (item != null && matchesScalar(item)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if (value.getClass().isArray()) { // primitive arrays
+                final int length = Array.getLength(value);
+                for (int i = 0; i < length; i++) {
+                    if (matchesScalar(Array.get(value, i))) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            return matchesScalar(value);
+        }
+
+        abstract boolean matchesScalar(Object value);
+    }
+
+    private static final class SlotCache {
+        private final ServiceProperties.Shape shape;
+        private final int index;
+
+        private SlotCache(final ServiceProperties.Shape shape, final int index) {
+            this.shape = shape;
+            this.index = index;
+        }
+    }
+
+    private static final class Present extends Leaf {
+        private Present(final String attribute) {
+            super(attribute);
+        }
+
+        @Override
+        boolean matchesScalar(final Object value) {
+            return true;
+        }
+    }
+
+    private static final class Substring extends Leaf {
+        private final String[] parts; // null entries are wildcards
+
+        private Substring(final String attribute, final String[] parts) {
+            super(attribute);
+            this.parts = parts;
+        }
+
+        @Override
+        boolean matchesScalar(final Object value) {
+            if (!String.class.isInstance(value)) {
+                return false;
+            }
+            final String string = String.class.cast(value);
+            int position = 0;
+            for (int i = 0; i < parts.length; i++) {
+                final String part = parts[i];
+                if (part == null) {
+                    continue;
+                }
+                if (i == 0) { // initial
+                    if (!string.startsWith(part)) {
+                        return false;
+                    }
+                    position = part.length();
+                } else if (i == parts.length - 1) { // final
+                    return string.length() - part.length() >= position && string.endsWith(part);
+                } else {
+                    final int index = string.indexOf(part, position);
+                    if (index < 0) {
+                        return false;
+                    }
+                    position = index + part.length();
+                }
+            }
+            return true;
+        }
+    }
+
+    private enum Operator {
+        EQUAL, APPROX, GREATER_OR_EQUAL, LESS_OR_EQUAL
+    }
+
+    private static final class Comparison extends Leaf {
+        private static final Object INVALID = new Object();
+
+        private final Operator operator;
+        private final String operand;
+        private final String approxOperand;
+        private volatile Coerced coerced; // operand converted to the last seen value type
+
+        private Comparison(final String attribute, final Operator operator, final String operand) {
+            super(attribute);
+            this.operator = operator;
+            this.operand = operand;
+            this.approxOperand = operator == Operator.APPROX ? approx(operand) : null;
+        }
+
+        @Override
+        boolean matchesScalar(final Object value) {
+            if (String.class.isInstance(value)) {
+                final String string = String.class.cast(value);
+                switch (operator) {
+                    case APPROX:
+                        return approx(string).equalsIgnoreCase(approxOperand);
+                    case GREATER_OR_EQUAL:
+                        return string.compareTo(operand) >= 0;
+                    case LESS_OR_EQUAL:
+                        return string.compareTo(operand) <= 0;
+                    case EQUAL:
+                    default:
+                        return string.equals(operand);
+                }
+            }
+            final Object target = coerce(value.getClass());
+            if (target == INVALID) {
+                return false;
+            }
+            if (Comparable.class.isInstance(value)) {
+                final int comparison = compare(value, target);
+                switch (operator) {
+                    case GREATER_OR_EQUAL:
+                        return comparison >= 0;
+                    case LESS_OR_EQUAL:
+                        return comparison <= 0;
+                    case APPROX:
+                    case EQUAL:
+                    default:
+                        return comparison == 0;
+                }
+            }
+            return (operator == Operator.EQUAL || operator == Operator.APPROX) && value.equals(target);
+        }
+
+        private int compare(final Object value, final Object target) {
+            // primitives wrappers are compared without boxing
+            if (Integer.class.isInstance(value)) {
+                return Integer.compare(Integer.class.cast(value), Integer.class.cast(target));
+            }
+            if (Long.class.isInstance(value)) {
+                return Long.compare(Long.class.cast(value), Long.class.cast(target));
+            }
+            if (Double.class.isInstance(value)) {
+                return Double.compare(Double.class.cast(value), Double.class.cast(target));
+            }
+            if (Float.class.isInstance(value)) {
+                return Float.compare(Float.class.cast(value), Float.class.cast(target));
+            }
+            if (Boolean.class.isInstance(value)) {
+                return Boolean.compare(Boolean.class.cast(value), Boolean.class.cast(target));
+            }
+            return Comparable.class.cast(value).compareTo(target);
+        }
+
+        private Object coerce(final Class<?> type) {
+            final Coerced current = coerced;
+            if (current != null && current.type == type) {
+                return current.value;
+            }
+            final Object value = convert(type);
+            coerced = new Coerced(type, value);
+            return value;
+        }
+
+        private Object convert(final Class<?> type) {
+            final String trimmed = operand.trim();
+            try {
+                if (type == Integer.class) {
+                    return Integer.valueOf(trimmed);
+                }
+                if (type == Long.class) {
+                    return Long.valueOf(trimmed);
+                }
+                if (type == Boolean.class) {
+                    return Boolean.valueOf(trimmed);
+                }
+                if (type == Double.class) {
+                    return Double.valueOf(trimmed);
+                }
+                if (type == Float.class) {
+                    return Float.valueOf(trimmed);
+                }
+                if (type == Short.class) {
+                    return Short.valueOf(trimmed);
+                }
+                if (type == Byte.class) {
+                    return Byte.valueOf(trimmed);
+                }
+                if (type == Character.class) {
+                    return trimmed.isEmpty() ? INVALID : trimmed.charAt(0);
+                }
+                if (type == BigInteger.class) {
+                    return new BigInteger(trimmed);
+                }
+                if (type == BigDecimal.class) {
+                    return new BigDecimal(trimmed);
+                }
+                try { // spec: static valueOf(String) then String constructor
+                    final Method valueOf = type.getMethod("valueOf", String.class);
+                    if (Modifier.isStatic(valueOf.getModifiers()) && type.isAssignableFrom(valueOf.getReturnType())) {
+                        if (!valueOf.isAccessible()) {
+                            valueOf.setAccessible(true);
+                        }
+                        return valueOf.invoke(null, trimmed);
+                    }
+                } catch (final NoSuchMethodException nsme) {
+                    // try the constructor
+                }
+                final Constructor<?> constructor = type.getConstructor(String.class);
+                if (!constructor.isAccessible()) {
+                    constructor.setAccessible(true);
+                }
+                return constructor.newInstance(trimmed);
+            } catch (final Exception e) {
+                return INVALID;
+            }
+        }
+
+        private static String approx(final String value) {
+            final StringBuilder builder = new StringBuilder(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                final char c = value.charAt(i);
+                if (!Character.isWhitespace(c)) {
+                    builder.append(c);
+                }
+            }
+            return builder.toString();
+        }
+    }
+
+    private static final class Coerced {
+        private final Class<?> type;
+        private final Object value;
+
+        private Coerced(final Class<?> type, final Object value) {
+            this.type = type;
+            this.value = value;
+        }
+    }
+
+    private static final class Parser {
+        private final String filter;
+        private final char[] chars;
+        private int position;
+
+        private Parser(final String filter) {
+            this.filter = filter;
+            this.chars = filter.toCharArray();
+        }
+
+        private Node parse() throws InvalidSyntaxException {
+            skipWhitespaces();
+            if (position >= chars.length) {
+                throw new InvalidSyntaxException("Empty filter", filter);
+            }
+            final Node node = parseFilter();
+            skipWhitespaces();
+            if (position != chars.length) {
+                throw new InvalidSyntaxException("Extraneous trailing characters at " + position, filter);
+            }
+            return node;
+        }
+
+        private Node parseFilter() throws InvalidSyntaxException {
+            skipWhitespaces();
+            expect('(');
+            skipWhitespaces();
+            final Node node;
+            switch (current()) {
+                case '&':
+                    position++;
+                    node = new And(parseList());
+                    break;
+                case '|':
+                    position++;
+                    node = new Or(parseList());
+                    break;
+                case '!':
+                    position++;
+                    node = new Not(parseFilter());
+                    break;
+                default:
+                    node = parseItem();
+            }
+            skipWhitespaces();
+            expect(')');
+            return node;
+        }
+
+        private Node[] parseList() throws InvalidSyntaxException {
+            final List<Node> nodes = new ArrayList<>();
+            skipWhitespaces();
+            while (position < chars.length && chars[position] == '(') {
+                nodes.add(parseFilter());
+                skipWhitespaces();
+            }
+            if (nodes.isEmpty()) {
+                throw new InvalidSyntaxException("Missing filters at " + position, filter);
+            }
+            return nodes.toArray(new Node[0]);
+        }
+
+        private Node parseItem() throws InvalidSyntaxException {
+            final int start = position;
+            while (position < chars.length && "=<>~()".indexOf(chars[position]) < 0) {
+                position++;
+            }
+            final String attribute = filter.substring(start, position).trim();
+            if (attribute.isEmpty()) {
+                throw new InvalidSyntaxException("Missing attribute at " + start, filter);
+            }
+            final Operator operator;
+            switch (current()) {
+                case '=':
+                    operator = Operator.EQUAL;
+                    position++;
+                    break;
+                case '~':
+                    position++;
+                    expect('=');
+                    operator = Operator.APPROX;
+                    break;
+                case '>':
+                    position++;
+                    expect('=');
+                    operator = Operator.GREATER_OR_EQUAL;
+                    break;
+                case '<':
+                    position++;
+                    expect('=');
+                    operator = Operator.LESS_OR_EQUAL;
+                    break;
+                default:
+                    throw new InvalidSyntaxException("Invalid operator at " + position, filter);
+            }
+
+            final List<String> parts = new ArrayList<>();
+            final StringBuilder builder = new StringBuilder();
+            boolean wildcard = false;
+            while (position < chars.length && chars[position] != ')') {
+                final char c = chars[position++];
+                switch (c) {
+                    case '(':
+                        throw new InvalidSyntaxException("Unescaped '(' at " + (position - 1), filter);
+                    case '\\':
+                        if (position >= chars.length) {
+                            throw new InvalidSyntaxException("Unterminated escape sequence", filter);
+                        }
+                        builder.append(chars[position++]);
+                        break;
+                    case '*':
+                        if (operator != Operator.EQUAL) {
+                            builder.append(c);
+                            break;
+                        }
+                        wildcard = true;
+                        parts.add(builder.length() == 0 ? null : builder.toString());
+                        builder.setLength(0);
+                        parts.add(null);
+                        break;
+                    default:
+                        builder.append(c);
+                }
+            }
+            if (!wildcard) {
+                return new Comparison(attribute, operator, builder.toString());
+            }
+            parts.add(builder.length() == 0 ? null : builder.toString());
+            if (parts.stream().allMatch(it -> it == null)) {
+                return new Present(attribute);
+            }
+            return new Substring(attribute, compact(parts));
+        }
+
+        // [initial|null, null, middle, null, ..., final|null] with consecutive wildcards merged
+        private String[] compact(final List<String> parts) {
+            final List<String> compacted = new ArrayList<>(parts.size());
+            for (int i = 0; i < parts.size(); i++) {
+                final String part = parts.get(i);
+                if (part == null && i > 0 && i < parts.size() - 1
+                        && compacted.get(compacted.size() - 1) == null) {
+                    continue;
+                }
+                compacted.add(part);
+            }
+            return compacted.toArray(new String[0]);
+        }
+
+        private char current() throws InvalidSyntaxException {
+            if (position >= chars.length) {
+                throw new InvalidSyntaxException("Unexpected end of filter", filter);
+            }
+            return chars[position];
+        }
+
+        private void expect(final char c) throws InvalidSyntaxException {
+            if (current() != c) {
+                throw new InvalidSyntaxException("Expected '" + c + "' at " + position, filter);
+            }
+            position++;
+        }
+
+        private void skipWhitespaces() {
+            while (position < chars.length && Character.isWhitespace(chars[position])) {
+                position++;
+            }
+        }
+    }
+}
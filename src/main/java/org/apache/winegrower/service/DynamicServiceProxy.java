@@ -0,0 +1,118 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.service;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.apache.winegrower.api.InjectedService;
+
+// delegates to the head of a snapshot, the proxy class is created once per interface
+class DynamicServiceProxy implements InvocationHandler {
+    private static final ClassValue<Constructor<?>> PROXY_CONSTRUCTORS = new ClassValue<Constructor<?>>() {
+        @Override
+        protected Constructor<?> computeValue(final Class<?> api) {
+            try {
+                return Proxy.getProxyClass(api.getClassLoader(), api).getConstructor(InvocationHandler.class);
+            } catch (final NoSuchMethodException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private final Class<?> api;
+    private final ServiceSnapshot<?> snapshot;
+    private final InjectedService.Missing missing;
+
+    private DynamicServiceProxy(final Class<?> api, final ServiceSnapshot<?> snapshot, final InjectedService.Missing missing) {
+        this.api = api;
+        this.snapshot = snapshot;
+        this.missing = missing;
+    }
+
+    static Object newProxy(final Class<?> api, final ServiceSnapshot<?> snapshot, final InjectedService.Missing missing) {
+        if (!api.isInterface()) {
+            throw new IllegalArgumentException("Dynamic services must be interfaces: " + api);
+        }
+        try {
+            return PROXY_CONSTRUCTORS.get(api).newInstance(new DynamicServiceProxy(api, snapshot, missing));
+        } catch (final InstantiationException | IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (final InvocationTargetException e) {
+            throw new IllegalStateException(e.getTargetException());
+        }
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "DynamicService{api=" + api.getName() + ", service=" + snapshot.getService() + "}";
+                default:
+                    // no-op
+            }
+        }
+        final Object service = snapshot.getService();
+        if (service == null) {
+            switch (missing) {
+                case DEFAULT:
+                    return defaultValue(method.getReturnType());
+                case FAIL:
+                default:
+                    throw new IllegalStateException("No " + api.getName() + " service available");
+            }
+        }
+        try {
+            return method.invoke(service, args);
+        } catch (final InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    private static Object defaultValue(final Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        }
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == char.class) {
+            return '\0';
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == float.class) {
+            return 0f;
+        }
+        if (type == double.class) {
+            return 0.;
+        }
+        if (type == byte.class) {
+            return (byte) 0;
+        }
+        if (type == short.class) {
+            return (short) 0;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.service;
+
+import static java.lang.invoke.MethodType.methodType;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.apache.winegrower.api.InjectedService;
+
+// resolved once per class, injecting is then a registry index lookup and a setter call per field
+class InjectionPlan {
+    private static final InjectionPoint[] EMPTY = new InjectionPoint[0];
+
+    private static final ClassValue<InjectionPlan> PLANS = new ClassValue<InjectionPlan>() {
+        @Override
+        protected InjectionPlan computeValue(final Class<?> type) {
+            return new InjectionPlan(type);
+        }
+    };
+
+    private final InjectionPoint[] points;
+
+    private InjectionPlan(final Class<?> type) {
+        final Collection<InjectionPoint> points = new ArrayList<>();
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            for (final Field field : current.getDeclaredFields()) {
+                final InjectedService config = field.getAnnotation(InjectedService.class);
+                if (config == null) {
+                    continue;
+                }
+                if (config.dynamic() && !field.getType().isInterface()) {
+                    throw new IllegalArgumentException("Dynamic @InjectedService only supports interfaces: " + field);
+                }
+                if (!field.isAccessible()) {
+                    field.setAccessible(true);
+                }
+                try {
+                    final MethodHandle setter = lookup.unreflectSetter(field);
+                    points.add(new InjectionPoint(field.getType(), config.dynamic() ? config.missing() : null, Modifier.isStatic(field.getModifiers()) ?
+                            MethodHandles.dropArguments(setter.asType(methodType(void.class, Object.class)), 0, Object.class) :
+                            setter.asType(methodType(void.class, Object.class, Object.class))));
+                } catch (final IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+        this.points = points.isEmpty() ? EMPTY : points.toArray(EMPTY);
+    }
+
+    static InjectionPlan of(final Class<?> type) {
+        return PLANS.get(type);
+    }
+
+    void inject(final OSGiServices services, final Object instance) {
+        for (final InjectionPoint point : points) {
+            final Object service = point.missing != null ?
+                    services.findDynamicService(point.type, point.missing) : services.findService(point.type.getName());
+            if (service == null) {
+                continue;
+            }
+            try {
+                point.setter.invokeExact(instance, service);
+            } catch (final RuntimeException | Error e) {
+                throw e;
+            } catch (final Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static class InjectionPoint {
+        private final Class<?> type;
+        private final InjectedService.Missing missing; // null when not dynamic
+        private final MethodHandle setter;
+
+        private InjectionPoint(final Class<?> type, final InjectedService.Missing missing, final MethodHandle setter) {
+            this.type = type;
+            this.missing = missing;
+            this.setter = setter;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.winegrower.api.KeyValueStore;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceFactory;
+import org.osgi.framework.ServiceRegistration;
+
+// bundle scoped: each consumer gets a store in its own data area, closed when released or with the framework
+public class KeyValueStoreFactory implements ServiceFactory<KeyValueStore>, AutoCloseable {
+    private static final String DIRECTORY = "winegrower-kv";
+
+    private final int segmentSize;
+    private final Map<Long, MappedKeyValueStore> stores = new ConcurrentHashMap<>();
+
+    public KeyValueStoreFactory(final int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    @Override
+    public KeyValueStore getService(final Bundle bundle, final ServiceRegistration<KeyValueStore> registration) {
+        return stores.computeIfAbsent(bundle.getBundleId(), id -> new MappedKeyValueStore(bundle.getDataFile(DIRECTORY), segmentSize));
+    }
+
+    @Override
+    public void ungetService(final Bundle bundle, final ServiceRegistration<KeyValueStore> registration,
+                             final KeyValueStore service) {
+        final MappedKeyValueStore store = stores.remove(bundle.getBundleId());
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        stores.values().forEach(MappedKeyValueStore::close);
+        stores.clear();
+    }
+}
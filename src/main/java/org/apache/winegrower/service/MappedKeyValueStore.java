@@ -0,0 +1,359 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.service;
+
+import static java.util.Comparator.comparingLong;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.apache.winegrower.api.KeyValueStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// append only log split in memory mapped segments (segment-<id>.log), the key index is rebuilt by replaying the
+// segments in id order at startup and stops at the first invalid record of a segment (crash while writing).
+// record: crc32 (of the rest) | key length | value length (-1 for a removal) | key (utf-8) | value
+// compaction appends the live entries to new segments (greater ids) then deletes the old ones in id order
+// so the store stays consistent whenever it is interrupted.
+// the directory is locked (.lock file) while the store is opened, a second store on it fails.
+public class MappedKeyValueStore implements KeyValueStore, AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedKeyValueStore.class);
+    private static final int HEADER_SIZE = 12;
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".log";
+    private static final String LOCK = ".lock";
+
+    private final File directory;
+    private final int segmentSize;
+    private final FileChannel lockChannel;
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+    private final List<Segment> segments = new ArrayList<>(); // guarded by this
+    private volatile Segment current;
+    private long liveBytes;
+    private long totalBytes;
+    private boolean closed;
+
+    public MappedKeyValueStore(final File directory, final int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Can't create " + directory);
+        }
+        try {
+            lockChannel = FileChannel.open(new File(directory, LOCK).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        final FileLock lock;
+        try {
+            lock = lockChannel.tryLock();
+        } catch (final IOException | OverlappingFileLockException e) {
+            closeLock();
+            throw new IllegalStateException("Can't lock " + directory, e);
+        }
+        if (lock == null) {
+            closeLock();
+            throw new IllegalStateException(directory + " is already used by another process");
+        }
+        try {
+            load();
+        } catch (final RuntimeException re) {
+            closeLock();
+            throw re;
+        }
+    }
+
+    @Override
+    public byte[] get(final String key) {
+        final Location location = index.get(key);
+        return location == null ? null : location.read();
+    }
+
+    @Override
+    public synchronized void put(final String key, final byte[] value) {
+        if (key == null || key.isEmpty()) {
+            throw new IllegalArgumentException("Key can't be empty");
+        }
+        append(key, Objects.requireNonNull(value, "value can't be null"), true);
+        compactIfNeeded();
+    }
+
+    @Override
+    public synchronized boolean remove(final String key) {
+        if (!index.containsKey(key)) {
+            return false;
+        }
+        append(key, null, true);
+        compactIfNeeded();
+        return true;
+    }
+
+    @Override
+    public Collection<String> keys() {
+        return new ArrayList<>(index.keySet());
+    }
+
+    @Override
+    public synchronized void compact() {
+        ensureOpen();
+        final List<Segment> old = new ArrayList<>(segments);
+        current = null;
+        liveBytes = 0;
+        totalBytes = 0;
+        for (final Map.Entry<String, Location> entry : new ArrayList<>(index.entrySet())) {
+            append(entry.getKey(), entry.getValue().read(), false);
+        }
+        for (final Segment segment : old) {
+            segments.remove(segment);
+            segment.delete();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        segments.forEach(Segment::close);
+        segments.clear();
+        index.clear();
+        current = null;
+        closeLock();
+    }
+
+    private void closeLock() {
+        try {
+            lockChannel.close(); // releases the lock too
+        } catch (final IOException e) {
+            LOGGER.debug("Can't release {}", directory, e);
+        }
+    }
+
+    private void compactIfNeeded() {
+        if (segments.size() > 1 && liveBytes * 2 < totalBytes) {
+            compact();
+        }
+    }
+
+    // caller holds the lock
+    private void append(final String key, final byte[] value, final boolean checkOpen) {
+        if (checkOpen) {
+            ensureOpen();
+        }
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final int size = HEADER_SIZE + keyBytes.length + (value == null ? 0 : value.length);
+        Segment segment = current;
+        if (segment == null || segment.remaining() < size) {
+            if (segment != null) {
+                segment.force();
+            }
+            segment = newSegment(Math.max(segmentSize, size));
+        }
+        final int offset = segment.write(keyBytes, value);
+        totalBytes += size;
+        final Location previous;
+        if (value == null) {
+            previous = index.remove(key);
+        } else {
+            liveBytes += size;
+            previous = index.put(key, new Location(segment, offset + HEADER_SIZE + keyBytes.length, value.length, size));
+        }
+        if (previous != null) {
+            liveBytes -= previous.recordSize;
+        }
+    }
+
+    private Segment newSegment(final int size) {
+        final long id = segments.isEmpty() ? 0 : segments.get(segments.size() - 1).id + 1;
+        final Segment segment = Segment.open(new File(directory, PREFIX + id + SUFFIX), id, size);
+        segments.add(segment);
+        current = segment;
+        return segment;
+    }
+
+    private synchronized void load() {
+        final File[] files = directory.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        Stream.of(files)
+              .map(file -> Segment.open(file, Long.parseLong(file.getName().substring(PREFIX.length(), file.getName().length() - SUFFIX.length())), (int) file.length()))
+              .sorted(comparingLong(segment -> segment.id))
+              .forEach(segment -> {
+                  segments.add(segment);
+                  replay(segment);
+              });
+        current = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+    }
+
+    private void replay(final Segment segment) {
+        final ByteBuffer buffer = segment.buffer.duplicate();
+        int position = 0;
+        while (position + HEADER_SIZE <= buffer.capacity()) {
+            final int crc = buffer.getInt(position);
+            final int keyLength = buffer.getInt(position + 4);
+            final int valueLength = buffer.getInt(position + 8);
+            if (keyLength <= 0 || valueLength < -1
+                    || (long) position + HEADER_SIZE + keyLength + Math.max(0, valueLength) > buffer.capacity()) {
+                break;
+            }
+            final int size = HEADER_SIZE + keyLength + Math.max(0, valueLength);
+            if (crc != Segment.crc(buffer, position + 4, size - 4)) {
+                LOGGER.warn("Corrupted record in {} at {}, ignoring the rest of the segment", segment.file, position);
+                break;
+            }
+            final byte[] key = new byte[keyLength];
+            buffer.position(position + HEADER_SIZE);
+            buffer.get(key);
+            final String name = new String(key, StandardCharsets.UTF_8);
+            totalBytes += size;
+            final Location previous = valueLength < 0 ?
+                    index.remove(name) :
+                    index.put(name, new Location(segment, position + HEADER_SIZE + keyLength, valueLength, size));
+            if (valueLength >= 0) {
+                liveBytes += size;
+            }
+            if (previous != null) {
+                liveBytes -= previous.recordSize;
+            }
+            position += size;
+        }
+        segment.position = position;
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Store " + directory + " is closed");
+        }
+    }
+
+    private static class Location {
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+        private final int recordSize;
+
+        private Location(final Segment segment, final int offset, final int length, final int recordSize) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.recordSize = recordSize;
+        }
+
+        private byte[] read() {
+            final byte[] value = new byte[length];
+            final ByteBuffer buffer = segment.buffer.duplicate(); // own position, written bytes are immutable
+            buffer.position(offset);
+            buffer.get(value);
+            return value;
+        }
+    }
+
+    private static class Segment {
+        private final File file;
+        private final long id;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int position; // guarded by the store lock
+
+        private Segment(final File file, final long id, final FileChannel channel, final MappedByteBuffer buffer) {
+            this.file = file;
+            this.id = id;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        private static Segment open(final File file, final long id, final int size) {
+            try {
+                final FileChannel channel = FileChannel.open(file.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                return new Segment(file, id, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private int remaining() {
+            return buffer.capacity() - position;
+        }
+
+        private int write(final byte[] key, final byte[] value) {
+            final int offset = position;
+            final ByteBuffer target = buffer.duplicate();
+            target.position(offset + 4);
+            target.putInt(key.length);
+            target.putInt(value == null ? -1 : value.length);
+            target.put(key);
+            if (value != null) {
+                target.put(value);
+            }
+            final int size = target.position() - offset;
+            buffer.putInt(offset, crc(buffer, offset + 4, size - 4)); // written last, validates the record
+            position = offset + size;
+            return offset;
+        }
+
+        private static int crc(final ByteBuffer buffer, final int offset, final int length) {
+            final CRC32 crc = new CRC32();
+            final ByteBuffer slice = buffer.duplicate();
+            slice.position(offset);
+            slice.limit(offset + length);
+            crc.update(slice);
+            return (int) crc.getValue();
+        }
+
+        private void force() {
+            buffer.force();
+        }
+
+        private void close() {
+            force();
+            try {
+                channel.close();
+            } catch (final IOException e) {
+                LOGGER.debug("Can't close {}", file, e);
+            }
+        }
+
+        // the mapping is released by the GC, on unix the file can be deleted right now
+        private void delete() {
+            close();
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (final IOException e) {
+                LOGGER.warn("Can't delete {}", file, e);
+            }
+        }
+    }
+}
@@ -14,16 +14,24 @@
 package org.apache.winegrower.service;
 
 import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Comparator.comparing;
+import static java.util.stream.Collectors.toList;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Dictionary;
-import java.util.Hashtable;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.stream.Stream;
 
 import org.apache.winegrower.api.InjectedService;
+import org.apache.winegrower.metrics.ServiceRegistryMetrics;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Constants;
 import org.osgi.framework.Filter;
@@ -31,86 +39,229 @@ import org.osgi.framework.PrototypeServiceFactory;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceFactory;
 import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
 
 // holder of all services
 public class OSGiServices {
     private final AtomicLong idGenerator = new AtomicLong(1);
 
-    private final Collection<ServiceListenerDefinition> serviceListeners = new ArrayList<>();
+    // copy on write: events are dispatched outside of the registry lock
+    private final Collection<ServiceListenerDefinition> serviceListeners = new CopyOnWriteArrayList<>();
     private final Collection<ServiceRegistrationImpl<?>> services = new ArrayList<>();
+    private final Collection<ServiceSnapshot<?>> snapshots = new ArrayList<>();
+    private final Map<String, ServiceRegistrationImpl<?>[]> servicesByClass = new ConcurrentHashMap<>();
+    private final Map<Long, Set<ServiceRegistrationImpl<?>>> servicesByBundle = new ConcurrentHashMap<>();
+    private final Map<Class<?>, AtomicReferenceArray<Object>> dynamicServices = new ConcurrentHashMap<>();
+    private final ServiceRegistryMetrics metrics = new ServiceRegistryMetrics();
+
+    public ServiceRegistryMetrics getMetrics() {
+        return metrics;
+    }
 
     public <T> T inject(final T instance) {
-        doInject(instance.getClass(), instance);
+        InjectionPlan.of(instance.getClass()).inject(this, instance);
         return instance;
     }
 
-    private <T> void doInject(final Class<?> typeScope, final T instance) {
-        if (typeScope == null || typeScope == Object.class) {
-            return;
+    // first registered service for this objectClass, lock free thanks to the copy on write index
+    Object findService(final String type) {
+        metrics.onLookup(type);
+        final ServiceRegistrationImpl<?>[] registrations = servicesByClass.get(type);
+        if (registrations == null) {
+            return null;
+        }
+        return ServiceReferenceImpl.class.cast(registrations[0].getReference()).getReference();
+    }
+
+    // proxies are shared per api and missing behavior since they only hold a snapshot
+    Object findDynamicService(final Class<?> api, final InjectedService.Missing missing) {
+        final AtomicReferenceArray<Object> proxies = dynamicServices.computeIfAbsent(api,
+                k -> new AtomicReferenceArray<>(InjectedService.Missing.values().length));
+        final Object existing = proxies.get(missing.ordinal());
+        if (existing != null) {
+            return existing;
+        }
+        synchronized (proxies) {
+            if (proxies.get(missing.ordinal()) == null) {
+                proxies.set(missing.ordinal(), DynamicServiceProxy.newProxy(api, track(api), missing));
+            }
+            return proxies.get(missing.ordinal());
+        }
+    }
+
+    public Collection<ServiceRegistrationImpl<?>> findServices(final String type) {
+        final ServiceRegistrationImpl<?>[] registrations = servicesByClass.get(type);
+        return registrations == null ? emptyList() : asList(registrations);
+    }
+
+    // registrations of a bundle, in registration order, without scanning the whole registry
+    public Collection<ServiceRegistrationImpl<?>> findServices(final Bundle bundle) {
+        final Set<ServiceRegistrationImpl<?>> registrations = servicesByBundle.get(bundle.getBundleId());
+        if (registrations == null) {
+            return emptyList();
         }
-        Stream.of(typeScope.getDeclaredFields())
-              .filter(field -> field.isAnnotationPresent(InjectedService.class))
-              .peek(field -> {
-                  if (!field.isAccessible()) {
-                      field.setAccessible(true);
-                  }
-              })
-              .forEach(field -> services.stream()
-                    .filter(it -> asList(it.getClasses()).contains(field.getType().getName()))
-                    .findFirst()
-                    .ifPresent(reg -> {
-                        try {
-                            field.set(instance, ServiceReferenceImpl.class.cast(reg.getReference()).getReference());
-                        } catch (final IllegalAccessException e) {
-                            throw new IllegalStateException(e);
-                        }
-                    }));
-        doInject(typeScope.getSuperclass(), instance);
-    }
-
-    public synchronized void addListener(final ServiceListener listener, final Filter filter) {
+        return registrations.stream()
+                .sorted(comparing(it -> Number.class.cast(it.getReference().getProperty(Constants.SERVICE_ID)).longValue()))
+                .collect(toList());
+    }
+
+    // bundle teardown: services the bundle forgot to unregister
+    public void unregisterServices(final Bundle bundle) {
+        findServices(bundle).stream()
+                .filter(it -> !it.isUnregistered()) // activators often unregister their services themselves
+                .forEach(it -> {
+                    try {
+                        it.unregister();
+                    } catch (final IllegalStateException ise) {
+                        // concurrently unregistered
+                    }
+                });
+    }
+
+    public <T> ServiceSnapshot<T> track(final Class<T> type) {
+        return track(type, null);
+    }
+
+    public synchronized <T> ServiceSnapshot<T> track(final Class<T> type, final Filter filter) {
+        final long start = System.nanoTime();
+        try {
+            final ServiceSnapshot<T> snapshot = new ServiceSnapshot<>(this, type.getName(), filter);
+            snapshot.reset(services);
+            snapshots.add(snapshot);
+            return snapshot;
+        } finally {
+            metrics.onLockHeld(System.nanoTime() - start);
+        }
+    }
+
+    synchronized void untrack(final ServiceSnapshot<?> snapshot) {
+        snapshots.remove(snapshot);
+    }
+
+    public void addListener(final ServiceListener listener, final Filter filter) {
         serviceListeners.add(new ServiceListenerDefinition(listener, filter));
     }
 
-    public synchronized void removeListener(final ServiceListener listener) {
+    public void removeListener(final ServiceListener listener) {
         serviceListeners.removeIf(d -> d.listener == listener);
     }
 
-    public synchronized ServiceRegistration<?> registerService(final String[] classes, final Object service,
-                                                               final Dictionary<String, ?> properties,
-                                                               final Bundle from) {
-        final Hashtable<String, Object> serviceProperties = new Hashtable<>();
-        if (properties != null) {
-            serviceProperties.putAll(Map.class.cast(properties));
+    public Collection<ServiceListener> getServiceListeners() {
+        return serviceListeners.stream().map(d -> d.listener).collect(toList());
+    }
+
+    // listeners are notified once the registry lock is released, lock held time excludes them
+    public ServiceRegistration<?> registerService(final String[] classes, final Object service,
+                                                  final Dictionary<String, ?> properties, final Bundle from) {
+        final long start = System.nanoTime();
+        final ServiceRegistration<?> registration;
+        synchronized (this) {
+            registration = doRegisterService(classes, service, properties, from);
+            metrics.onLockHeld(System.nanoTime() - start);
         }
-        serviceProperties.put(Constants.OBJECTCLASS, classes);
-        serviceProperties.put(Constants.SERVICE_ID, idGenerator.getAndIncrement());
-        serviceProperties.put(Constants.SERVICE_BUNDLEID, from.getBundleId());
+        final ServiceEvent event = new ServiceEvent(ServiceEvent.REGISTERED, registration.getReference());
+        getListeners(registration).forEach(listener -> dispatch(listener, event));
+        metrics.onRegistration(System.nanoTime() - start);
+        return registration;
+    }
+
+    private ServiceRegistration<?> doRegisterService(final String[] classes, final Object service,
+                                                     final Dictionary<String, ?> properties, final Bundle from) {
+        final String scope;
         if (ServiceFactory.class.isInstance(service)) {
-            serviceProperties.put(Constants.SERVICE_SCOPE, PrototypeServiceFactory.class.isInstance(service) ?
-                    Constants.SCOPE_PROTOTYPE : Constants.SCOPE_BUNDLE);
+            scope = PrototypeServiceFactory.class.isInstance(service) ? Constants.SCOPE_PROTOTYPE : Constants.SCOPE_BUNDLE;
         } else {
-            serviceProperties.put(Constants.SERVICE_SCOPE, Constants.SCOPE_SINGLETON);
+            scope = Constants.SCOPE_SINGLETON;
         }
+        final ServiceProperties serviceProperties = ServiceProperties.create(
+                properties, classes, idGenerator.getAndIncrement(), from.getBundleId(), scope);
 
         final ServiceRegistrationImpl<Object> registration = new ServiceRegistrationImpl<>(classes,
-                properties, new ServiceReferenceImpl<>(serviceProperties, from, service), reg -> {
+                new ServiceReferenceImpl<>(serviceProperties, from, service), reg -> {
             final ServiceEvent event = new ServiceEvent(ServiceEvent.UNREGISTERING, reg.getReference());
-            getListeners(reg).forEach(listener -> listener.listener.serviceChanged(event));
+            getListeners(reg).forEach(listener -> dispatch(listener, event));
             synchronized (OSGiServices.this) {
+                final long start = System.nanoTime();
                 services.remove(reg);
+                unindex(ServiceRegistrationImpl.class.cast(reg));
+                snapshots.forEach(it -> it.onUnregister(ServiceRegistrationImpl.class.cast(reg)));
+                metrics.onLockHeld(System.nanoTime() - start);
+            }
+            metrics.onUnregistration();
+            ServiceReferenceImpl.class.cast(reg.getReference()).dispose();
+        }, (reg, previousProperties) -> {
+            synchronized (OSGiServices.this) {
+                final long start = System.nanoTime();
+                snapshots.forEach(it -> it.onModified(ServiceRegistrationImpl.class.cast(reg)));
+                metrics.onLockHeld(System.nanoTime() - start);
             }
+            final ServiceEvent modified = new ServiceEvent(ServiceEvent.MODIFIED, reg.getReference());
+            final ServiceEvent endMatch = new ServiceEvent(ServiceEvent.MODIFIED_ENDMATCH, reg.getReference());
+            serviceListeners.forEach(listener -> {
+                if (matches(listener.filter, reg.getReference())) {
+                    dispatch(listener, modified);
+                } else {
+                    metrics.onFilterEvaluation();
+                    if (listener.filter.match(previousProperties)) {
+                        dispatch(listener, endMatch);
+                    }
+                }
+            });
         });
         services.add(registration);
-        final ServiceEvent event = new ServiceEvent(ServiceEvent.REGISTERED, registration.getReference());
-        getListeners(registration).forEach(listener -> listener.listener.serviceChanged(event));
+        index(registration);
+        snapshots.forEach(it -> it.onRegister(registration));
         return registration;
     }
 
+    private void index(final ServiceRegistrationImpl<?> registration) {
+        servicesByBundle.computeIfAbsent(registration.getReference().getBundle().getBundleId(),
+                k -> ConcurrentHashMap.newKeySet()).add(registration);
+        for (final String type : registration.getClasses()) {
+            servicesByClass.compute(type, (key, existing) -> {
+                if (existing == null) {
+                    return new ServiceRegistrationImpl<?>[]{ registration };
+                }
+                final ServiceRegistrationImpl<?>[] updated = Arrays.copyOf(existing, existing.length + 1);
+                updated[existing.length] = registration;
+                return updated;
+            });
+        }
+    }
+
+    private void unindex(final ServiceRegistrationImpl<?> registration) {
+        servicesByBundle.computeIfPresent(registration.getReference().getBundle().getBundleId(), (key, existing) -> {
+            existing.remove(registration);
+            return existing.isEmpty() ? null : existing;
+        });
+        for (final String type : registration.getClasses()) {
+            servicesByClass.computeIfPresent(type, (key, existing) -> {
+                final ServiceRegistrationImpl<?>[] updated = Stream.of(existing)
+                        .filter(it -> it != registration)
+                        .toArray(ServiceRegistrationImpl<?>[]::new);
+                return updated.length == 0 ? null : updated;
+            });
+        }
+    }
+
     private Stream<ServiceListenerDefinition> getListeners(final ServiceRegistration<?> reg) {
         return serviceListeners.stream()
-                .filter(it -> it.filter == null || it.filter.match(reg.getReference()));
+                .filter(it -> matches(it.filter, reg.getReference()));
+    }
+
+    // counted variant of filter matching, null filters match without any evaluation
+    public boolean matches(final Filter filter, final ServiceReference<?> reference) {
+        if (filter == null) {
+            return true;
+        }
+        metrics.onFilterEvaluation();
+        return filter.match(reference);
+    }
+
+    private void dispatch(final ServiceListenerDefinition listener, final ServiceEvent event) {
+        metrics.onListenerDispatch();
+        listener.listener.serviceChanged(event);
     }
 
     public synchronized Collection<ServiceRegistration<?>> getServices() {
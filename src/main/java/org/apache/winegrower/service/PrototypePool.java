@@ -0,0 +1,177 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.service;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.winegrower.api.PooledPrototype;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.PrototypeServiceFactory;
+import org.osgi.framework.ServiceRegistration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// bounded LIFO pool of prototype instances, idle ones are evicted lazily when the pool is used,
+// instances are only reused by the bundle they were created for
+class PrototypePool {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PrototypePool.class);
+
+    private final PrototypeServiceFactory<Object> factory;
+    private final ServiceRegistration<Object> registration;
+    private final int maxSize;
+    private final long idleTimeout;
+    private final ConcurrentMap<Long, ConcurrentLinkedDeque<Entry>> idle = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private volatile boolean disposed;
+
+    PrototypePool(final PrototypeServiceFactory<Object> factory, final ServiceRegistration<Object> registration,
+                  final int maxSize, final long idleTimeout) {
+        this.factory = factory;
+        this.registration = registration;
+        this.maxSize = maxSize;
+        this.idleTimeout = idleTimeout;
+    }
+
+    static PrototypePool of(final PrototypeServiceFactory<Object> factory, final ServiceRegistration<Object> registration,
+                            final ServiceProperties properties) {
+        final int maxSize = toLong(PooledPrototype.MAX_SIZE, properties.get(PooledPrototype.MAX_SIZE), 0).intValue();
+        if (maxSize <= 0) {
+            return null;
+        }
+        return new PrototypePool(factory, registration, maxSize,
+                toLong(PooledPrototype.IDLE_TIMEOUT, properties.get(PooledPrototype.IDLE_TIMEOUT), 60000L));
+    }
+
+    // returns an instance previously created for this consumer or null if there is none
+    Entry acquire(final Bundle consumer) {
+        if (disposed) {
+            throw new IllegalStateException("Pool of " + registration + " is disposed");
+        }
+        evictIdle(System.currentTimeMillis());
+        final ConcurrentLinkedDeque<Entry> entries = idle.get(key(consumer));
+        final Entry entry = entries == null ? null : entries.pollFirst();
+        if (entry != null) {
+            size.decrementAndGet();
+        }
+        return entry;
+    }
+
+    void release(final Bundle creator, final Object instance) {
+        if (disposed) {
+            destroy(creator, instance);
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        evictIdle(now);
+        if (size.incrementAndGet() > maxSize) {
+            size.decrementAndGet();
+            destroy(creator, instance);
+            return;
+        }
+        if (PooledPrototype.class.isInstance(instance)) {
+            try {
+                PooledPrototype.class.cast(instance).reset();
+            } catch (final RuntimeException re) {
+                size.decrementAndGet();
+                LOGGER.warn("Can't reset {}, it will not be reused", instance, re);
+                destroy(creator, instance);
+                return;
+            }
+        }
+        idle.computeIfAbsent(key(creator), k -> new ConcurrentLinkedDeque<>()).offerFirst(new Entry(creator, instance, now));
+        if (disposed) { // concurrent dispose, ensure nothing stays pooled
+            destroy();
+        }
+    }
+
+    void destroy() {
+        disposed = true;
+        idle.values().forEach(entries -> {
+            Entry entry;
+            while ((entry = entries.pollFirst()) != null) {
+                size.decrementAndGet();
+                destroy(entry.creator, entry.instance);
+            }
+        });
+    }
+
+    int getIdleCount() {
+        return size.get();
+    }
+
+    private void evictIdle(final long now) {
+        idle.values().forEach(entries -> {
+            final Iterator<Entry> oldestFirst = entries.descendingIterator();
+            while (oldestFirst.hasNext()) {
+                final Entry entry = oldestFirst.next();
+                if (now - entry.releasedAt < idleTimeout) {
+                    return;
+                }
+                if (entries.removeLastOccurrence(entry)) {
+                    size.decrementAndGet();
+                    destroy(entry.creator, entry.instance);
+                }
+            }
+        });
+    }
+
+    private void destroy(final Bundle creator, final Object instance) {
+        try {
+            factory.ungetService(creator, registration, instance);
+        } catch (final RuntimeException re) {
+            LOGGER.warn("Can't release {}", instance, re);
+        }
+    }
+
+    private static long key(final Bundle bundle) {
+        return bundle == null ? -1L : bundle.getBundleId();
+    }
+
+    private static Long toLong(final String name, final Object value, final long defaultValue) {
+        if (Number.class.isInstance(value)) {
+            return Number.class.cast(value).longValue();
+        }
+        if (value != null) {
+            try {
+                return Long.valueOf(value.toString().trim());
+            } catch (final NumberFormatException nfe) {
+                LOGGER.warn("Invalid {} value '{}', using {}", name, value, defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+    static class Entry {
+        private final Bundle creator;
+        private final Object instance;
+        private final long releasedAt;
+
+        private Entry(final Bundle creator, final Object instance, final long releasedAt) {
+            this.creator = creator;
+            this.instance = instance;
+            this.releasedAt = releasedAt;
+        }
+
+        Bundle getCreator() {
+            return creator;
+        }
+
+        Object getInstance() {
+            return instance;
+        }
+    }
+}
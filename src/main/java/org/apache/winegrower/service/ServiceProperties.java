@@ -0,0 +1,229 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.service;
+
+import static java.util.Collections.enumeration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.osgi.framework.Constants;
+
+// immutable service properties: the key layout (shape) is interned and shared between registrations
+// and values are stored in a flat array, lookups are case insensitive as required by the spec
+public final class ServiceProperties extends Dictionary<String, Object> {
+    private static final String[] STANDARD_KEYS = {
+            Constants.OBJECTCLASS, Constants.SERVICE_ID, Constants.SERVICE_BUNDLEID, Constants.SERVICE_SCOPE
+    };
+
+    // bounded: past this size new layouts are not shared anymore, it avoids to leak on generated keys
+    private static final int MAX_SHAPES = Integer.getInteger("winegrower.service.properties.shapes.max", 1024);
+    private static final Map<List<String>, Shape> SHAPES = new ConcurrentHashMap<>();
+
+    private final Shape shape;
+    private final Object[] values;
+
+    private ServiceProperties(final Shape shape, final Object[] values) {
+        this.shape = shape;
+        this.values = values;
+    }
+
+    // standard properties are first (fixed slots) then user ones sorted to maximize shape sharing
+    static ServiceProperties create(final Dictionary<String, ?> properties, final String[] classes, final long id,
+                                    final long bundleId, final String scope) {
+        final Map<String, Object> custom = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        if (properties != null) {
+            final Enumeration<String> keys = properties.keys();
+            while (keys.hasMoreElements()) {
+                final String key = keys.nextElement();
+                if (isStandard(key)) {
+                    continue;
+                }
+                if (custom.put(key, properties.get(key)) != null) {
+                    throw new IllegalArgumentException("Duplicated property (case insensitive): " + key);
+                }
+            }
+        }
+        final List<String> keys = new ArrayList<>(STANDARD_KEYS.length + custom.size());
+        keys.addAll(Arrays.asList(STANDARD_KEYS));
+        keys.addAll(custom.keySet());
+        final Object[] values = new Object[keys.size()];
+        values[0] = classes.clone();
+        values[1] = id;
+        values[2] = bundleId;
+        values[3] = scope;
+        int i = STANDARD_KEYS.length;
+        for (final Object value : custom.values()) {
+            values[i++] = value;
+        }
+        return new ServiceProperties(shape(keys), values);
+    }
+
+    // generic conversion, mainly used for references created outside of the registry
+    static ServiceProperties copyOf(final Dictionary<String, ?> properties) {
+        if (ServiceProperties.class.isInstance(properties)) {
+            return ServiceProperties.class.cast(properties);
+        }
+        final Map<String, Object> sorted = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        final Enumeration<String> keys = properties.keys();
+        while (keys.hasMoreElements()) {
+            final String key = keys.nextElement();
+            sorted.put(key, properties.get(key));
+        }
+        return new ServiceProperties(shape(new ArrayList<>(sorted.keySet())), sorted.values().toArray());
+    }
+
+    // keeps the framework owned properties and replaces the user ones
+    ServiceProperties update(final Dictionary<String, ?> properties) {
+        return create(properties, String[].class.cast(get(Constants.OBJECTCLASS)),
+                Number.class.cast(get(Constants.SERVICE_ID)).longValue(),
+                Number.class.cast(get(Constants.SERVICE_BUNDLEID)).longValue(),
+                String.valueOf(get(Constants.SERVICE_SCOPE)));
+    }
+
+    int indexOf(final String key) {
+        return shape.indexOf(key);
+    }
+
+    Object valueAt(final int index) {
+        return values[index];
+    }
+
+    Shape getShape() {
+        return shape;
+    }
+
+    String[] getKeys() {
+        return shape.keys.clone();
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return values.length == 0;
+    }
+
+    @Override
+    public Enumeration<String> keys() {
+        return enumeration(Arrays.asList(shape.keys));
+    }
+
+    @Override
+    public Enumeration<Object> elements() {
+        return enumeration(Arrays.asList(values));
+    }
+
+    @Override
+    public Object get(final Object key) {
+        if (!String.class.isInstance(key)) {
+            return null;
+        }
+        final int index = shape.indexOf(String.class.cast(key));
+        return index < 0 ? null : values[index];
+    }
+
+    @Override
+    public Object put(final String key, final Object value) {
+        throw new UnsupportedOperationException("Service properties are immutable");
+    }
+
+    @Override
+    public Object remove(final Object key) {
+        throw new UnsupportedOperationException("Service properties are immutable");
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("{");
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(shape.keys[i]).append('=')
+                   .append(Object[].class.isInstance(values[i]) ? Arrays.toString(Object[].class.cast(values[i])) : values[i]);
+        }
+        return builder.append('}').toString();
+    }
+
+    private static boolean isStandard(final String key) {
+        for (final String standard : STANDARD_KEYS) {
+            if (standard.equalsIgnoreCase(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Shape shape(final List<String> keys) {
+        final Shape existing = SHAPES.get(keys);
+        if (existing != null) {
+            return existing;
+        }
+        final Shape shape = new Shape(keys.stream().map(String::intern).toArray(String[]::new));
+        if (SHAPES.size() >= MAX_SHAPES) {
+            return shape;
+        }
+        final Shape previous = SHAPES.putIfAbsent(Arrays.asList(shape.keys), shape);
+        return previous == null ? shape : previous;
+    }
+
+    static final class Shape {
+        private static final int LINEAR_SCAN_THRESHOLD = 8;
+
+        private final String[] keys;
+        private final Map<String, Integer> lowerCaseIndex; // only for big shapes
+
+        private Shape(final String[] keys) {
+            this.keys = keys;
+            if (keys.length > LINEAR_SCAN_THRESHOLD) {
+                lowerCaseIndex = new HashMap<>(keys.length * 2);
+                for (int i = 0; i < keys.length; i++) {
+                    lowerCaseIndex.put(keys[i].toLowerCase(Locale.ROOT), i);
+                }
+            } else {
+                lowerCaseIndex = null;
+            }
+        }
+
+        int indexOf(final String key) {
+            for (int i = 0; i < keys.length; i++) { // interned keys and constants hit this loop
+                if (keys[i] == key) {
+                    return i;
+                }
+            }
+            if (lowerCaseIndex == null) {
+                for (int i = 0; i < keys.length; i++) {
+                    if (keys[i].equalsIgnoreCase(key)) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+            final Integer index = lowerCaseIndex.get(key.toLowerCase(Locale.ROOT));
+            return index == null ? -1 : index;
+        }
+    }
+}
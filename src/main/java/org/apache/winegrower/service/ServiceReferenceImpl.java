@@ -13,32 +13,154 @@
  */
 package org.apache.winegrower.service;
 
-import static java.util.Collections.list;
-
 import java.util.Dictionary;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.osgi.framework.Bundle;
+import org.osgi.framework.PrototypeServiceFactory;
 import org.osgi.framework.ServiceFactory;
 import org.osgi.framework.ServiceReference;
 
 public class ServiceReferenceImpl<T> implements ServiceReference<T> {
-    private final Dictionary<String, ?> properties;
+    private volatile ServiceProperties properties;
     private final Bundle bundle;
-    private final Bundle[] usingBundles = new Bundle[0];
     private final Object reference;
     private ServiceRegistrationImpl registration;
     private volatile Object referenceInstance;
+    private final Map<Object, Bundle> prototypes = new IdentityHashMap<>(); // instance -> bundle it was created for
+    private final ConcurrentMap<Long, Usage> usages = new ConcurrentHashMap<>(); // bundle id -> BundleContext#getService() usage
+    private PrototypePool pool;
 
     ServiceReferenceImpl(final Dictionary<String, ?> properties, final Bundle bundle, final Object reference) {
-        this.properties = properties;
+        this.properties = ServiceProperties.copyOf(properties);
         this.bundle = bundle;
         this.reference = reference;
     }
 
     void setRegistration(final ServiceRegistrationImpl registration) {
         this.registration = registration;
+        if (isPrototype()) {
+            this.pool = PrototypePool.of(PrototypeServiceFactory.class.cast(reference), registration, properties);
+        }
+    }
+
+    public boolean isPrototype() {
+        return PrototypeServiceFactory.class.isInstance(reference);
+    }
+
+    public Object getPrototypeService(final Bundle consumer) {
+        final PrototypePool.Entry pooled = pool == null ? null : pool.acquire(consumer);
+        final Object instance;
+        final Bundle creator;
+        if (pooled != null) {
+            instance = pooled.getInstance();
+            creator = pooled.getCreator();
+        } else {
+            instance = PrototypeServiceFactory.class.cast(reference).getService(consumer, registration);
+            creator = consumer;
+        }
+        synchronized (prototypes) {
+            prototypes.put(instance, creator);
+        }
+        return instance;
+    }
+
+    public void ungetPrototypeService(final Object instance) {
+        final Bundle creator;
+        synchronized (prototypes) {
+            if (!prototypes.containsKey(instance)) {
+                throw new IllegalArgumentException(instance + " was not provided by " + this);
+            }
+            creator = prototypes.remove(instance);
+        }
+        if (pool != null) {
+            pool.release(creator, instance);
+        } else {
+            PrototypeServiceFactory.class.cast(reference).ungetService(creator, registration, instance);
+        }
+    }
+
+    // on unregistration, prototype instances still in use are the responsibility of their consumers
+    void dispose() {
+        if (pool != null) {
+            pool.destroy();
+        }
+        usages.forEach((key, usage) -> {
+            if (usages.remove(key, usage) && usage.dispose() && ServiceFactory.class.isInstance(reference)) {
+                ServiceFactory.class.cast(reference).ungetService(usage.consumer, registration, usage.instance);
+            }
+        });
+    }
+
+    ServiceProperties getProperties() {
+        return properties;
+    }
+
+    void setProperties(final ServiceProperties properties) {
+        this.properties = properties;
+    }
+
+    // BundleContext#getService() semantic: one instance per consuming bundle and use counting,
+    // the factory is called outside of the map lock and a null instance is never cached
+    public Object getService(final Bundle consumer) {
+        final Long key = consumer == null ? -1L : consumer.getBundleId();
+        while (true) {
+            Usage usage = usages.get(key);
+            if (usage == null) {
+                final boolean factory = ServiceFactory.class.isInstance(reference);
+                final Object instance = factory ?
+                        ServiceFactory.class.cast(reference).getService(consumer, registration) : reference;
+                if (instance == null) {
+                    return null;
+                }
+                final Usage created = new Usage(consumer, instance);
+                usage = usages.putIfAbsent(key, created);
+                if (usage == null) {
+                    usage = created;
+                } else if (factory) { // another thread won
+                    ServiceFactory.class.cast(reference).ungetService(consumer, registration, instance);
+                }
+            }
+            if (usage.acquire()) {
+                return usage.instance;
+            } // else concurrently released, retry
+        }
     }
 
+    public boolean ungetService(final Bundle consumer) {
+        final Long key = consumer == null ? -1L : consumer.getBundleId();
+        final Usage usage = usages.get(key);
+        if (usage == null) {
+            return false;
+        }
+        if (usage.release()) {
+            usages.remove(key, usage);
+            if (ServiceFactory.class.isInstance(reference)) {
+                ServiceFactory.class.cast(reference).ungetService(consumer, registration, usage.instance);
+            }
+        }
+        return true;
+    }
+
+    public boolean isUsedBy(final Bundle consumer) {
+        return usages.containsKey(consumer == null ? -1L : consumer.getBundleId());
+    }
+
+    // drops all the usages of the consumer at once (bundle stop), whatever the use count is
+    public void releaseUsage(final Bundle consumer) {
+        final Long key = consumer == null ? -1L : consumer.getBundleId();
+        final Usage usage = usages.remove(key);
+        if (usage != null && usage.dispose() && ServiceFactory.class.isInstance(reference)) {
+            ServiceFactory.class.cast(reference).ungetService(consumer, registration, usage.instance);
+        }
+    }
+
+    // framework usage (injection, snapshots), the instance is created for the registering bundle
     public Object getReference() {
         if (ServiceFactory.class.isInstance(reference)) {
             if (referenceInstance != null) {
@@ -62,7 +184,7 @@ public class ServiceReferenceImpl<T> implements ServiceReference<T> {
 
     @Override
     public String[] getPropertyKeys() {
-        return list(properties.keys()).toArray(new String[0]);
+        return properties.getKeys();
     }
 
     @Override
@@ -72,7 +194,11 @@ public class ServiceReferenceImpl<T> implements ServiceReference<T> {
 
     @Override
     public Bundle[] getUsingBundles() {
-        return usingBundles;
+        if (usages.isEmpty()) {
+            return null;
+        }
+        final Bundle[] bundles = usages.values().stream().map(it -> it.consumer).filter(Objects::nonNull).toArray(Bundle[]::new);
+        return bundles.length == 0 ? null : bundles;
     }
 
     @Override
@@ -105,4 +231,45 @@ public class ServiceReferenceImpl<T> implements ServiceReference<T> {
     public String toString() {
         return "ServiceReferenceImpl{reference=" + reference + ", referenceInstance=" + referenceInstance + '}';
     }
+
+    private static class Usage {
+        private final Bundle consumer;
+        private final Object instance;
+        private final AtomicInteger count = new AtomicInteger(); // -1 when released
+
+        private Usage(final Bundle consumer, final Object instance) {
+            this.consumer = consumer;
+            this.instance = instance;
+        }
+
+        private boolean acquire() {
+            while (true) {
+                final int current = count.get();
+                if (current < 0) {
+                    return false;
+                }
+                if (count.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        // true when it was the last usage
+        private boolean release() {
+            while (true) {
+                final int current = count.get();
+                if (current <= 0) {
+                    return false;
+                }
+                final int next = current == 1 ? -1 : current - 1;
+                if (count.compareAndSet(current, next)) {
+                    return next < 0;
+                }
+            }
+        }
+
+        private boolean dispose() {
+            return count.getAndSet(-1) >= 0;
+        }
+    }
 }
@@ -15,6 +15,8 @@ package org.apache.winegrower.service;
 
 import java.util.Arrays;
 import java.util.Dictionary;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 import org.osgi.framework.ServiceReference;
@@ -23,15 +25,17 @@ import org.osgi.framework.ServiceRegistration;
 public class ServiceRegistrationImpl<T> implements ServiceRegistration<T> {
     private final String[] classes;
     private final Consumer<ServiceRegistration<?>> onUnregister;
-    private final ServiceReference<T> reference;
-    private volatile Dictionary<String, ?> properties;
+    private final BiConsumer<ServiceRegistration<?>, ServiceProperties> onModified;
+    private final ServiceReferenceImpl<T> reference;
+    private final AtomicBoolean unregistered = new AtomicBoolean();
 
-    ServiceRegistrationImpl(final String[] classes, final Dictionary<String, ?> properties, final ServiceReferenceImpl<T> reference,
-                            final Consumer<ServiceRegistration<?>> onUnregister) {
+    ServiceRegistrationImpl(final String[] classes, final ServiceReferenceImpl<T> reference,
+                            final Consumer<ServiceRegistration<?>> onUnregister,
+                            final BiConsumer<ServiceRegistration<?>, ServiceProperties> onModified) {
         this.classes = classes;
-        this.properties = properties;
         this.reference = reference;
         this.onUnregister = onUnregister;
+        this.onModified = onModified;
 
         reference.setRegistration(this);
     }
@@ -47,14 +51,29 @@ public class ServiceRegistrationImpl<T> implements ServiceRegistration<T> {
 
     @Override
     public void setProperties(final Dictionary<String, ?> properties) {
-        this.properties = properties;
+        final ServiceProperties previous;
+        synchronized (this) { // concurrent updates must not lose the previous properties
+            if (unregistered.get()) {
+                throw new IllegalStateException(this + " already unregistered");
+            }
+            previous = reference.getProperties();
+            reference.setProperties(previous.update(properties));
+        }
+        onModified.accept(this, previous);
     }
 
     @Override
     public void unregister() {
+        if (!unregistered.compareAndSet(false, true)) {
+            throw new IllegalStateException(this + " already unregistered");
+        }
         onUnregister.accept(this);
     }
 
+    public boolean isUnregistered() {
+        return unregistered.get();
+    }
+
     @Override
     public String toString() {
         return "ServiceRegistrationImpl{classes=" + Arrays.toString(classes) + ", impl=" + reference + "}";
@@ -0,0 +1,173 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.service;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.unmodifiableList;
+import static java.util.stream.Collectors.toList;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.ServiceReference;
+
+// ranked and immutable view of the services matching a type (and optionally a filter),
+// the registry updates it when services come and go so reads are a single volatile access
+public class ServiceSnapshot<T> implements AutoCloseable {
+    private static final ServiceReferenceImpl<?>[] EMPTY = new ServiceReferenceImpl<?>[0];
+
+    // highest ranking first then lowest service id
+    private static final Comparator<ServiceReferenceImpl<?>> RANKING = Comparator
+            .<ServiceReferenceImpl<?>>comparingInt(ServiceSnapshot::ranking).reversed()
+            .thenComparingLong(it -> Number.class.cast(it.getProperty(Constants.SERVICE_ID)).longValue());
+
+    private final OSGiServices services;
+    private final String type;
+    private final Filter filter;
+    private volatile State state = new State(EMPTY);
+
+    ServiceSnapshot(final OSGiServices services, final String type, final Filter filter) {
+        this.services = services;
+        this.type = type;
+        this.filter = filter;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public Filter getFilter() {
+        return filter;
+    }
+
+    public T getService() {
+        final ServiceReferenceImpl<?>[] references = state.references;
+        return references.length == 0 ? null : (T) references[0].getReference();
+    }
+
+    public List<T> getServices() {
+        return state.getServices();
+    }
+
+    public ServiceReference<T> getServiceReference() {
+        final ServiceReferenceImpl<?>[] references = state.references;
+        return references.length == 0 ? null : (ServiceReference<T>) references[0];
+    }
+
+    public List<ServiceReference<T>> getServiceReferences() {
+        return state.getReferences();
+    }
+
+    public int size() {
+        return state.references.length;
+    }
+
+    public boolean isEmpty() {
+        return state.references.length == 0;
+    }
+
+    @Override
+    public void close() {
+        services.untrack(this);
+        state = new State(EMPTY);
+    }
+
+    // all mutators are called by OSGiServices under its lock
+
+    void reset(final Collection<ServiceRegistrationImpl<?>> registrations) {
+        state = new State(registrations.stream()
+                .filter(this::accepts)
+                .<ServiceReferenceImpl<?>>map(it -> ServiceReferenceImpl.class.cast(it.getReference()))
+                .sorted(RANKING)
+                .toArray(ServiceReferenceImpl<?>[]::new));
+    }
+
+    void onRegister(final ServiceRegistrationImpl<?> registration) {
+        if (!accepts(registration)) {
+            return;
+        }
+        final ServiceReferenceImpl<?> reference = ServiceReferenceImpl.class.cast(registration.getReference());
+        final ServiceReferenceImpl<?>[] current = state.references;
+        final int search = Arrays.binarySearch(current, reference, RANKING);
+        final int index = search < 0 ? -(search + 1) : search;
+        final ServiceReferenceImpl<?>[] updated = new ServiceReferenceImpl<?>[current.length + 1];
+        System.arraycopy(current, 0, updated, 0, index);
+        updated[index] = reference;
+        System.arraycopy(current, index, updated, index + 1, current.length - index);
+        state = new State(updated);
+    }
+
+    void onUnregister(final ServiceRegistrationImpl<?> registration) {
+        final ServiceReference<?> reference = registration.getReference();
+        final ServiceReferenceImpl<?>[] current = state.references;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == reference) {
+                final ServiceReferenceImpl<?>[] updated = new ServiceReferenceImpl<?>[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                state = new State(updated);
+                return;
+            }
+        }
+    }
+
+    void onModified(final ServiceRegistrationImpl<?> registration) {
+        onUnregister(registration);
+        onRegister(registration);
+    }
+
+    private boolean accepts(final ServiceRegistrationImpl<?> registration) {
+        return registration.getClasses() != null && asList(registration.getClasses()).contains(type)
+                && services.matches(filter, registration.getReference());
+    }
+
+    private static int ranking(final ServiceReferenceImpl<?> reference) {
+        final Object ranking = reference.getProperty(Constants.SERVICE_RANKING);
+        return Integer.class.isInstance(ranking) ? Integer.class.cast(ranking) : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "ServiceSnapshot{type=" + type + ", filter=" + filter + ", size=" + size() + '}';
+    }
+
+    private class State {
+        private final ServiceReferenceImpl<?>[] references;
+        private volatile List<T> services;
+        private volatile List<ServiceReference<T>> referencesView;
+
+        private State(final ServiceReferenceImpl<?>[] references) {
+            this.references = references;
+        }
+
+        private List<T> getServices() {
+            if (services == null) { // racy but idempotent
+                services = unmodifiableList(Stream.of(references).map(it -> (T) it.getReference()).collect(toList()));
+            }
+            return services;
+        }
+
+        private List<ServiceReference<T>> getReferences() {
+            if (referencesView == null) {
+                referencesView = unmodifiableList(Stream.of(references).map(it -> (ServiceReference<T>) it).collect(toList()));
+            }
+            return referencesView;
+        }
+    }
+}
@@ -13,26 +13,45 @@
  */
 package org.apache.winegrower;
 
+import static java.util.Collections.singletonList;
 import static java.util.stream.Collectors.toMap;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
+import java.lang.management.ManagementFactory;
 import java.util.Map;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.winegrower.api.BundleLookup;
+import org.apache.winegrower.api.KeyValueStore;
 import org.apache.winegrower.deployer.OSGiBundleLifecycle;
+import org.apache.winegrower.metrics.ServiceRegistryMetrics;
+import org.apache.winegrower.metrics.ServiceRegistryMetricsMXBean;
 import org.apache.winegrower.service.BundleActivatorHandler;
+import org.apache.winegrower.service.ServiceRegistrationImpl;
 import org.apache.winegrower.test.WithFramework;
 import org.apache.winegrower.test.WithFramework.Entry;
 import org.apache.winegrower.test.WithFramework.Service;
 import org.apache.winegrower.test.simpleactivator.MyActivator;
+import org.apache.winegrower.test.simpleservice.MyService;
 import org.junit.jupiter.api.Test;
+import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
 
 class ContextualFrameworkTest {
 
@@ -57,6 +76,52 @@ class ContextualFrameworkTest {
         assertFalse(workDir.exists());
     }
 
+    @Test
+    void dataDir() throws IOException {
+        final ContextualFramework.Configuration configuration = new ContextualFramework.Configuration();
+        configuration.setDataDir(new File("target/ContextualFrameworkTest/dataDir"));
+        configuration.setEnableKeyValueStore(true);
+        for (int i = 0; i < 2; i++) {
+            try (final ContextualFramework framework = new ContextualFramework.Impl(configuration).start()) {
+                final BundleContext context = framework.getRegistry().getBundle(0L).getBundle().getBundleContext();
+                final File base = context.getDataFile("");
+                assertTrue(base.isDirectory());
+                assertEquals(base, context.getDataFile("nested/file").getParentFile().getParentFile());
+
+                final ServiceReference<KeyValueStore> reference = context.getServiceReference(KeyValueStore.class);
+                final KeyValueStore store = context.getService(reference);
+                final byte[] previous = store.get("starts");
+                final int starts = previous == null ? 0 : previous[0];
+                if (i == 1) {
+                    assertTrue(starts > 0);
+                }
+                store.put("starts", new byte[]{ (byte) (starts + 1) });
+                context.ungetService(reference);
+            }
+        }
+        assertTrue(configuration.getDataDir().exists());
+    }
+
+    @Test
+    @WithFramework
+    void optionalServicesAreDisabledByDefault(@Service final ContextualFramework framework) {
+        assertTrue(framework.getServices().getServices().isEmpty());
+    }
+
+    @Test
+    void failedStartIsCleanedUp() {
+        final ContextualFramework.Configuration configuration = new ContextualFramework.Configuration();
+        configuration.setEnableMetrics(true);
+        configuration.setEnableEventAdmin(true);
+        configuration.setManifestContributors(singletonList((finder, manifest) -> {
+            throw new IllegalStateException("failing scan");
+        }));
+        final ContextualFramework framework = new ContextualFramework.Impl(configuration);
+        assertThrows(IllegalStateException.class, framework::start);
+        assertTrue(framework.getServices().getServices().isEmpty());
+        assertFalse(configuration.getWorkDir().exists());
+    }
+
     @Test
     @WithFramework
     void ensureFrameworkBundle(@Service final ContextualFramework framework) {
@@ -92,6 +157,79 @@ class ContextualFrameworkTest {
         assertEquals(1, framework.getServices().getServices().size());
     }
 
+    @Test
+    @WithFramework(frameworkServices = true, includeResources = @Entry(path = "org.apache.winegrower.test.simpleservice"))
+    void metrics(@Service final ContextualFramework framework) throws Exception {
+        final ServiceRegistryMetrics metrics = framework.getServices().getMetrics();
+        assertEquals(1, framework.getServices().findServices(MyService.class.getName()).size());
+        assertEquals(framework.getServices().getServices().size(), metrics.getRegistrations()); // nothing unregistered yet
+
+        final BundleContext context = framework.getRegistry().getBundles().get(0L).getBundle().getBundleContext();
+        final long lookups = metrics.getLookupLatencyHistogram().getCount(); // framework services do lookups too
+        assertEquals(1, context.getServiceReferences(MyService.class, "(foo=bar)").size());
+        assertEquals(0, context.getServiceReferences(MyService.class, "(foo=dummy)").size());
+        assertEquals(2, metrics.getLookupsPerClass().get(MyService.class.getName()).longValue());
+        assertTrue(metrics.getFilterEvaluations() >= 2);
+        assertEquals(lookups + 2, metrics.getLookupLatencyHistogram().getCount());
+        assertSame(metrics, context.getService(context.getServiceReference(ServiceRegistryMetricsMXBean.class)));
+        assertNull(ContextualFramework.Impl.class.cast(framework).getMetricsName()); // jmx is opt-in
+    }
+
+    @Test
+    void metricsMBean() throws Exception {
+        final ContextualFramework.Configuration configuration = new ContextualFramework.Configuration();
+        configuration.setEnableJmx(true);
+        final ObjectName name;
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try (final ContextualFramework framework = new ContextualFramework.Impl(configuration).start()) {
+            name = ContextualFramework.Impl.class.cast(framework).getMetricsName();
+            assertEquals(framework.getServices().getMetrics().getRegistrations(), server.getAttribute(name, "Registrations"));
+            assertNotNull(server.getAttribute(name, "LookupLatency"));
+        }
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    @WithFramework(frameworkServices = true, includeResources = @Entry(path = "org.apache.winegrower.test.simpleservice"))
+    void bundleLookup(@Service final ContextualFramework framework) {
+        final BundleContext context = framework.getRegistry().getBundle(0L).getBundle().getBundleContext();
+        final BundleLookup lookup = context.getService(context.getServiceReference(BundleLookup.class));
+        final Bundle bundle = lookup.getBundle(MyService.class);
+        assertNotNull(bundle);
+        assertNotEquals(0L, bundle.getBundleId());
+        assertSame(bundle, lookup.getBundle(MyService.class)); // cached
+        assertEquals(0L, lookup.getBundle(ContextualFramework.class).getBundleId());
+        assertNull(lookup.getBundle(String.class));
+    }
+
+    @Test
+    @WithFramework(includeResources = @Entry(path = "org.apache.winegrower.test.simpleservice"))
+    void bundleTeardown(@Service final ContextualFramework framework) {
+        final OSGiBundleLifecycle lifecycle = framework.getRegistry().getBundles().values().stream()
+                .filter(it -> it.getActivator() != null)
+                .findFirst()
+                .orElseThrow(IllegalStateException::new);
+        final Bundle bundle = lifecycle.getBundle();
+        final ServiceRegistration<Runnable> leftover = bundle.getBundleContext().registerService(Runnable.class, () -> {}, null);
+        assertEquals(2, bundle.getRegisteredServices().length);
+        assertEquals(0, bundle.getServicesInUse().length);
+
+        final BundleContext frameworkContext = framework.getRegistry().getBundles().get(0L).getBundle().getBundleContext();
+        final ServiceReference<MyService> reference = frameworkContext.getServiceReference(MyService.class);
+        assertNotNull(bundle.getBundleContext().getService(reference));
+        assertNotNull(bundle.getBundleContext().getService(reference));
+        assertEquals(1, bundle.getServicesInUse().length);
+        assertTrue(bundle.getBundleContext().ungetService(reference));
+        assertEquals(1, bundle.getServicesInUse().length); // still one usage
+
+        lifecycle.stop();
+        assertEquals(0, bundle.getRegisteredServices().length);
+        assertEquals(0, bundle.getServicesInUse().length);
+        assertNull(leftover.getReference().getUsingBundles());
+        assertTrue(ServiceRegistrationImpl.class.cast(leftover).isUnregistered());
+        assertTrue(framework.getServices().getServices().isEmpty());
+    }
+
     @Test
     @WithFramework(includeResources = { @Entry(path = "org.apache.winegrower.test.simpleservice", jarName = "service"),
             @Entry(path = "org.apache.winegrower.test.simpleconsumer", jarName = "consumer") })
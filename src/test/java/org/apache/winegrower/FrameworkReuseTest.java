@@ -0,0 +1,109 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.winegrower.test.WithFramework;
+import org.apache.winegrower.test.WithFramework.Entry;
+import org.apache.winegrower.test.WithFramework.Service;
+import org.apache.winegrower.test.simpleservice.MyService;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+class FrameworkReuseTest {
+    private static final AtomicReference<ContextualFramework> FRAMEWORK = new AtomicReference<>();
+    private static final AtomicInteger LISTENERS = new AtomicInteger(-1);
+
+    @Test
+    @WithFramework(reuse = true, includeResources = @Entry(path = "org.apache.winegrower.test.simpleservice"))
+    void first(@Service final ContextualFramework framework) throws InvalidSyntaxException {
+        validate(framework, getClass());
+    }
+
+    @Test
+    @WithFramework(reuse = true, includeResources = @Entry(path = "org.apache.winegrower.test.simpleservice"))
+    void second(@Service final ContextualFramework framework) throws InvalidSyntaxException {
+        validate(framework, getClass());
+    }
+
+    @Nested
+    class OtherClass {
+        @Test
+        @WithFramework(reuse = true, includeResources = @Entry(path = "org.apache.winegrower.test.simpleservice"))
+        void other(@Service final ContextualFramework framework) throws InvalidSyntaxException {
+            validate(framework, getClass());
+        }
+    }
+
+    @Nested
+    class Configurations {
+        @Test
+        @WithFramework(reuse = true, frameworkServices = true,
+                includeResources = @Entry(path = "org.apache.winegrower.test.simpleservice"))
+        void first(@Service final ContextualFramework framework) throws IOException, InvalidSyntaxException {
+            validateConfigurations(framework);
+        }
+
+        @Test
+        @WithFramework(reuse = true, frameworkServices = true,
+                includeResources = @Entry(path = "org.apache.winegrower.test.simpleservice"))
+        void second(@Service final ContextualFramework framework) throws IOException, InvalidSyntaxException {
+            validateConfigurations(framework);
+        }
+    }
+
+    // same instance everywhere but a test never sees the services and listeners registered by another one
+    private static void validate(final ContextualFramework framework, final Class<?> testClass) throws InvalidSyntaxException {
+        FRAMEWORK.compareAndSet(null, framework);
+        assertSame(FRAMEWORK.get(), framework);
+        LISTENERS.compareAndSet(-1, framework.getServices().getServiceListeners().size());
+        assertEquals(LISTENERS.get(), framework.getServices().getServiceListeners().size());
+
+        final BundleContext context = framework.getRegistry().getBundle(0L).getBundle().getBundleContext();
+        assertEquals(1, context.getServiceReferences(MyService.class, null).size());
+
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put("owner", testClass.getName());
+        context.registerService(MyService.class, message -> message, properties);
+        context.addServiceListener(event -> {});
+    }
+
+    private static void validateConfigurations(final ContextualFramework framework) throws IOException, InvalidSyntaxException {
+        final BundleContext context = framework.getRegistry().getBundle(0L).getBundle().getBundleContext();
+        final ServiceReference<ConfigurationAdmin> reference = context.getServiceReference(ConfigurationAdmin.class);
+        final ConfigurationAdmin admin = context.getService(reference);
+        try {
+            assertNull(admin.listConfigurations("(service.pid=reuse)"));
+
+            final Hashtable<String, Object> properties = new Hashtable<>();
+            properties.put("test", "true");
+            admin.getConfiguration("reuse", null).update(properties);
+            assertEquals(1, admin.listConfigurations("(service.pid=reuse)").length);
+        } finally {
+            context.ungetService(reference);
+        }
+    }
+}
@@ -15,6 +15,9 @@ package org.apache.winegrower;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import org.apache.winegrower.api.InjectedService;
 import org.apache.winegrower.service.ServiceReferenceImpl;
@@ -32,10 +35,52 @@ class InjectionTest {
         final Injected injected = framework.getServices().inject(new Injected());
         assertNotNull(injected.service);
         assertEquals(
-                ServiceReferenceImpl.class.cast(framework.getServices().getServices().iterator().next().getReference()).getReference(),
+                ServiceReferenceImpl.class.cast(framework.getServices().findServices(MyService.class.getName()).iterator().next().getReference()).getReference(),
                 injected.service);
     }
 
+    @Test
+    @WithFramework(includeResources = @Entry(path = "org.apache.winegrower.test.simpleservice"))
+    void injectParentFields(@Service final ContextualFramework framework) {
+        final Object service = ServiceReferenceImpl.class.cast(
+                framework.getServices().findServices(MyService.class.getName()).iterator().next().getReference()).getReference();
+        for (int i = 0; i < 3; i++) { // cached plan is reused
+            final ChildInjected injected = framework.getServices().inject(new ChildInjected());
+            assertEquals(service, Injected.class.cast(injected).service);
+            assertEquals(service, injected.other);
+            assertNull(injected.missing);
+        }
+    }
+
+    @Test
+    @WithFramework(includeResources = @Entry(path = "org.apache.winegrower.test.simpleservice"))
+    void injectDynamic(@Service final ContextualFramework framework) {
+        final DynamicInjected injected = framework.getServices().inject(new DynamicInjected());
+        assertEquals("ok", injected.service.echo("ok"));
+        assertEquals("ok", injected.optional.echo("ok"));
+        assertSame(injected.service, framework.getServices().inject(new DynamicInjected()).service);
+
+        framework.getServices().findServices(MyService.class.getName()).iterator().next().unregister();
+        assertThrows(IllegalStateException.class, () -> injected.service.echo("ko"));
+        assertNull(injected.optional.echo("ko"));
+    }
+
+    public static class DynamicInjected {
+        @InjectedService(dynamic = true)
+        private MyService service;
+
+        @InjectedService(dynamic = true, missing = InjectedService.Missing.DEFAULT)
+        private MyService optional;
+    }
+
+    public static class ChildInjected extends Injected {
+        @InjectedService
+        private MyService other;
+
+        @InjectedService
+        private Runnable missing;
+    }
+
     public static class Injected {
         @InjectedService
         private MyService service;
@@ -0,0 +1,282 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.cm;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.apache.winegrower.ContextualFramework;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.service.cm.Configuration;
+import org.osgi.service.cm.ConfigurationAdmin;
+import org.osgi.service.cm.ManagedService;
+import org.osgi.service.cm.ManagedServiceFactory;
+import org.osgi.service.cm.ReadOnlyConfigurationException;
+
+class ConfigurationAdminImplTest {
+    private File base;
+    private ContextualFramework framework;
+
+    @BeforeEach
+    void init(final TestInfo info) {
+        base = new File("target/ConfigurationAdminImplTest/" + info.getTestMethod().map(m -> m.getName()).orElse("default"));
+        delete(base);
+    }
+
+    @AfterEach
+    void destroy() {
+        if (framework != null) {
+            framework.stop();
+        }
+    }
+
+    @Test
+    void managedService() throws IOException {
+        start(new ContextualFramework.Configuration());
+        final List<Dictionary<String, ?>> updates = Collections.synchronizedList(new ArrayList<>());
+        register(ManagedService.class, updates::add, "test");
+        flush();
+        assertEquals(1, updates.size());
+        assertNull(updates.get(0));
+
+        final Configuration configuration = admin().getConfiguration("test");
+        configuration.update(properties("key", "value"));
+        flush();
+        assertEquals(2, updates.size());
+        assertEquals("value", updates.get(1).get("KEY")); // case insensitive
+        assertEquals("test", updates.get(1).get(Constants.SERVICE_PID));
+        assertEquals(1, configuration.getChangeCount());
+
+        assertFalse(configuration.updateIfDifferent(properties("key", "value")));
+        configuration.delete();
+        flush();
+        assertEquals(3, updates.size());
+        assertNull(updates.get(2));
+        assertThrows(IllegalStateException.class, configuration::getProperties);
+    }
+
+    @Test
+    void coalesced() throws Exception {
+        start(new ContextualFramework.Configuration());
+        final Map<String, List<Object>> updates = new ConcurrentHashMap<>();
+        final String[] pids = IntStream.range(0, 300).mapToObj(i -> "pid" + i).toArray(String[]::new);
+        register(ManagedService.class, properties -> {
+            if (properties != null) {
+                updates.computeIfAbsent(String.valueOf(properties.get(Constants.SERVICE_PID)), k -> new ArrayList<>())
+                       .add(properties.get("value"));
+            }
+        }, pids);
+        flush();
+
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        register(ManagedService.class, properties -> { // holds the delivery thread while changes are queued
+            blocked.countDown();
+            try {
+                release.await(1, MINUTES);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "blocker");
+        assertTrue(blocked.await(1, MINUTES));
+
+        final ConfigurationAdmin admin = admin();
+        for (int i = 0; i < 10; i++) {
+            for (final String pid : pids) {
+                admin.getConfiguration(pid).update(properties("value", i));
+            }
+        }
+        release.countDown();
+        flush();
+        assertEquals(300, updates.size());
+        updates.values().forEach(values -> assertEquals(Collections.singletonList(9), values));
+    }
+
+    @Test
+    void factory() throws IOException, InvalidSyntaxException {
+        start(new ContextualFramework.Configuration());
+        final Map<String, Object> instances = new ConcurrentHashMap<>();
+        register(ManagedServiceFactory.class, new ManagedServiceFactory() {
+            @Override
+            public String getName() {
+                return "test";
+            }
+
+            @Override
+            public void updated(final String pid, final Dictionary<String, ?> properties) {
+                instances.put(pid, properties.get("name"));
+            }
+
+            @Override
+            public void deleted(final String pid) {
+                instances.remove(pid);
+            }
+        }, "factory");
+
+        final ConfigurationAdmin admin = admin();
+        final Configuration first = admin.createFactoryConfiguration("factory");
+        first.update(properties("name", "first"));
+        final Configuration second = admin.getFactoryConfiguration("factory", "second");
+        second.update(properties("name", "second"));
+        flush();
+        assertEquals(2, instances.size());
+        assertEquals("first", instances.get(first.getPid()));
+        assertEquals("factory~second", second.getPid());
+        assertEquals(2, admin.listConfigurations("(" + ConfigurationAdmin.SERVICE_FACTORYPID + "=factory)").length);
+        assertNull(admin.listConfigurations("(name=missing)"));
+
+        first.delete();
+        flush();
+        assertEquals(Collections.singletonMap(second.getPid(), "second"), instances);
+    }
+
+    @Test
+    void readOnly() throws IOException {
+        start(new ContextualFramework.Configuration());
+        final Configuration configuration = admin().getConfiguration("readonly");
+        configuration.update(properties("a", "b"));
+        configuration.addAttributes(Configuration.ConfigurationAttribute.READ_ONLY);
+        assertThrows(ReadOnlyConfigurationException.class, () -> configuration.update(properties("a", "c")));
+        configuration.removeAttributes(Configuration.ConfigurationAttribute.READ_ONLY);
+        configuration.update(properties("a", "c"));
+        assertThrows(IllegalArgumentException.class, () -> configuration.update(properties("a", new Object())));
+    }
+
+    @Test
+    void persisted() throws IOException {
+        final ContextualFramework.Configuration configuration = new ContextualFramework.Configuration();
+        configuration.setDataDir(new File(base, "data"));
+        start(configuration);
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put("string", "value");
+        properties.put("int", 1);
+        properties.put("ints", new int[]{ 1, 2 });
+        properties.put("strings", new String[]{ "a", "b" });
+        properties.put("list", Arrays.asList(1L, true, 'c'));
+        admin().getConfiguration("persisted").update(properties);
+        framework.stop();
+
+        start(configuration);
+        final Dictionary<String, Object> loaded = admin().getConfiguration("persisted").getProperties();
+        assertNotNull(loaded);
+        assertEquals("value", loaded.get("string"));
+        assertEquals(1, loaded.get("int"));
+        assertArrayEquals(new int[]{ 1, 2 }, (int[]) loaded.get("ints"));
+        assertArrayEquals(new String[]{ "a", "b" }, (String[]) loaded.get("strings"));
+        assertEquals(Arrays.asList(1L, true, 'c'), loaded.get("list"));
+        assertEquals(1, admin().getConfiguration("persisted").getChangeCount());
+    }
+
+    @Test
+    void directory() throws Exception {
+        final File directory = new File(base, "etc");
+        directory.mkdirs();
+        write(new File(directory, "app.cfg"), "name = app");
+        write(new File(directory, "pool-main.cfg"), "size = 1");
+
+        final ContextualFramework.Configuration configuration = new ContextualFramework.Configuration();
+        configuration.setConfigurationDirectory(directory);
+        configuration.setConfigurationPollInterval(50);
+        start(configuration);
+        final ConfigurationAdminImpl admin = admin();
+        assertEquals("app", admin.getConfiguration("app").getProperties().get("name"));
+        assertEquals("1", admin.getFactoryConfiguration("pool", "main").getProperties().get("size"));
+
+        final File app = new File(directory, "app.cfg");
+        write(app, "name = changed");
+        app.setLastModified(app.lastModified() + 2000);
+        assertTrue(new File(directory, "pool-main.cfg").delete());
+        final long end = System.currentTimeMillis() + MINUTES.toMillis(1);
+        while (System.currentTimeMillis() < end && (!"changed".equals(admin.getConfiguration("app").getProperties().get("name"))
+                || admin.listConfigurations("(" + ConfigurationAdmin.SERVICE_FACTORYPID + "=pool)") != null)) {
+            Thread.sleep(50);
+        }
+        assertEquals("changed", admin.getConfiguration("app").getProperties().get("name"));
+        assertNull(admin.listConfigurations("(" + ConfigurationAdmin.SERVICE_FACTORYPID + "=pool)"));
+    }
+
+    private void start(final ContextualFramework.Configuration configuration) {
+        if (configuration.getWorkDir().getName().startsWith("karaf-boot_")) {
+            configuration.setWorkDir(new File(base, "work"));
+        }
+        configuration.setEnableConfigurationAdmin(true);
+        framework = new ContextualFramework.Impl(configuration).start();
+    }
+
+    private BundleContext context() {
+        return framework.getRegistry().getBundle(0L).getBundle().getBundleContext();
+    }
+
+    private ConfigurationAdminImpl admin() {
+        return ConfigurationAdminImpl.class.cast(context().getService(context().getServiceReference(ConfigurationAdmin.class)));
+    }
+
+    private void flush() {
+        admin().flush(1, MINUTES);
+    }
+
+    private <T> void register(final Class<T> type, final T service, final String... pids) {
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(Constants.SERVICE_PID, pids.length == 1 ? pids[0] : pids);
+        context().registerService(type, service, properties);
+    }
+
+    private static Hashtable<String, Object> properties(final String key, final Object value) {
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(key, value);
+        return properties;
+    }
+
+    private static void write(final File file, final String content) throws IOException {
+        try (final Writer writer = new FileWriter(file)) {
+            writer.write(content);
+        }
+    }
+
+    private static void delete(final File file) {
+        if (file.isDirectory()) {
+            Stream.of(Objects.requireNonNull(file.listFiles())).forEach(ConfigurationAdminImplTest::delete);
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.deployer;
+
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.junit.jupiter.api.Test;
+
+class ArchiveCacheTest {
+    private final File work = new File("target/archive-cache");
+
+    @Test
+    void entries() throws IOException {
+        final File jar = jar("entries.jar", "a comment", "META-INF/", "META-INF/MANIFEST.MF", "org/foo/Bar.class", "\u00e9t\u00e9.txt");
+        assertEquals(asList("META-INF/", "META-INF/MANIFEST.MF", "org/foo/Bar.class", "\u00e9t\u00e9.txt"), ArchiveCache.readEntryNames(jar));
+        try (final ArchiveCache cache = new ArchiveCache(-1)) {
+            final List<String> entries = cache.getEntries(jar);
+            assertEquals(4, entries.size());
+            assertSame(entries, cache.getEntries(jar));
+        }
+    }
+
+    @Test
+    void sharedJar() throws IOException {
+        final File jar = jar("shared.jar", null, "foo.txt");
+        try (final ArchiveCache cache = new ArchiveCache(-1)) {
+            final JarFile first;
+            try (final ArchiveCache.Lease lease = cache.open(jar)) {
+                first = lease.getJarFile();
+                try (final ArchiveCache.Lease other = cache.open(jar)) {
+                    assertSame(first, other.getJarFile());
+                }
+            }
+            try (final ArchiveCache.Lease lease = cache.open(jar)) {
+                assertSame(first, lease.getJarFile());
+            }
+        }
+    }
+
+    @Test
+    void idle() throws IOException {
+        final File jar = jar("idle.jar", null, "foo.txt");
+        try (final ArchiveCache cache = new ArchiveCache(0)) {
+            final JarFile first;
+            try (final ArchiveCache.Lease lease = cache.open(jar)) {
+                first = lease.getJarFile();
+            }
+            sleep();
+            try (final ArchiveCache.Lease lease = cache.open(jar)) {
+                assertNotSame(first, lease.getJarFile());
+            }
+        }
+    }
+
+    @Test
+    void sweeper() throws IOException, InterruptedException {
+        final File jar = jar("sweeper.jar", null, "foo.txt");
+        try (final ArchiveCache cache = new ArchiveCache(0)) {
+            final JarFile first;
+            try (final ArchiveCache.Lease lease = cache.open(jar)) {
+                first = lease.getJarFile();
+            }
+            final long end = System.currentTimeMillis() + 5000;
+            while (isOpened(first) && System.currentTimeMillis() < end) {
+                Thread.sleep(20);
+            }
+            assertFalse(isOpened(first)); // closed without any other open()
+        }
+    }
+
+    @Test
+    void modified() throws IOException {
+        final File jar = jar("modified.jar", null, "foo.txt");
+        try (final ArchiveCache cache = new ArchiveCache(-1)) {
+            assertEquals(asList("foo.txt"), cache.getEntries(jar));
+            jar("modified.jar", null, "foo.txt", "bar.txt");
+            jar.setLastModified(jar.lastModified() + 2000);
+            assertEquals(asList("foo.txt", "bar.txt"), cache.getEntries(jar));
+        }
+    }
+
+    private boolean isOpened(final JarFile jar) {
+        try {
+            jar.size();
+            return true;
+        } catch (final IllegalStateException ise) {
+            return false;
+        }
+    }
+
+    private void sleep() {
+        try {
+            Thread.sleep(5);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private File jar(final String name, final String comment, final String... entries) throws IOException {
+        final File file = new File(work, name);
+        work.mkdirs();
+        try (final JarOutputStream out = new JarOutputStream(Files.newOutputStream(file.toPath()))) {
+            if (comment != null) {
+                out.setComment(comment);
+            }
+            for (final String entry : entries) {
+                out.putNextEntry(new ZipEntry(entry));
+                if (!entry.endsWith("/")) {
+                    out.write(entry.getBytes("UTF-8"));
+                }
+                out.closeEntry();
+            }
+        }
+        return file;
+    }
+}
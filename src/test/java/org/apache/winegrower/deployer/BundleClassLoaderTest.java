@@ -0,0 +1,119 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.deployer;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+
+import org.apache.winegrower.ContextualFramework;
+import org.apache.winegrower.service.BundleRegistry;
+import org.apache.winegrower.service.OSGiServices;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.FrameworkUtil;
+
+class BundleClassLoaderTest {
+    private static final String SERVICE_PACKAGE = "org.apache.winegrower.test.simpleservice";
+    private static final String CONSUMER_PACKAGE = "org.apache.winegrower.test.simpleconsumer";
+
+    private OSGiBundleLifecycle service;
+    private OSGiBundleLifecycle consumer;
+
+    @BeforeEach
+    void init() throws IOException {
+        final OSGiServices services = new OSGiServices();
+        final ContextualFramework.Configuration configuration = new ContextualFramework.Configuration();
+        configuration.setIsolatedClassLoaders(true);
+        final BundleRegistry registry = new BundleRegistry(services, configuration);
+        service = new OSGiBundleLifecycle(manifest("service"), jar(SERVICE_PACKAGE), services, registry, configuration, 1);
+        consumer = new OSGiBundleLifecycle(manifest("consumer"), jar(CONSUMER_PACKAGE), services, registry, configuration, 2);
+        registry.register(service);
+        registry.register(consumer);
+    }
+
+    @AfterEach
+    void close() {
+        service.close();
+        consumer.close();
+    }
+
+    @Test
+    void ownClasses() throws ClassNotFoundException {
+        final Bundle bundle = service.getBundle();
+        final Class<?> impl = bundle.loadClass(SERVICE_PACKAGE + ".MyServiceImpl");
+        assertSame(bundle.adapt(org.osgi.framework.wiring.BundleWiring.class).getClassLoader(), impl.getClassLoader());
+        assertNotSame(org.apache.winegrower.test.simpleservice.MyServiceImpl.class, impl);
+        assertSame(bundle, FrameworkUtil.getBundle(impl));
+    }
+
+    @Test
+    void delegatesByPackage() throws ClassNotFoundException {
+        final Class<?> api = consumer.getBundle().loadClass(SERVICE_PACKAGE + ".MyService");
+        assertSame(service.getBundle().loadClass(SERVICE_PACKAGE + ".MyService"), api);
+        assertSame(service.getBundle(), FrameworkUtil.getBundle(api));
+
+        final Class<?> activator = consumer.getBundle().loadClass(CONSUMER_PACKAGE + ".MyActivator");
+        assertSame(consumer.getBundle(), FrameworkUtil.getBundle(activator));
+        assertTrue(BundleActivator.class.isAssignableFrom(activator)); // framework api comes from the parent
+    }
+
+    @Test
+    void restart() throws ClassNotFoundException {
+        service.start();
+        service.stop();
+        service.start();
+        assertNotNull(service.getBundle().loadClass(SERVICE_PACKAGE + ".MyServiceImpl"));
+        service.stop();
+    }
+
+    private Manifest manifest(final String name) {
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().putValue("Manifest-Version", "1.0");
+        manifest.getMainAttributes().putValue("Bundle-Version", "1.0");
+        manifest.getMainAttributes().putValue("Bundle-SymbolicName", name);
+        return manifest;
+    }
+
+    private File jar(final String pkg) throws IOException {
+        final Path classes = new File("target/test-classes").toPath();
+        final File jar = new File("target/bundle-classloader/" + pkg + ".jar");
+        jar.getParentFile().mkdirs();
+        try (final JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar.toPath()));
+             final Stream<Path> files = Files.list(classes.resolve(pkg.replace('.', '/')))) {
+            for (final Path file : (Iterable<Path>) files::iterator) {
+                if (!file.toString().endsWith(".class")) {
+                    continue;
+                }
+                out.putNextEntry(new ZipEntry(classes.relativize(file).toString().replace(File.separatorChar, '/')));
+                out.write(Files.readAllBytes(file));
+                out.closeEntry();
+            }
+        }
+        return jar;
+    }
+}
@@ -15,9 +15,14 @@
  */
 package org.apache.winegrower.deployer;
 
+import static java.util.Arrays.asList;
+import static java.util.Collections.list;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.ByteArrayInputStream;
@@ -25,7 +30,10 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.jar.Manifest;
 
 import org.apache.winegrower.ContextualFramework;
@@ -34,6 +42,7 @@ import org.apache.winegrower.service.OSGiServices;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.osgi.framework.Bundle;
+import org.osgi.framework.wiring.BundleWiring;
 
 class BundleImplTest {
     private static BundleImpl bundle;
@@ -47,7 +56,7 @@ class BundleImplTest {
         final BundleContextImpl context = new BundleContextImpl(manifest, services, () -> bundle, registry);
         final File file = new File(registry.getFramework().getParentFile(), "test-classes");
         bundle = new BundleImpl(manifest, file, context, configuration, 1);
-        registry.getBundles().put(bundle.getBundleId(), new OSGiBundleLifecycle(manifest, file, services, registry, configuration, 1));
+        registry.register(new OSGiBundleLifecycle(manifest, file, services, registry, configuration, 1));
     }
 
     @Test
@@ -61,6 +70,43 @@ class BundleImplTest {
         assertTrue(entries.hasMoreElements());
         assertEquals("org/apache/winegrower/test/simpleservice/META-INF/MANIFEST.MF", entries.nextElement());
         assertFalse(entries.hasMoreElements());
+
+        final List<String> children = list(bundle.getEntryPaths("org/apache/winegrower/test/"));
+        assertTrue(children.contains("org/apache/winegrower/test/simpleservice/"));
+        assertFalse(children.contains("org/apache/winegrower/test/simpleservice/MyService.class"));
+        assertNull(bundle.getEntryPaths("org/apache/winegrower/test/missing"));
+    }
+
+    @Test
+    void explodedEntriesAreIndexedOnce() throws IOException {
+        final File dir = new File("target/BundleImplTest/exploded");
+        final File added = new File(dir, "added.txt");
+        dir.mkdirs();
+        Files.deleteIfExists(added.toPath());
+        final Manifest manifest = new Manifest();
+        final OSGiServices services = new OSGiServices();
+        final ContextualFramework.Configuration configuration = new ContextualFramework.Configuration();
+        final BundleRegistry registry = new BundleRegistry(services, configuration);
+        final BundleImpl[] holder = new BundleImpl[1];
+        final BundleContextImpl context = new BundleContextImpl(manifest, services, () -> holder[0], registry);
+        final BundleImpl exploded = new BundleImpl(manifest, dir, context, configuration, 2);
+        holder[0] = exploded;
+
+        assertNull(exploded.getEntry("added.txt"));
+        Files.write(added.toPath(), "new".getBytes(StandardCharsets.UTF_8));
+        assertNull(exploded.getEntry("added.txt")); // no filesystem access on lookups
+        exploded.refreshEntries();
+        assertNotNull(exploded.getEntry("added.txt"));
+    }
+
+    @Test
+    void archiveWithoutDirectoryEntries() {
+        final BundleEntries entries = BundleEntries.ofArchive(asList("META-INF/MANIFEST.MF", "org/foo/Bar.class"));
+        assertTrue(entries.contains("org/"));
+        assertTrue(entries.contains("org/foo/"));
+        final List<String> children = new ArrayList<>();
+        entries.visit("org/", false, children::add);
+        assertEquals(singletonList("org/foo/"), children);
     }
 
     @Test
@@ -81,6 +127,58 @@ class BundleImplTest {
         assertFalse(entries.hasMoreElements());
     }
 
+    @Test
+    void findEntriesNotRecursiveListsDirectChildren() {
+        final List<String> names = list(bundle.findEntries("/org/apache/winegrower/test/simpleservice/", "*", false)).stream()
+                .map(URL::getFile)
+                .map(it -> it.substring(it.indexOf("simpleservice/") + "simpleservice/".length()))
+                .sorted()
+                .collect(toList());
+        assertEquals(asList("META-INF/", "MyActivator.class", "MyService.class", "MyServiceImpl.class"), names);
+    }
+
+    @Test
+    void findEntriesGlob() {
+        assertEquals(2, list(bundle.findEntries("org/apache/winegrower/test/simpleservice", "MyServ*.class", false)).size());
+        assertEquals(1, list(bundle.findEntries("org/apache/winegrower/test/simpleservice", "*Impl*", false)).size());
+        assertEquals(1, list(bundle.findEntries("org/apache/winegrower/test/simpleservice", "*.MF", true)).size());
+        assertEquals(0, list(bundle.findEntries("org/apache/winegrower/test/simpleservice", "*.MF", false)).size());
+        assertEquals(0, list(bundle.findEntries("org/apache/winegrower/test/missing", null, true)).size());
+    }
+
+    @Test
+    void listResources() {
+        final BundleWiring wiring = bundle.adapt(BundleWiring.class);
+        assertEquals(asList("org/apache/winegrower/test/simpleservice/MyActivator.class"),
+                wiring.listResources("org/apache/winegrower/test/simpleservice", "MyActivator.class", BundleWiring.LISTRESOURCES_RECURSE));
+        assertEquals(4, wiring.listResources("org/apache/winegrower/test/simpleservice", null, BundleWiring.LISTRESOURCES_RECURSE).size());
+    }
+
+    @Test
+    void getEntry() {
+        assertNotNull(bundle.getEntry("/org/apache/winegrower/test/simpleservice/MyService.class"));
+        assertNotNull(bundle.getEntry("org/apache/winegrower/test/simpleservice/META-INF"));
+        assertNull(bundle.getEntry("org/apache/winegrower/test/simpleservice/Missing.class"));
+        assertNull(bundle.getEntry("org/osgi/framework/Bundle.class")); // not in this bundle
+        assertNotNull(bundle.getResource("org/osgi/framework/Bundle.class"));
+    }
+
+    @Test
+    void resourceIndex() throws IOException {
+        final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        try (final ArchiveCache archives = new ArchiveCache(-1)) {
+            final ResourceIndex index = ResourceIndex.build(loader, archives);
+            for (final String name : asList("org/apache/winegrower/test/simpleservice/MyService.class", "org/osgi/framework/Bundle.class")) {
+                assertEquals(loader.getResource(name), index.getResource(name));
+                assertEquals(list(loader.getResources(name)), list(index.getResources(name)));
+            }
+            assertEquals(loader.getResource("java/lang/Object.class"), index.getResource("java/lang/Object.class"));
+            assertNull(index.getResource("missing/resource.txt"));
+            assertNull(index.getResource("missing/resource.txt"));
+            assertFalse(index.getResources("missing/resource.txt").hasMoreElements());
+        }
+    }
+
     @Test
     void hasLoader() {
         assertNotNull(bundle.getLoader());
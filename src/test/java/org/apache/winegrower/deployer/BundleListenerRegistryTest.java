@@ -0,0 +1,84 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.deployer;
+
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.winegrower.ContextualFramework;
+import org.apache.winegrower.service.BundleRegistry;
+import org.apache.winegrower.service.OSGiServices;
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+
+class BundleListenerRegistryTest {
+    private final Bundle bundle = new BundleRegistry(new OSGiServices(), new ContextualFramework.Configuration())
+            .getBundles().get(0L).getBundle();
+
+    @Test
+    void fire() {
+        final BundleListenerRegistry registry = new BundleListenerRegistry();
+        final List<BundleEvent> events = new ArrayList<>();
+        final BundleListener listener = events::add;
+        registry.addListener(bundle, listener);
+        registry.addListener(bundle, listener); // ignored
+        registry.fire(new BundleEvent(BundleEvent.STARTED, bundle));
+        assertEquals(1, events.size());
+
+        registry.removeListener(bundle, listener);
+        registry.fire(new BundleEvent(BundleEvent.STOPPED, bundle));
+        assertEquals(1, events.size());
+    }
+
+    @Test
+    void removeOwnerListeners() {
+        final BundleListenerRegistry registry = new BundleListenerRegistry();
+        registry.addListener(bundle, event -> {});
+        registry.addListener(bundle, event -> {});
+        assertEquals(2, registry.getListeners(bundle).size());
+        registry.removeListeners(bundle);
+        assertTrue(registry.getListeners(bundle).isEmpty());
+    }
+
+    @Test
+    void batchReplaysToLateListeners() {
+        final BundleListenerRegistry registry = new BundleListenerRegistry();
+        final List<BundleEvent> early = new ArrayList<>();
+        final List<BundleEvent> late = new ArrayList<>();
+        registry.startBatch();
+        registry.addListener(bundle, early::add);
+        registry.fire(new BundleEvent(BundleEvent.STARTED, bundle));
+        registry.addListener(bundle, late::add);
+        registry.fire(new BundleEvent(BundleEvent.RESOLVED, bundle));
+        assertTrue(early.isEmpty());
+
+        registry.endBatch();
+        assertEquals(asList(BundleEvent.STARTED, BundleEvent.RESOLVED), types(early));
+        assertEquals(asList(BundleEvent.STARTED, BundleEvent.RESOLVED), types(late));
+
+        registry.fire(new BundleEvent(BundleEvent.STOPPED, bundle)); // no more batching
+        assertEquals(3, late.size());
+    }
+
+    private List<Integer> types(final List<BundleEvent> events) {
+        return events.stream().map(BundleEvent::getType).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.deployer;
+
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+import org.apache.winegrower.ContextualFramework;
+import org.apache.winegrower.service.BundleRegistry;
+import org.apache.winegrower.service.OSGiServices;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.startlevel.BundleStartLevel;
+import org.osgi.framework.startlevel.FrameworkStartLevel;
+
+class FrameworkStartLevelImplTest {
+    private static final List<String> EVENTS = Collections.synchronizedList(new ArrayList<>());
+    private static final List<Thread> THREADS = Collections.synchronizedList(new ArrayList<>());
+    private static volatile CyclicBarrier barrier;
+
+    private final ContextualFramework.Configuration configuration = new ContextualFramework.Configuration();
+    private final OSGiServices services = new OSGiServices();
+    private BundleRegistry registry;
+
+    @BeforeEach
+    void init() {
+        EVENTS.clear();
+        THREADS.clear();
+        barrier = null;
+    }
+
+    @Test
+    void levels() throws Exception {
+        configuration.getStartLevels().put("config", 3);
+        registry = new BundleRegistry(services, configuration);
+        install("business", "2");
+        install("infra", null);
+        install("config", "1"); // configuration wins
+        final List<Integer> frameworkEvents = Collections.synchronizedList(new ArrayList<>());
+        registry.getBundle(0L).getBundle().getBundleContext().addFrameworkListener(e -> frameworkEvents.add(e.getType()));
+
+        final FrameworkStartLevelImpl startLevel = registry.getStartLevel();
+        startLevel.launch();
+        assertEquals(asList("start:infra", "start:business", "start:config"), EVENTS);
+        assertEquals(3, startLevel.getStartLevel());
+        assertEquals(asList(FrameworkEvent.STARTED), frameworkEvents);
+        assertEquals(2, registry.getBundle(1L).getBundle().adapt(BundleStartLevel.class).getStartLevel());
+        assertEquals(startLevel, registry.getBundle(0L).getBundle().adapt(FrameworkStartLevel.class));
+
+        EVENTS.clear();
+        final CountDownLatch changed = new CountDownLatch(1);
+        startLevel.setStartLevel(1, e -> {
+            frameworkEvents.add(e.getType());
+            changed.countDown();
+        });
+        assertTrue(changed.await(1, MINUTES));
+        assertEquals(asList("stop:config", "stop:business"), EVENTS);
+        assertEquals(asList(FrameworkEvent.STARTED, FrameworkEvent.STARTLEVEL_CHANGED, FrameworkEvent.STARTLEVEL_CHANGED), frameworkEvents);
+
+        EVENTS.clear();
+        registry.getBundle(1L).getBundle().adapt(BundleStartLevel.class).setStartLevel(1);
+        assertEquals(asList("start:business"), EVENTS);
+        startLevel.shutdown();
+        assertEquals(asList("start:business", "stop:infra", "stop:business"), EVENTS);
+        assertEquals(0, startLevel.getStartLevel());
+    }
+
+    @Test
+    void parallel() {
+        configuration.setStartLevelThreads(4);
+        registry = new BundleRegistry(services, configuration);
+        barrier = new CyclicBarrier(4); // only passes if the 4 activators run concurrently
+        for (int i = 0; i < 4; i++) {
+            install("bundle" + i, null);
+        }
+        install("late", "2");
+        registry.getStartLevel().launch();
+        assertEquals(5, EVENTS.size());
+        assertEquals("start:late", EVENTS.get(4)); // level barrier
+        assertEquals(4, new HashSet<>(THREADS.subList(0, 4)).size());
+        registry.getBundles().values().stream()
+                .filter(it -> it.getBundle().getBundleId() != 0)
+                .forEach(it -> assertEquals(Bundle.ACTIVE, it.getBundle().getState()));
+    }
+
+    @Test
+    void activatorChangingALevelDuringParallelStart() {
+        configuration.setStartLevelThreads(2);
+        registry = new BundleRegistry(services, configuration);
+        install("mover", null);
+        install("other", "not a level"); // initial bundle start level
+        install("late", "3");
+        assertEquals(1, registry.getBundle(2L).getBundle().adapt(BundleStartLevel.class).getStartLevel());
+        assertTimeoutPreemptively(Duration.ofMinutes(1), () -> registry.getStartLevel().launch());
+        assertTrue(EVENTS.contains("start:late"));
+        assertEquals(1, registry.getBundle(3L).getBundle().adapt(BundleStartLevel.class).getStartLevel());
+        assertEquals(Bundle.ACTIVE, registry.getBundle(3L).getBundle().getState());
+    }
+
+    @Test
+    void failingActivatorStopsItsStartedLevel() {
+        registry = new BundleRegistry(services, configuration);
+        install("first", null);
+        install("failing", null);
+        install("late", "2");
+        final FrameworkStartLevelImpl startLevel = registry.getStartLevel();
+        assertThrows(RuntimeException.class, startLevel::launch);
+        assertEquals(asList("start:first", "stop:first"), EVENTS);
+        assertNotEquals(Bundle.ACTIVE, registry.getBundle(1L).getBundle().getState());
+        assertEquals(0, startLevel.getStartLevel());
+
+        startLevel.shutdown(); // what a failed framework start does
+        assertEquals(asList("start:first", "stop:first"), EVENTS);
+    }
+
+    private void install(final String name, final String level) {
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().putValue("Manifest-Version", "1.0");
+        manifest.getMainAttributes().putValue("Bundle-SymbolicName", name);
+        manifest.getMainAttributes().putValue("Bundle-Activator", RecordingActivator.class.getName());
+        if (level != null) {
+            manifest.getMainAttributes().putValue(FrameworkStartLevelImpl.START_LEVEL_HEADER, level);
+        }
+        final OSGiBundleLifecycle lifecycle = new OSGiBundleLifecycle(manifest, new File("target/" + name), services,
+                registry, configuration, registry.getBundles().size());
+        registry.getStartLevel().install(lifecycle);
+        registry.register(lifecycle);
+    }
+
+    public static class RecordingActivator implements BundleActivator {
+        @Override
+        public void start(final BundleContext context) throws Exception {
+            THREADS.add(Thread.currentThread());
+            if (barrier != null && !"late".equals(context.getBundle().getSymbolicName())) {
+                barrier.await(1, MINUTES);
+            }
+            if ("failing".equals(context.getBundle().getSymbolicName())) {
+                throw new IllegalStateException("failing activator");
+            }
+            if ("mover".equals(context.getBundle().getSymbolicName())) {
+                Stream.of(context.getBundles())
+                      .filter(it -> "late".equals(it.getSymbolicName()))
+                      .forEach(it -> it.adapt(BundleStartLevel.class).setStartLevel(1));
+            }
+            EVENTS.add("start:" + context.getBundle().getSymbolicName());
+        }
+
+        @Override
+        public void stop(final BundleContext context) {
+            EVENTS.add("stop:" + context.getBundle().getSymbolicName());
+        }
+    }
+}
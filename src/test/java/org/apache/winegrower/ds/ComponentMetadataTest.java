@@ -0,0 +1,109 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.ds;
+
+import static java.util.Collections.singletonList;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.winegrower.test.simplecomponent.client.GreeterClient;
+import org.apache.winegrower.test.simplecomponent.service.Greeter;
+import org.apache.winegrower.test.simplecomponent.service.GreeterImpl;
+import org.junit.jupiter.api.Test;
+
+class ComponentMetadataTest {
+    @Test
+    void annotations() throws IOException {
+        final ComponentMetadata component = roundTrip(read(GreeterClient.class));
+        assertEquals(GreeterClient.class.getName(), component.getName());
+        assertTrue(component.isImmediate());
+        assertEquals(0, component.getServices().length);
+        assertEquals("activate", component.getActivate());
+        assertEquals("deactivate", component.getDeactivate());
+
+        final List<ReferenceMetadata> references = component.getReferences();
+        assertEquals(2, references.size());
+        final ReferenceMetadata greeter = references.get(0);
+        assertEquals("greeter", greeter.getName());
+        assertEquals(Greeter.class.getName(), greeter.getInterfaceName());
+        assertEquals("greeter", greeter.getField());
+        assertFalse(greeter.isOptional());
+        assertFalse(greeter.isDynamic());
+        final ReferenceMetadata greeters = references.get(1);
+        assertEquals(Greeter.class.getName(), greeters.getInterfaceName());
+        assertTrue(greeters.isOptional());
+        assertTrue(greeters.isMultiple());
+        assertTrue(greeters.isDynamic());
+    }
+
+    @Test
+    void serviceAndProperties() throws IOException {
+        final ComponentMetadata component = roundTrip(read(GreeterImpl.class));
+        assertFalse(component.isImmediate());
+        assertArrayEquals(new String[]{ Greeter.class.getName() }, component.getServices());
+        assertEquals("Hello", component.getProperties().get("greeting"));
+        assertEquals(1, component.getProperties().get("priority"));
+    }
+
+    @Test
+    void notAComponent() throws IOException {
+        assertNull(read(Greeter.class));
+    }
+
+    @Test
+    void descriptor() throws IOException {
+        final ComponentMetadata component = ComponentDescriptorParser.parse("" +
+                "<scr:component xmlns:scr=\"http://www.osgi.org/xmlns/scr/v1.3.0\" name=\"sample\" immediate=\"true\">" +
+                "  <implementation class=\"org.foo.Sample\"/>" +
+                "  <property name=\"ports\" type=\"Integer\">8080\n8443</property>" +
+                "  <property name=\"mode\" value=\"fast\"/>" +
+                "  <service><provide interface=\"org.foo.Api\"/></service>" +
+                "  <reference name=\"dep\" interface=\"org.foo.Dep\" cardinality=\"0..1\" policy=\"dynamic\"" +
+                "             bind=\"setDep\" unbind=\"unsetDep\" target=\"(type=x)\"/>" +
+                "</scr:component>").iterator().next();
+        assertEquals("sample", component.getName());
+        assertEquals("org.foo.Sample", component.getImplementation());
+        assertTrue(component.isImmediate());
+        assertArrayEquals(new Integer[]{ 8080, 8443 }, Object[].class.cast(component.getProperties().get("ports")));
+        assertEquals("fast", component.getProperties().get("mode"));
+        final ReferenceMetadata reference = component.getReferences().get(0);
+        assertEquals("setDep", reference.getBind());
+        assertEquals("unsetDep", reference.getUnbind());
+        assertEquals("(type=x)", reference.getTarget());
+        assertTrue(reference.isOptional());
+        assertTrue(reference.isDynamic());
+    }
+
+    private static ComponentMetadata read(final Class<?> type) throws IOException {
+        try (final InputStream stream = type.getClassLoader().getResourceAsStream(type.getName().replace('.', '/') + ".class")) {
+            return ComponentAnnotationReader.read(stream);
+        }
+    }
+
+    // what the runtime sees: the metadata serialized in the manifest header by the scanner
+    private static ComponentMetadata roundTrip(final ComponentMetadata component) throws IOException {
+        final List<ComponentMetadata> parsed = new ArrayList<>(ComponentDescriptorParser.parse(
+                ComponentMetadata.toXml(singletonList(component))));
+        assertEquals(1, parsed.size());
+        return parsed.get(0);
+    }
+}
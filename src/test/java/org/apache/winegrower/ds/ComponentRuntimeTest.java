@@ -0,0 +1,83 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.ds;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import org.apache.winegrower.ContextualFramework;
+import org.apache.winegrower.test.WithFramework;
+import org.apache.winegrower.test.WithFramework.Entry;
+import org.apache.winegrower.test.WithFramework.Service;
+import org.apache.winegrower.test.simplecomponent.client.GreeterClient;
+import org.apache.winegrower.test.simplecomponent.registering.RegisteringClient;
+import org.apache.winegrower.test.simplecomponent.service.Greeter;
+import org.apache.winegrower.test.simplecomponent.service.GreeterImpl;
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+
+class ComponentRuntimeTest {
+    @Test
+    @WithFramework(frameworkServices = true, includeResources = @Entry(path = "org.apache.winegrower.test.simplecomponent.service"))
+    void delayed(@Service final ContextualFramework framework) {
+        final int activations = GreeterImpl.ACTIVATIONS.get();
+        final int deactivations = GreeterImpl.DEACTIVATIONS.get();
+        final BundleContext context = framework.getRegistry().getBundle(0L).getBundle().getBundleContext();
+        final ServiceReference<Greeter> reference = context.getServiceReference(Greeter.class);
+        assertNotNull(reference);
+        assertEquals(GreeterImpl.class.getName(), reference.getProperty("component.name"));
+        assertEquals("Hello", reference.getProperty("greeting"));
+        assertEquals(1, reference.getProperty("priority"));
+        assertEquals(activations, GreeterImpl.ACTIVATIONS.get()); // registered but not created
+
+        final Greeter greeter = context.getService(reference);
+        assertEquals("Hello winegrower", greeter.greet("winegrower"));
+        assertEquals(activations + 1, GreeterImpl.ACTIVATIONS.get());
+
+        context.ungetService(reference);
+        assertEquals(deactivations + 1, GreeterImpl.DEACTIVATIONS.get());
+    }
+
+    @Test
+    @WithFramework(frameworkServices = true, includeResources = {
+            @Entry(path = "org.apache.winegrower.test.simplecomponent.service", jarName = "component-service"),
+            @Entry(path = "org.apache.winegrower.test.simplecomponent.client", jarName = "component-client")
+    })
+    void references(@Service final ContextualFramework framework) {
+        final GreeterClient client = GreeterClient.instance;
+        assertNotNull(client);
+        assertEquals("Hello references", client.greet("references"));
+        assertEquals(1, client.getGreeters().size());
+
+        final BundleContext context = framework.getRegistry().getBundle(0L).getBundle().getBundleContext();
+        final ServiceRegistration<Greeter> registration = context.registerService(Greeter.class, name -> "Hi " + name, null);
+        assertEquals(2, client.getGreeters().size()); // dynamic reference updated in place
+        assertEquals(client, GreeterClient.instance);
+
+        registration.unregister();
+        assertEquals(1, client.getGreeters().size());
+        assertEquals("Hello references", client.greet("references"));
+    }
+
+    @Test
+    @WithFramework(frameworkServices = true, includeResources = @Entry(path = "org.apache.winegrower.test.simplecomponent.registering"))
+    void activationDoesNotHoldTheComponentLock(@Service final ContextualFramework framework) {
+        final RegisteringClient client = RegisteringClient.instance;
+        assertNotNull(client);
+        assertEquals(1, client.getGreeters().size()); // the service registered during the activation is bound
+        assertEquals("Hey lock", client.getGreeters().get(0).greet("lock"));
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.event;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.apache.winegrower.ContextualFramework;
+import org.apache.winegrower.test.WithFramework;
+import org.apache.winegrower.test.WithFramework.Service;
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventAdmin;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
+
+class EventAdminImplTest {
+    @Test
+    @WithFramework(frameworkServices = true)
+    void postOrdered(@Service final ContextualFramework framework) {
+        final List<Object> received = Collections.synchronizedList(new ArrayList<>());
+        register(framework, event -> received.add(event.getProperty("index")), "test/ordered/*", null);
+
+        final EventAdminImpl admin = admin(framework);
+        IntStream.range(0, 10000).forEach(i -> admin.postEvent(new Event("test/ordered/event", singletonMap("index", i))));
+        admin.postEvent(new Event("test/other", singletonMap("index", -1)));
+        admin.flush(1, MINUTES);
+        assertEquals(IntStream.range(0, 10000).boxed().collect(toList()), received);
+    }
+
+    @Test
+    @WithFramework(frameworkServices = true)
+    void sendFiltered(@Service final ContextualFramework framework) {
+        final List<Thread> threads = new ArrayList<>();
+        final List<Object> received = new ArrayList<>();
+        register(framework, event -> {
+            threads.add(Thread.currentThread());
+            received.add(event.getProperty("name"));
+        }, "test/send", "(name=keep*)");
+
+        final EventAdminImpl admin = admin(framework);
+        admin.sendEvent(new Event("test/send", singletonMap("name", "keep-me")));
+        admin.sendEvent(new Event("test/send", singletonMap("name", "drop-me")));
+        assertEquals(singletonList("keep-me"), received);
+        assertSame(Thread.currentThread(), threads.get(0));
+    }
+
+    @Test
+    @WithFramework(frameworkServices = true)
+    void unregistered(@Service final ContextualFramework framework) {
+        final List<Event> received = new ArrayList<>();
+        final ServiceRegistration<EventHandler> registration = register(framework, received::add, "test/*", null);
+        final EventAdminImpl admin = admin(framework);
+        admin.sendEvent(new Event("test/a", emptyMap()));
+        registration.unregister();
+        admin.sendEvent(new Event("test/a", emptyMap()));
+        assertEquals(1, received.size());
+    }
+
+    @Test
+    @WithFramework(frameworkServices = true)
+    void blacklisted(@Service final ContextualFramework framework) {
+        final List<Event> received = new ArrayList<>();
+        final ServiceRegistration<EventHandler> registration = register(framework, event -> {
+            received.add(event);
+            try {
+                Thread.sleep(50);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "test/slow", null);
+        final EventAdminImpl admin = new EventAdminImpl(context(framework), 1, 10).start();
+        try {
+            admin.sendEvent(new Event("test/slow", emptyMap()));
+            admin.sendEvent(new Event("test/slow", emptyMap()));
+            assertEquals(1, received.size());
+            assertEquals(singletonList(registration.getReference()), new ArrayList<>(admin.getBlacklistedHandlers()));
+
+            final Hashtable<String, Object> properties = new Hashtable<>();
+            properties.put(EventConstants.EVENT_TOPIC, "test/slow");
+            registration.setProperties(properties); // resets the blacklisting
+            assertTrue(admin.getBlacklistedHandlers().isEmpty());
+        } finally {
+            admin.close();
+        }
+    }
+
+    private static ServiceRegistration<EventHandler> register(final ContextualFramework framework, final EventHandler handler,
+                                                              final String topic, final String filter) {
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(EventConstants.EVENT_TOPIC, topic);
+        if (filter != null) {
+            properties.put(EventConstants.EVENT_FILTER, filter);
+        }
+        return context(framework).registerService(EventHandler.class, handler, properties);
+    }
+
+    private static EventAdminImpl admin(final ContextualFramework framework) {
+        final BundleContext context = context(framework);
+        return EventAdminImpl.class.cast(context.getService(context.getServiceReference(EventAdmin.class)));
+    }
+
+    private static BundleContext context(final ContextualFramework framework) {
+        return framework.getRegistry().getBundle(0L).getBundle().getBundleContext();
+    }
+}
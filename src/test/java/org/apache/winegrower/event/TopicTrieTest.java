@@ -0,0 +1,60 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.event;
+
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class TopicTrieTest {
+    private final Subscription all = subscription("*");
+    private final Subscription orders = subscription("org/orders/*");
+    private final Subscription created = subscription("org/orders/created", "org/users/created");
+    private final Subscription other = subscription("org/other");
+    private final TopicTrie trie = TopicTrie.build(asList(all, orders, created, other));
+
+    @Test
+    void find() {
+        assertEquals(set(all, orders, created), set(trie.find("org/orders/created")));
+        assertEquals(set(all, orders), set(trie.find("org/orders/deleted")));
+        assertEquals(set(all, orders), set(trie.find("org/orders/deleted/deep")));
+        assertEquals(set(all), set(trie.find("org/orders"))); // a wildcard needs a sub topic
+        assertEquals(set(all, created), set(trie.find("org/users/created")));
+        assertEquals(set(all, other), set(trie.find("org/other")));
+        assertEquals(set(all), set(trie.find("unknown")));
+    }
+
+    @Test
+    void cached() {
+        assertSame(trie.find("org/orders/created"), trie.find("org/orders/created"));
+    }
+
+    @Test
+    void empty() {
+        assertEquals(0, TopicTrie.build(asList(orders)).find("org/other").length);
+    }
+
+    private static Set<Subscription> set(final Subscription... subscriptions) {
+        return new HashSet<>(asList(subscriptions));
+    }
+
+    private static Subscription subscription(final String... topics) {
+        return new Subscription(null, null, topics, null, Runnable::run, -1);
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.scanner;
+
+import static java.util.Collections.singletonList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.apache.winegrower.ContextualFramework;
+import org.apache.winegrower.scanner.manifest.ManifestContributor;
+import org.apache.xbean.finder.AnnotationFinder;
+import org.apache.xbean.finder.archive.JarArchive;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ScanCacheTest {
+    private final File jar = new File("target/ScanCacheTest/scan-cache-test.jar");
+    private final CountingContributor contributor = new CountingContributor();
+
+    @BeforeEach
+    void createJar() throws IOException {
+        jar.getParentFile().mkdirs();
+        try (final JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            out.putNextEntry(new JarEntry("scan-cache-test.txt"));
+            out.write("test".getBytes());
+            out.closeEntry();
+        }
+        ScanCache.get().invalidate(jar);
+    }
+
+    @AfterEach
+    void invalidate() {
+        ScanCache.get().invalidate(jar);
+    }
+
+    @Test
+    void shared() throws IOException {
+        final Manifest first = scan();
+        assertEquals(1, contributor.calls.get());
+        first.getMainAttributes().putValue("Mutated", "true");
+
+        final Manifest second = scan();
+        assertEquals(1, contributor.calls.get());
+        assertNotSame(first, second);
+        assertEquals("1", second.getMainAttributes().getValue("Scan"));
+        assertNull(second.getMainAttributes().getValue("Mutated"));
+    }
+
+    @Test
+    void modified() throws IOException {
+        scan();
+        assertTrue(jar.setLastModified(jar.lastModified() - 10_000));
+        scan();
+        assertEquals(2, contributor.calls.get());
+    }
+
+    @Test
+    void invalidated() throws IOException {
+        scan();
+        ScanCache.get().invalidate(jar);
+        scan();
+        assertEquals(2, contributor.calls.get());
+    }
+
+    @Test
+    void disabled() throws IOException {
+        scan();
+        final ContextualFramework.Configuration configuration = newConfiguration();
+        configuration.setUseScanCache(false);
+        scan(configuration);
+        assertEquals(2, contributor.calls.get());
+    }
+
+    @Test
+    void contributorInstance() throws IOException {
+        scan();
+        final CountingContributor other = new CountingContributor(); // can be configured differently
+        final ContextualFramework.Configuration configuration = newConfiguration();
+        configuration.setManifestContributors(singletonList(other));
+        scan(configuration);
+        assertEquals(1, contributor.calls.get());
+        assertEquals(1, other.calls.get());
+    }
+
+    @Test
+    void failureIsNotCached() throws IOException {
+        contributor.failing = true;
+        assertThrows(IllegalStateException.class, this::scan); // not a bundle for this scan
+        contributor.failing = false;
+        assertEquals("1", scan().getMainAttributes().getValue("Scan"));
+    }
+
+    @Test
+    void deletedJarIsEvicted() throws IOException {
+        scan();
+        final int size = ScanCache.get().size();
+        assertTrue(jar.delete());
+        ScanCache.get().evictDeleted();
+        assertEquals(size - 2, ScanCache.get().size()); // bundle check and scan entries
+    }
+
+    private Manifest scan() throws IOException {
+        return scan(newConfiguration());
+    }
+
+    private Manifest scan(final ContextualFramework.Configuration configuration) throws IOException {
+        final Thread thread = Thread.currentThread();
+        final ClassLoader previous = thread.getContextClassLoader();
+        try (final URLClassLoader loader = new URLClassLoader(new URL[]{ jar.toURI().toURL() }, previous)) {
+            thread.setContextClassLoader(loader);
+            final Collection<StandaloneScanner.BundleDefinition> bundles = new StandaloneScanner(configuration, null)
+                    .findPotentialOSGiBundles();
+            return bundles.stream()
+                    .filter(it -> it.getJar().getName().equals(jar.getName()))
+                    .findFirst()
+                    .orElseThrow(IllegalStateException::new)
+                    .getManifest();
+        } finally {
+            thread.setContextClassLoader(previous);
+        }
+    }
+
+    private ContextualFramework.Configuration newConfiguration() {
+        final ContextualFramework.Configuration configuration = new ContextualFramework.Configuration();
+        configuration.setManifestContributors(singletonList(contributor));
+        configuration.setScanningIncludes(singletonList("scan-cache-test"));
+        return configuration;
+    }
+
+    private static class CountingContributor implements ManifestContributor {
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile boolean failing;
+
+        @Override
+        public void contribute(final AnnotationFinder finder, final Supplier<Manifest> manifest) {
+            if (JarArchive.class.isInstance(finder.getArchive()) &&
+                    JarArchive.class.cast(finder.getArchive()).getUrl().getFile().contains("scan-cache-test.jar")) {
+                if (failing) {
+                    throw new NoClassDefFoundError("missing/Dependency");
+                }
+                manifest.get().getMainAttributes().putValue("Scan", Integer.toString(calls.incrementAndGet()));
+            }
+        }
+    }
+}
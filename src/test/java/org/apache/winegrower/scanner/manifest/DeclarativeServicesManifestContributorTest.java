@@ -0,0 +1,86 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.scanner.manifest;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.apache.winegrower.deployer.ArchiveCache;
+import org.apache.winegrower.ds.ComponentDescriptorParser;
+import org.apache.winegrower.ds.ComponentMetadata;
+import org.apache.xbean.finder.AnnotationFinder;
+import org.apache.xbean.finder.archive.JarArchive;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class DeclarativeServicesManifestContributorTest {
+    private final File jar = new File("target/DeclarativeServicesManifestContributorTest/ds.jar");
+
+    @BeforeEach
+    void createJar() throws IOException {
+        jar.getParentFile().mkdirs();
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("Service-Component", "OSGI-INF/listed.xml, /OSGI-INF/wild-*.xml");
+        try (final JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest)) {
+            for (final String name : new String[]{ "listed", "wild-one", "wild-two", "ignored" }) {
+                out.putNextEntry(new JarEntry("OSGI-INF/" + name + ".xml"));
+                out.write(("<scr:component xmlns:scr=\"http://www.osgi.org/xmlns/scr/v1.3.0\" name=\"" + name + "\">" +
+                        "<implementation class=\"org.foo." + name + "\"/></scr:component>").getBytes("UTF-8"));
+                out.closeEntry();
+            }
+        }
+    }
+
+    @Test
+    void sharedArchives() throws IOException {
+        try (final ArchiveCache archives = new ArchiveCache(60_000)) {
+            assertEquals(expected(), contribute(archives));
+        }
+    }
+
+    @Test
+    void standalone() throws IOException {
+        assertEquals(expected(), contribute(null));
+    }
+
+    private Set<String> expected() {
+        return new HashSet<>(asList("listed", "wild-one", "wild-two")); // ignored.xml is not in the header
+    }
+
+    private Set<String> contribute(final ArchiveCache archives) throws IOException {
+        final URL url = jar.toURI().toURL();
+        try (final URLClassLoader loader = new URLClassLoader(new URL[]{ url }, getClass().getClassLoader())) {
+            final ManifestCreator creator = new ManifestCreator(jar.getName());
+            new DeclarativeServicesManifestContributor()
+                    .contribute(new AnnotationFinder(new JarArchive(loader, url)), creator, archives);
+            final String header = creator.getManifest().getMainAttributes()
+                    .getValue(DeclarativeServicesManifestContributor.HEADER);
+            return ComponentDescriptorParser.parse(header).stream().map(ComponentMetadata::getName).collect(toSet());
+        }
+    }
+}
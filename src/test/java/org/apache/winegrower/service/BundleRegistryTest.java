@@ -0,0 +1,99 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.service;
+
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.jar.Manifest;
+
+import org.apache.winegrower.ContextualFramework;
+import org.apache.winegrower.deployer.OSGiBundleLifecycle;
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Version;
+
+class BundleRegistryTest {
+    private final OSGiServices services = new OSGiServices();
+    private final ContextualFramework.Configuration configuration = new ContextualFramework.Configuration();
+    private final BundleRegistry registry = new BundleRegistry(services, configuration);
+
+    @Test
+    void frameworkBundle() {
+        assertEquals(1, registry.getBundles().size());
+        assertEquals(0L, registry.getBundle(0L).getBundle().getBundleId());
+        assertNull(registry.getBundle(1L));
+        assertNull(registry.getBundle(-1L));
+    }
+
+    @Test
+    void registerAndLookup() {
+        final OSGiBundleLifecycle first = bundle("first", "1.0.0", 1);
+        final OSGiBundleLifecycle second = bundle("second", "2.0.0", 3);
+        registry.register(first);
+        registry.register(second);
+
+        assertSame(second, registry.getBundle(3L));
+        assertNull(registry.getBundle(2L));
+        assertEquals(3, registry.getBundleArray().length);
+        assertSame(first, registry.getBundleByLocation(first.getBundle().getLocation()));
+        assertSame(second, registry.getBundles("second", new Version("2.0.0")).iterator().next());
+        assertTrue(registry.getBundles("second", new Version("1.0.0")).isEmpty());
+        assertEquals(1, registry.getBundles("first", null).size());
+
+        final BundleContext context = registry.getBundle(0L).getBundle().getBundleContext();
+        assertSame(first.getBundle(), context.getBundle(first.getBundle().getLocation()));
+        assertNull(context.getBundle("missing"));
+        assertEquals(3, context.getBundles().length);
+
+        assertSame(first, registry.unregister(1L));
+        assertNull(registry.getBundle(1L));
+        assertNull(registry.getBundleByLocation(first.getBundle().getLocation()));
+        assertEquals(2, registry.getBundles().size());
+    }
+
+    @Test
+    void bulk() {
+        final OSGiBundleLifecycle first = bundle("first", "1.0.0", 1);
+        final OSGiBundleLifecycle second = bundle("second", "2.0.0", 2);
+        registry.registerAll(asList(first, second));
+        assertEquals(3, registry.getBundles().size());
+        assertSame(second, registry.getBundle(2L));
+
+        assertEquals(asList(first, second), registry.unregisterAll(asList(1L, 2L, 5L)));
+        assertEquals(1, registry.getBundles().size());
+        assertEquals(1, registry.getBundleArray().length);
+    }
+
+    @Test
+    void immutableView() {
+        assertThrows(UnsupportedOperationException.class, () -> registry.getBundles().clear());
+        registry.register(bundle("first", "1.0.0", 1));
+        assertThrows(UnsupportedOperationException.class, () -> registry.getBundles("first", null).clear());
+        assertThrows(UnsupportedOperationException.class, () -> registry.getBundles("first", new Version("1.0.0")).clear());
+    }
+
+    private OSGiBundleLifecycle bundle(final String name, final String version, final long id) {
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().putValue("Manifest-Version", "1.0");
+        manifest.getMainAttributes().putValue("Bundle-Version", version);
+        manifest.getMainAttributes().putValue("Bundle-SymbolicName", name);
+        return new OSGiBundleLifecycle(manifest, new File("target/" + name + ".jar"), services, registry, configuration, id);
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.service;
+
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Hashtable;
+
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.Version;
+
+class CompiledFilterTest {
+    private final ServiceProperties properties = properties();
+
+    @Test
+    void equality() throws InvalidSyntaxException {
+        assertTrue(matches("(name=winegrower)"));
+        assertTrue(matches("(NAME=winegrower)"));
+        assertFalse(matches("(name=other)"));
+        assertFalse(matches("(missing=winegrower)"));
+    }
+
+    @Test
+    void objectClass() throws InvalidSyntaxException {
+        assertTrue(matches("(objectClass=org.foo.Api)"));
+        assertTrue(matches("(objectClass=org.foo.Other)"));
+        assertFalse(matches("(objectClass=org.foo.Missing)"));
+    }
+
+    @Test
+    void coercion() throws InvalidSyntaxException {
+        assertTrue(matches("(ranking=10)"));
+        assertTrue(matches("(ranking>=5)"));
+        assertTrue(matches("(ranking<= 10 )"));
+        assertFalse(matches("(ranking>=11)"));
+        assertFalse(matches("(ranking=notanumber)"));
+        assertTrue(matches("(service.id=1)"));
+        assertTrue(matches("(enabled=true)"));
+        assertTrue(matches("(version>=1.2)"));
+        assertFalse(matches("(version>=2)"));
+        assertTrue(matches("(ports=8080)"));
+        assertTrue(matches("(tags=b)"));
+    }
+
+    @Test
+    void substring() throws InvalidSyntaxException {
+        assertTrue(matches("(name=wine*)"));
+        assertTrue(matches("(name=*grower)"));
+        assertTrue(matches("(name=*neg*)"));
+        assertTrue(matches("(name=w*e*r)"));
+        assertFalse(matches("(name=*wine)"));
+        assertFalse(matches("(name=winegrower*r)"));
+        assertTrue(matches("(name=*)"));
+        assertFalse(matches("(missing=*)"));
+    }
+
+    @Test
+    void approx() throws InvalidSyntaxException {
+        assertTrue(matches("(name~=Wine Grower)"));
+    }
+
+    @Test
+    void composite() throws InvalidSyntaxException {
+        assertTrue(matches("(&(name=winegrower)(ranking>=10))"));
+        assertFalse(matches("(&(name=winegrower)(ranking>=11))"));
+        assertTrue(matches("(|(name=other)(ranking>=10))"));
+        assertTrue(matches("(!(name=other))"));
+        assertTrue(matches(" ( & (name=winegrower) ( ! (name=other) ) ) "));
+    }
+
+    @Test
+    void escaping() throws InvalidSyntaxException {
+        final Hashtable<String, Object> raw = new Hashtable<>();
+        raw.put("expr", "a*(b)");
+        assertTrue(CompiledFilter.compile("(expr=a\\*\\(b\\))").match(raw));
+        assertFalse(CompiledFilter.compile("(expr=a\\*)").match(raw));
+    }
+
+    @Test
+    void genericDictionary() throws InvalidSyntaxException {
+        final Hashtable<String, Object> raw = new Hashtable<>();
+        raw.put("Name", "winegrower");
+        assertTrue(CompiledFilter.compile("(name=winegrower)").match(raw));
+        assertFalse(CompiledFilter.compile("(name=winegrower)").matchCase(raw));
+    }
+
+    @Test
+    void invalid() {
+        asList("", "name=foo", "(name=foo", "(=foo)", "(&)", "(name=foo))", "(name>foo)").forEach(filter ->
+                assertThrows(InvalidSyntaxException.class, () -> CompiledFilter.compile(filter), filter));
+    }
+
+    @Test
+    void cached() throws InvalidSyntaxException {
+        assertSame(CompiledFilter.compile("(name=cached)"), CompiledFilter.compile("(name=cached)"));
+    }
+
+    @Test
+    void sameResultsAsFrameworkUtil() throws InvalidSyntaxException {
+        for (final String filter : asList("(name=winegrower)", "(ranking>=5)", "(name=*grow*)", "(&(enabled=true)(!(ranking=1)))")) {
+            assertEquals(FrameworkUtil.createFilter(filter).match(properties), matches(filter), filter);
+        }
+    }
+
+    private boolean matches(final String filter) throws InvalidSyntaxException {
+        final CompiledFilter compiled = CompiledFilter.compile(filter);
+        final boolean result = compiled.match(properties);
+        assertEquals(result, compiled.match(properties), "cached slot/coercion changed the result");
+        return result;
+    }
+
+    private static ServiceProperties properties() {
+        final Hashtable<String, Object> raw = new Hashtable<>();
+        raw.put("name", "winegrower");
+        raw.put("ranking", 10);
+        raw.put("enabled", true);
+        raw.put("version", new Version("1.5.0"));
+        raw.put("ports", new int[]{ 8080, 8443 });
+        raw.put("tags", asList("a", "b"));
+        return ServiceProperties.create(raw, new String[]{ "org.foo.Api", "org.foo.Other" }, 1, 0, Constants.SCOPE_SINGLETON);
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.service;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singleton;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+
+class MappedKeyValueStoreTest {
+    private File directory;
+
+    @BeforeEach
+    void init(final TestInfo info) {
+        directory = new File("target/MappedKeyValueStoreTest/" + info.getTestMethod().map(m -> m.getName()).orElse("default"));
+        if (directory.exists()) {
+            Stream.of(Objects.requireNonNull(directory.listFiles())).forEach(File::delete);
+        }
+    }
+
+    @Test
+    void crud() {
+        try (final MappedKeyValueStore store = new MappedKeyValueStore(directory, 1024)) {
+            assertNull(store.get("a"));
+            store.put("a", bytes("1"));
+            store.put("b", bytes("2"));
+            store.put("a", bytes("3"));
+            assertEquals("3", string(store.get("a")));
+            assertEquals("2", string(store.get("b")));
+            assertTrue(store.remove("b"));
+            assertFalse(store.remove("b"));
+            assertNull(store.get("b"));
+            assertEquals(singleton("a"), new HashSet<>(store.keys()));
+            assertThrows(IllegalArgumentException.class, () -> store.put("", bytes("empty")));
+        }
+    }
+
+    @Test
+    void persistent() {
+        try (final MappedKeyValueStore store = new MappedKeyValueStore(directory, 64)) {
+            for (int i = 0; i < 20; i++) { // several segments
+                store.put("key" + i, bytes("value" + i));
+            }
+            store.remove("key3");
+        }
+        try (final MappedKeyValueStore store = new MappedKeyValueStore(directory, 64)) {
+            assertEquals(19, store.keys().size());
+            assertNull(store.get("key3"));
+            assertEquals("value19", string(store.get("key19")));
+            assertArrayEquals(new byte[0], put(store, "empty"));
+        }
+    }
+
+    @Test
+    void compaction() {
+        try (final MappedKeyValueStore store = new MappedKeyValueStore(directory, 128)) {
+            for (int i = 0; i < 200; i++) {
+                store.put("counter", bytes(Integer.toString(i)));
+            }
+            assertTrue(segments() <= 2, () -> "segments: " + segments());
+            assertEquals("199", string(store.get("counter")));
+            store.put("big", new byte[512]); // bigger than a segment
+            assertEquals(512, store.get("big").length);
+            store.compact();
+            assertEquals("199", string(store.get("counter")));
+        }
+        try (final MappedKeyValueStore store = new MappedKeyValueStore(directory, 128)) {
+            assertEquals("199", string(store.get("counter")));
+            assertEquals(512, store.get("big").length);
+        }
+    }
+
+    @Test
+    void truncatedRecord() throws IOException {
+        try (final MappedKeyValueStore store = new MappedKeyValueStore(directory, 1024)) {
+            store.put("ok", bytes("value"));
+            store.put("broken", bytes("value"));
+        }
+        try (final RandomAccessFile file = new RandomAccessFile(new File(directory, "segment-0.log"), "rw")) {
+            file.seek(12 + 2 + 5 + 12 + 1); // in the second record key
+            file.write('X');
+        }
+        try (final MappedKeyValueStore store = new MappedKeyValueStore(directory, 1024)) {
+            assertEquals("value", string(store.get("ok")));
+            assertNull(store.get("broken"));
+        }
+    }
+
+    @Test
+    void closed() {
+        final MappedKeyValueStore store = new MappedKeyValueStore(directory, 1024);
+        store.close();
+        assertThrows(IllegalStateException.class, () -> store.put("a", bytes("b")));
+    }
+
+    @Test
+    void locked() {
+        try (final MappedKeyValueStore store = new MappedKeyValueStore(directory, 1024)) {
+            store.put("a", bytes("1"));
+            assertThrows(IllegalStateException.class, () -> new MappedKeyValueStore(directory, 1024));
+        }
+        try (final MappedKeyValueStore store = new MappedKeyValueStore(directory, 1024)) {
+            assertEquals("1", string(store.get("a")));
+        }
+    }
+
+    private byte[] put(final MappedKeyValueStore store, final String key) {
+        store.put(key, new byte[0]);
+        return store.get(key);
+    }
+
+    private int segments() {
+        return Objects.requireNonNull(directory.listFiles((dir, name) -> name.startsWith("segment-"))).length;
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(UTF_8);
+    }
+
+    private static String string(final byte[] value) {
+        return new String(value, UTF_8);
+    }
+}
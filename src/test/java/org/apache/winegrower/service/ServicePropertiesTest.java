@@ -0,0 +1,105 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Hashtable;
+
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.Constants;
+
+class ServicePropertiesTest {
+    @Test
+    void standardKeys() {
+        final ServiceProperties properties = create("foo", "bar");
+        assertArrayEquals(new String[]{ "api" }, String[].class.cast(properties.get(Constants.OBJECTCLASS)));
+        assertEquals(1L, properties.get(Constants.SERVICE_ID));
+        assertEquals(2L, properties.get("SERVICE.BUNDLEID"));
+        assertEquals(Constants.SCOPE_SINGLETON, properties.get(Constants.SERVICE_SCOPE));
+        assertEquals(5, properties.size());
+    }
+
+    @Test
+    void caseInsensitive() {
+        final ServiceProperties properties = create("Foo", "bar");
+        assertEquals("bar", properties.get("foo"));
+        assertEquals("bar", properties.get("FOO"));
+        assertNull(properties.get("missing"));
+    }
+
+    @Test
+    void bigShape() {
+        final Hashtable<String, Object> raw = new Hashtable<>();
+        for (int i = 0; i < 20; i++) {
+            raw.put("Key" + i, i);
+        }
+        final ServiceProperties properties = ServiceProperties.create(raw, new String[]{ "api" }, 1, 2, Constants.SCOPE_SINGLETON);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, properties.get("key" + i));
+        }
+        assertNull(properties.get("key20"));
+    }
+
+    @Test
+    void sharedShape() {
+        final ServiceProperties first = create("foo", "1");
+        final ServiceProperties second = create("foo", "2");
+        assertEquals(first.indexOf("foo"), second.indexOf("foo"));
+        assertEquals("1", first.get("foo"));
+        assertEquals("2", second.get("foo"));
+    }
+
+    @Test
+    void frameworkPropertiesCantBeOverriden() {
+        final ServiceProperties properties = create(Constants.SERVICE_ID, 5L);
+        assertEquals(1L, properties.get(Constants.SERVICE_ID));
+        final Hashtable<String, Object> raw = new Hashtable<>();
+        raw.put("other", "value");
+        final ServiceProperties updated = properties.update(raw);
+        assertEquals(1L, updated.get(Constants.SERVICE_ID));
+        assertEquals("value", updated.get("other"));
+    }
+
+    @Test
+    void duplicatedKeys() {
+        final Hashtable<String, Object> raw = new Hashtable<>();
+        raw.put("foo", "1");
+        raw.put("FOO", "2");
+        assertThrows(IllegalArgumentException.class,
+                () -> ServiceProperties.create(raw, new String[]{ "api" }, 1, 2, Constants.SCOPE_SINGLETON));
+    }
+
+    @Test
+    void objectClassIsCopied() {
+        final String[] classes = { "api" };
+        final ServiceProperties properties = ServiceProperties.create(null, classes, 1, 2, Constants.SCOPE_SINGLETON);
+        classes[0] = "changed";
+        assertArrayEquals(new String[]{ "api" }, String[].class.cast(properties.get(Constants.OBJECTCLASS)));
+    }
+
+    @Test
+    void immutable() {
+        assertThrows(UnsupportedOperationException.class, () -> create("foo", "bar").put("foo", "dummy"));
+    }
+
+    private ServiceProperties create(final String key, final Object value) {
+        final Hashtable<String, Object> raw = new Hashtable<>();
+        raw.put(key, value);
+        return ServiceProperties.create(raw, new String[]{ "api" }, 1, 2, Constants.SCOPE_SINGLETON);
+    }
+}
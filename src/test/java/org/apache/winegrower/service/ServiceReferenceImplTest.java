@@ -13,14 +13,23 @@
  */
 package org.apache.winegrower.service;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.lang.reflect.Proxy;
 import java.util.Hashtable;
 
+import org.apache.winegrower.api.PooledPrototype;
 import org.junit.jupiter.api.Test;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.PrototypeServiceFactory;
+import org.osgi.framework.ServiceFactory;
 import org.osgi.framework.ServiceRegistration;
 
 class ServiceReferenceImplTest {
@@ -51,5 +60,191 @@ class ServiceReferenceImplTest {
         assertNotSame(reference, ref.getReference());
     }
 
+    @Test
+    void prototypeInstances() {
+        final CountingFactory factory = new CountingFactory();
+        final ServiceReferenceImpl<Object> ref = new ServiceReferenceImpl<>(new Hashtable<>(), null, factory);
+        ref.setRegistration(null);
+        final Object first = ref.getPrototypeService(null);
+        final Object second = ref.getPrototypeService(null);
+        assertNotSame(first, second);
+        ref.ungetPrototypeService(first);
+        ref.ungetPrototypeService(second);
+        assertEquals(2, factory.created);
+        assertEquals(2, factory.destroyed);
+        assertThrows(IllegalArgumentException.class, () -> ref.ungetPrototypeService(first));
+    }
+
+    @Test
+    void pooledPrototype() {
+        final CountingFactory factory = new CountingFactory();
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(PooledPrototype.MAX_SIZE, 1);
+        final ServiceReferenceImpl<Object> ref = new ServiceReferenceImpl<>(properties, null, factory);
+        ref.setRegistration(null);
+
+        final PooledService first = PooledService.class.cast(ref.getPrototypeService(null));
+        ref.ungetPrototypeService(first);
+        assertEquals(1, first.resets);
+        assertEquals(0, factory.destroyed);
+
+        final Object reused = ref.getPrototypeService(null);
+        assertSame(first, reused);
+        final Object second = ref.getPrototypeService(null);
+        assertNotSame(first, second);
+        assertEquals(2, factory.created);
+
+        ref.ungetPrototypeService(reused);
+        ref.ungetPrototypeService(second); // pool is full
+        assertEquals(1, factory.destroyed);
+
+        ref.dispose();
+        assertEquals(2, factory.destroyed);
+    }
+
+    @Test
+    void pooledPrototypeIdleEviction() {
+        final CountingFactory factory = new CountingFactory();
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(PooledPrototype.MAX_SIZE, "2");
+        properties.put(PooledPrototype.IDLE_TIMEOUT, 0L);
+        final ServiceReferenceImpl<Object> ref = new ServiceReferenceImpl<>(properties, null, factory);
+        ref.setRegistration(null);
+
+        final Object first = ref.getPrototypeService(null);
+        ref.ungetPrototypeService(first);
+        assertNotSame(first, ref.getPrototypeService(null));
+        assertEquals(1, factory.destroyed);
+    }
+
+    @Test
+    void pooledPrototypePerBundle() {
+        final CountingFactory factory = new CountingFactory();
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(PooledPrototype.MAX_SIZE, 2);
+        properties.put(PooledPrototype.IDLE_TIMEOUT, "not a number");
+        final ServiceReferenceImpl<Object> ref = new ServiceReferenceImpl<>(properties, null, factory);
+        ref.setRegistration(null);
+
+        final Object first = ref.getPrototypeService(bundle(1));
+        ref.ungetPrototypeService(first);
+        assertNotSame(first, ref.getPrototypeService(bundle(2)));
+        assertSame(first, ref.getPrototypeService(bundle(1)));
+    }
+
+    @Test
+    void pooledPrototypeAfterDispose() {
+        final CountingFactory factory = new CountingFactory();
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(PooledPrototype.MAX_SIZE, 2);
+        final ServiceReferenceImpl<Object> ref = new ServiceReferenceImpl<>(properties, null, factory);
+        ref.setRegistration(null);
+
+        final Object inUse = ref.getPrototypeService(null);
+        ref.dispose();
+        ref.ungetPrototypeService(inUse);
+        assertEquals(1, factory.destroyed);
+        assertThrows(IllegalStateException.class, () -> ref.getPrototypeService(null));
+    }
+
+    @Test
+    void bundleScope() {
+        final CountingFactory factory = new CountingFactory();
+        final ServiceReferenceImpl<Object> ref = new ServiceReferenceImpl<>(new Hashtable<>(), null, factory);
+        ref.setRegistration(null);
+        final Bundle first = bundle(1);
+        final Bundle second = bundle(2);
+        assertNull(ref.getUsingBundles());
+
+        final Object firstInstance = ref.getService(first);
+        assertSame(firstInstance, ref.getService(first));
+        final Object secondInstance = ref.getService(second);
+        assertNotSame(firstInstance, secondInstance);
+        assertEquals(2, factory.created);
+        assertEquals(2, ref.getUsingBundles().length);
+
+        assertTrue(ref.ungetService(first));
+        assertEquals(0, factory.destroyed); // still used once
+        assertTrue(ref.ungetService(first));
+        assertEquals(1, factory.destroyed);
+        assertFalse(ref.ungetService(first));
+        assertArrayEquals(new Bundle[]{ second }, ref.getUsingBundles());
+
+        ref.dispose();
+        assertEquals(2, factory.destroyed);
+        assertNull(ref.getUsingBundles());
+    }
+
+    @Test
+    void nullFactoryInstanceIsNotCached() {
+        final ServiceReferenceImpl<Object> ref = new ServiceReferenceImpl<>(new Hashtable<>(), null,
+                new ServiceFactory<Object>() {
+                    @Override
+                    public Object getService(final Bundle bundle, final ServiceRegistration<Object> registration) {
+                        return null;
+                    }
+
+                    @Override
+                    public void ungetService(final Bundle bundle, final ServiceRegistration<Object> registration, final Object service) {
+                        // no-op
+                    }
+                });
+        ref.setRegistration(null);
+        assertNull(ref.getService(bundle(1)));
+        assertFalse(ref.isUsedBy(bundle(1)));
+    }
+
+    @Test
+    void singletonUsage() {
+        final SomeService service = new SomeService();
+        final ServiceReferenceImpl<Object> ref = new ServiceReferenceImpl<>(new Hashtable<>(), null, service);
+        final Bundle bundle = bundle(1);
+        assertSame(service, ref.getService(bundle));
+        assertArrayEquals(new Bundle[]{ bundle }, ref.getUsingBundles());
+        assertTrue(ref.ungetService(bundle));
+        assertNull(ref.getUsingBundles());
+    }
+
+    private static Bundle bundle(final long id) {
+        return Bundle.class.cast(Proxy.newProxyInstance(Thread.currentThread().getContextClassLoader(),
+                new Class<?>[]{ Bundle.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getBundleId":
+                            return id;
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return (int) id;
+                        default:
+                            return null;
+                    }
+                }));
+    }
+
     static class SomeService {}
+
+    static class PooledService implements PooledPrototype {
+        private int resets;
+
+        @Override
+        public void reset() {
+            resets++;
+        }
+    }
+
+    static class CountingFactory implements PrototypeServiceFactory<Object> {
+        private int created;
+        private int destroyed;
+
+        @Override
+        public Object getService(final Bundle bundle, final ServiceRegistration<Object> registration) {
+            created++;
+            return new PooledService();
+        }
+
+        @Override
+        public void ungetService(final Bundle bundle, final ServiceRegistration<Object> registration, final Object service) {
+            destroyed++;
+        }
+    }
 }
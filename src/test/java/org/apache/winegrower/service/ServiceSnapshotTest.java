@@ -0,0 +1,123 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.service;
+
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Hashtable;
+
+import org.apache.winegrower.ContextualFramework;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceRegistration;
+
+class ServiceSnapshotTest {
+    private OSGiServices services;
+    private Bundle bundle;
+
+    @BeforeEach
+    void init() {
+        services = new OSGiServices();
+        bundle = new BundleRegistry(services, new ContextualFramework.Configuration()).getBundles().get(0L).getBundle();
+    }
+
+    @Test
+    void ranked() {
+        final Greeter low = () -> "low";
+        final Greeter high = () -> "high";
+        final Greeter other = () -> "other";
+        register(low, 0);
+        try (final ServiceSnapshot<Greeter> snapshot = services.track(Greeter.class)) {
+            assertSame(low, snapshot.getService());
+            register(high, 10);
+            register(other, 5);
+            assertEquals(asList(high, other, low), snapshot.getServices());
+        }
+    }
+
+    @Test
+    void unregister() {
+        try (final ServiceSnapshot<Greeter> snapshot = services.track(Greeter.class)) {
+            assertTrue(snapshot.isEmpty());
+            assertNull(snapshot.getService());
+
+            final Greeter greeter = () -> "hi";
+            final ServiceRegistration<?> registration = register(greeter, 0);
+            assertSame(greeter, snapshot.getService());
+            assertEquals(1, snapshot.size());
+
+            registration.unregister();
+            assertTrue(snapshot.isEmpty());
+            assertNull(snapshot.getService());
+            assertThrows(IllegalStateException.class, registration::unregister);
+            assertThrows(IllegalStateException.class, () -> registration.setProperties(new Hashtable<>()));
+        }
+    }
+
+    @Test
+    void filtered() throws InvalidSyntaxException {
+        final Greeter first = () -> "first";
+        final Greeter second = () -> "second";
+        register(first, 0);
+        register(second, 0);
+        try (final ServiceSnapshot<Greeter> snapshot = services.track(Greeter.class,
+                FrameworkUtil.createFilter("(" + Constants.SERVICE_RANKING + "=0)"))) {
+            assertEquals(asList(first, second), snapshot.getServices());
+        }
+    }
+
+    @Test
+    void modified() {
+        final Greeter first = () -> "first";
+        final Greeter second = () -> "second";
+        register(first, 1);
+        final ServiceRegistration<?> registration = register(second, 0);
+        try (final ServiceSnapshot<Greeter> snapshot = services.track(Greeter.class)) {
+            assertSame(first, snapshot.getService());
+
+            final Hashtable<String, Object> properties = new Hashtable<>();
+            properties.put(Constants.SERVICE_RANKING, 2);
+            registration.setProperties(properties);
+            assertSame(second, snapshot.getService());
+            assertEquals(2, registration.getReference().getProperty(Constants.SERVICE_RANKING));
+        }
+    }
+
+    @Test
+    void closed() {
+        final ServiceSnapshot<Greeter> snapshot = services.track(Greeter.class);
+        snapshot.close();
+        register(() -> "ignored", 0);
+        assertTrue(snapshot.isEmpty());
+    }
+
+    private ServiceRegistration<?> register(final Greeter greeter, final int ranking) {
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(Constants.SERVICE_RANKING, ranking);
+        return services.registerService(new String[]{ Greeter.class.getName() }, greeter, properties, bundle);
+    }
+
+    public interface Greeter {
+        String greet();
+    }
+}
@@ -17,9 +17,12 @@ import static java.lang.annotation.ElementType.METHOD;
 import static java.lang.annotation.ElementType.PARAMETER;
 import static java.lang.annotation.RetentionPolicy.RUNTIME;
 import static java.util.Arrays.asList;
-import static java.util.Collections.singletonList;
+import static java.util.Collections.newSetFromMap;
 import static java.util.Optional.of;
 import static java.util.Optional.ofNullable;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -36,16 +39,28 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
 import java.util.stream.Stream;
 
 import org.apache.winegrower.ContextualFramework;
+import org.apache.winegrower.cm.ConfigurationAdminImpl;
+import org.apache.winegrower.deployer.BundleContextImpl;
 import org.apache.winegrower.scanner.KnownJarsFilter;
+import org.apache.winegrower.scanner.ScanCache;
 import org.junit.jupiter.api.extension.AfterEachCallback;
 import org.junit.jupiter.api.extension.BeforeEachCallback;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -53,6 +68,12 @@ import org.junit.jupiter.api.extension.ExtensionContext;
 import org.junit.jupiter.api.extension.ParameterContext;
 import org.junit.jupiter.api.extension.ParameterResolutionException;
 import org.junit.jupiter.api.extension.ParameterResolver;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.cm.Configuration;
+import org.osgi.service.cm.ConfigurationAdmin;
 
 @Target(METHOD)
 @Retention(RUNTIME)
@@ -78,10 +99,25 @@ public @interface WithFramework {
 
     String[] includes() default {};
 
+    String[] excludes() default {};
+
     String[] dependencies() default "target/${test}/*.jar";
 
     Entry[] includeResources() default {};
 
+    /**
+     * @return true to enable the optional framework services (metrics, bundle lookup, key-value store,
+     * configuration and event admins, declarative services).
+     */
+    boolean frameworkServices() default false;
+
+    /**
+     * @return true to share the framework with the other tests using the same effective configuration,
+     * it is stopped at the end of the run. Tests using it run one at a time and each one gets it back in its
+     * initial state: the services, listeners and configurations a previous test added are removed.
+     */
+    boolean reuse() default false;
+
     class Extension implements BeforeEachCallback, AfterEachCallback, ParameterResolver {
 
         private static final String CLASSES_BASE = System.getProperty(Extension.class.getName() + ".classesBase",
@@ -96,22 +132,38 @@ public @interface WithFramework {
             final WithFramework config = getConfig(extensionContext).orElseThrow(IllegalArgumentException::new);
 
             final Thread thread = Thread.currentThread();
-            final URL[] urls = createUrls(config, extensionContext);
-            final URLClassLoader loader = new URLClassLoader(urls, thread.getContextClassLoader());
             final ExtensionContext.Store store = extensionContext.getStore(NAMESPACE);
+            if (config.reuse()) {
+                final Pool pool = extensionContext.getRoot().getStore(NAMESPACE)
+                        .getOrComputeIfAbsent(Pool.class, k -> new Pool(), Pool.class);
+                final Pooled pooled = pool.acquire(this, config, extensionContext);
+                store.put(Pooled.class, pooled);
+                store.put(Context.class, new Context(thread, thread.getContextClassLoader(), null));
+                thread.setContextClassLoader(pooled.loader);
+                pooled.framework.getServices().inject(extensionContext.getRequiredTestInstance());
+                return;
+            }
+
+            final FilesToDelete filesToDelete = store.getOrComputeIfAbsent(FilesToDelete.class, ignored -> new FilesToDelete(),
+                    FilesToDelete.class);
+            final URL[] urls = createUrls(config, extensionContext, filesToDelete.files);
+            final URLClassLoader loader = new URLClassLoader(urls, thread.getContextClassLoader());
             store.put(Context.class, new Context(thread, thread.getContextClassLoader(), loader));
             thread.setContextClassLoader(loader);
 
-            final ContextualFramework.Configuration configuration = new ContextualFramework.Configuration();
-            configuration.setScanningExcludes(singletonList("test-classes"));
-            setConfiguration(configuration, config);
-
-            final ContextualFramework framework = new ContextualFramework.Impl(configuration).start();
+            final ContextualFramework framework = startFramework(config);
             store.put(ContextualFramework.class, framework);
 
             framework.getServices().inject(extensionContext.getRequiredTestInstance());
         }
 
+        private ContextualFramework startFramework(final WithFramework config) {
+            final ContextualFramework.Configuration configuration = new ContextualFramework.Configuration();
+            configuration.setScanningExcludes(scanningExcludes(config));
+            setConfiguration(configuration, config);
+            return new ContextualFramework.Impl(configuration).start();
+        }
+
         @Override
         public void afterEach(final ExtensionContext extensionContext) {
             final ExtensionContext.Store store = extensionContext.getStore(NAMESPACE);
@@ -119,12 +171,13 @@ public @interface WithFramework {
                 return;
             }
             ofNullable(store.get(Context.class, Context.class)).ifPresent(Context::close);
-            ofNullable(store.get(FilesToDelete.class, FilesToDelete.class)).ifPresent(it -> it.files.forEach(f -> {
-                if (f.exists() && !f.delete()) {
-                    f.deleteOnExit();
-                }
-            }));
+            ofNullable(store.get(FilesToDelete.class, FilesToDelete.class)).ifPresent(FilesToDelete::delete);
             ofNullable(store.get(ContextualFramework.class, ContextualFramework.class)).ifPresent(ContextualFramework::stop);
+            ofNullable(store.get(Pooled.class, Pooled.class)).ifPresent(Pooled::release);
+        }
+
+        private List<String> scanningExcludes(final WithFramework config) {
+            return Stream.concat(Stream.of("test-classes"), Stream.of(config.excludes())).collect(toList());
         }
 
         private void setConfiguration(final ContextualFramework.Configuration configuration, final WithFramework config) {
@@ -137,13 +190,19 @@ public @interface WithFramework {
             if (!workDir.isEmpty()) {
                 configuration.setWorkDir(new File(workDir));
             }
+
+            if (config.frameworkServices()) {
+                configuration.setEnableMetrics(true);
+                configuration.setEnableBundleLookup(true);
+                configuration.setEnableKeyValueStore(true);
+                configuration.setEnableConfigurationAdmin(true);
+                configuration.setEnableEventAdmin(true);
+                configuration.setEnableDeclarativeServices(true);
+            }
         }
 
-        private URL[] createUrls(final WithFramework config, final ExtensionContext context) {
-            return Stream.concat(Stream.of(config.dependencies())
-                    .flatMap(it -> Stream.of(variabilize(it, context.getTestClass().map(Class::getName).orElse("default")),
-                            variabilize(it, "default")))
-                    .flatMap(this::listFiles).filter(File::exists).map(f -> {
+        private URL[] createUrls(final WithFramework config, final ExtensionContext context, final Collection<File> created) {
+            return Stream.concat(dependencies(config, context).map(f -> {
                         try {
                             return f.toURI().toURL();
                         } catch (final MalformedURLException e) {
@@ -152,8 +211,7 @@ public @interface WithFramework {
                     }), Stream.of(config.includeResources()).map(resources -> {
                         try {
                             final File jar = createJar(resources);
-                            context.getStore(NAMESPACE).getOrComputeIfAbsent(FilesToDelete.class, ignored -> new FilesToDelete(),
-                                    FilesToDelete.class).files.add(jar);
+                            created.add(jar);
                             return jar.toURI().toURL();
                         } catch (final MalformedURLException e) {
                             throw new IllegalArgumentException(e);
@@ -161,6 +219,28 @@ public @interface WithFramework {
                     })).toArray(URL[]::new);
         }
 
+        private Stream<File> dependencies(final WithFramework config, final ExtensionContext context) {
+            return Stream.of(config.dependencies())
+                    .flatMap(it -> Stream.of(variabilize(it, context.getTestClass().map(Class::getName).orElse("default")),
+                            variabilize(it, "default")))
+                    .flatMap(this::listFiles)
+                    .filter(File::exists);
+        }
+
+        // what makes two frameworks identical: the resolved classpath and the configuration
+        private String poolKey(final WithFramework config, final ExtensionContext context) {
+            return Stream.of(
+                    "includes=" + String.join(",", config.includes()),
+                    "excludes=" + String.join(",", scanningExcludes(config)),
+                    "workDir=" + config.workDir(),
+                    "frameworkServices=" + config.frameworkServices(),
+                    "dependencies=" + dependencies(config, context).map(File::getAbsolutePath).collect(joining(",")),
+                    "resources=" + Stream.of(config.includeResources())
+                            .map(it -> it.path() + '|' + it.prefix() + '|' + it.jarName())
+                            .collect(joining(",")))
+                    .collect(joining(";"));
+        }
+
         private Optional<WithFramework> getConfig(ExtensionContext context) {
             return context
                     .getElement().map(e -> ofNullable(e.getAnnotation(WithFramework.class))
@@ -242,7 +322,12 @@ public @interface WithFramework {
         }
 
         private <T> T findInjection(final ExtensionContext extensionContext, final Class<T> type) {
-            return extensionContext.getStore(NAMESPACE).get(type, type);
+            final ExtensionContext.Store store = extensionContext.getStore(NAMESPACE);
+            final Pooled pooled = store.get(Pooled.class, Pooled.class);
+            if (pooled != null && type == ContextualFramework.class) {
+                return type.cast(pooled.framework);
+            }
+            return store.get(type, type);
         }
 
         private static class Context implements AutoCloseable {
@@ -262,6 +347,9 @@ public @interface WithFramework {
             @Override
             public void close() {
                 thread.setContextClassLoader(previousLoader);
+                if (currentLoader == null) { // pooled
+                    return;
+                }
                 try {
                     currentLoader.close();
                 } catch (final IOException e) {
@@ -272,6 +360,214 @@ public @interface WithFramework {
 
         private static class FilesToDelete {
             private final Collection<File> files = new ArrayList<>();
+
+            private void delete() {
+                files.forEach(f -> {
+                    ScanCache.get().invalidate(f); // jar names can be reused with another content
+                    if (f.exists() && !f.delete()) {
+                        f.deleteOnExit();
+                    }
+                });
+            }
+        }
+
+        // frameworks shared by the whole run (root store), closed by JUnit once all the tests are executed
+        private static class Pool implements ExtensionContext.Store.CloseableResource {
+            private final Map<String, Pooled> frameworks = new HashMap<>();
+
+            // blocks until the framework is released by the test using it (parallel execution)
+            private Pooled acquire(final Extension extension, final WithFramework config, final ExtensionContext context) {
+                final Pooled pooled;
+                synchronized (this) {
+                    pooled = frameworks.computeIfAbsent(extension.poolKey(config, context), key -> {
+                        final Thread thread = Thread.currentThread();
+                        final ClassLoader previous = thread.getContextClassLoader();
+                        final FilesToDelete files = new FilesToDelete();
+                        final URLClassLoader loader = new URLClassLoader(
+                                extension.createUrls(config, context, files.files), previous);
+                        thread.setContextClassLoader(loader);
+                        try {
+                            return new Pooled(extension.startFramework(config), loader, files);
+                        } finally {
+                            thread.setContextClassLoader(previous);
+                        }
+                    });
+                }
+                pooled.lease.acquireUninterruptibly();
+                return pooled;
+            }
+
+            @Override
+            public synchronized void close() {
+                frameworks.values().forEach(Pooled::close);
+                frameworks.clear();
+            }
+        }
+
+        private static class Pooled {
+            private final ContextualFramework framework;
+            private final URLClassLoader loader;
+            private final FilesToDelete files;
+            private final Semaphore lease = new Semaphore(1);
+            private final Set<ServiceRegistration<?>> services = newSetFromMap(new IdentityHashMap<>());
+            private final Set<Object> listeners = newSetFromMap(new IdentityHashMap<>());
+            private final Map<String, InitialConfiguration> configurations = new HashMap<>();
+
+            private Pooled(final ContextualFramework framework, final URLClassLoader loader, final FilesToDelete files) {
+                this.framework = framework;
+                this.loader = loader;
+                this.files = files;
+                this.services.addAll(framework.getServices().getServices());
+                this.listeners.addAll(framework.getServices().getServiceListeners());
+                contexts().forEach(it -> {
+                    listeners.addAll(it.getBundleListeners());
+                    listeners.addAll(it.getFrameworkListeners());
+                });
+                withConfigurationAdmin(admin -> {
+                    for (final Configuration configuration : configurations(admin)) {
+                        configurations.put(configuration.getPid(), new InitialConfiguration(configuration));
+                    }
+                });
+            }
+
+            private void release() {
+                final Thread thread = Thread.currentThread();
+                final ClassLoader previous = thread.getContextClassLoader();
+                thread.setContextClassLoader(loader);
+                try {
+                    reset();
+                } finally {
+                    thread.setContextClassLoader(previous);
+                    lease.release();
+                }
+            }
+
+            // the next test must not see what this one added
+            private void reset() {
+                framework.getServices().getServices().stream()
+                        .filter(it -> !services.contains(it))
+                        .forEach(it -> {
+                            try {
+                                it.unregister();
+                            } catch (final IllegalStateException ise) {
+                                // already unregistered
+                            }
+                        });
+                withConfigurationAdmin(this::resetConfigurations);
+                framework.getServices().getServiceListeners().stream()
+                        .filter(it -> !listeners.contains(it))
+                        .forEach(framework.getServices()::removeListener);
+                contexts().forEach(context -> {
+                    context.getBundleListeners().stream()
+                            .filter(it -> !listeners.contains(it))
+                            .forEach(context::removeBundleListener);
+                    context.getFrameworkListeners().removeIf(it -> !listeners.contains(it));
+                });
+            }
+
+            // restored configurations become the new reference (pid and change count) for the next reset
+            private void resetConfigurations(final ConfigurationAdmin admin) {
+                final Map<String, InitialConfiguration> missing = new HashMap<>(configurations);
+                try {
+                    for (final Configuration configuration : configurations(admin)) {
+                        final InitialConfiguration initial = missing.remove(configuration.getPid());
+                        if (initial == null) {
+                            configuration.delete();
+                        } else if (initial.changeCount != configuration.getChangeCount()) {
+                            configuration.update(initial.properties);
+                            configurations.put(initial.pid, initial.restoredAs(configuration));
+                        }
+                    }
+                    for (final InitialConfiguration initial : missing.values()) {
+                        final Configuration configuration = initial.factoryPid == null ?
+                                admin.getConfiguration(initial.pid, null) :
+                                admin.createFactoryConfiguration(initial.factoryPid, null);
+                        configuration.update(initial.properties);
+                        configurations.remove(initial.pid);
+                        configurations.put(configuration.getPid(), initial.restoredAs(configuration));
+                    }
+                } catch (final IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                if (ConfigurationAdminImpl.class.isInstance(admin)) { // listeners are notified asynchronously
+                    ConfigurationAdminImpl.class.cast(admin).flush(1, MINUTES);
+                }
+            }
+
+            private Configuration[] configurations(final ConfigurationAdmin admin) {
+                try {
+                    return ofNullable(admin.listConfigurations(null)).orElseGet(() -> new Configuration[0]);
+                } catch (final IOException | InvalidSyntaxException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            private void withConfigurationAdmin(final Consumer<ConfigurationAdmin> task) {
+                final BundleContext context = framework.getRegistry().getBundle(0L).getBundle().getBundleContext();
+                final ServiceReference<ConfigurationAdmin> reference = context.getServiceReference(ConfigurationAdmin.class);
+                if (reference == null) { // disabled
+                    return;
+                }
+                try {
+                    task.accept(context.getService(reference));
+                } finally {
+                    context.ungetService(reference);
+                }
+            }
+
+            private Stream<BundleContextImpl> contexts() {
+                return framework.getRegistry().getBundles().values().stream()
+                        .map(it -> it.getBundle().getBundleContext())
+                        .filter(BundleContextImpl.class::isInstance)
+                        .map(BundleContextImpl.class::cast);
+            }
+
+            private void close() {
+                final Thread thread = Thread.currentThread();
+                final ClassLoader previous = thread.getContextClassLoader();
+                thread.setContextClassLoader(loader);
+                try {
+                    framework.stop();
+                } finally {
+                    thread.setContextClassLoader(previous);
+                    try {
+                        loader.close();
+                    } catch (final IOException e) {
+                        // no-op
+                    }
+                    files.delete();
+                }
+            }
+        }
+
+        private static class InitialConfiguration {
+            private final String pid;
+            private final String factoryPid;
+            private final long changeCount;
+            private final Dictionary<String, Object> properties;
+
+            private InitialConfiguration(final Configuration configuration) {
+                this(configuration, copy(configuration.getProperties()));
+            }
+
+            private InitialConfiguration(final Configuration configuration, final Dictionary<String, Object> properties) {
+                this.pid = configuration.getPid();
+                this.factoryPid = configuration.getFactoryPid();
+                this.changeCount = configuration.getChangeCount();
+                this.properties = properties;
+            }
+
+            private InitialConfiguration restoredAs(final Configuration configuration) {
+                return new InitialConfiguration(configuration, properties);
+            }
+
+            private static Dictionary<String, Object> copy(final Dictionary<String, Object> source) {
+                final Dictionary<String, Object> properties = new Hashtable<>();
+                for (final String key : Collections.list(source.keys())) {
+                    properties.put(key, source.get(key));
+                }
+                return properties;
+            }
         }
     }
 }
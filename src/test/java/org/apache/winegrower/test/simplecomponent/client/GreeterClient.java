@@ -0,0 +1,53 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.test.simplecomponent.client;
+
+import java.util.List;
+
+import org.apache.winegrower.test.simplecomponent.service.Greeter;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+
+@Component
+public class GreeterClient {
+    public static volatile GreeterClient instance;
+
+    @Reference
+    private Greeter greeter;
+
+    @Reference(cardinality = ReferenceCardinality.MULTIPLE, policy = ReferencePolicy.DYNAMIC)
+    private volatile List<Greeter> greeters;
+
+    @Activate
+    void activate() {
+        instance = this;
+    }
+
+    @Deactivate
+    void deactivate() {
+        instance = null;
+    }
+
+    public String greet(final String name) {
+        return greeter.greet(name);
+    }
+
+    public List<Greeter> getGreeters() {
+        return greeters;
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.test.simplecomponent.registering;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.winegrower.test.simplecomponent.service.Greeter;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+
+// registers a service it tracks from another thread while it is activated, this must not wait for the activation
+@Component
+public class RegisteringClient {
+    public static final AtomicBoolean REGISTERED = new AtomicBoolean();
+    public static volatile RegisteringClient instance;
+
+    @Reference(cardinality = ReferenceCardinality.MULTIPLE, policy = ReferencePolicy.DYNAMIC)
+    private volatile List<Greeter> greeters;
+
+    @Activate
+    void activate(final BundleContext context) throws InterruptedException {
+        if (REGISTERED.compareAndSet(false, true)) {
+            final Thread thread = new Thread(() -> context.registerService(Greeter.class, name -> "Hey " + name, null));
+            thread.start();
+            thread.join(TimeUnit.MINUTES.toMillis(1));
+            if (thread.isAlive()) {
+                throw new IllegalStateException("Registration blocked by the activation");
+            }
+        }
+        instance = this;
+    }
+
+    public List<Greeter> getGreeters() {
+        return greeters;
+    }
+}
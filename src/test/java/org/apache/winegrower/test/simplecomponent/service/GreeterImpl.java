@@ -0,0 +1,45 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.test.simplecomponent.service;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+
+@Component(service = Greeter.class, property = { "greeting=Hello", "priority:Integer=1" })
+public class GreeterImpl implements Greeter {
+    public static final AtomicInteger ACTIVATIONS = new AtomicInteger();
+    public static final AtomicInteger DEACTIVATIONS = new AtomicInteger();
+
+    private String greeting;
+
+    @Activate
+    void activate(final Map<String, Object> configuration) {
+        greeting = String.valueOf(configuration.get("greeting"));
+        ACTIVATIONS.incrementAndGet();
+    }
+
+    @Deactivate
+    void deactivate() {
+        DEACTIVATIONS.incrementAndGet();
+    }
+
+    @Override
+    public String greet(final String name) {
+        return greeting + " " + name;
+    }
+}